@@ -2,11 +2,17 @@ package cn.authok.android
 
 import android.content.Context
 import cn.authok.android.request.DefaultClient
+import cn.authok.android.request.ExecutorStats
 import cn.authok.android.request.NetworkingClient
+import cn.authok.android.request.RequestEventListener
+import cn.authok.android.request.ResultDelivery
+import cn.authok.android.request.internal.CommonThreadSwitcher
+import cn.authok.android.request.internal.DefaultThreadSwitcher
 import cn.authok.android.util.AuthokUserAgent
 import okhttp3.HttpUrl
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import java.util.*
+import java.util.concurrent.Executor
 
 /**
  * Represents your Authok account information (clientId &amp; domain),
@@ -38,10 +44,54 @@ public open class Authok @JvmOverloads constructor(
     public var authokUserAgent: AuthokUserAgent
 
     /**
-     * The networking client instance used to make HTTP requests.
+     * The networking client instance used to make HTTP requests. By default, a [DefaultClient] that shares its
+     * connections with the default client of every other Authok instance.
      */
     public var networkingClient: NetworkingClient = DefaultClient()
 
+    /**
+     * Receives the metrics of every request made by the API clients of this instance, such as the time spent
+     * waiting, connecting and parsing the response, to export latency percentiles per endpoint.
+     * Like the [networkingClient], set it before creating the API clients. By default, no metrics are collected.
+     */
+    public var requestEventListener: RequestEventListener? = null
+
+    /**
+     * The executor that runs in the background the requests started with a callback, for example an app-wide pool
+     * shared with other libraries, a bounded pool that grows with the load, or, on JVM test hosts, one that
+     * starts a virtual thread per task. When the [networkingClient] is a [DefaultClient], the requests wait for
+     * the response without taking a thread of this executor.
+     * Like the [networkingClient], set it before creating the API clients. By default, or when set to `null`,
+     * a pool of four daemon threads shared by every Authok instance.
+     */
+    public var executor: Executor? = null
+        set(value) {
+            field = value
+            threadSwitcher = if (value == null) {
+                CommonThreadSwitcher.getInstance()
+            } else {
+                CommonThreadSwitcher(DefaultThreadSwitcher(value))
+            }
+        }
+
+    /**
+     * Where the callbacks of the requests are invoked: posted to the main thread, posted to the thread that
+     * started the request, invoked immediately on the thread that completed it, or run by an executor.
+     * Each request can override it with [cn.authok.android.request.Request.withResultDelivery].
+     * Like the [networkingClient], set it before creating the API clients. By default, [ResultDelivery.MainThread].
+     */
+    public var resultDelivery: ResultDelivery = ResultDelivery.MainThread
+
+    /**
+     * Counts the tasks run by the [executor], such as how many requests had to wait in its queue.
+     * The default executor is shared, so are its stats.
+     */
+    public val executorStats: ExecutorStats
+        get() = threadSwitcher.stats
+
+    internal var threadSwitcher: CommonThreadSwitcher = CommonThreadSwitcher.getInstance()
+        private set
+
     /**
      * Creates a new Authok instance with the 'cn_authok_client_id' and 'cn_authok_domain' values
      * defined in the project String resources file.
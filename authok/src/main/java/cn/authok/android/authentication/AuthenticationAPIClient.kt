@@ -457,7 +457,9 @@ public class AuthenticationAPIClient @VisibleForTesting(otherwise = VisibleForTe
     ): SignUpRequest {
         val createUserRequest = createUser(email, password, username, connection, userMetadata)
         val authenticationRequest = login(email, password, connection)
-        return SignUpRequest(createUserRequest, authenticationRequest)
+        val request = SignUpRequest(createUserRequest, authenticationRequest)
+        request.threadSwitcher = factory.threadSwitcher
+        return request.withResultDelivery(factory.resultDelivery)
     }
 
     /**
@@ -655,7 +657,9 @@ public class AuthenticationAPIClient @VisibleForTesting(otherwise = VisibleForTe
      * @return a [ProfileRequest] that first logs in and then fetches the profile
      */
     public fun getProfileAfter(authenticationRequest: AuthenticationRequest): ProfileRequest {
-        return ProfileRequest(authenticationRequest, profileRequest())
+        val request = ProfileRequest(authenticationRequest, profileRequest())
+        request.threadSwitcher = factory.threadSwitcher
+        return request.withResultDelivery(factory.resultDelivery)
     }
 
     /**
@@ -717,6 +721,42 @@ public class AuthenticationAPIClient @VisibleForTesting(otherwise = VisibleForTe
         return factory.get(url.toString(), jwksAdapter)
     }
 
+    /**
+     * Creates a new Request that opens a connection to the Authok domain ahead of time, so that the next requests
+     * don't have to wait for the DNS lookup and the TCP and TLS handshakes. The connection is kept open by the
+     * networking client to be reused; for the [DefaultClient], see [DefaultClient.connectionStats] to know whether
+     * later requests reused it. The JSON Web Keys endpoint is used as it's cheap to call, but the keys are not parsed.
+     * The request is sent with `Cache-Control: no-cache`, so that a cached response doesn't answer it without connecting.
+     *
+     * Example usage:
+     *
+     * ```
+     * client.prewarm()
+     *     .start(object: Callback<Long, AuthenticationException> {
+     *         override fun onSuccess(result: Long) { }
+     *         override fun onFailure(error: AuthenticationException) { }
+     * })
+     * ```
+     *
+     * @return a request to start, which yields the time in milliseconds the warm-up took.
+     */
+    public fun prewarm(): Request<Long, AuthenticationException> {
+        val url = authok.getDomainUrl().toHttpUrl().newBuilder()
+            .addPathSegment(WELL_KNOWN_PATH)
+            .addPathSegment(JWKS_FILE_PATH)
+            .build()
+        val discardAdapter = object : JsonAdapter<Void?> {
+            override fun fromJson(reader: Reader): Void? {
+                // consume the body so the connection can be reused
+                reader.skip(Long.MAX_VALUE)
+                return null
+            }
+        }
+        val request = factory.get(url.toString(), discardAdapter)
+            .addHeader(HEADER_CACHE_CONTROL, "no-cache")
+        return TimedRequest(request)
+    }
+
     /**
      * Helper function to make a request to the /oauth/token endpoint.
      */
@@ -779,6 +819,7 @@ public class AuthenticationAPIClient @VisibleForTesting(otherwise = VisibleForTe
         private const val MFA_PATH = "mfa"
         private const val CHALLENGE_PATH = "challenge"
         private const val HEADER_AUTHORIZATION = "Authorization"
+        private const val HEADER_CACHE_CONTROL = "Cache-Control"
         private const val WELL_KNOWN_PATH = ".well-known"
         private const val JWKS_FILE_PATH = "jwks.json"
         private fun createErrorAdapter(): ErrorAdapter<AuthenticationException> {
@@ -814,5 +855,8 @@ public class AuthenticationAPIClient @VisibleForTesting(otherwise = VisibleForTe
     init {
         val authokUserAgent = authok.authokUserAgent
         factory.setAuthokClientInfo(authokUserAgent.value)
+        factory.eventListener = authok.requestEventListener
+        factory.threadSwitcher = authok.threadSwitcher
+        factory.resultDelivery = authok.resultDelivery
     }
 }
\ No newline at end of file
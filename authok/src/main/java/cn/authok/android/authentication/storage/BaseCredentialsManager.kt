@@ -1,13 +1,27 @@
 package cn.authok.android.authentication.storage
 
+import android.util.Log
+import androidx.annotation.IntRange
 import androidx.annotation.VisibleForTesting
 import cn.authok.android.authentication.AuthenticationAPIClient
 import cn.authok.android.callback.Callback
+import cn.authok.android.request.internal.Jwt
 import cn.authok.android.result.Credentials
 import cn.authok.android.util.Clock
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.suspendCancellableCoroutine
 import java.util.*
 import java.util.concurrent.Executor
 import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlin.math.max
 import kotlin.math.min
 
 /**
@@ -21,6 +35,101 @@ public abstract class BaseCredentialsManager internal constructor(
 ) {
     private var _clock: Clock = ClockImpl()
 
+    @get:VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    internal val renewals: RenewalCoalescer = RenewalCoalescer()
+
+    /**
+     * The number of times this manager used the Refresh Token to renew the credentials.
+     */
+    public val renewalCount: Long
+        get() = renewals.renewalCount
+
+    /**
+     * The number of credentials requests that were given the result of a renewal already in progress,
+     * instead of triggering a renewal of their own.
+     */
+    public val coalescedRenewalCount: Long
+        get() = renewals.coalescedCallerCount
+
+    private val credentialsUpdates = MutableSharedFlow<Credentials?>(
+        extraBufferCapacity = 1,
+        onBufferOverflow = BufferOverflow.DROP_OLDEST
+    )
+
+    /**
+     * Emits the credentials every time they are saved, including after they are renewed, and `null` every time
+     * they are cleared. Only the changes made after the collection starts are emitted, and a slow collector
+     * receives the latest change instead of every one of them.
+     */
+    public val credentialsFlow: Flow<Credentials?> = credentialsUpdates.asSharedFlow()
+
+    //Proactive refresh. Disabled by default
+    private val refreshLock = Any()
+    private var refreshExecutor: ScheduledExecutorService? = null
+    private var scheduledRefresh: ScheduledFuture<*>? = null
+    private var refreshLeadTimeMillis = 0L
+    private var refreshMaxJitterMillis = 0L
+    private var refreshRetryDelayMillis = MIN_REFRESH_RETRY_DELAY_MS
+
+    @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+    internal var random: Random = Random()
+
+    /**
+     * Renews the credentials in the background shortly before the access token expires, so that calls to
+     * [getCredentials] don't have to wait for the renewal. The renewal is scheduled the given lead time before the
+     * stored access token expires, moved earlier by a random amount of up to the given jitter, so that not every
+     * device renews at the same time. It's scheduled again every time the credentials are saved, and retried later
+     * if it fails. Only credentials that have a refresh token are renewed. This feature is disabled by default.
+     *
+     * The renewed access token must last longer than the lead time plus the jitter. Otherwise, the renewal fails as
+     * described in [getCredentials] when a minimum TTL is requested.
+     *
+     * @param leadTimeSeconds  how long before the access token expires to renew it, in seconds.
+     * @param maxJitterSeconds the maximum time in seconds to move the renewal earlier by. Defaults to 60 seconds.
+     */
+    @JvmOverloads
+    public fun enableProactiveRefresh(
+        @IntRange(from = 1) leadTimeSeconds: Int,
+        @IntRange(from = 0) maxJitterSeconds: Int = DEFAULT_REFRESH_JITTER_SECONDS
+    ) {
+        enableProactiveRefresh(
+            leadTimeSeconds,
+            maxJitterSeconds,
+            Executors.newSingleThreadScheduledExecutor { runnable ->
+                Thread(runnable, "AuthokCredentialsRefresh").apply { isDaemon = true }
+            })
+    }
+
+    @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
+    internal fun enableProactiveRefresh(
+        leadTimeSeconds: Int,
+        maxJitterSeconds: Int,
+        executor: ScheduledExecutorService
+    ) {
+        require(leadTimeSeconds > 0) { "The lead time must be a positive value." }
+        require(maxJitterSeconds >= 0) { "The jitter must be a positive value or 0." }
+        synchronized(refreshLock) {
+            refreshExecutor?.shutdownNow()
+            refreshExecutor = executor
+            refreshLeadTimeMillis = leadTimeSeconds * 1000L
+            refreshMaxJitterMillis = maxJitterSeconds * 1000L
+        }
+        scheduleRefresh(false)
+    }
+
+    /**
+     * Stops renewing the credentials in the background, cancelling any renewal already scheduled.
+     * Renewals already in progress are not affected.
+     */
+    public fun disableProactiveRefresh() {
+        synchronized(refreshLock) {
+            scheduledRefresh?.cancel(false)
+            scheduledRefresh = null
+            refreshExecutor?.shutdownNow()
+            refreshExecutor = null
+        }
+    }
+
     /**
      * Updates the clock instance used for expiration verification purposes.
      * The use of this method can help on situations where the clock comes from an external synced source.
@@ -43,6 +152,104 @@ public abstract class BaseCredentialsManager internal constructor(
     public abstract fun hasValidCredentials(): Boolean
     public abstract fun hasValidCredentials(minTtl: Long): Boolean
 
+    /**
+     * Retrieves the credentials from the storage and renews them if they have already expired, suspending
+     * until the result is available instead of blocking the current thread. The same rules described in
+     * [getCredentials] apply. Cancelling the coroutine stops waiting for the result, but a renewal already
+     * in progress is completed and saved.
+     *
+     * @param scope  the scope to request for the access token. If null is passed, the previous scope will be kept.
+     * @param minTtl the minimum time in seconds that the access token should last before expiration.
+     * @return the valid credentials.
+     * @throws CredentialsManagerException if the credentials couldn't be retrieved or renewed.
+     */
+    @JvmSynthetic
+    @Throws(CredentialsManagerException::class)
+    public suspend fun awaitCredentials(scope: String? = null, minTtl: Int = 0): Credentials {
+        return suspendCancellableCoroutine { continuation ->
+            getCredentials(scope, minTtl, object : Callback<Credentials, CredentialsManagerException> {
+                override fun onSuccess(result: Credentials) {
+                    continuation.resume(result)
+                }
+
+                override fun onFailure(error: CredentialsManagerException) {
+                    continuation.resumeWithException(error)
+                }
+            })
+        }
+    }
+
+    /**
+     * Returns the expiration time of the stored access token, if the credentials can be renewed
+     * in the background without the user's intervention.
+     *
+     * @return the expiration time in milliseconds, or null if there are no credentials to renew in the background.
+     */
+    internal abstract fun readRefreshableExpiresAt(): Long?
+
+    /**
+     * Must be called after the credentials are stored. Emits them to the [credentialsFlow] collectors and
+     * schedules the next background renewal, replacing any scheduled one.
+     */
+    protected fun onCredentialsSaved(credentials: Credentials) {
+        scheduleRefresh(false)
+        credentialsUpdates.tryEmit(credentials)
+    }
+
+    /**
+     * Must be called after the credentials are removed. Emits `null` to the [credentialsFlow] collectors and
+     * cancels the scheduled background renewal, if any.
+     */
+    protected fun onCredentialsCleared() {
+        synchronized(refreshLock) {
+            scheduledRefresh?.cancel(false)
+            scheduledRefresh = null
+        }
+        Jwt.clearCache()
+        credentialsUpdates.tryEmit(null)
+    }
+
+    private fun scheduleRefresh(afterAttempt: Boolean) {
+        synchronized(refreshLock) {
+            val executor = refreshExecutor ?: return
+            scheduledRefresh?.cancel(false)
+            scheduledRefresh = null
+            val expiresAt = readRefreshableExpiresAt() ?: return
+            var delay = expiresAt - refreshLeadTimeMillis - currentTimeInMillis
+            if (refreshMaxJitterMillis > 0) {
+                delay -= (random.nextDouble() * refreshMaxJitterMillis).toLong()
+            }
+            if (afterAttempt && delay <= 0) {
+                // The renewal didn't extend the expiration time. Back off until the next attempt
+                delay = refreshRetryDelayMillis
+                refreshRetryDelayMillis = min(refreshRetryDelayMillis * 2, MAX_REFRESH_RETRY_DELAY_MS)
+            } else if (delay > 0) {
+                refreshRetryDelayMillis = MIN_REFRESH_RETRY_DELAY_MS
+            }
+            scheduledRefresh = executor.schedule(
+                { refreshNow(expiresAt) },
+                max(delay, 0),
+                TimeUnit.MILLISECONDS
+            )
+        }
+    }
+
+    private fun refreshNow(expiresAt: Long) {
+        // Request a TTL long enough for the stored access token to be considered about to expire
+        val remainingSeconds = (expiresAt - currentTimeInMillis) / 1000 + 1
+        val minTtl = max(refreshLeadTimeMillis / 1000, remainingSeconds).toInt()
+        getCredentials(null, minTtl, object : Callback<Credentials, CredentialsManagerException> {
+            override fun onSuccess(result: Credentials) {
+                scheduleRefresh(true)
+            }
+
+            override fun onFailure(error: CredentialsManagerException) {
+                Log.w(TAG, "The credentials could not be renewed in the background.", error)
+                scheduleRefresh(true)
+            }
+        })
+    }
+
     @get:VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
     internal val currentTimeInMillis: Long
         get() = _clock.getCurrentTimeMillis()
@@ -110,4 +317,10 @@ public abstract class BaseCredentialsManager internal constructor(
         return expiresAt
     }
 
-}
\ No newline at end of file
+    private companion object {
+        private val TAG = BaseCredentialsManager::class.java.simpleName
+        private const val DEFAULT_REFRESH_JITTER_SECONDS = 60
+        private const val MIN_REFRESH_RETRY_DELAY_MS = 30 * 1000L
+        private const val MAX_REFRESH_RETRY_DELAY_MS = 15 * 60 * 1000L
+    }
+}
@@ -0,0 +1,14 @@
+package cn.authok.android.authentication.storage
+
+/**
+ * Represents a [Storage] that can write several changes together in a single operation.
+ */
+public interface BatchStorage : Storage {
+    /**
+     * Makes all the changes of the given block to the Storage at once. Either all of them are written or none is,
+     * and readers never see only part of them. Values read inside the block don't include the changes made in it.
+     *
+     * @param block the changes to make, using the Storage received as the receiver.
+     */
+    public fun batch(block: Storage.() -> Unit)
+}
@@ -32,6 +32,16 @@ public class CredentialsManager @VisibleForTesting(otherwise = VisibleForTesting
         Executors.newSingleThreadExecutor()
     )
 
+    /**
+     * Reads the stored credentials in the background, so that the Storage is already loaded in memory when
+     * [hasValidCredentials] or [getCredentials] are first called. It's safe to call from `Application.onCreate`.
+     */
+    public fun warmUp() {
+        serialExecutor.execute {
+            hasValidCredentials()
+        }
+    }
+
     /**
      * Stores the given credentials in the storage. Must have an access_token or id_token and a expires_in value.
      *
@@ -42,13 +52,16 @@ public class CredentialsManager @VisibleForTesting(otherwise = VisibleForTesting
             throw CredentialsManagerException("Credentials must have a valid date of expiration and a valid access_token or id_token value.")
         }
         val cacheExpiresAt = calculateCacheExpiresAt(credentials)
-        storage.store(KEY_ACCESS_TOKEN, credentials.accessToken)
-        storage.store(KEY_REFRESH_TOKEN, credentials.refreshToken)
-        storage.store(KEY_ID_TOKEN, credentials.idToken)
-        storage.store(KEY_TOKEN_TYPE, credentials.type)
-        storage.store(KEY_EXPIRES_AT, credentials.expiresAt.time)
-        storage.store(KEY_SCOPE, credentials.scope)
-        storage.store(KEY_CACHE_EXPIRES_AT, cacheExpiresAt)
+        storage.batch {
+            store(KEY_ACCESS_TOKEN, credentials.accessToken)
+            store(KEY_REFRESH_TOKEN, credentials.refreshToken)
+            store(KEY_ID_TOKEN, credentials.idToken)
+            store(KEY_TOKEN_TYPE, credentials.type)
+            store(KEY_EXPIRES_AT, credentials.expiresAt.time)
+            store(KEY_SCOPE, credentials.scope)
+            store(KEY_CACHE_EXPIRES_AT, cacheExpiresAt)
+        }
+        onCredentialsSaved(credentials)
     }
 
     /**
@@ -95,6 +108,11 @@ public class CredentialsManager @VisibleForTesting(otherwise = VisibleForTesting
         parameters: Map<String, String>,
         callback: Callback<Credentials, CredentialsManagerException>
     ) {
+        val renewalKey = RenewalCoalescer.Key(scope, minTtl, parameters)
+        if (renewals.join(renewalKey, callback)) {
+            // a renewal for the same request is already in progress
+            return
+        }
         serialExecutor.execute {
             val accessToken = storage.retrieveString(KEY_ACCESS_TOKEN)
             val refreshToken = storage.retrieveString(KEY_REFRESH_TOKEN)
@@ -132,13 +150,13 @@ public class CredentialsManager @VisibleForTesting(otherwise = VisibleForTesting
                 callback.onFailure(CredentialsManagerException("Credentials need to be renewed but no Refresh Token is available to renew them."))
                 return@execute
             }
-            val request = authenticationClient.renewAuth(refreshToken)
-            request.addParameters(parameters)
-            if (scope != null) {
-                request.addParameter("scope", scope)
-            }
-
+            val renewalCallback = renewals.begin(renewalKey, callback)
             try {
+                val request = authenticationClient.renewAuth(refreshToken)
+                request.addParameters(parameters)
+                if (scope != null) {
+                    request.addParameter("scope", scope)
+                }
                 val fresh = request.execute()
                 val expiresAt = fresh.expiresAt.time
                 val willAccessTokenExpire = willExpire(expiresAt, minTtl.toLong())
@@ -152,7 +170,7 @@ public class CredentialsManager @VisibleForTesting(otherwise = VisibleForTesting
                             minTtl
                         )
                     )
-                    callback.onFailure(wrongTtlException)
+                    renewalCallback.onFailure(wrongTtlException)
                     return@execute
                 }
 
@@ -167,10 +185,23 @@ public class CredentialsManager @VisibleForTesting(otherwise = VisibleForTesting
                     fresh.expiresAt,
                     fresh.scope
                 )
-                saveCredentials(credentials)
-                callback.onSuccess(credentials)
+                try {
+                    saveCredentials(credentials)
+                } catch (error: CredentialsManagerException) {
+                    renewalCallback.onFailure(error)
+                    return@execute
+                }
+                renewalCallback.onSuccess(credentials)
             } catch (error: AuthenticationException) {
-                callback.onFailure(
+                renewalCallback.onFailure(
+                    CredentialsManagerException(
+                        "An error occurred while trying to use the Refresh Token to renew the Credentials.",
+                        error
+                    )
+                )
+            } catch (error: Exception) {
+                // unexpected errors, such as a malformed response, must still release the waiting callers
+                renewalCallback.onFailure(
                     CredentialsManagerException(
                         "An error occurred while trying to use the Refresh Token to renew the Credentials.",
                         error
@@ -216,13 +247,23 @@ public class CredentialsManager @VisibleForTesting(otherwise = VisibleForTesting
      * Removes the credentials from the storage if present.
      */
     override fun clearCredentials() {
-        storage.remove(KEY_ACCESS_TOKEN)
-        storage.remove(KEY_REFRESH_TOKEN)
-        storage.remove(KEY_ID_TOKEN)
-        storage.remove(KEY_TOKEN_TYPE)
-        storage.remove(KEY_EXPIRES_AT)
-        storage.remove(KEY_SCOPE)
-        storage.remove(KEY_CACHE_EXPIRES_AT)
+        storage.batch {
+            remove(KEY_ACCESS_TOKEN)
+            remove(KEY_REFRESH_TOKEN)
+            remove(KEY_ID_TOKEN)
+            remove(KEY_TOKEN_TYPE)
+            remove(KEY_EXPIRES_AT)
+            remove(KEY_SCOPE)
+            remove(KEY_CACHE_EXPIRES_AT)
+        }
+        onCredentialsCleared()
+    }
+
+    override fun readRefreshableExpiresAt(): Long? {
+        if (TextUtils.isEmpty(storage.retrieveString(KEY_REFRESH_TOKEN))) {
+            return null
+        }
+        return storage.retrieveLong(KEY_EXPIRES_AT)
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
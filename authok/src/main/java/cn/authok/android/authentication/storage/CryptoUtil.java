@@ -12,6 +12,7 @@ import android.util.Base64;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import java.io.IOException;
@@ -26,10 +27,12 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.ProviderException;
+import java.security.SecureRandom;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 import java.util.Calendar;
 
 import javax.crypto.BadPaddingException;
@@ -38,6 +41,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.security.auth.x500.X500Principal;
@@ -64,6 +68,13 @@ class CryptoUtil {
     private static final int AES_KEY_SIZE = 256;
     private static final int RSA_KEY_SIZE = 2048;
 
+    // Envelope format: [version][IV length][IV][ciphertext + GCM tag]
+    // The version identifies the strategy whose key encrypted the content
+    private static final byte RSA_WRAPPED_KEY_ID = 1;
+    private static final int ENVELOPE_HEADER_SIZE = 2;
+    private static final byte GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+
     private final String OLD_KEY_ALIAS;
     private final String OLD_KEY_IV_ALIAS;
     private final String KEY_ALIAS;
@@ -71,7 +82,29 @@ class CryptoUtil {
     private final Storage storage;
     private final Context context;
 
+    // Unwrapped AES key, kept in memory to avoid hitting the KeyStore and running RSA on every operation
+    private final Object aesKeyLock = new Object();
+    private byte[] cachedAESKey;
+    private long aesKeyLastUsedAt;
+    private long aesKeyIdleTimeoutMillis;
+
+    private KeyStrategy rsaWrappedKeyStrategy;
+    @Nullable
+    private final KeyStrategy keyStoreKeyStrategy;
+    private volatile boolean useKeyStoreKey;
+
+    private final ThreadLocal<Cipher> aesCipher = new ThreadLocal<>();
+    private final ThreadLocal<Cipher> rsaCipher = new ThreadLocal<>();
+    private final SecureRandom secureRandom = new SecureRandom();
+
     public CryptoUtil(@NonNull Context context, @NonNull Storage storage, @NonNull String keyAlias) {
+        this(context, storage, keyAlias, Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                ? new KeyStoreKeyStrategy(context.getPackageName() + "." + keyAlias.trim() + "_aes")
+                : null);
+    }
+
+    @VisibleForTesting
+    CryptoUtil(@NonNull Context context, @NonNull Storage storage, @NonNull String keyAlias, @Nullable KeyStrategy keyStoreKeyStrategy) {
         keyAlias = keyAlias.trim();
         if (TextUtils.isEmpty(keyAlias)) {
             throw new IllegalArgumentException("RSA and AES Key alias must be valid.");
@@ -83,6 +116,21 @@ class CryptoUtil {
         this.KEY_IV_ALIAS = context.getPackageName() + "." + keyAlias + iv_suffix;
         this.context = context;
         this.storage = storage;
+        this.keyStoreKeyStrategy = keyStoreKeyStrategy;
+    }
+
+    /**
+     * Makes the next calls to {@link #encrypt(byte[])} use an AES key kept in the Android KeyStore,
+     * instead of a software AES key protected by an RSA key pair. Content encrypted with either key
+     * can always be decrypted, and {@link #needsMigration(byte[])} tells which content should be
+     * encrypted again to use the selected key.
+     *
+     * @param enabled whether to use the KeyStore AES key or not.
+     * @return whether the KeyStore AES key is available in this device. Always false before API 23.
+     */
+    boolean setUseKeyStoreKey(boolean enabled) {
+        useKeyStoreKey = enabled && keyStoreKeyStrategy != null;
+        return keyStoreKeyStrategy != null;
     }
 
     /**
@@ -234,6 +282,7 @@ class CryptoUtil {
      * to recreate the keys.
      */
     private void deleteRSAKeys() {
+        clearCachedAESKey();
         try {
             KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
             keyStore.load(null);
@@ -250,6 +299,7 @@ class CryptoUtil {
      * to recreate the keys.
      */
     private void deleteAESKeys() {
+        clearCachedAESKey();
         storage.remove(KEY_ALIAS);
         storage.remove(KEY_IV_ALIAS);
     }
@@ -267,7 +317,7 @@ class CryptoUtil {
     byte[] RSADecrypt(byte[] encryptedInput) throws IncompatibleDeviceException, CryptoException {
         try {
             PrivateKey privateKey = getRSAKeyEntry().getPrivateKey();
-            Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
+            Cipher cipher = getCipher(rsaCipher, RSA_TRANSFORMATION);
             cipher.init(Cipher.DECRYPT_MODE, privateKey);
             return cipher.doFinal(encryptedInput);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
@@ -316,7 +366,7 @@ class CryptoUtil {
     byte[] RSAEncrypt(byte[] decryptedInput) throws IncompatibleDeviceException, CryptoException {
         try {
             Certificate certificate = getRSAKeyEntry().getCertificate();
-            Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
+            Cipher cipher = getCipher(rsaCipher, RSA_TRANSFORMATION);
             cipher.init(Cipher.ENCRYPT_MODE, certificate);
             return cipher.doFinal(decryptedInput);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
@@ -400,8 +450,145 @@ class CryptoUtil {
 
 
     /**
-     * Encrypts the given input bytes using a symmetric key (AES).
-     * The AES key is stored protected by an asymmetric key pair (RSA).
+     * Sets how long the unwrapped AES key can stay in memory without being used before it's
+     * discarded and has to be recovered from the storage again. By default, the key is kept
+     * until the keys are deleted.
+     *
+     * @param idleTimeoutMillis the idle timeout in milliseconds, or 0 to never expire the key.
+     */
+    void setKeyCacheIdleTimeout(long idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("The idle timeout must be a positive value or 0.");
+        }
+        synchronized (aesKeyLock) {
+            aesKeyIdleTimeoutMillis = idleTimeoutMillis;
+        }
+    }
+
+    /**
+     * Overwrites the unwrapped AES key kept in memory, if any, so that the next operation
+     * recovers it from the storage again.
+     */
+    void clearCachedAESKey() {
+        synchronized (aesKeyLock) {
+            if (cachedAESKey != null) {
+                Arrays.fill(cachedAESKey, (byte) 0);
+                cachedAESKey = null;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    long currentTimeInMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    /**
+     * Returns the unwrapped AES key kept in memory, recovering it with {@link #getAESKey()}
+     * the first time or after it was discarded. The key is copied while holding the lock, as
+     * the cached bytes are overwritten when the key is discarded.
+     *
+     * @return a valid AES Key
+     * @throws IncompatibleDeviceException in the event the device can't understand the cryptographic settings required
+     * @throws CryptoException             if the stored RSA keys can't be recovered and should be deemed invalid
+     */
+    private SecretKey getCachedAESKey() throws IncompatibleDeviceException, CryptoException {
+        synchronized (aesKeyLock) {
+            long now = currentTimeInMillis();
+            if (cachedAESKey != null && aesKeyIdleTimeoutMillis > 0 && now - aesKeyLastUsedAt >= aesKeyIdleTimeoutMillis) {
+                clearCachedAESKey();
+            }
+            if (cachedAESKey == null) {
+                cachedAESKey = getAESKey();
+            }
+            aesKeyLastUsedAt = now;
+            return new SecretKeySpec(cachedAESKey, ALGORITHM_AES);
+        }
+    }
+
+    /**
+     * Returns the Cipher instance of the calling thread for the given transformation,
+     * creating it the first time. The caller is expected to initialize it before every use.
+     */
+    private Cipher getCipher(ThreadLocal<Cipher> ciphers, String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Cipher cipher = ciphers.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            ciphers.set(cipher);
+        }
+        return cipher;
+    }
+
+    /**
+     * The strategy that recovers the software AES key kept in the storage, protected by the RSA key pair.
+     */
+    private KeyStrategy getRSAWrappedKeyStrategy() {
+        synchronized (aesKeyLock) {
+            if (rsaWrappedKeyStrategy == null) {
+                rsaWrappedKeyStrategy = new RSAWrappedKeyStrategy();
+            }
+            return rsaWrappedKeyStrategy;
+        }
+    }
+
+    private KeyStrategy getActiveKeyStrategy() {
+        return useKeyStoreKey ? keyStoreKeyStrategy : getRSAWrappedKeyStrategy();
+    }
+
+    /**
+     * Finds the strategy whose key encrypted the given envelope.
+     *
+     * @param encryptedInput the encrypted input bytes
+     * @return the key strategy, or null if the input doesn't look like an envelope.
+     */
+    @Nullable
+    private KeyStrategy findKeyStrategy(byte[] encryptedInput) {
+        if (encryptedInput.length < ENVELOPE_HEADER_SIZE + GCM_IV_LENGTH + GCM_TAG_LENGTH / 8
+                || encryptedInput[1] != GCM_IV_LENGTH) {
+            return null;
+        }
+        if (encryptedInput[0] == RSA_WRAPPED_KEY_ID) {
+            return getRSAWrappedKeyStrategy();
+        }
+        if (keyStoreKeyStrategy != null && encryptedInput[0] == keyStoreKeyStrategy.getId()) {
+            return keyStoreKeyStrategy;
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the given input needs to be encrypted again, either because it uses the format
+     * where the IV was kept in the storage instead of next to the ciphertext, or because it was
+     * encrypted with a key other than the one currently selected.
+     *
+     * @param encryptedInput the encrypted input bytes
+     * @return whether the input needs to be encrypted again to use the current format and key
+     */
+    boolean needsMigration(byte[] encryptedInput) {
+        return findKeyStrategy(encryptedInput) != getActiveKeyStrategy();
+    }
+
+    /**
+     * Removes the IV kept in the storage by the legacy format and the keys that are no longer
+     * selected. Must be called once the input reported by {@link #needsMigration(byte[])} has
+     * been encrypted again.
+     */
+    void completeMigration() {
+        storage.remove(KEY_IV_ALIAS);
+        storage.remove(OLD_KEY_IV_ALIAS);
+        KeyStrategy activeKeyStrategy = getActiveKeyStrategy();
+        if (activeKeyStrategy != getRSAWrappedKeyStrategy()) {
+            getRSAWrappedKeyStrategy().deleteKeys();
+        }
+        if (keyStoreKeyStrategy != null && activeKeyStrategy != keyStoreKeyStrategy) {
+            keyStoreKeyStrategy.deleteKeys();
+        }
+    }
+
+    /**
+     * Decrypts the given input bytes using a symmetric key (AES).
+     * The key used is the one that encrypted the input, as written in the envelope.
+     * Input encrypted with the legacy format is also supported.
      *
      * @param encryptedInput the input bytes to decrypt. There's no limit in size.
      * @return the decrypted output bytes
@@ -410,17 +597,25 @@ class CryptoUtil {
      */
     public byte[] decrypt(byte[] encryptedInput) throws CryptoException, IncompatibleDeviceException {
         try {
-            SecretKey key = new SecretKeySpec(getAESKey(), ALGORITHM_AES);
-            Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
-            String encodedIV = storage.retrieveString(KEY_IV_ALIAS);
-            if (TextUtils.isEmpty(encodedIV)) {
-                encodedIV = storage.retrieveString(OLD_KEY_IV_ALIAS);
-                if (TextUtils.isEmpty(encodedIV)) {
-                    //AES key was JUST generated. If anything existed before, should be encrypted again first.
-                    throw new CryptoException("The encryption keys changed recently. You need to re-encrypt something first.", null);
+            Cipher cipher = getCipher(aesCipher, AES_TRANSFORMATION);
+            KeyStrategy keyStrategy = findKeyStrategy(encryptedInput);
+            if (keyStrategy == rsaWrappedKeyStrategy && keyStrategy != getActiveKeyStrategy() && !hasRSAWrappedKey()) {
+                //The RSA wrapped key was deleted by a completed migration. A new one couldn't decrypt the input
+                keyStrategy = null;
+            }
+            if (keyStrategy != null) {
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, keyStrategy.getKey(), new GCMParameterSpec(GCM_TAG_LENGTH, encryptedInput, ENVELOPE_HEADER_SIZE, GCM_IV_LENGTH));
+                    int offset = ENVELOPE_HEADER_SIZE + GCM_IV_LENGTH;
+                    return cipher.doFinal(encryptedInput, offset, encryptedInput.length - offset);
+                } catch (BadPaddingException e) {
+                    //Legacy input can start with the same bytes as the envelope header. The tag check fails for those.
+                    Log.d(TAG, "The input is not a valid envelope. Trying with the legacy format.");
                 }
             }
-            byte[] iv = Base64.decode(encodedIV, Base64.DEFAULT);
+            //Without a legacy IV there's nothing to decrypt with the RSA wrapped key, which may have been deleted by a migration
+            byte[] iv = getLegacyIV();
+            SecretKey key = getRSAWrappedKeyStrategy().getKey();
             cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
             return cipher.doFinal(encryptedInput);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException e) {
@@ -446,6 +641,7 @@ class CryptoUtil {
              * Any of this exceptions mean the encrypted input is somehow corrupted and cannot be recovered.
              * - BadPaddingException:
              *      Thrown if the input doesn't contain the proper padding bytes. In this case, if the input contains padding.
+             *      Also thrown as AEADBadTagException when the GCM authentication tag doesn't match.
              * - IllegalBlockSizeException:
              *      Thrown only on encrypt mode.
              */
@@ -453,9 +649,37 @@ class CryptoUtil {
         }
     }
 
+    /**
+     * @return whether the AES key protected by the RSA key pair is kept in the storage.
+     */
+    private boolean hasRSAWrappedKey() {
+        return !TextUtils.isEmpty(storage.retrieveString(KEY_ALIAS)) || !TextUtils.isEmpty(storage.retrieveString(OLD_KEY_ALIAS));
+    }
+
+    /**
+     * Reads the IV used by the legacy format from the storage.
+     *
+     * @return the IV bytes
+     * @throws CryptoException if the IV is missing, meaning the AES key was recreated after the input was encrypted.
+     */
+    private byte[] getLegacyIV() throws CryptoException {
+        String encodedIV = storage.retrieveString(KEY_IV_ALIAS);
+        if (TextUtils.isEmpty(encodedIV)) {
+            encodedIV = storage.retrieveString(OLD_KEY_IV_ALIAS);
+            if (TextUtils.isEmpty(encodedIV)) {
+                //AES key was JUST generated. If anything existed before, should be encrypted again first.
+                throw new CryptoException("The encryption keys changed recently. You need to re-encrypt something first.", null);
+            }
+        }
+        return Base64.decode(encodedIV, Base64.DEFAULT);
+    }
+
     /**
      * Encrypts the given input bytes using a symmetric key (AES).
-     * The AES key is stored protected by an asymmetric key pair (RSA).
+     * The AES key is either stored protected by an asymmetric key pair (RSA) or kept in the
+     * Android KeyStore, as selected with {@link #setUseKeyStoreKey(boolean)}.
+     * The output is a versioned envelope that contains everything needed to decrypt it:
+     * the id of the key, the IV length, a random IV and the ciphertext followed by the GCM tag.
      *
      * @param decryptedInput the input bytes to encrypt. There's no limit in size.
      * @return the encrypted output bytes
@@ -464,15 +688,20 @@ class CryptoUtil {
      */
     public byte[] encrypt(byte[] decryptedInput) throws CryptoException, IncompatibleDeviceException {
         try {
-            SecretKey key = new SecretKeySpec(getAESKey(), ALGORITHM_AES);
-            Cipher cipher = Cipher.getInstance(AES_TRANSFORMATION);
-            cipher.init(Cipher.ENCRYPT_MODE, key);
+            KeyStrategy keyStrategy = getActiveKeyStrategy();
+            SecretKey key = keyStrategy.getKey();
+            Cipher cipher = getCipher(aesCipher, AES_TRANSFORMATION);
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            secureRandom.nextBytes(iv);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
             byte[] encrypted = cipher.doFinal(decryptedInput);
-            byte[] encodedIV = Base64.encode(cipher.getIV(), Base64.DEFAULT);
-            //Save IV for Decrypt stage
-            storage.store(KEY_IV_ALIAS, new String(encodedIV, StandardCharsets.UTF_8));
-            return encrypted;
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
+            byte[] envelope = new byte[ENVELOPE_HEADER_SIZE + GCM_IV_LENGTH + encrypted.length];
+            envelope[0] = keyStrategy.getId();
+            envelope[1] = GCM_IV_LENGTH;
+            System.arraycopy(iv, 0, envelope, ENVELOPE_HEADER_SIZE, GCM_IV_LENGTH);
+            System.arraycopy(encrypted, 0, envelope, ENVELOPE_HEADER_SIZE + GCM_IV_LENGTH, encrypted.length);
+            return envelope;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException e) {
             /*
              * This exceptions are safe to be ignored:
              *
@@ -503,4 +732,27 @@ class CryptoUtil {
         }
     }
 
+    /**
+     * Recovers the software AES key kept in the storage, protected by the RSA key pair.
+     * Available in every API level.
+     */
+    private class RSAWrappedKeyStrategy implements KeyStrategy {
+
+        @Override
+        public byte getId() {
+            return RSA_WRAPPED_KEY_ID;
+        }
+
+        @NonNull
+        @Override
+        public SecretKey getKey() throws IncompatibleDeviceException, CryptoException {
+            return getCachedAESKey();
+        }
+
+        @Override
+        public void deleteKeys() {
+            deleteRSAKeys();
+            deleteAESKeys();
+        }
+    }
 }
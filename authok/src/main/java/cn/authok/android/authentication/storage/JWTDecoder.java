@@ -12,6 +12,6 @@ class JWTDecoder {
     }
 
     Jwt decode(String jwt) {
-        return new Jwt(jwt);
+        return Jwt.decode(jwt);
     }
 }
@@ -0,0 +1,126 @@
+package cn.authok.android.authentication.storage;
+
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.ProviderException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+/**
+ * Keeps the AES key inside the Android KeyStore, where it's generated and never leaves.
+ * Compared to wrapping a software AES key with an RSA key pair, recovering the key
+ * doesn't require any asymmetric operation. Available since API 23.
+ */
+@RequiresApi(api = Build.VERSION_CODES.M)
+class KeyStoreKeyStrategy implements KeyStrategy {
+
+    private static final String TAG = KeyStoreKeyStrategy.class.getSimpleName();
+
+    static final byte ID = 2;
+
+    private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    private static final int AES_KEY_SIZE = 256;
+
+    private final String keyAlias;
+    private SecretKey cachedKey;
+
+    KeyStoreKeyStrategy(@NonNull String keyAlias) {
+        this.keyAlias = keyAlias;
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @NonNull
+    @Override
+    public synchronized SecretKey getKey() throws IncompatibleDeviceException, CryptoException {
+        if (cachedKey != null) {
+            return cachedKey;
+        }
+        try {
+            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+            keyStore.load(null);
+            Key existingKey = keyStore.getKey(keyAlias, null);
+            if (existingKey instanceof SecretKey) {
+                cachedKey = (SecretKey) existingKey;
+                return cachedKey;
+            }
+
+            // The IV is generated by CryptoUtil and stored in the envelope, so it's provided on encryption
+            KeyGenParameterSpec spec = new KeyGenParameterSpec.Builder(keyAlias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setKeySize(AES_KEY_SIZE)
+                    .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                    .setRandomizedEncryptionRequired(false)
+                    .build();
+            KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+            generator.init(spec);
+            cachedKey = generator.generateKey();
+            return cachedKey;
+        } catch (CertificateException | InvalidAlgorithmParameterException | NoSuchProviderException | NoSuchAlgorithmException | KeyStoreException | ProviderException e) {
+            /*
+             * This exceptions are safe to be ignored:
+             *
+             * - CertificateException:
+             *      Thrown when the keystore couldn't be loaded
+             * - KeyStoreException:
+             * - NoSuchProviderException:
+             *      Thrown when "AndroidKeyStore" is not available.
+             * - NoSuchAlgorithmException:
+             *      Thrown when "AES" algorithm is not available in the KeyStore.
+             * - InvalidAlgorithmParameterException:
+             *      Thrown if the Key Size, Block Mode or Padding are not supported.
+             * - ProviderException:
+             *      Thrown on some modified devices when KeyGenerator#generateKey is called.
+             *
+             * Read more in https://developer.android.com/training/articles/keystore#SupportedAlgorithms
+             */
+            Log.e(TAG, "The device can't generate a new AES Key in the KeyStore.", e);
+            throw new IncompatibleDeviceException(e);
+        } catch (IOException | UnrecoverableKeyException e) {
+            /*
+             * Any of this exceptions mean the existing key is somehow corrupted.
+             * We can delete it and let the user retry the operation.
+             *
+             * - IOException:
+             *      Thrown when there is an I/O or format problem with the keystore data.
+             * - UnrecoverableKeyException:
+             *      Thrown when the key cannot be recovered.
+             */
+            deleteKeys();
+            throw new CryptoException("The existing AES key could not be recovered and has been deleted. " +
+                    "You can safely retry this operation.", e);
+        }
+    }
+
+    @Override
+    public synchronized void deleteKeys() {
+        cachedKey = null;
+        try {
+            KeyStore keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+            keyStore.load(null);
+            keyStore.deleteEntry(keyAlias);
+            Log.d(TAG, "Deleting the existing AES key from the KeyStore.");
+        } catch (KeyStoreException | CertificateException | IOException | NoSuchAlgorithmException e) {
+            Log.e(TAG, "Failed to remove the AES key from the Android KeyStore.", e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package cn.authok.android.authentication.storage;
+
+import androidx.annotation.NonNull;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Provides the AES key used by {@link CryptoUtil} to encrypt and decrypt content,
+ * taking care of how that key is created and protected.
+ */
+interface KeyStrategy {
+
+    /**
+     * Identifies the content encrypted with the key of this strategy. It's written as the
+     * version byte of every envelope produced by {@link CryptoUtil#encrypt(byte[])}, so it
+     * must never change once released.
+     *
+     * @return the id of this strategy
+     */
+    byte getId();
+
+    /**
+     * Attempts to recover the existing AES key or creates a new one if none is found.
+     *
+     * @return a valid AES key
+     * @throws IncompatibleDeviceException in the event the device can't understand the cryptographic settings required
+     * @throws CryptoException             if the stored keys can't be recovered and should be deemed invalid
+     */
+    @NonNull
+    SecretKey getKey() throws IncompatibleDeviceException, CryptoException;
+
+    /**
+     * Removes the keys created by this strategy, and any copy of them kept in memory.
+     * The next call to {@link #getKey()} will create new keys.
+     */
+    void deleteKeys();
+}
@@ -0,0 +1,425 @@
+package cn.authok.android.authentication.storage
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.text.TextUtils
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.zip.CRC32
+
+/**
+ * An implementation of [Storage] that keeps the values in a single memory-mapped file in the app's private files directory.
+ *
+ * The file is an append-only log of CRC-checked records, so every change writes only the values that changed,
+ * and the values of a [batch] are written in a single record that is either read entirely or ignored.
+ * When most of the file holds values that were since replaced or removed, the current values are written
+ * to a new file that replaces the existing one. The file is not read until a value is first accessed.
+ *
+ * Values previously saved with [SharedPreferencesStorage] can be moved to this Storage with [importSharedPreferences].
+ */
+public class MappedFileStorage @VisibleForTesting internal constructor(private val file: File) : BatchStorage {
+
+    /**
+     * @param context  a valid context
+     * @param fileName the name of the file in the app's private files directory
+     */
+    @JvmOverloads
+    public constructor(context: Context, fileName: String = FILE_NAME) : this(
+        File(context.filesDir, fileName.also {
+            require(!TextUtils.isEmpty(it)) { "The file name is invalid." }
+        })
+    )
+
+    private val lock = Any()
+    private var values: MutableMap<String, Any>? = null
+    private var channel: FileChannel? = null
+    private var buffer: MappedByteBuffer? = null
+    private var writePosition = 0
+
+    override fun store(name: String, value: Long?) {
+        write(mapOf(name to value))
+    }
+
+    override fun store(name: String, value: Int?) {
+        write(mapOf(name to value))
+    }
+
+    override fun store(name: String, value: String?) {
+        write(mapOf(name to value))
+    }
+
+    override fun store(name: String, value: Boolean?) {
+        write(mapOf(name to value))
+    }
+
+    override fun retrieveLong(name: String): Long? {
+        return read(name) as Long?
+    }
+
+    override fun retrieveString(name: String): String? {
+        return read(name) as String?
+    }
+
+    override fun retrieveInteger(name: String): Int? {
+        return read(name) as Int?
+    }
+
+    override fun retrieveBoolean(name: String): Boolean? {
+        return read(name) as Boolean?
+    }
+
+    override fun remove(name: String) {
+        write(mapOf(name to null))
+    }
+
+    override fun batch(block: Storage.() -> Unit) {
+        val changes = LinkedHashMap<String, Any?>()
+        RecordingStorage(changes).block()
+        write(changes)
+    }
+
+    /**
+     * Moves the values saved in the given SharedPreferences to this Storage, and removes them from the
+     * SharedPreferences once written to the file. Values of types not supported by [Storage] are left untouched.
+     * When the file can't be read or written, the SharedPreferences are kept as they are.
+     * Calling this again once the values were moved has no effect, so it can be called every time the app starts.
+     *
+     * @param sharedPreferences the SharedPreferences to move the values from.
+     */
+    public fun importSharedPreferences(sharedPreferences: SharedPreferences) {
+        val imported = sharedPreferences.all.filterValues {
+            it is String || it is Long || it is Int || it is Boolean
+        }
+        if (imported.isEmpty()) {
+            return
+        }
+        if (!write(imported)) {
+            Log.w(TAG, "The SharedPreferences values were not imported, as they couldn't be written to the storage file.")
+            return
+        }
+        val editor = sharedPreferences.edit()
+        imported.keys.forEach { editor.remove(it) }
+        editor.commit()
+    }
+
+    /**
+     * Moves the values saved by a [SharedPreferencesStorage] using the given preferences file name to this Storage.
+     *
+     * @param context               a valid context
+     * @param sharedPreferencesName the preferences file name used by the [SharedPreferencesStorage]
+     * @see importSharedPreferences
+     */
+    @JvmOverloads
+    public fun importSharedPreferences(
+        context: Context,
+        sharedPreferencesName: String = SHARED_PREFERENCES_NAME
+    ) {
+        importSharedPreferences(
+            context.getSharedPreferences(sharedPreferencesName, Context.MODE_PRIVATE)
+        )
+    }
+
+    private fun read(name: String): Any? {
+        synchronized(lock) {
+            return loadIfNeeded()?.get(name)
+        }
+    }
+
+    /**
+     * Applies the changes and writes them to the file.
+     *
+     * @return whether the changes were written and synced to the file. Otherwise, they are only kept in memory,
+     * or not applied at all when the file couldn't be read.
+     */
+    private fun write(changes: Map<String, Any?>): Boolean {
+        if (changes.isEmpty()) {
+            return true
+        }
+        synchronized(lock) {
+            val current = loadIfNeeded() ?: return false
+            changes.forEach { (name, value) ->
+                if (value == null) current.remove(name) else current[name] = value
+            }
+            try {
+                append(encode(changes))
+                if (writePosition > COMPACTION_MIN_SIZE && writePosition > 2 * (HEADER_SIZE + RECORD_HEADER_SIZE + encode(current).size)) {
+                    compact(current)
+                }
+            } catch (e: IOException) {
+                // The value is kept in memory and written along the next change, as part of a compaction
+                Log.e(TAG, "Failed to write the values to the storage file.", e)
+                close()
+                return false
+            }
+            return true
+        }
+    }
+
+    /**
+     * Reads the file the first time it's called.
+     *
+     * @return the current values, or null if the file couldn't be read. It will be read again on the next call.
+     */
+    private fun loadIfNeeded(): MutableMap<String, Any>? {
+        values?.let { return it }
+        val loaded = HashMap<String, Any>()
+        File(file.path + TEMP_SUFFIX).delete()
+        if (!file.exists()) {
+            values = loaded
+            return loaded
+        }
+        try {
+            val buffer = open()
+            var position = HEADER_SIZE
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                Log.w(TAG, "The storage file is not valid and its values will be discarded.")
+                compact(loaded)
+                values = loaded
+                return loaded
+            }
+            while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+                val length = buffer.getInt(position)
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                    break
+                }
+                val record = ByteArray(length)
+                buffer.position(position + RECORD_HEADER_SIZE)
+                buffer.get(record)
+                if (crc(record) != buffer.getInt(position + 4)) {
+                    // An interrupted write. It and anything after it will be overwritten
+                    Log.w(TAG, "Discarding a corrupted record of the storage file.")
+                    break
+                }
+                decode(record, loaded)
+                position += RECORD_HEADER_SIZE + length
+            }
+            writePosition = position
+            // Clear anything left after the last valid record, so it's not read as a record again
+            for (i in position until minOf(position + RECORD_HEADER_SIZE, buffer.capacity())) {
+                buffer.put(i, 0)
+            }
+        } catch (e: IOException) {
+            // Writing now would replace the values that couldn't be read
+            Log.e(TAG, "Failed to read the values from the storage file.", e)
+            close()
+            return null
+        }
+        values = loaded
+        return loaded
+    }
+
+    private fun append(record: ByteArray) {
+        val required = writePosition + RECORD_HEADER_SIZE + record.size + RECORD_HEADER_SIZE
+        var buffer = this.buffer
+        if (buffer == null) {
+            // The file couldn't be written before. Start over with the current values
+            compact(values!!)
+            return
+        }
+        if (required > buffer.capacity()) {
+            buffer = map(channel!!, required)
+        }
+        buffer.position(writePosition + RECORD_HEADER_SIZE)
+        buffer.put(record)
+        // Mark the end of the log before the record becomes visible
+        buffer.putInt(writePosition + RECORD_HEADER_SIZE + record.size, 0)
+        buffer.putInt(writePosition + 4, crc(record))
+        buffer.putInt(writePosition, record.size)
+        buffer.force()
+        writePosition += RECORD_HEADER_SIZE + record.size
+    }
+
+    /**
+     * Writes the given values to a new file as a single record, and atomically replaces the existing file with it.
+     */
+    private fun compact(current: Map<String, Any>) {
+        close()
+        val record = encode(current)
+        // An empty record would be read as the end of the log
+        val recordSize = if (record.isEmpty()) 0 else RECORD_HEADER_SIZE + record.size
+        val temp = File(file.path + TEMP_SUFFIX)
+        file.parentFile?.mkdirs()
+        RandomAccessFile(temp, "rw").use {
+            val bytes = ByteBuffer.allocate(HEADER_SIZE + recordSize + RECORD_HEADER_SIZE)
+            bytes.putInt(MAGIC)
+            if (record.isNotEmpty()) {
+                bytes.putInt(record.size)
+                bytes.putInt(crc(record))
+                bytes.put(record)
+            }
+            bytes.putInt(0)
+            bytes.flip()
+            it.setLength(0)
+            it.channel.write(bytes)
+            it.channel.force(true)
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete()
+            throw IOException("Failed to replace the storage file.")
+        }
+        open()
+        writePosition = HEADER_SIZE + recordSize
+    }
+
+    private fun open(): MappedByteBuffer {
+        val channel = RandomAccessFile(file, "rw").channel
+        this.channel = channel
+        return map(channel, channel.size().toInt())
+    }
+
+    private fun map(channel: FileChannel, required: Int): MappedByteBuffer {
+        var size = maxOf(PAGE_SIZE, buffer?.capacity() ?: 0)
+        while (size < required) {
+            size *= 2
+        }
+        val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size.toLong())
+        this.buffer = buffer
+        return buffer
+    }
+
+    private fun close() {
+        buffer = null
+        try {
+            channel?.close()
+        } catch (ignored: IOException) {
+        }
+        channel = null
+    }
+
+    /**
+     * Collects the changes made in a [batch], which are written together once the block completes.
+     */
+    private inner class RecordingStorage(private val changes: MutableMap<String, Any?>) : Storage {
+        override fun store(name: String, value: Long?) {
+            changes[name] = value
+        }
+
+        override fun store(name: String, value: Int?) {
+            changes[name] = value
+        }
+
+        override fun store(name: String, value: String?) {
+            changes[name] = value
+        }
+
+        override fun store(name: String, value: Boolean?) {
+            changes[name] = value
+        }
+
+        override fun retrieveLong(name: String): Long? =
+            this@MappedFileStorage.retrieveLong(name)
+
+        override fun retrieveString(name: String): String? =
+            this@MappedFileStorage.retrieveString(name)
+
+        override fun retrieveInteger(name: String): Int? =
+            this@MappedFileStorage.retrieveInteger(name)
+
+        override fun retrieveBoolean(name: String): Boolean? =
+            this@MappedFileStorage.retrieveBoolean(name)
+
+        override fun remove(name: String) {
+            changes[name] = null
+        }
+    }
+
+    private companion object {
+        private val TAG = MappedFileStorage::class.java.simpleName
+        private const val FILE_NAME = "cn.authok.authentication.storage.bin"
+
+        // Same as the default of SharedPreferencesStorage
+        private const val SHARED_PREFERENCES_NAME = "cn.authok.authentication.storage"
+        private const val TEMP_SUFFIX = ".tmp"
+
+        // "AOK1"
+        private const val MAGIC = 0x414F4B31
+        private const val HEADER_SIZE = 4
+
+        // Length and CRC32 of the record
+        private const val RECORD_HEADER_SIZE = 8
+        private const val PAGE_SIZE = 4096
+        private const val COMPACTION_MIN_SIZE = 16 * 1024
+
+        private const val TYPE_REMOVED: Byte = 0
+        private const val TYPE_STRING: Byte = 1
+        private const val TYPE_LONG: Byte = 2
+        private const val TYPE_INT: Byte = 3
+        private const val TYPE_BOOLEAN: Byte = 4
+
+        private fun crc(record: ByteArray): Int {
+            val crc = CRC32()
+            crc.update(record)
+            return crc.value.toInt()
+        }
+
+        /**
+         * Each entry is the type, the length of the name and the name, followed by the value.
+         * Strings are prefixed with their length. Removed values have no value.
+         */
+        private fun encode(entries: Map<String, Any?>): ByteArray {
+            val encoded = entries.map { (name, value) -> name.toByteArray() to value }
+            var size = 0
+            encoded.forEach { (name, value) ->
+                size += 1 + 2 + name.size + when (value) {
+                    is String -> 4 + value.toByteArray().size
+                    is Long -> 8
+                    is Int -> 4
+                    is Boolean -> 1
+                    else -> 0
+                }
+            }
+            val bytes = ByteBuffer.allocate(size)
+            encoded.forEach { (name, value) ->
+                bytes.put(
+                    when (value) {
+                        is String -> TYPE_STRING
+                        is Long -> TYPE_LONG
+                        is Int -> TYPE_INT
+                        is Boolean -> TYPE_BOOLEAN
+                        else -> TYPE_REMOVED
+                    }
+                )
+                bytes.putShort(name.size.toShort())
+                bytes.put(name)
+                when (value) {
+                    is String -> {
+                        val string = value.toByteArray()
+                        bytes.putInt(string.size)
+                        bytes.put(string)
+                    }
+                    is Long -> bytes.putLong(value)
+                    is Int -> bytes.putInt(value)
+                    is Boolean -> bytes.put(if (value) 1 else 0)
+                }
+            }
+            return bytes.array()
+        }
+
+        private fun decode(record: ByteArray, into: MutableMap<String, Any>) {
+            val bytes = ByteBuffer.wrap(record)
+            while (bytes.hasRemaining()) {
+                val type = bytes.get()
+                val name = ByteArray(bytes.short.toInt())
+                bytes.get(name)
+                val key = String(name)
+                when (type) {
+                    TYPE_STRING -> {
+                        val string = ByteArray(bytes.int)
+                        bytes.get(string)
+                        into[key] = String(string)
+                    }
+                    TYPE_LONG -> into[key] = bytes.long
+                    TYPE_INT -> into[key] = bytes.int
+                    TYPE_BOOLEAN -> into[key] = bytes.get() != 0.toByte()
+                    else -> into.remove(key)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package cn.authok.android.authentication.storage
+
+import android.util.Log
+import cn.authok.android.callback.Callback
+import cn.authok.android.result.Credentials
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Keeps track of the credentials renewals currently in flight, so that callers asking for the
+ * same renewal while one is already running wait for its result instead of starting their own.
+ * A renewal is identified by the scope, minimum TTL and extra parameters requested.
+ */
+internal class RenewalCoalescer {
+
+    internal data class Key(
+        val scope: String?,
+        val minTtl: Int,
+        val parameters: Map<String, String>
+    )
+
+    private val inFlight = mutableMapOf<Key, MutableList<Callback<Credentials, CredentialsManagerException>>>()
+    private val renewals = AtomicLong()
+    private val coalescedCallers = AtomicLong()
+
+    /**
+     * The number of renewals that were started.
+     */
+    val renewalCount: Long
+        get() = renewals.get()
+
+    /**
+     * The number of callers that joined a renewal already in flight instead of starting their own.
+     */
+    val coalescedCallerCount: Long
+        get() = coalescedCallers.get()
+
+    /**
+     * Attaches the callback to the renewal in flight for the given key, if any.
+     *
+     * @return whether the callback will be notified by a renewal in flight or not.
+     */
+    @Synchronized
+    fun join(key: Key, callback: Callback<Credentials, CredentialsManagerException>): Boolean {
+        val waiting = inFlight[key] ?: return false
+        waiting.add(callback)
+        coalescedCallers.incrementAndGet()
+        return true
+    }
+
+    /**
+     * Marks a renewal for the given key as in flight. The returned callback must be notified
+     * with the renewal result, which will be delivered to the given callback and to every other
+     * callback that joined the renewal in the meantime. Only the first result is delivered.
+     */
+    @Synchronized
+    fun begin(
+        key: Key,
+        callback: Callback<Credentials, CredentialsManagerException>
+    ): Callback<Credentials, CredentialsManagerException> {
+        val waiting = inFlight.getOrPut(key) { mutableListOf() }
+        waiting.add(callback)
+        renewals.incrementAndGet()
+        val completed = AtomicBoolean()
+        return object : Callback<Credentials, CredentialsManagerException> {
+            override fun onSuccess(result: Credentials) {
+                if (completed.compareAndSet(false, true)) {
+                    notifyEach(complete(key)) { it.onSuccess(result) }
+                }
+            }
+
+            override fun onFailure(error: CredentialsManagerException) {
+                if (completed.compareAndSet(false, true)) {
+                    notifyEach(complete(key)) { it.onFailure(error) }
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    private fun complete(key: Key): List<Callback<Credentials, CredentialsManagerException>> {
+        return inFlight.remove(key).orEmpty()
+    }
+
+    /**
+     * Notifies every waiting callback, even when one of them throws. The first exception thrown
+     * is logged and rethrown once all of them were notified.
+     */
+    private inline fun notifyEach(
+        waiting: List<Callback<Credentials, CredentialsManagerException>>,
+        notify: (Callback<Credentials, CredentialsManagerException>) -> Unit
+    ) {
+        var failure: RuntimeException? = null
+        for (callback in waiting) {
+            try {
+                notify(callback)
+            } catch (e: RuntimeException) {
+                failure?.addSuppressed(e) ?: run { failure = e }
+            }
+        }
+        failure?.let {
+            Log.e(TAG, "A callback waiting for the credentials renewal threw an exception.", it)
+            throw it
+        }
+    }
+
+    private companion object {
+        private val TAG = RenewalCoalescer::class.java.simpleName
+    }
+}
@@ -2,8 +2,10 @@ package cn.authok.android.authentication.storage
 
 import android.app.Activity
 import android.app.KeyguardManager
+import android.content.ComponentCallbacks2
 import android.content.Context
 import android.content.Intent
+import android.content.res.Configuration
 import android.os.Build
 import android.text.TextUtils
 import android.util.Base64
@@ -25,6 +27,7 @@ import com.google.gson.Gson
 import java.util.*
 import java.util.concurrent.Executor
 import java.util.concurrent.Executors
+import kotlin.math.min
 
 /**
  * A safer alternative to the [CredentialsManager] class. A combination of RSA and AES keys is used to keep the values secure.
@@ -51,6 +54,18 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
     private var scope: String? = null
     private var minTtl = 0
 
+    //In-memory cache of the decrypted credentials. Disabled by default
+    private var applicationContext: Context? = null
+    private var cacheTtlMillis = 0L
+    private var trimMemoryCallbacks: ComponentCallbacks2? = null
+
+    @Volatile
+    private var credentialsCache: CachedCredentials? = null
+
+    //Incremented every time the cache is discarded, so that reads started before are not cached
+    private val cacheLock = Any()
+    private var cacheGeneration = 0L
+
     /**
      * Creates a new SecureCredentialsManager to handle Credentials
      *
@@ -68,7 +83,9 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
         CryptoUtil(context, storage, KEY_ALIAS),
         JWTDecoder(),
         Executors.newSingleThreadExecutor()
-    )
+    ) {
+        applicationContext = context.applicationContext
+    }
 
     /**
      * Require the user to authenticate using the configured LockScreen before accessing the credentials.
@@ -149,6 +166,121 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
         return true
     }
 
+    /**
+     * Keeps the credentials in memory once they have been decrypted, so that subsequent calls to [getCredentials]
+     * don't need to read and decrypt them from the Storage again. The cached credentials are kept for up to the given
+     * time, and never past the expiration time of the stored tokens. Saving or clearing the credentials discards
+     * the cached copy. When this manager was created with a [Context], the cached copy is also discarded when the
+     * application UI goes to the background. This feature is disabled by default.
+     *
+     * @param ttlSeconds the maximum time in seconds that the decrypted credentials can be kept in memory. Pass 0 to disable the cache.
+     */
+    public fun setCredentialsCacheTtl(@IntRange(from = 0) ttlSeconds: Int) {
+        require(ttlSeconds >= 0) { "The cache TTL must be a positive value or 0." }
+        cacheTtlMillis = ttlSeconds * 1000L
+        clearCredentialsCache()
+        val context = applicationContext ?: return
+        if (ttlSeconds > 0 && trimMemoryCallbacks == null) {
+            trimMemoryCallbacks = object : ComponentCallbacks2 {
+                override fun onTrimMemory(level: Int) {
+                    if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                        clearCredentialsCache()
+                    }
+                }
+
+                override fun onConfigurationChanged(newConfig: Configuration) {}
+
+                override fun onLowMemory() {
+                    clearCredentialsCache()
+                }
+            }
+            context.registerComponentCallbacks(trimMemoryCallbacks)
+        } else if (ttlSeconds == 0 && trimMemoryCallbacks != null) {
+            context.unregisterComponentCallbacks(trimMemoryCallbacks)
+            trimMemoryCallbacks = null
+        }
+    }
+
+    /**
+     * The encryption key is kept in memory after its first use, so that reading or saving the credentials doesn't
+     * need to unlock it from the Android KeyStore every time. Use this method to discard it after it has not been
+     * used for the given time. By default, the key is kept in memory until it's invalidated.
+     *
+     * @param idleTimeoutSeconds the time in seconds the key can stay unused in memory. Pass 0 to never discard it.
+     */
+    public fun setKeyCacheIdleTimeout(@IntRange(from = 0) idleTimeoutSeconds: Int) {
+        require(idleTimeoutSeconds >= 0) { "The idle timeout must be a positive value or 0." }
+        crypto.setKeyCacheIdleTimeout(idleTimeoutSeconds * 1000L)
+    }
+
+    /**
+     * Keeps the encryption key inside the Android KeyStore instead of protecting it with an RSA key pair. Reading
+     * the credentials for the first time after the app starts becomes faster, as no RSA operation is needed to
+     * recover the key. Credentials saved with the other key are migrated the next time they are read. Call this
+     * method every time this manager is created, before saving or reading the credentials. This feature is
+     * disabled by default and is only available since API 23.
+     *
+     * @param enabled whether to keep the encryption key inside the Android KeyStore or not.
+     * @return whether this device supports keeping the encryption key inside the Android KeyStore or not.
+     */
+    public fun useKeyStoreKey(enabled: Boolean): Boolean {
+        clearCredentialsCache()
+        return crypto.setUseKeyStoreKey(enabled)
+    }
+
+    /**
+     * Reads the stored credentials in the background, so that the Storage is already loaded in memory when
+     * [hasValidCredentials] or [getCredentials] are first called. It's safe to call from `Application.onCreate`.
+     *
+     * The credentials can also be decrypted ahead of time, so the first call to [getCredentials] doesn't need to.
+     * This only happens when the in-memory cache is enabled with [setCredentialsCacheTtl] and authentication is
+     * not required before reading the credentials.
+     *
+     * @param decryptCredentials whether to also decrypt the credentials and keep them in the in-memory cache.
+     */
+    @JvmOverloads
+    public fun warmUp(decryptCredentials: Boolean = false) {
+        serialExecutor.execute {
+            if (!hasValidCredentials() || !decryptCredentials || cacheTtlMillis <= 0 || authenticateBeforeDecrypt) {
+                return@execute
+            }
+            val generation = currentCacheGeneration()
+            if (readCachedCredentials() != null) {
+                return@execute
+            }
+            val encrypted = Base64.decode(storage.retrieveString(KEY_CREDENTIALS), Base64.DEFAULT)
+            val json = try {
+                String(crypto.decrypt(encrypted))
+            } catch (e: IncompatibleDeviceException) {
+                Log.w(TAG, "The credentials could not be decrypted ahead of time.", e)
+                return@execute
+            } catch (e: CryptoException) {
+                // Handled when the credentials are requested
+                Log.w(TAG, "The credentials could not be decrypted ahead of time.", e)
+                return@execute
+            }
+            if (crypto.needsMigration(encrypted)) {
+                migrateCredentials(json)
+            }
+            val credentials = toCredentials(json)
+            val cacheExpiresAt = storage.retrieveLong(KEY_CACHE_EXPIRES_AT)
+            if (cacheExpiresAt != null && (credentials.accessToken.isNotEmpty() || credentials.idToken.isNotEmpty())) {
+                cacheCredentials(credentials, cacheExpiresAt, generation)
+            }
+        }
+    }
+
+    /**
+     * Discards the decrypted credentials kept in memory, if any. The next call to [getCredentials]
+     * will read and decrypt them from the Storage. The stored credentials are not affected.
+     */
+    public fun clearCredentialsCache() {
+        synchronized(cacheLock) {
+            cacheGeneration++
+            credentialsCache = null
+        }
+    }
+
     /**
      * Saves the given credentials in the Storage.
      *
@@ -169,12 +301,15 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
         try {
             val encrypted = crypto.encrypt(json.toByteArray())
             val encryptedEncoded = Base64.encodeToString(encrypted, Base64.DEFAULT)
-            storage.store(KEY_CREDENTIALS, encryptedEncoded)
-            storage.store(
-                KEY_EXPIRES_AT, credentials.expiresAt.time
-            )
-            storage.store(KEY_CACHE_EXPIRES_AT, cacheExpiresAt)
-            storage.store(KEY_CAN_REFRESH, canRefresh)
+            storage.batch {
+                store(KEY_CREDENTIALS, encryptedEncoded)
+                store(KEY_EXPIRES_AT, credentials.expiresAt.time)
+                store(KEY_CACHE_EXPIRES_AT, cacheExpiresAt)
+                store(KEY_CAN_REFRESH, canRefresh)
+            }
+            // discarded once stored, so that reads of the previous credentials in progress don't cache them
+            clearCredentialsCache()
+            onCredentialsSaved(credentials)
         } catch (e: IncompatibleDeviceException) {
             throw CredentialsManagerException(
                 String.format(
@@ -278,13 +413,28 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
      * Delete the stored credentials
      */
     override fun clearCredentials() {
-        storage.remove(KEY_CREDENTIALS)
-        storage.remove(KEY_EXPIRES_AT)
-        storage.remove(KEY_CACHE_EXPIRES_AT)
-        storage.remove(KEY_CAN_REFRESH)
+        storage.batch {
+            remove(KEY_CREDENTIALS)
+            remove(KEY_EXPIRES_AT)
+            remove(KEY_CACHE_EXPIRES_AT)
+            remove(KEY_CAN_REFRESH)
+        }
+        clearCredentialsCache()
+        onCredentialsCleared()
         Log.d(TAG, "Credentials were just removed from the storage")
     }
 
+    override fun readRefreshableExpiresAt(): Long? {
+        // Renewing the credentials in the background would show the LockScreen
+        if (authenticateBeforeDecrypt || storage.retrieveBoolean(KEY_CAN_REFRESH) != true) {
+            return null
+        }
+        if (TextUtils.isEmpty(storage.retrieveString(KEY_CREDENTIALS))) {
+            return null
+        }
+        return storage.retrieveLong(KEY_EXPIRES_AT)
+    }
+
     /**
      * Returns whether this manager contains a valid non-expired pair of credentials.
      *
@@ -323,50 +473,56 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
         parameters: Map<String, String>,
         callback: Callback<Credentials, CredentialsManagerException>
     ) {
+        val renewalKey = RenewalCoalescer.Key(scope, minTtl, parameters)
+        if (renewals.join(renewalKey, callback)) {
+            // a renewal for the same request is already in progress
+            decryptCallback = null
+            return
+        }
         serialExecutor.execute {
-            val encryptedEncoded = storage.retrieveString(KEY_CREDENTIALS)
-            val encrypted = Base64.decode(encryptedEncoded, Base64.DEFAULT)
-            val json: String
-            try {
-                json = String(crypto.decrypt(encrypted))
-            } catch (e: IncompatibleDeviceException) {
-                callback.onFailure(
-                    CredentialsManagerException(
-                        String.format(
-                            "This device is not compatible with the %s class.",
-                            SecureCredentialsManager::class.java.simpleName
-                        ), e
+            val generation = currentCacheGeneration()
+            val cached = readCachedCredentials()
+            val credentials: Credentials
+            val cacheExpiresAt: Long?
+            if (cached != null) {
+                credentials = cached.credentials
+                cacheExpiresAt = cached.cacheExpiresAt
+            } else {
+                val encryptedEncoded = storage.retrieveString(KEY_CREDENTIALS)
+                val encrypted = Base64.decode(encryptedEncoded, Base64.DEFAULT)
+                val json: String
+                try {
+                    json = String(crypto.decrypt(encrypted))
+                } catch (e: IncompatibleDeviceException) {
+                    callback.onFailure(
+                        CredentialsManagerException(
+                            String.format(
+                                "This device is not compatible with the %s class.",
+                                SecureCredentialsManager::class.java.simpleName
+                            ), e
+                        )
                     )
-                )
-                decryptCallback = null
-                return@execute
-            } catch (e: CryptoException) {
-                //If keys were invalidated, existing credentials will not be recoverable.
-                clearCredentials()
-                callback.onFailure(
-                    CredentialsManagerException(
-                        "A change on the Lock Screen security settings have deemed the encryption keys invalid and have been recreated. " +
-                                "Any previously stored content is now lost. Please try saving the credentials again.",
-                        e
+                    decryptCallback = null
+                    return@execute
+                } catch (e: CryptoException) {
+                    //If keys were invalidated, existing credentials will not be recoverable.
+                    clearCredentials()
+                    callback.onFailure(
+                        CredentialsManagerException(
+                            "A change on the Lock Screen security settings have deemed the encryption keys invalid and have been recreated. " +
+                                    "Any previously stored content is now lost. Please try saving the credentials again.",
+                            e
+                        )
                     )
-                )
-                decryptCallback = null
-                return@execute
+                    decryptCallback = null
+                    return@execute
+                }
+                if (crypto.needsMigration(encrypted)) {
+                    migrateCredentials(json)
+                }
+                credentials = toCredentials(json)
+                cacheExpiresAt = storage.retrieveLong(KEY_CACHE_EXPIRES_AT)
             }
-            val bridgeCredentials = gson.fromJson(json, OptionalCredentials::class.java)
-            /* OPTIONAL CREDENTIALS
-             * This bridge is required to prevent users from being logged out when
-             * migrating from Credentials with optional Access Token and ID token
-             */
-            val credentials = Credentials(
-                bridgeCredentials.idToken.orEmpty(),
-                bridgeCredentials.accessToken.orEmpty(),
-                bridgeCredentials.type.orEmpty(),
-                bridgeCredentials.refreshToken,
-                bridgeCredentials.expiresAt ?: Date(),
-                bridgeCredentials.scope
-            )
-            val cacheExpiresAt = storage.retrieveLong(KEY_CACHE_EXPIRES_AT)
             val expiresAt = credentials.expiresAt.time
             val hasEmptyCredentials =
                 TextUtils.isEmpty(credentials.accessToken) && TextUtils.isEmpty(credentials.idToken) || cacheExpiresAt == null
@@ -375,6 +531,9 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
                 decryptCallback = null
                 return@execute
             }
+            if (cached == null) {
+                cacheCredentials(credentials, cacheExpiresAt!!, generation)
+            }
             val hasEitherExpired = hasExpired(cacheExpiresAt!!)
             val willAccessTokenExpire = willExpire(expiresAt, minTtl.toLong())
             val scopeChanged = hasScopeChanged(credentials.scope, scope)
@@ -389,16 +548,15 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
                 return@execute
             }
             Log.d(TAG, "Credentials have expired. Renewing them now...")
-            val request = authenticationClient.renewAuth(
-                credentials.refreshToken
-            )
-
-            request.addParameters(parameters)
-            if (scope != null) {
-                request.addParameter("scope", scope)
-            }
-
+            val renewalCallback = renewals.begin(renewalKey, callback)
             try {
+                val request = authenticationClient.renewAuth(
+                    credentials.refreshToken
+                )
+                request.addParameters(parameters)
+                if (scope != null) {
+                    request.addParameter("scope", scope)
+                }
                 val fresh = request.execute()
                 val expiresAt = fresh.expiresAt.time
                 val willAccessTokenExpire = willExpire(expiresAt, minTtl.toLong())
@@ -412,7 +570,7 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
                             minTtl
                         )
                     )
-                    callback.onFailure(wrongTtlException)
+                    renewalCallback.onFailure(wrongTtlException)
                     decryptCallback = null
                     return@execute
                 }
@@ -428,21 +586,115 @@ public class SecureCredentialsManager @VisibleForTesting(otherwise = VisibleForT
                     fresh.expiresAt,
                     fresh.scope
                 )
-                saveCredentials(refreshed)
-                callback.onSuccess(refreshed)
+                try {
+                    saveCredentials(refreshed)
+                } catch (error: CredentialsManagerException) {
+                    renewalCallback.onFailure(error)
+                    decryptCallback = null
+                    return@execute
+                }
+                renewalCallback.onSuccess(refreshed)
                 decryptCallback = null
             } catch (error: AuthenticationException) {
-                callback.onFailure(
+                renewalCallback.onFailure(
                     CredentialsManagerException(
                         "An error occurred while trying to use the Refresh Token to renew the Credentials.",
                         error
                     )
                 )
                 decryptCallback = null
+            } catch (error: Exception) {
+                // unexpected errors, such as a malformed response, must still release the waiting callers
+                renewalCallback.onFailure(
+                    CredentialsManagerException(
+                        "An error occurred while trying to use the Refresh Token to renew the Credentials.",
+                        error
+                    )
+                )
+                decryptCallback = null
+            }
+        }
+    }
+
+    /**
+     * Encrypts again the credentials that were stored using a legacy encryption format or a key other than
+     * the one currently selected, so that the previous IV and keys are no longer needed. Failures are ignored,
+     * as the stored credentials can still be decrypted and the migration is attempted again on the next read.
+     */
+    private fun migrateCredentials(json: String) {
+        try {
+            val encrypted = crypto.encrypt(json.toByteArray())
+            storage.store(KEY_CREDENTIALS, Base64.encodeToString(encrypted, Base64.DEFAULT))
+            crypto.completeMigration()
+        } catch (e: CryptoException) {
+            Log.w(TAG, "The stored credentials could not be migrated to the current encryption format.", e)
+        } catch (e: IncompatibleDeviceException) {
+            Log.w(TAG, "The stored credentials could not be migrated to the current encryption format.", e)
+        }
+    }
+
+    private fun toCredentials(json: String): Credentials {
+        val bridgeCredentials = gson.fromJson(json, OptionalCredentials::class.java)
+        /* OPTIONAL CREDENTIALS
+         * This bridge is required to prevent users from being logged out when
+         * migrating from Credentials with optional Access Token and ID token
+         */
+        return Credentials(
+            bridgeCredentials.idToken.orEmpty(),
+            bridgeCredentials.accessToken.orEmpty(),
+            bridgeCredentials.type.orEmpty(),
+            bridgeCredentials.refreshToken,
+            bridgeCredentials.expiresAt ?: Date(),
+            bridgeCredentials.scope
+        )
+    }
+
+    private fun readCachedCredentials(): CachedCredentials? {
+        val cached = credentialsCache ?: return null
+        if (cached.validUntil <= currentTimeInMillis) {
+            synchronized(cacheLock) {
+                if (credentialsCache === cached) {
+                    credentialsCache = null
+                }
             }
+            return null
         }
+        return cached
     }
 
+    private fun currentCacheGeneration(): Long {
+        synchronized(cacheLock) {
+            return cacheGeneration
+        }
+    }
+
+    /**
+     * Keeps the decrypted credentials in memory, unless the cache was discarded since they were read.
+     *
+     * @param generation the generation of the cache when the credentials started to be read.
+     */
+    private fun cacheCredentials(credentials: Credentials, cacheExpiresAt: Long, generation: Long) {
+        if (cacheTtlMillis <= 0) {
+            return
+        }
+        val now = currentTimeInMillis
+        val validUntil = min(now + cacheTtlMillis, cacheExpiresAt)
+        if (validUntil <= now) {
+            return
+        }
+        synchronized(cacheLock) {
+            if (generation == cacheGeneration) {
+                credentialsCache = CachedCredentials(credentials, cacheExpiresAt, validUntil)
+            }
+        }
+    }
+
+    private class CachedCredentials(
+        val credentials: Credentials,
+        val cacheExpiresAt: Long,
+        val validUntil: Long
+    )
+
     internal companion object {
         private val TAG = SecureCredentialsManager::class.java.simpleName
         private const val KEY_CREDENTIALS = "cn.authok.credentials"
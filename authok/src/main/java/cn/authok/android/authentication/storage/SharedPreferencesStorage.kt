@@ -13,7 +13,7 @@ import android.text.TextUtils
 public class SharedPreferencesStorage @JvmOverloads constructor(
     context: Context,
     sharedPreferencesName: String = SHARED_PREFERENCES_NAME
-) : Storage {
+) : BatchStorage {
     private val sp: SharedPreferences
     override fun store(name: String, value: Long?) {
         if (value == null) {
@@ -75,6 +75,66 @@ public class SharedPreferencesStorage @JvmOverloads constructor(
         sp.edit().remove(name).apply()
     }
 
+    override fun batch(block: Storage.() -> Unit) {
+        val editor = sp.edit()
+        EditorStorage(editor).block()
+        editor.apply()
+    }
+
+    /**
+     * Writes the changes into the given Editor, which is applied by [batch] once all of them were made.
+     * Values are read from the SharedPreferences.
+     */
+    private inner class EditorStorage(private val editor: SharedPreferences.Editor) : Storage {
+        override fun store(name: String, value: Long?) {
+            if (value == null) {
+                editor.remove(name)
+            } else {
+                editor.putLong(name, value)
+            }
+        }
+
+        override fun store(name: String, value: Int?) {
+            if (value == null) {
+                editor.remove(name)
+            } else {
+                editor.putInt(name, value)
+            }
+        }
+
+        override fun store(name: String, value: String?) {
+            if (value == null) {
+                editor.remove(name)
+            } else {
+                editor.putString(name, value)
+            }
+        }
+
+        override fun store(name: String, value: Boolean?) {
+            if (value == null) {
+                editor.remove(name)
+            } else {
+                editor.putBoolean(name, value)
+            }
+        }
+
+        override fun retrieveLong(name: String): Long? =
+            this@SharedPreferencesStorage.retrieveLong(name)
+
+        override fun retrieveString(name: String): String? =
+            this@SharedPreferencesStorage.retrieveString(name)
+
+        override fun retrieveInteger(name: String): Int? =
+            this@SharedPreferencesStorage.retrieveInteger(name)
+
+        override fun retrieveBoolean(name: String): Boolean? =
+            this@SharedPreferencesStorage.retrieveBoolean(name)
+
+        override fun remove(name: String) {
+            editor.remove(name)
+        }
+    }
+
     private companion object {
         private const val SHARED_PREFERENCES_NAME = "cn.authok.authentication.storage"
     }
@@ -75,4 +75,18 @@ public interface Storage {
      * @param name the name of the value to remove.
      */
     public fun remove(name: String)
-}
\ No newline at end of file
+}
+
+/**
+ * Makes all the changes of the given block to the Storage at once. If the Storage is a [BatchStorage],
+ * the changes are written together in a single operation. Otherwise, each change is written as soon as it's made.
+ *
+ * @param block the changes to make, using the Storage received as the receiver.
+ */
+public fun Storage.batch(block: Storage.() -> Unit) {
+    if (this is BatchStorage) {
+        batch(block)
+    } else {
+        block()
+    }
+}
@@ -239,5 +239,8 @@ public class UsersAPIClient @VisibleForTesting(otherwise = VisibleForTesting.PRI
 
     init {
         factory.setAuthokClientInfo(authok.authokUserAgent.value)
+        factory.eventListener = authok.requestEventListener
+        factory.threadSwitcher = authok.threadSwitcher
+        factory.resultDelivery = authok.resultDelivery
     }
 }
\ No newline at end of file
@@ -4,20 +4,47 @@ import android.util.Base64;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * Token signature verifier for RS256 algorithms.
+ * The same instance can verify tokens from different threads, reusing the {@link Signature} objects
+ * initialized with its public key. Tokens that were already verified are remembered by their hash,
+ * so verifying them again doesn't repeat the RSA operation.
  */
 class AsymmetricSignatureVerifier extends SignatureVerifier {
 
-    private Signature publicSignature;
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int MAX_VERIFIED_TOKENS = 16;
+    private static final int MAX_VERIFIERS = 8;
+    // keyed by the encoded key, as every verifier holds its own public key
+    private static final Map<String, AsymmetricSignatureVerifier> verifiers = new LinkedHashMap<String, AsymmetricSignatureVerifier>(MAX_VERIFIERS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AsymmetricSignatureVerifier> eldest) {
+            return size() > MAX_VERIFIERS;
+        }
+    };
+
+    private final PublicKey publicKey;
+    private final ConcurrentLinkedQueue<Verification> pool = new ConcurrentLinkedQueue<>();
+    private final Map<String, Boolean> verifiedTokens = new LinkedHashMap<String, Boolean>(MAX_VERIFIED_TOKENS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_VERIFIED_TOKENS;
+        }
+    };
 
     /**
      * Creates a new instance of the verifier
@@ -27,24 +54,62 @@ class AsymmetricSignatureVerifier extends SignatureVerifier {
      */
     AsymmetricSignatureVerifier(@Nullable PublicKey publicKey) throws InvalidKeyException {
         super(Collections.singletonList("RS256"));
-        try {
-            publicSignature = Signature.getInstance("SHA256withRSA");
-            publicSignature.initVerify(publicKey);
-        } catch (NoSuchAlgorithmException ignored) {
-            //Safe to ignore: "SHA256withRSA" is available since API 1
-            //https://developer.android.com/reference/java/security/Signature.html
+        this.publicKey = publicKey;
+        Verification verification = Verification.create(publicKey);
+        if (verification != null) {
+            pool.offer(verification);
+        }
+    }
+
+    /**
+     * Obtains the verifier for the given public key, reusing the one created for a previous token signed with it.
+     * Only the verifiers of the last few keys are kept, so the keys replaced by a rotation are eventually released.
+     *
+     * @param publicKey the public key to use for verification
+     * @return the verifier for the key
+     * @throws InvalidKeyException if the public key provided is not of type RSA
+     */
+    @NonNull
+    static AsymmetricSignatureVerifier forKey(@NonNull PublicKey publicKey) throws InvalidKeyException {
+        byte[] encoded = publicKey.getEncoded();
+        if (encoded == null) {
+            return new AsymmetricSignatureVerifier(publicKey);
+        }
+        String cacheKey = Base64.encodeToString(encoded, Base64.NO_WRAP);
+        synchronized (verifiers) {
+            AsymmetricSignatureVerifier verifier = verifiers.get(cacheKey);
+            if (verifier == null) {
+                verifier = new AsymmetricSignatureVerifier(publicKey);
+                verifiers.put(cacheKey, verifier);
+            }
+            return verifier;
         }
     }
 
     @Override
     protected void checkSignature(@NonNull String[] tokenParts) throws TokenValidationException {
-        String content = tokenParts[0] + "." + tokenParts[1];
-        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
         boolean valid = false;
         try {
-            byte[] signatureBytes = Base64.decode(tokenParts[2], Base64.URL_SAFE | Base64.NO_WRAP);
-            publicSignature.update(contentBytes);
-            valid = publicSignature.verify(signatureBytes);
+            Verification verification = pool.poll();
+            if (verification == null) {
+                verification = Verification.create(publicKey);
+            }
+            if (verification != null) {
+                String hash = verification.writeContent(tokenParts);
+                synchronized (verifiedTokens) {
+                    valid = verifiedTokens.containsKey(hash);
+                }
+                if (!valid) {
+                    valid = verification.verify(tokenParts[2]);
+                }
+                if (valid) {
+                    synchronized (verifiedTokens) {
+                        verifiedTokens.put(hash, Boolean.TRUE);
+                    }
+                }
+                // only reuse the objects that completed the verification, their state is reset then
+                pool.offer(verification);
+            }
         } catch (Exception ignored) {
             //safe to ignore: throws when the Signature object is not properly initialized
         }
@@ -52,4 +117,93 @@ class AsymmetricSignatureVerifier extends SignatureVerifier {
             throw new TokenValidationException("Invalid ID token signature.");
         }
     }
+
+    @VisibleForTesting
+    int getPooledSignatures() {
+        return pool.size();
+    }
+
+    /**
+     * A {@link Signature} initialized with the public key, and the buffer where the signed content is written.
+     * Used by one thread at a time.
+     */
+    private static final class Verification {
+
+        private final Signature signature;
+        private final MessageDigest digest;
+        private byte[] content = new byte[1024];
+        private int contentLength;
+
+        private Verification(Signature signature, MessageDigest digest) {
+            this.signature = signature;
+            this.digest = digest;
+        }
+
+        @Nullable
+        static Verification create(@Nullable PublicKey publicKey) throws InvalidKeyException {
+            try {
+                Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+                signature.initVerify(publicKey);
+                return new Verification(signature, MessageDigest.getInstance(HASH_ALGORITHM));
+            } catch (NoSuchAlgorithmException ignored) {
+                //Safe to ignore: "SHA256withRSA" and "SHA-256" are available since API 1
+                //https://developer.android.com/reference/java/security/Signature.html
+                return null;
+            }
+        }
+
+        /**
+         * Writes the signed content, the header and payload joined by a dot, into the reusable buffer.
+         *
+         * @return the hash of the whole token as received, dots and signature included
+         */
+        @NonNull
+        String writeContent(@NonNull String[] tokenParts) {
+            String header = tokenParts[0];
+            String payload = tokenParts[1];
+            int length = header.length() + 1 + payload.length();
+            if (content.length < length) {
+                content = new byte[Math.max(length, content.length * 2)];
+            }
+            int position = writeAscii(header, 0);
+            if (position >= 0) {
+                content[position++] = '.';
+                position = writeAscii(payload, position);
+            }
+            if (position < 0) {
+                content = (header + "." + payload).getBytes(StandardCharsets.UTF_8);
+                position = content.length;
+            }
+            contentLength = position;
+            // the dot keeps the boundary between the signed content and the signature,
+            // so moving characters from one to the other changes the hash
+            digest.update(content, 0, contentLength);
+            digest.update((byte) '.');
+            byte[] hash = digest.digest(tokenParts[2].getBytes(StandardCharsets.UTF_8));
+            return Base64.encodeToString(hash, Base64.NO_WRAP);
+        }
+
+        /**
+         * Verifies the signature of the content last written.
+         */
+        boolean verify(@NonNull String encodedSignature) throws Exception {
+            byte[] signatureBytes = Base64.decode(encodedSignature, Base64.URL_SAFE | Base64.NO_WRAP);
+            signature.update(content, 0, contentLength);
+            return signature.verify(signatureBytes);
+        }
+
+        /**
+         * @return the position after the written value, or -1 if the value is not ASCII
+         */
+        private int writeAscii(@NonNull String value, int position) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c > 0x7F) {
+                    return -1;
+                }
+                content[position++] = (byte) c;
+            }
+            return position;
+        }
+    }
 }
@@ -0,0 +1,255 @@
+package cn.authok.android.provider
+
+import android.util.Base64
+import android.util.Log
+import androidx.annotation.VisibleForTesting
+import cn.authok.android.authentication.AuthenticationAPIClient
+import cn.authok.android.authentication.AuthenticationException
+import cn.authok.android.authentication.storage.Storage
+import cn.authok.android.callback.Callback
+import cn.authok.android.request.ResultDelivery
+import cn.authok.android.request.internal.CommonThreadSwitcher
+import cn.authok.android.request.internal.ThreadSwitcher
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.security.KeyFactory
+import java.security.PublicKey
+import java.security.spec.X509EncodedKeySpec
+import java.util.concurrent.TimeUnit
+
+/**
+ * Process-wide cache of the public keys used to verify the signature of the ID tokens, by Authok domain and key ID.
+ * The keys are requested again once they expire, or when a token is signed with an unknown key, as happens after
+ * the keys are rotated. Requests for unknown keys are limited to one every [minRefetchIntervalMillis], and concurrent
+ * lookups share the same request. When a [Storage] is given, the keys are also kept there to be reused after the app
+ * restarts. The persisted keys are read and decoded outside the lock, so that it's never held during that I/O.
+ */
+internal class JsonWebKeyCache @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE) constructor(
+    private val ttlMillis: Long,
+    private val minRefetchIntervalMillis: Long,
+    private val clock: () -> Long
+) {
+
+    val stats: JsonWebKeyCacheStats = JsonWebKeyCacheStats()
+
+    internal var threadSwitcher: ThreadSwitcher = CommonThreadSwitcher.getInstance()
+
+    private val domains = mutableMapOf<String, DomainKeys>()
+
+    /**
+     * Obtains the public key with the given ID, from the cache or from the server.
+     * @param keyId the ID of the key, from the header of the token.
+     * @param apiClient the client used to request the keys of its domain.
+     * @param storage where the keys are persisted, or null to keep them only in memory.
+     * @param callback receives the key, or the failure when there is no key with that ID. Invoked on the calling
+     * thread when the key is cached, or else on the thread that completed the request for the keys.
+     */
+    fun getKey(
+        keyId: String?,
+        apiClient: AuthenticationAPIClient,
+        storage: Storage?,
+        callback: Callback<PublicKey, TokenValidationException>
+    ) {
+        val domain = apiClient.baseURL
+        val now = clock()
+        var cachedKey: PublicKey? = null
+        var rateLimited = false
+        if (storage != null && needsRestore(domain)) {
+            restore(domain, storage)
+        }
+        synchronized(this) {
+            val entry = domains.getOrPut(domain) { DomainKeys() }
+            val fetchedAt = entry.fetchedAt
+            val isFresh = fetchedAt != null && now - fetchedAt < ttlMillis
+            cachedKey = if (isFresh) entry.keys[keyId] else null
+            if (cachedKey != null) {
+                stats.recordHit()
+                return@synchronized
+            }
+            stats.recordMiss()
+            val waiting = entry.waiting
+            if (waiting != null) {
+                // a request for the keys is already in progress
+                waiting.add(Lookup(keyId, callback))
+                return
+            }
+            val lastFetchAt = entry.lastFetchAt
+            if (isFresh && lastFetchAt != null && now - lastFetchAt < minRefetchIntervalMillis) {
+                // unknown key, but the keys were just requested
+                rateLimited = true
+                return@synchronized
+            }
+            entry.waiting = mutableListOf(Lookup(keyId, callback))
+            entry.lastFetchAt = now
+        }
+        val key = cachedKey
+        when {
+            key != null -> callback.onSuccess(key)
+            rateLimited -> callback.onFailure(keyNotFound(keyId))
+            else -> fetch(domain, apiClient, storage)
+        }
+    }
+
+    /**
+     * Requests the keys of the domain ahead of the lookups, unless they are cached or already being requested.
+     * The lookups made while the request is in progress wait for it instead of requesting the keys again, so the
+     * keys can be fetched while the ID token is still being obtained. When the persisted keys of the domain haven't
+     * been read yet, that is done on a background thread before deciding whether to request them.
+     * @param apiClient the client used to request the keys of its domain.
+     * @param storage where the keys are persisted, or null to keep them only in memory.
+     */
+    fun prefetch(apiClient: AuthenticationAPIClient, storage: Storage?) {
+        val domain = apiClient.baseURL
+        if (storage != null && needsRestore(domain)) {
+            threadSwitcher.backgroundThread {
+                restore(domain, storage)
+                prefetchIfNeeded(domain, apiClient, storage)
+            }
+            return
+        }
+        prefetchIfNeeded(domain, apiClient, storage)
+    }
+
+    private fun prefetchIfNeeded(domain: String, apiClient: AuthenticationAPIClient, storage: Storage?) {
+        val now = clock()
+        synchronized(this) {
+            val entry = domains.getOrPut(domain) { DomainKeys() }
+            val fetchedAt = entry.fetchedAt
+            val isFresh = fetchedAt != null && now - fetchedAt < ttlMillis
+            if (isFresh || entry.waiting != null) {
+                return
+            }
+            entry.waiting = mutableListOf()
+            entry.lastFetchAt = now
+        }
+        stats.recordPrefetch()
+        fetch(domain, apiClient, storage)
+    }
+
+    @VisibleForTesting(otherwise = VisibleForTesting.NONE)
+    fun clear() {
+        synchronized(this) {
+            domains.clear()
+        }
+    }
+
+    private fun fetch(domain: String, apiClient: AuthenticationAPIClient, storage: Storage?) {
+        stats.recordFetch()
+        val request = apiClient.fetchJsonWebKeys()
+        // the lookups hand the key over to the next step of their flow, which delivers the final result
+        request.withResultDelivery(ResultDelivery.Immediate)
+        request.start(object : Callback<Map<String, PublicKey>, AuthenticationException> {
+            override fun onSuccess(result: Map<String, PublicKey>) {
+                val fetchedAt = clock()
+                val lookups = synchronized(this@JsonWebKeyCache) {
+                    val entry = domains.getValue(domain)
+                    entry.keys = result
+                    entry.fetchedAt = fetchedAt
+                    entry.waiting.orEmpty().also { entry.waiting = null }
+                }
+                storage?.let { persist(domain, result, fetchedAt, it) }
+                lookups.forEach { lookup ->
+                    val key = result[lookup.keyId]
+                    if (key != null) {
+                        lookup.callback.onSuccess(key)
+                    } else {
+                        lookup.callback.onFailure(keyNotFound(lookup.keyId))
+                    }
+                }
+            }
+
+            override fun onFailure(error: AuthenticationException) {
+                val lookups = synchronized(this@JsonWebKeyCache) {
+                    val entry = domains.getValue(domain)
+                    entry.waiting.orEmpty().also { entry.waiting = null }
+                }
+                lookups.forEach { it.callback.onFailure(keyNotFound(it.keyId)) }
+            }
+        })
+    }
+
+    private fun needsRestore(domain: String): Boolean = synchronized(this) {
+        val entry = domains.getOrPut(domain) { DomainKeys() }
+        !entry.restored && entry.fetchedAt == null
+    }
+
+    /**
+     * Reads the persisted keys of the domain without holding the lock, and publishes them under it unless newer
+     * keys were fetched in the meantime.
+     */
+    private fun restore(domain: String, storage: Storage) {
+        val persisted = load(domain, storage)
+        synchronized(this) {
+            val entry = domains.getOrPut(domain) { DomainKeys() }
+            entry.restored = true
+            if (persisted != null && entry.fetchedAt == null) {
+                entry.keys = persisted.keys
+                entry.fetchedAt = persisted.fetchedAt
+            }
+        }
+    }
+
+    private fun load(domain: String, storage: Storage): PersistedKeys? {
+        val json = storage.retrieveString(KEY_PREFIX + domain) ?: return null
+        return try {
+            val persisted = JsonParser.parseString(json).asJsonObject
+            val keys = mutableMapOf<String, PublicKey>()
+            for ((keyId, encoded) in persisted.getAsJsonObject(KEY_KEYS).entrySet()) {
+                val spec = X509EncodedKeySpec(Base64.decode(encoded.asString, Base64.NO_WRAP))
+                keys[keyId] = KeyFactory.getInstance(RSA_ALGORITHM).generatePublic(spec)
+            }
+            PersistedKeys(keys, persisted.get(KEY_FETCHED_AT).asLong)
+        } catch (e: Exception) {
+            Log.w(TAG, "Could not restore the JSON Web Keys of $domain", e)
+            storage.remove(KEY_PREFIX + domain)
+            null
+        }
+    }
+
+    private fun persist(domain: String, keys: Map<String, PublicKey>, fetchedAt: Long, storage: Storage) {
+        val encodedKeys = JsonObject()
+        keys.filterValues { it.algorithm == RSA_ALGORITHM && it.encoded != null }
+            .forEach { (keyId, key) -> encodedKeys.addProperty(keyId, Base64.encodeToString(key.encoded, Base64.NO_WRAP)) }
+        val persisted = JsonObject()
+        persisted.addProperty(KEY_FETCHED_AT, fetchedAt)
+        persisted.add(KEY_KEYS, encodedKeys)
+        storage.store(KEY_PREFIX + domain, persisted.toString())
+    }
+
+    private fun keyNotFound(keyId: String?): TokenValidationException =
+        TokenValidationException(String.format("Could not find a public key for kid \"%s\"", keyId))
+
+    private class DomainKeys {
+        var keys: Map<String, PublicKey> = emptyMap()
+        var fetchedAt: Long? = null
+        var lastFetchAt: Long? = null
+        var waiting: MutableList<Lookup>? = null
+        var restored = false
+    }
+
+    private class PersistedKeys(val keys: Map<String, PublicKey>, val fetchedAt: Long)
+
+    private class Lookup(val keyId: String?, val callback: Callback<PublicKey, TokenValidationException>)
+
+    companion object {
+        private val TAG = JsonWebKeyCache::class.java.simpleName
+        private const val KEY_PREFIX = "cn.authok.jwks."
+        private const val KEY_FETCHED_AT = "fetched_at"
+        private const val KEY_KEYS = "keys"
+        private const val RSA_ALGORITHM = "RSA"
+        private val DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(12)
+        private val DEFAULT_MIN_REFETCH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30)
+
+        /**
+         * Name of the SharedPreferences file where the keys are persisted.
+         */
+        const val STORAGE_NAME: String = "cn_authok_jwks"
+
+        @JvmStatic
+        val shared: JsonWebKeyCache = JsonWebKeyCache(
+            DEFAULT_TTL_MILLIS,
+            DEFAULT_MIN_REFETCH_INTERVAL_MILLIS,
+            System::currentTimeMillis
+        )
+    }
+}
@@ -0,0 +1,53 @@
+package cn.authok.android.provider
+
+/**
+ * Counts how the public keys used to verify the signature of the ID tokens were obtained.
+ * See [WebAuthProvider.jsonWebKeyCacheStats].
+ */
+public class JsonWebKeyCacheStats internal constructor() {
+
+    /**
+     * The number of keys found in the cache.
+     */
+    @Volatile
+    public var hits: Int = 0
+        private set
+
+    /**
+     * The number of keys not found in the cache, either because they expired or because the key ID was unknown.
+     */
+    @Volatile
+    public var misses: Int = 0
+        private set
+
+    /**
+     * The number of times the JSON Web Keys were requested to the server.
+     */
+    @Volatile
+    public var fetches: Int = 0
+        private set
+
+    /**
+     * The number of times the JSON Web Keys were requested ahead of the ID token, while the authorization code
+     * was being exchanged. These requests are also counted in [fetches].
+     */
+    @Volatile
+    public var prefetches: Int = 0
+        private set
+
+    internal fun recordHit() {
+        synchronized(this) { hits++ }
+    }
+
+    internal fun recordMiss() {
+        synchronized(this) { misses++ }
+    }
+
+    internal fun recordFetch() {
+        synchronized(this) { fetches++ }
+    }
+
+    internal fun recordPrefetch() {
+        synchronized(this) { prefetches++ }
+    }
+}
@@ -6,6 +6,7 @@ import android.util.Log
 import cn.authok.android.Authok
 import cn.authok.android.authentication.AuthenticationException
 import cn.authok.android.callback.Callback
+import cn.authok.android.request.internal.Jwt
 import java.util.*
 
 internal class LogoutManager(
@@ -31,6 +32,7 @@ internal class LogoutManager(
             )
             callback.onFailure(exception)
         } else {
+            Jwt.clearCache()
             callback.onSuccess(null)
         }
         return true
@@ -10,9 +10,13 @@ import cn.authok.android.Authok
 import cn.authok.android.AuthokException
 import cn.authok.android.authentication.AuthenticationAPIClient
 import cn.authok.android.authentication.AuthenticationException
+import cn.authok.android.authentication.storage.SharedPreferencesStorage
+import cn.authok.android.authentication.storage.Storage
 import cn.authok.android.callback.Callback
+import cn.authok.android.request.ResultDelivery
 import cn.authok.android.request.internal.Jwt
 import cn.authok.android.request.internal.OidcUtils
+import cn.authok.android.request.internal.ResultPoster
 import cn.authok.android.result.Credentials
 import java.security.SecureRandom
 import java.util.*
@@ -29,6 +33,7 @@ internal class OAuthManager(
     private val apiClient: AuthenticationAPIClient
     private var requestCode = 0
     private var pkce: PKCE? = null
+    private var keyStorage: Storage? = null
 
     private var _currentTimeInMillis: Long? = null
 
@@ -62,6 +67,7 @@ internal class OAuthManager(
         addValidationParameters(parameters)
         val uri = buildAuthorizeUri()
         this.requestCode = requestCode
+        keyStorage = SharedPreferencesStorage(context.applicationContext, JsonWebKeyCache.STORAGE_NAME)
         AuthenticationActivity.authenticateUsingBrowser(context, uri, ctOptions)
     }
 
@@ -97,6 +103,15 @@ internal class OAuthManager(
             return true
         }
 
+        // the keys that verify the ID token are requested while the code is exchanged, unless they are cached,
+        // and the verification joins that request
+        JsonWebKeyCache.shared.prefetch(apiClient, keyStorage)
+
+        // the token request and the keys request hand their results over right away,
+        // only the result of the whole flow is delivered to the callback thread
+        val poster = ResultPoster(account.resultDelivery, account.threadSwitcher)
+        pkce!!.setResultDelivery(ResultDelivery.Immediate)
+
         // response_type=code
         pkce!!.getToken(
             values[KEY_CODE],
@@ -106,14 +121,14 @@ internal class OAuthManager(
                         credentials.idToken,
                         object : Callback<Void?, AuthokException> {
                             override fun onSuccess(result: Void?) {
-                                callback.onSuccess(credentials)
+                                poster.runOrPost { callback.onSuccess(credentials) }
                             }
 
                             override fun onFailure(error: AuthokException) {
                                 val wrappedError = AuthenticationException(
                                     ERROR_VALUE_ID_TOKEN_VALIDATION_FAILED, error
                                 )
-                                callback.onFailure(wrappedError)
+                                poster.runOrPost { callback.onFailure(wrappedError) }
                             }
                         })
                 }
@@ -125,7 +140,7 @@ internal class OAuthManager(
                             "Unable to complete authentication with PKCE. PKCE support can be enabled by setting Application Type to 'Native' and Token Endpoint Authentication Method to 'None' for this app at 'https://mgmt.authok.cn/#/applications/" + apiClient.clientId + "/settings'."
                         )
                     }
-                    callback.onFailure(error)
+                    poster.runOrPost { callback.onFailure(error) }
                 }
             })
         return true
@@ -140,7 +155,7 @@ internal class OAuthManager(
             return
         }
         val decodedIdToken: Jwt = try {
-            Jwt(idToken!!)
+            Jwt.decode(idToken!!)
         } catch (error: Exception) {
             validationCallback.onFailure(
                 TokenValidationException(
@@ -176,11 +191,24 @@ internal class OAuthManager(
                         validationCallback.onSuccess(null)
                     } catch (exc: TokenValidationException) {
                         validationCallback.onFailure(exc)
+                    } catch (error: Exception) {
+                        // the payload claims are only decoded when the verifier reads them
+                        validationCallback.onFailure(
+                            TokenValidationException(
+                                "ID token could not be decoded",
+                                error
+                            )
+                        )
                     }
                 }
             }
         val tokenKeyId = decodedIdToken.keyId
-        SignatureVerifier.forAsymmetricAlgorithm(tokenKeyId, apiClient, signatureVerifierCallback)
+        SignatureVerifier.forAsymmetricAlgorithm(
+            tokenKeyId,
+            apiClient,
+            keyStorage,
+            signatureVerifierCallback
+        )
     }
 
     //Helper Methods
@@ -1,12 +1,14 @@
 package cn.authok.android.provider;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import cn.authok.android.authentication.AuthenticationAPIClient;
 import cn.authok.android.authentication.AuthenticationException;
 import cn.authok.android.callback.Callback;
 import cn.authok.android.request.Request;
+import cn.authok.android.request.ResultDelivery;
 import cn.authok.android.result.Credentials;
 
 import java.util.Map;
@@ -22,6 +24,8 @@ class PKCE {
     private final String redirectUri;
     private final String codeChallenge;
     private final Map<String, String> headers;
+    @Nullable
+    private ResultDelivery resultDelivery;
 
     /**
      * Creates a new instance of this class with the given AuthenticationAPIClient.
@@ -56,6 +60,15 @@ class PKCE {
         return codeChallenge;
     }
 
+    /**
+     * Sets where the result of the token request is delivered, instead of the delivery configured on the API client.
+     *
+     * @param resultDelivery where the callback of {@link #getToken(String, Callback)} is invoked.
+     */
+    void setResultDelivery(@Nullable ResultDelivery resultDelivery) {
+        this.resultDelivery = resultDelivery;
+    }
+
     /**
      * Performs a request to the Authok API to get the OAuth Token and end the PKCE flow.
      * The instance of this class must be disposed after this method is called.
@@ -68,6 +81,9 @@ class PKCE {
         for (Map.Entry<String, String> entry : headers.entrySet()) {
             tokenRequest.addHeader(entry.getKey(), entry.getValue());
         }
+        if (resultDelivery != null) {
+            tokenRequest.withResultDelivery(resultDelivery);
+        }
         tokenRequest.start(callback);
     }
 
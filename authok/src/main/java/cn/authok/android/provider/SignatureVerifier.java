@@ -4,15 +4,13 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import cn.authok.android.authentication.AuthenticationAPIClient;
-import cn.authok.android.authentication.AuthenticationException;
-import cn.authok.android.callback.AuthenticationCallback;
+import cn.authok.android.authentication.storage.Storage;
 import cn.authok.android.callback.Callback;
 import cn.authok.android.request.internal.Jwt;
 
 import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Abstract class meant to verify tokens signed with HS256 and RS256 signatures.
@@ -51,26 +49,27 @@ abstract class SignatureVerifier {
 
     /**
      * Creates a new SignatureVerifier for Asymmetric algorithm ("RS256"). Signature check will actually happen.
+     * The public key is obtained from the {@link JsonWebKeyCache}, which only fetches the JWKs when needed.
      *
      * @param keyId     the id of the key used to sign this token. Obtained from the token's header
      * @param apiClient the Authentication API client instance. Used to fetch the JWKs
+     * @param storage   where the JWKs are persisted across app restarts, or null to keep them only in memory
      * @param callback  where to receive the results
      */
-    static void forAsymmetricAlgorithm(@Nullable final String keyId, @NonNull AuthenticationAPIClient apiClient, @NonNull final Callback<SignatureVerifier, TokenValidationException> callback) {
-        apiClient.fetchJsonWebKeys().start(new AuthenticationCallback<Map<String, PublicKey>>() {
+    static void forAsymmetricAlgorithm(@Nullable final String keyId, @NonNull AuthenticationAPIClient apiClient, @Nullable Storage storage, @NonNull final Callback<SignatureVerifier, TokenValidationException> callback) {
+        JsonWebKeyCache.getShared().getKey(keyId, apiClient, storage, new Callback<PublicKey, TokenValidationException>() {
             @Override
-            public void onSuccess(@Nullable Map<String, PublicKey> result) {
-                PublicKey publicKey = result.get(keyId);
+            public void onSuccess(@NonNull PublicKey result) {
                 try {
-                    callback.onSuccess(new AsymmetricSignatureVerifier(publicKey));
+                    callback.onSuccess(AsymmetricSignatureVerifier.forKey(result));
                 } catch (InvalidKeyException e) {
                     callback.onFailure(new TokenValidationException(String.format("Could not find a public key for kid \"%s\"", keyId)));
                 }
             }
 
             @Override
-            public void onFailure(@NonNull AuthenticationException error) {
-                callback.onFailure(new TokenValidationException(String.format("Could not find a public key for kid \"%s\"", keyId)));
+            public void onFailure(@NonNull TokenValidationException error) {
+                callback.onFailure(error);
             }
         });
     }
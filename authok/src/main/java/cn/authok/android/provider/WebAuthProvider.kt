@@ -25,6 +25,14 @@ public object WebAuthProvider {
     internal var managerInstance: ResumableManager? = null
         private set
 
+    /**
+     * How many times the public keys used to verify the ID tokens were found in the cache, or had to be
+     * requested to the server. The keys are cached for all the logins of the process.
+     */
+    @JvmStatic
+    public val jsonWebKeyCacheStats: JsonWebKeyCacheStats
+        get() = JsonWebKeyCache.shared.stats
+
     // Public methods
     /**
      * Initialize the WebAuthProvider instance for logging out the user using an account. Additional settings can be configured
@@ -0,0 +1,38 @@
+package cn.authok.android.request
+
+import java.io.IOException
+
+/**
+ * Networking Client that can also execute network requests asynchronously, without blocking the calling thread
+ * while waiting for the response. When the client used by a request implements this interface, the request is
+ * started with [loadAsync] instead of running [load] on a background thread.
+ */
+public interface AsyncNetworkingClient : NetworkingClient {
+
+    /**
+     * Builds a network request to the given URL using the provided options, and enqueues it to be executed
+     * asynchronously. The result is delivered to the callback exactly once, on any thread.
+     * @param url the destination URL to make the request to.
+     * @param options the additional options required to construct the request.
+     * @param callback the callback that will receive the response or the failure.
+     * @return a handle to cancel the request. Once cancelled, the callback may still be called, usually with a failure.
+     */
+    public fun loadAsync(url: String, options: RequestOptions, callback: ResponseCallback): Cancellable
+
+    /**
+     * Callback that receives the result of a request started with [loadAsync].
+     */
+    public interface ResponseCallback {
+        /**
+         * Called when the response was received. The receiver is responsible for closing the response body.
+         * @param response a ServerResponse object wrapping the received result.
+         */
+        public fun onResponse(response: ServerResponse)
+
+        /**
+         * Called when anything happened while constructing or executing the request.
+         * @param exception the cause of the failure.
+         */
+        public fun onFailure(exception: IOException)
+    }
+}
@@ -0,0 +1,42 @@
+package cn.authok.android.request
+
+import okhttp3.Response
+
+/**
+ * Counts how the responses of a [DefaultClient] were obtained when a response cache is enabled.
+ * Without a cache, every response counts as a miss.
+ */
+public class CacheStats internal constructor() {
+
+    /**
+     * The number of responses served from the cache, without contacting the server.
+     */
+    @Volatile
+    public var hits: Int = 0
+        private set
+
+    /**
+     * The number of cached responses that were validated with a conditional request, to which
+     * the server replied that they were not modified.
+     */
+    @Volatile
+    public var conditionalHits: Int = 0
+        private set
+
+    /**
+     * The number of responses fetched from the network.
+     */
+    @Volatile
+    public var misses: Int = 0
+        private set
+
+    internal fun record(response: Response) {
+        synchronized(this) {
+            when {
+                response.networkResponse == null && response.cacheResponse != null -> hits++
+                response.networkResponse != null && response.cacheResponse != null -> conditionalHits++
+                else -> misses++
+            }
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package cn.authok.android.request
+
+/**
+ * Handle of a request that was started, which can be used to cancel it.
+ */
+public fun interface Cancellable {
+    /**
+     * Cancels the request, releasing the connection and thread it was using when possible.
+     * Once cancelled, the request won't deliver any result to its callback. Calling this method
+     * after the result was delivered, or more than once, has no effect.
+     */
+    public fun cancel()
+}
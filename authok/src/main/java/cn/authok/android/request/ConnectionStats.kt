@@ -0,0 +1,38 @@
+package cn.authok.android.request
+
+import okhttp3.Connection
+import java.util.*
+
+/**
+ * Counts the connections used by the requests of a [DefaultClient], to tell whether they
+ * reused a connection that was already open, for example by a warm-up request, or had to open a new one.
+ * A connection counts as new the first time this client uses it.
+ */
+public class ConnectionStats internal constructor() {
+
+    private val seenConnections: MutableSet<Connection> = Collections.newSetFromMap(WeakHashMap())
+
+    /**
+     * The number of requests that had to open a new connection.
+     */
+    @Volatile
+    public var newConnections: Int = 0
+        private set
+
+    /**
+     * The number of requests that reused a connection opened by a previous request.
+     */
+    @Volatile
+    public var reusedConnections: Int = 0
+        private set
+
+    internal fun record(connection: Connection) {
+        synchronized(seenConnections) {
+            if (seenConnections.add(connection)) {
+                newConnections++
+            } else {
+                reusedConnections++
+            }
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package cn.authok.android.request
 
 import androidx.annotation.VisibleForTesting
+import cn.authok.android.request.internal.CachingDns
 import cn.authok.android.request.internal.GsonProvider
+import cn.authok.android.request.internal.RequestTrace
+import cn.authok.android.request.internal.TracingEventListener
 import com.google.gson.Gson
 import okhttp3.*
 import okhttp3.Headers.Companion.toHeaders
@@ -10,6 +13,7 @@ import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.Request
 import okhttp3.RequestBody.Companion.toRequestBody
 import okhttp3.logging.HttpLoggingInterceptor
+import java.io.File
 import java.io.IOException
 import java.util.concurrent.TimeUnit
 import javax.net.ssl.SSLSocketFactory
@@ -17,7 +21,12 @@ import javax.net.ssl.X509TrustManager
 
 
 /**
- * Default implementation of a Networking Client.
+ * Default implementation of a Networking Client. Asynchronous requests are enqueued in OkHttp's Dispatcher,
+ * which limits how many of them run concurrently.
+ *
+ * Every client is derived from a base OkHttpClient and shares its connection pool and dispatcher, so that
+ * connections to the Authok domain are reused by all the clients, even across different Authok instances.
+ * Unless one is given, the base client is a single instance created with [createBaseClient] default values.
  */
 public class DefaultClient @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE) internal constructor(
     connectTimeout: Int,
@@ -25,8 +34,10 @@ public class DefaultClient @VisibleForTesting(otherwise = VisibleForTesting.PRIV
     private val defaultHeaders: Map<String, String>,
     enableLogging: Boolean,
     sslSocketFactory: SSLSocketFactory?,
-    trustManager: X509TrustManager?
-) : NetworkingClient {
+    trustManager: X509TrustManager?,
+    dispatcher: Dispatcher? = null,
+    baseClient: OkHttpClient = sharedBaseClient
+) : AsyncNetworkingClient {
 
     /**
      * Create a new DefaultClient.
@@ -43,16 +54,68 @@ public class DefaultClient @VisibleForTesting(otherwise = VisibleForTesting.PRIV
         enableLogging: Boolean = false
     ) : this(connectTimeout,  readTimeout,  defaultHeaders, enableLogging, null, null)
 
-    //TODO: receive this via internal constructor parameters
+    /**
+     * Create a new DefaultClient derived from the given OkHttpClient. The new client shares the connection pool,
+     * dispatcher, DNS and protocols of the base client, while the values given here take precedence over the
+     * base client ones.
+     *
+     * @param baseClient the OkHttpClient to derive from. See [createBaseClient].
+     * @param connectTimeout the connection timeout, in seconds, to use when executing requests. Default is ten seconds.
+     * @param readTimeout the read timeout, in seconds, to use when executing requests. Default is ten seconds.
+     * @param defaultHeaders any headers that should be sent on all requests. If a specific request specifies a header with the same key as any header in the default headers, the header specified on the request will take precedence. Default is an empty map.
+     * @param enableLogging whether HTTP request and response info should be logged. This should only be set to `true` for debugging purposes in non-production environments, as sensitive information is included in the logs. Defaults to `false`.
+     */
+    public constructor(
+        baseClient: OkHttpClient,
+        connectTimeout: Int = DEFAULT_TIMEOUT_SECONDS,
+        readTimeout: Int = DEFAULT_TIMEOUT_SECONDS,
+        defaultHeaders: Map<String, String> = mapOf(),
+        enableLogging: Boolean = false
+    ) : this(connectTimeout, readTimeout, defaultHeaders, enableLogging, null, null, null, baseClient)
+
     private val gson: Gson = GsonProvider.gson
 
     @get:VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
     internal val okHttpClient: OkHttpClient
 
+    /**
+     * The counts of new and reused connections of the requests made with this client.
+     */
+    public val connectionStats: ConnectionStats = ConnectionStats()
+
+    /**
+     * The counts of the responses of this client that were served from the cache, validated with the server,
+     * or fetched from the network. The cache is enabled in the base client, see [createBaseClient].
+     */
+    public val cacheStats: CacheStats = CacheStats()
+
     @Throws(IllegalArgumentException::class, IOException::class)
     override fun load(url: String, options: RequestOptions): ServerResponse {
         val response = prepareCall(url.toHttpUrl(), options).execute()
+        return toServerResponse(response)
+    }
 
+    @Throws(IllegalArgumentException::class)
+    override fun loadAsync(
+        url: String,
+        options: RequestOptions,
+        callback: AsyncNetworkingClient.ResponseCallback
+    ): Cancellable {
+        val call = prepareCall(url.toHttpUrl(), options)
+        call.enqueue(object : Callback {
+            override fun onFailure(call: Call, e: IOException) {
+                callback.onFailure(e)
+            }
+
+            override fun onResponse(call: Call, response: Response) {
+                callback.onResponse(toServerResponse(response))
+            }
+        })
+        return Cancellable { call.cancel() }
+    }
+
+    private fun toServerResponse(response: Response): ServerResponse {
+        cacheStats.record(response)
         return ServerResponse(
             response.code,
             response.body!!.byteStream(),
@@ -78,25 +141,49 @@ public class DefaultClient @VisibleForTesting(otherwise = VisibleForTesting.PRIV
             }
         }
         val headers = defaultHeaders.plus(options.headers).toHeaders()
-        val request = requestBuilder
+        requestBuilder
             .url(urlBuilder.build())
             .headers(headers)
-            .build()
-        return okHttpClient.newCall(request)
+        options.trace?.let { requestBuilder.tag(RequestTrace::class.java, it) }
+        if (okHttpClient.cache != null && headers[HEADER_AUTHORIZATION] != null) {
+            // the cache key ignores the credentials, so always validate the cached response with the server
+            requestBuilder.cacheControl(CacheControl.Builder().maxAge(0, TimeUnit.SECONDS).build())
+        }
+        val request = requestBuilder.build()
+        val call = okHttpClient.newCall(request)
+        if (options.timeoutMillis > 0) {
+            call.timeout().timeout(options.timeoutMillis, TimeUnit.MILLISECONDS)
+        }
+        return call
     }
 
     init {
-        // client setup
-        val builder = OkHttpClient.Builder()
+        // client setup, sharing the connection pool and dispatcher of the base client
+        val builder = baseClient.newBuilder()
 
         // logging
-        //TODO: OFF by default!
         if (enableLogging) {
             val logger: Interceptor = HttpLoggingInterceptor()
                 .setLevel(HttpLoggingInterceptor.Level.BODY)
             builder.addInterceptor(logger)
         }
 
+        // connection reuse instrumentation
+        builder.addNetworkInterceptor { chain ->
+            chain.connection()?.let { connectionStats.record(it) }
+            chain.proceed(chain.request())
+        }
+
+        // request metrics, keeping the events of the base client listener
+        val baseEventListenerFactory = baseClient.eventListenerFactory
+        builder.eventListenerFactory(object : EventListener.Factory {
+            override fun create(call: Call): EventListener {
+                val delegate = baseEventListenerFactory.create(call)
+                val trace = call.request().tag(RequestTrace::class.java) ?: return delegate
+                return TracingEventListener(trace, delegate)
+            }
+        })
+
         // timeouts
         builder.connectTimeout(connectTimeout.toLong(), TimeUnit.SECONDS)
         builder.readTimeout(readTimeout.toLong(), TimeUnit.SECONDS)
@@ -106,14 +193,65 @@ public class DefaultClient @VisibleForTesting(otherwise = VisibleForTesting.PRIV
             builder.sslSocketFactory(sslSocketFactory, trustManager)
         }
 
+        // testing with a custom dispatcher hook (internal constructor params visibility only)
+        if (dispatcher != null) {
+            builder.dispatcher(dispatcher)
+        }
+
         okHttpClient = builder.build()
     }
 
 
-    internal companion object {
-        const val DEFAULT_TIMEOUT_SECONDS: Int = 10
-        val APPLICATION_JSON_UTF8: MediaType =
+    public companion object {
+        internal const val DEFAULT_TIMEOUT_SECONDS: Int = 10
+        internal const val DEFAULT_MAX_IDLE_CONNECTIONS: Int = 5
+        internal const val DEFAULT_KEEP_ALIVE_SECONDS: Long = 5 * 60
+        internal const val DEFAULT_CACHE_MAX_SIZE_BYTES: Long = 1024 * 1024
+        private const val HEADER_AUTHORIZATION = "Authorization"
+        internal val APPLICATION_JSON_UTF8: MediaType =
             "application/json; charset=utf-8".toMediaType()
+
+        private val sharedBaseClient: OkHttpClient by lazy { createBaseClient() }
+
+        /**
+         * Create an OkHttpClient to use as the base of one or more DefaultClient instances. Keep a single instance
+         * of it for the whole app, so that its connections can be reused.
+         *
+         * @param maxIdleConnections the maximum number of idle connections to keep in the pool. Default is five.
+         * @param keepAliveSeconds for how long, in seconds, an idle connection is kept in the pool. Default is five minutes.
+         * @param dnsCacheSeconds for how long, in seconds, the addresses resolved for a host name are reused. Default is 0, which disables the cache.
+         * @param preferHttp2 whether HTTP/2 should be negotiated when the server supports it, so that concurrent requests to the same host share a single connection. When `false`, only HTTP/1.1 is used. Defaults to `true`.
+         * @param cacheDirectory the directory where the responses are cached, honoring their `Cache-Control` and `ETag` headers, such as the ones of the JSON Web Keys. Use a directory private to the app and don't share it with another base client. Default is `null`, which disables the cache.
+         * @param cacheMaxSizeBytes the maximum size, in bytes, of the response cache. Default is 1 MB.
+         * @return a new OkHttpClient with its own connection pool and dispatcher.
+         */
+        @JvmStatic
+        @JvmOverloads
+        public fun createBaseClient(
+            maxIdleConnections: Int = DEFAULT_MAX_IDLE_CONNECTIONS,
+            keepAliveSeconds: Long = DEFAULT_KEEP_ALIVE_SECONDS,
+            dnsCacheSeconds: Long = 0,
+            preferHttp2: Boolean = true,
+            cacheDirectory: File? = null,
+            cacheMaxSizeBytes: Long = DEFAULT_CACHE_MAX_SIZE_BYTES
+        ): OkHttpClient {
+            require(maxIdleConnections >= 0) { "The maximum number of idle connections must be a positive value or 0." }
+            require(keepAliveSeconds > 0) { "The keep-alive duration must be a positive value." }
+            require(dnsCacheSeconds >= 0) { "The DNS cache duration must be a positive value or 0." }
+            require(cacheMaxSizeBytes > 0) { "The cache size must be a positive value." }
+            val builder = OkHttpClient.Builder()
+                .connectionPool(ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+            if (dnsCacheSeconds > 0) {
+                builder.dns(CachingDns(TimeUnit.SECONDS.toMillis(dnsCacheSeconds)))
+            }
+            if (!preferHttp2) {
+                builder.protocols(listOf(Protocol.HTTP_1_1))
+            }
+            if (cacheDirectory != null) {
+                builder.cache(Cache(cacheDirectory, cacheMaxSizeBytes))
+            }
+            return builder.build()
+        }
     }
 
 }
\ No newline at end of file
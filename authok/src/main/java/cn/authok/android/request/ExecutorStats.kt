@@ -0,0 +1,77 @@
+package cn.authok.android.request
+
+/**
+ * Counts the tasks run in the background by the executor of an Authok instance, to tell how many requests
+ * had to wait in its queue for a free thread, and for how long the queue grew.
+ */
+public class ExecutorStats internal constructor() {
+
+    /**
+     * The number of tasks given to the executor.
+     */
+    @Volatile
+    public var submittedTasks: Int = 0
+        private set
+
+    /**
+     * The number of tasks that finished running.
+     */
+    @Volatile
+    public var completedTasks: Int = 0
+        private set
+
+    /**
+     * The number of tasks running right now.
+     */
+    @Volatile
+    public var activeTasks: Int = 0
+        private set
+
+    /**
+     * The number of tasks waiting right now for a thread to run on.
+     */
+    @Volatile
+    public var queuedTasks: Int = 0
+        private set
+
+    /**
+     * The highest number of tasks that were waiting at the same time.
+     */
+    @Volatile
+    public var maxQueuedTasks: Int = 0
+        private set
+
+    internal fun recordSubmitted() {
+        synchronized(this) {
+            submittedTasks++
+            queuedTasks++
+            if (queuedTasks > maxQueuedTasks) {
+                maxQueuedTasks = queuedTasks
+            }
+        }
+    }
+
+    internal fun recordStarted() {
+        synchronized(this) {
+            queuedTasks--
+            activeTasks++
+        }
+    }
+
+    internal fun recordCompleted() {
+        synchronized(this) {
+            activeTasks--
+            completedTasks++
+        }
+    }
+
+    /**
+     * Undoes [recordSubmitted] for a task the executor rejected.
+     */
+    internal fun recordRejected() {
+        synchronized(this) {
+            submittedTasks--
+            queuedTasks--
+        }
+    }
+}
@@ -3,9 +3,14 @@ package cn.authok.android.request
 import cn.authok.android.AuthokException
 import cn.authok.android.authentication.AuthenticationException
 import cn.authok.android.callback.Callback
+import cn.authok.android.request.internal.CancellableGroup
+import cn.authok.android.request.internal.CommonThreadSwitcher
+import cn.authok.android.request.internal.ResultPoster
+import cn.authok.android.request.internal.ThreadSwitcher
 import cn.authok.android.result.Authentication
 import cn.authok.android.result.Credentials
 import cn.authok.android.result.UserProfile
+import java.util.concurrent.TimeUnit
 
 /**
  * Request to fetch a profile after a successful authentication with Authok Authentication API
@@ -18,6 +23,14 @@ public class ProfileRequest
     private val authenticationRequest: AuthenticationRequest,
     private val userInfoRequest: Request<UserProfile, AuthenticationException>
 ) : Request<Authentication, AuthenticationException> {
+
+    private var resultDelivery: ResultDelivery = ResultDelivery.MainThread
+
+    /**
+     * Posts the final result to the main thread.
+     */
+    internal var threadSwitcher: ThreadSwitcher = CommonThreadSwitcher.getInstance()
+
     /**
      * Adds additional parameters for the login request
      *
@@ -47,6 +60,31 @@ public class ProfileRequest
         return this
     }
 
+    /**
+     * Sets a deadline for each of the two requests, the authentication and the user information ones.
+     *
+     * @param timeout the maximum time each request can take, or 0 for no deadline
+     * @param unit    the unit of the timeout
+     * @return itself
+     */
+    override fun withTimeout(timeout: Long, unit: TimeUnit): ProfileRequest {
+        authenticationRequest.withTimeout(timeout, unit)
+        userInfoRequest.withTimeout(timeout, unit)
+        return this
+    }
+
+    /**
+     * Sets where the callback is invoked, the main thread by default. The authentication and the user information
+     * requests hand their results over right away, on the thread that completed them, and only the final result is posted.
+     *
+     * @param resultDelivery where the callback is invoked
+     * @return itself
+     */
+    override fun withResultDelivery(resultDelivery: ResultDelivery): ProfileRequest {
+        this.resultDelivery = resultDelivery
+        return this
+    }
+
     /**
      * Set the scope used to authenticate the user
      *
@@ -75,25 +113,55 @@ public class ProfileRequest
      * @param callback called on either success or failure
      */
     override fun start(callback: Callback<Authentication, AuthenticationException>) {
-        authenticationRequest.start(object : Callback<Credentials, AuthenticationException> {
+        startCancellable(callback)
+    }
+
+    /**
+     * Starts the log in request and then fetches the user's profile
+     *
+     * @param callback called on either success or failure
+     * @return a handle to cancel the request, whichever of the two is in progress.
+     */
+    override fun startCancellable(callback: Callback<Authentication, AuthenticationException>): Cancellable {
+        val requests = CancellableGroup()
+        // the first request hands its result to the second one right away, only the final result is posted
+        authenticationRequest.withResultDelivery(ResultDelivery.Immediate)
+        userInfoRequest.withResultDelivery(ResultDelivery.Immediate)
+        val poster = ResultPoster(resultDelivery, threadSwitcher)
+        requests.add(authenticationRequest.startCancellable(object : Callback<Credentials, AuthenticationException> {
             override fun onSuccess(credentials: Credentials) {
-                userInfoRequest
+                if (requests.isCancelled) {
+                    return
+                }
+                requests.add(userInfoRequest
                     .addHeader(HEADER_AUTHORIZATION, "Bearer " + credentials.accessToken)
-                    .start(object : Callback<UserProfile, AuthenticationException> {
+                    .startCancellable(object : Callback<UserProfile, AuthenticationException> {
                         override fun onSuccess(profile: UserProfile) {
-                            callback.onSuccess(Authentication(profile, credentials))
+                            deliver(poster, requests) { callback.onSuccess(Authentication(profile, credentials)) }
                         }
 
                         override fun onFailure(error: AuthenticationException) {
-                            callback.onFailure(error)
+                            deliver(poster, requests) { callback.onFailure(error) }
                         }
-                    })
+                    }))
             }
 
             override fun onFailure(error: AuthenticationException) {
-                callback.onFailure(error)
+                deliver(poster, requests) { callback.onFailure(error) }
+            }
+        }))
+        return requests
+    }
+
+    /**
+     * Invokes the callback through the [poster], unless the request was cancelled meanwhile.
+     */
+    private fun deliver(poster: ResultPoster, requests: CancellableGroup, invokeCallback: () -> Unit) {
+        poster.runOrPost {
+            if (!requests.isCancelled) {
+                invokeCallback()
             }
-        })
+        }
     }
 
     /**
@@ -111,6 +179,15 @@ public class ProfileRequest
         return Authentication(profile, credentials)
     }
 
+    @Throws(AuthokException::class)
+    internal suspend fun await(): Authentication {
+        val credentials = authenticationRequest.await()
+        val profile = userInfoRequest
+            .addHeader(HEADER_AUTHORIZATION, "Bearer " + credentials.accessToken)
+            .await()
+        return Authentication(profile, credentials)
+    }
+
     private companion object {
         private const val HEADER_AUTHORIZATION = "Authorization"
     }
@@ -2,6 +2,13 @@ package cn.authok.android.request
 
 import cn.authok.android.AuthokException
 import cn.authok.android.callback.Callback
+import cn.authok.android.request.internal.BaseAuthenticationRequest
+import cn.authok.android.request.internal.BaseRequest
+import cn.authok.android.request.internal.TimedRequest
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runInterruptible
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * Defines a request that can be started
@@ -17,6 +24,32 @@ public interface Request<T, U : AuthokException> {
      */
     public fun start(callback: Callback<T, U>)
 
+    /**
+     * Performs an async HTTP request against Authok API, like [start], and returns a handle to cancel it.
+     * Once cancelled, the callback is not called. The default implementation starts the request with [start]
+     * and can only prevent the callback from being called, while the request itself runs to completion.
+     *
+     * @param callback called either on success or failure
+     * @return a handle to cancel the request.
+     */
+    public fun startCancellable(callback: Callback<T, U>): Cancellable {
+        val cancelled = AtomicBoolean(false)
+        start(object : Callback<T, U> {
+            override fun onSuccess(result: T) {
+                if (!cancelled.get()) {
+                    callback.onSuccess(result)
+                }
+            }
+
+            override fun onFailure(error: U) {
+                if (!cancelled.get()) {
+                    callback.onFailure(error)
+                }
+            }
+        })
+        return Cancellable { cancelled.set(true) }
+    }
+
     /**
      * Executes the HTTP request against Authok API (blocking the current thread)
      *
@@ -51,4 +84,52 @@ public interface Request<T, U : AuthokException> {
      * @return itself
      */
     public fun addHeader(name: String, value: String): Request<T, U>
-}
\ No newline at end of file
+
+    /**
+     * Sets a deadline for the request, covering the connection, the request and the response,
+     * after which it fails. The connect and read timeouts of the networking client still apply.
+     * The default implementation ignores the deadline.
+     *
+     * @param timeout the maximum time the request can take, or 0 for no deadline
+     * @param unit    the unit of the timeout
+     * @return itself
+     */
+    public fun withTimeout(timeout: Long, unit: TimeUnit): Request<T, U> {
+        return this
+    }
+
+    /**
+     * Sets where the callback is invoked when the request is started, instead of the [ResultDelivery]
+     * configured on the Authok instance. For example, a request started from a background service
+     * can skip posting its result to the main thread with [ResultDelivery.Immediate].
+     * The default implementation ignores it, and the callback is invoked where the request calls it.
+     *
+     * @param resultDelivery where the callback is invoked
+     * @return itself
+     */
+    public fun withResultDelivery(resultDelivery: ResultDelivery): Request<T, U> {
+        return this
+    }
+}
+
+/**
+ * Performs the HTTP request against Authok API, suspending until the response is received instead of
+ * blocking the current thread. The result is returned on the caller's dispatcher, without being posted
+ * to the Main thread first. Cancelling the coroutine cancels the request in progress.
+ *
+ * @return the response on success
+ * @throws AuthokException on failure
+ */
+@JvmSynthetic
+@Throws(AuthokException::class)
+public suspend fun <T, U : AuthokException> Request<T, U>.await(): T {
+    @Suppress("UNCHECKED_CAST")
+    return when (this) {
+        is BaseRequest -> await()
+        is BaseAuthenticationRequest -> await() as T
+        is ProfileRequest -> await() as T
+        is SignUpRequest -> await() as T
+        is TimedRequest<*, *> -> await() as T
+        else -> runInterruptible(Dispatchers.IO) { execute() }
+    }
+}
@@ -0,0 +1,16 @@
+package cn.authok.android.request
+
+/**
+ * Receives the metrics of every request made by the API clients of an [cn.authok.android.Authok] instance,
+ * for example to export the latency percentiles of each endpoint. See [cn.authok.android.Authok.requestEventListener].
+ */
+public interface RequestEventListener {
+
+    /**
+     * Called once the request completed, on the thread its callback was delivered on, or on the thread that
+     * executed or awaited it. Keep this method fast, as it delays the next tasks of that thread.
+     *
+     * @param metrics the timings, status and size of the request.
+     */
+    public fun onRequestFinished(metrics: RequestMetrics)
+}
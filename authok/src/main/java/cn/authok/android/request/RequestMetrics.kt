@@ -0,0 +1,65 @@
+package cn.authok.android.request
+
+/**
+ * The timings, status and size of a single request. Every timing is the number of milliseconds elapsed since the
+ * request was started or executed, and is `null` when the request didn't reach that phase, for example when it
+ * failed, or when the [NetworkingClient] doesn't report it. Only [DefaultClient] reports the connection,
+ * first byte and size values.
+ */
+public class RequestMetrics internal constructor(
+    /**
+     * The path of the URL requested, such as `/oauth/token`.
+     */
+    public val endpoint: String,
+    /**
+     * The HTTP method of the request.
+     */
+    public val method: String,
+    /**
+     * The HTTP status code of the response, or `null` when no response was received.
+     */
+    public val statusCode: Int?,
+    /**
+     * The size of the request body in bytes, or `null` when unknown.
+     */
+    public val requestBytes: Long?,
+    /**
+     * The size of the response body in bytes, or `null` when unknown.
+     */
+    public val responseBytes: Long?,
+    /**
+     * When the request started running, after waiting in the queue of the background threads or of the HTTP client.
+     */
+    public val startedMillis: Long?,
+    /**
+     * How long it took to resolve the address of the host, or `null` when no lookup was needed.
+     */
+    public val dnsMillis: Long?,
+    /**
+     * How long the TLS handshake took, or `null` when an open connection was reused.
+     */
+    public val tlsMillis: Long?,
+    /**
+     * When a connection was ready to send the request, either a new or a reused one.
+     */
+    public val connectedMillis: Long?,
+    /**
+     * When the first byte of the response was received.
+     */
+    public val firstByteMillis: Long?,
+    /**
+     * When the response was read and parsed into the result or the error.
+     */
+    public val parsedMillis: Long?,
+    /**
+     * When the callback returned. `null` for requests that were executed or awaited, and for cancelled requests.
+     */
+    public val deliveredMillis: Long?
+) {
+    override fun toString(): String {
+        return "RequestMetrics(endpoint=$endpoint, method=$method, statusCode=$statusCode, " +
+                "requestBytes=$requestBytes, responseBytes=$responseBytes, startedMillis=$startedMillis, " +
+                "dnsMillis=$dnsMillis, tlsMillis=$tlsMillis, connectedMillis=$connectedMillis, " +
+                "firstByteMillis=$firstByteMillis, parsedMillis=$parsedMillis, deliveredMillis=$deliveredMillis)"
+    }
+}
@@ -1,9 +1,21 @@
 package cn.authok.android.request
 
+import cn.authok.android.request.internal.RequestTrace
+
 /**
  * Holder for the information required to configure a request
  */
 public class RequestOptions(public val method: HttpMethod) {
     public val parameters: MutableMap<String, Any> = mutableMapOf()
     public val headers: MutableMap<String, String> = mutableMapOf()
+
+    /**
+     * The maximum time in milliseconds the whole request can take, or 0 for no deadline.
+     */
+    public var timeoutMillis: Long = 0
+
+    /**
+     * The trace of the run in progress, when a [RequestEventListener] is registered.
+     */
+    internal var trace: RequestTrace? = null
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package cn.authok.android.request
+
+import java.util.concurrent.Executor
+
+/**
+ * Holder for the threads where the callback of a started request can be invoked.
+ */
+public sealed class ResultDelivery {
+
+    /**
+     * The callback is posted to the main thread. This is the default.
+     */
+    public object MainThread : ResultDelivery()
+
+    /**
+     * The callback is posted to the Looper of the thread that started the request, such as a HandlerThread.
+     * When that thread has no Looper, the callback is invoked on the thread that completed the request.
+     */
+    public object CallerThread : ResultDelivery()
+
+    /**
+     * The callback is invoked right away on the thread that completed the request, without being posted.
+     * Suits callers that run in the background, such as a service or a worker, and requests chained to
+     * another one. The callback must return quickly, as it may run on a networking thread.
+     */
+    public object Immediate : ResultDelivery()
+
+    /**
+     * The callback is run by the given [executor].
+     */
+    public class OnExecutor(public val executor: Executor) : ResultDelivery()
+
+    override fun toString(): String {
+        return when (this) {
+            MainThread -> "MainThread"
+            CallerThread -> "CallerThread"
+            Immediate -> "Immediate"
+            is OnExecutor -> "OnExecutor($executor)"
+        }
+    }
+}
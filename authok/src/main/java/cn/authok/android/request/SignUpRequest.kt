@@ -4,8 +4,13 @@ import cn.authok.android.AuthokException
 import cn.authok.android.authentication.AuthenticationException
 import cn.authok.android.authentication.ParameterBuilder
 import cn.authok.android.callback.Callback
+import cn.authok.android.request.internal.CancellableGroup
+import cn.authok.android.request.internal.CommonThreadSwitcher
+import cn.authok.android.request.internal.ResultPoster
+import cn.authok.android.request.internal.ThreadSwitcher
 import cn.authok.android.result.Credentials
 import cn.authok.android.result.DatabaseUser
+import java.util.concurrent.TimeUnit
 
 /**
  * Represent a request that creates a user in a Authok Database connection and then logs in.
@@ -18,6 +23,14 @@ public class SignUpRequest
     private val signUpRequest: Request<DatabaseUser, AuthenticationException>,
     private val authenticationRequest: AuthenticationRequest
 ) : AuthenticationRequest {
+
+    private var resultDelivery: ResultDelivery = ResultDelivery.MainThread
+
+    /**
+     * Posts the final result to the main thread.
+     */
+    internal var threadSwitcher: ThreadSwitcher = CommonThreadSwitcher.getInstance()
+
     /**
      * Add additional parameters to be sent only when creating a user.
      *
@@ -74,6 +87,31 @@ public class SignUpRequest
         return this
     }
 
+    /**
+     * Sets a deadline for each of the two requests, the create user and the log in ones.
+     *
+     * @param timeout the maximum time each request can take, or 0 for no deadline
+     * @param unit    the unit of the timeout
+     * @return itself
+     */
+    override fun withTimeout(timeout: Long, unit: TimeUnit): SignUpRequest {
+        signUpRequest.withTimeout(timeout, unit)
+        authenticationRequest.withTimeout(timeout, unit)
+        return this
+    }
+
+    /**
+     * Sets where the callback is invoked, the main thread by default. The create user and the log in requests hand
+     * their results over right away, on the thread that completed them, and only the final result is posted.
+     *
+     * @param resultDelivery where the callback is invoked
+     * @return itself
+     */
+    override fun withResultDelivery(resultDelivery: ResultDelivery): SignUpRequest {
+        this.resultDelivery = resultDelivery
+        return this
+    }
+
     /**
      * Add additional parameters to be sent both when creating the user and logging in the user.
      *
@@ -127,15 +165,53 @@ public class SignUpRequest
      * @param callback called on either success or failure.
      */
     override fun start(callback: Callback<Credentials, AuthenticationException>) {
-        signUpRequest.start(object : Callback<DatabaseUser, AuthenticationException> {
+        startCancellable(callback)
+    }
+
+    /**
+     * Starts to execute create user request and then logs the user in.
+     *
+     * @param callback called on either success or failure.
+     * @return a handle to cancel the request, whichever of the two is in progress.
+     */
+    override fun startCancellable(callback: Callback<Credentials, AuthenticationException>): Cancellable {
+        val requests = CancellableGroup()
+        // the first request hands its result to the second one right away, only the final result is posted
+        signUpRequest.withResultDelivery(ResultDelivery.Immediate)
+        authenticationRequest.withResultDelivery(ResultDelivery.Immediate)
+        val poster = ResultPoster(resultDelivery, threadSwitcher)
+        requests.add(signUpRequest.startCancellable(object : Callback<DatabaseUser, AuthenticationException> {
             override fun onSuccess(user: DatabaseUser) {
-                authenticationRequest.start(callback)
+                if (requests.isCancelled) {
+                    return
+                }
+                requests.add(authenticationRequest.startCancellable(object : Callback<Credentials, AuthenticationException> {
+                    override fun onSuccess(credentials: Credentials) {
+                        deliver(poster, requests) { callback.onSuccess(credentials) }
+                    }
+
+                    override fun onFailure(error: AuthenticationException) {
+                        deliver(poster, requests) { callback.onFailure(error) }
+                    }
+                }))
             }
 
             override fun onFailure(error: AuthenticationException) {
-                callback.onFailure(error)
+                deliver(poster, requests) { callback.onFailure(error) }
             }
-        })
+        }))
+        return requests
+    }
+
+    /**
+     * Invokes the callback through the [poster], unless the request was cancelled meanwhile.
+     */
+    private fun deliver(poster: ResultPoster, requests: CancellableGroup, invokeCallback: () -> Unit) {
+        poster.runOrPost {
+            if (!requests.isCancelled) {
+                invokeCallback()
+            }
+        }
     }
 
     /**
@@ -149,4 +225,10 @@ public class SignUpRequest
         signUpRequest.execute()
         return authenticationRequest.execute()
     }
+
+    @Throws(AuthokException::class)
+    internal suspend fun await(): Credentials {
+        signUpRequest.await()
+        return authenticationRequest.await()
+    }
 }
\ No newline at end of file
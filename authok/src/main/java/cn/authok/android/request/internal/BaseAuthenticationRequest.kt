@@ -5,8 +5,12 @@ import cn.authok.android.authentication.AuthenticationException
 import cn.authok.android.authentication.ParameterBuilder
 import cn.authok.android.callback.Callback
 import cn.authok.android.request.AuthenticationRequest
+import cn.authok.android.request.Cancellable
 import cn.authok.android.request.Request
+import cn.authok.android.request.ResultDelivery
+import cn.authok.android.request.await
 import cn.authok.android.result.Credentials
+import java.util.concurrent.TimeUnit
 
 internal open class BaseAuthenticationRequest(private val request: Request<Credentials, AuthenticationException>) :
     AuthenticationRequest {
@@ -80,12 +84,31 @@ internal open class BaseAuthenticationRequest(private val request: Request<Crede
         return this
     }
 
+    override fun withTimeout(timeout: Long, unit: TimeUnit): AuthenticationRequest {
+        request.withTimeout(timeout, unit)
+        return this
+    }
+
+    override fun withResultDelivery(resultDelivery: ResultDelivery): AuthenticationRequest {
+        request.withResultDelivery(resultDelivery)
+        return this
+    }
+
     override fun start(callback: Callback<Credentials, AuthenticationException>) {
         request.start(callback)
     }
 
+    override fun startCancellable(callback: Callback<Credentials, AuthenticationException>): Cancellable {
+        return request.startCancellable(callback)
+    }
+
     @Throws(AuthokException::class)
     override fun execute(): Credentials {
         return request.execute()
     }
+
+    @Throws(AuthokException::class)
+    internal suspend fun await(): Credentials {
+        return request.await()
+    }
 }
\ No newline at end of file
@@ -3,9 +3,15 @@ package cn.authok.android.request.internal
 import cn.authok.android.AuthokException
 import cn.authok.android.callback.Callback
 import cn.authok.android.request.*
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runInterruptible
+import kotlinx.coroutines.suspendCancellableCoroutine
 import java.io.IOException
 import java.io.InputStreamReader
 import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 /**
  * Base class for every request on this library.
@@ -14,6 +20,8 @@ import java.nio.charset.StandardCharsets
  * @param client the client that will execute this request.
  * @param resultAdapter the adapter that will convert a successful response into the expected type.
  * @param errorAdapter the adapter that will convert a failed response into the expected type.
+ * @param eventListener receives the metrics of every run of this request, if not null.
+ * @param resultDelivery where the callback of a started request is invoked, unless set with [withResultDelivery].
  */
 internal open class BaseRequest<T, U : AuthokException>(
     method: HttpMethod,
@@ -21,7 +29,9 @@ internal open class BaseRequest<T, U : AuthokException>(
     private val client: NetworkingClient,
     private val resultAdapter: JsonAdapter<T>,
     private val errorAdapter: ErrorAdapter<U>,
-    private val threadSwitcher: ThreadSwitcher = CommonThreadSwitcher.getInstance()
+    private val threadSwitcher: ThreadSwitcher = CommonThreadSwitcher.getInstance(),
+    private val eventListener: RequestEventListener? = null,
+    private var resultDelivery: ResultDelivery = ResultDelivery.MainThread
 ) : Request<T, U> {
 
     private val options: RequestOptions = RequestOptions(method)
@@ -56,26 +66,108 @@ internal open class BaseRequest<T, U : AuthokException>(
         return this
     }
 
+    override fun withTimeout(timeout: Long, unit: TimeUnit): Request<T, U> {
+        require(timeout >= 0) { "The timeout must be a positive value or 0." }
+        options.timeoutMillis = unit.toMillis(timeout)
+        return this
+    }
+
+    override fun withResultDelivery(resultDelivery: ResultDelivery): Request<T, U> {
+        this.resultDelivery = resultDelivery
+        return this
+    }
+
     /**
      * Runs asynchronously and executes the network request, without blocking the current thread.
      * The result is parsed into a <T> value and posted in the callback's onSuccess method or a <U>
      * exception is raised and posted in the callback's onFailure method if something went wrong.
-     * @param callback the callback to post the results in. Uses the Main thread.
+     * When the client is an [AsyncNetworkingClient], no background thread is kept waiting for the response,
+     * and cancelling the request cancels the call in progress. Otherwise, cancelling the request
+     * only prevents it from being started and its result from being posted.
+     * @param callback the callback to post the results in. Uses the Main thread, unless another [ResultDelivery] was configured.
      */
     override fun start(callback: Callback<T, U>) {
+        startCancellable(callback)
+    }
+
+    /**
+     * Same as [start], returning a handle to cancel the request.
+     * @param callback the callback to post the results in. Uses the Main thread, unless another [ResultDelivery] was configured.
+     * @return a handle to cancel the request.
+     */
+    override fun startCancellable(callback: Callback<T, U>): Cancellable {
+        val execution = Execution(newTrace(), ResultPoster(resultDelivery, threadSwitcher))
+        if (client is AsyncNetworkingClient) {
+            startAsync(client, callback, execution)
+            return execution
+        }
         threadSwitcher.backgroundThread {
+            if (execution.isCancelled) {
+                execution.trace?.finish()
+                return@backgroundThread
+            }
             try {
-                val result: T = execute()
-                threadSwitcher.mainThread {
-                    callback.onSuccess(result)
-                }
+                val result: T = load(execution.trace)
+                postResult(result, callback, execution)
             } catch (error: AuthokException) {
-                @Suppress("UNCHECKED_CAST") // https://youtrack.jetbrains.com/issue/KT-11774
-                val uError: U = error as? U ?: errorAdapter.fromException(error)
-                threadSwitcher.mainThread {
-                    callback.onFailure(uError)
+                postError(error, callback, execution)
+            }
+        }
+        return execution
+    }
+
+    private fun startAsync(
+        client: AsyncNetworkingClient,
+        callback: Callback<T, U>,
+        execution: Execution
+    ) {
+        val trace = execution.trace
+        val call = loadAsync(client, trace, object : AsyncNetworkingClient.ResponseCallback {
+            override fun onResponse(response: ServerResponse) {
+                if (execution.isCancelled) {
+                    response.body.close()
+                    trace?.finish()
+                    return
+                }
+                try {
+                    val result: T = parseResponse(response, trace)
+                    postResult(result, callback, execution)
+                } catch (error: AuthokException) {
+                    postError(error, callback, execution)
+                }
+            }
+
+            override fun onFailure(exception: IOException) {
+                if (execution.isCancelled) {
+                    trace?.finish()
+                    return
                 }
+                //1. Network exceptions, timeouts, etc
+                postError(errorAdapter.fromException(exception), callback, execution)
+            }
+        })
+        execution.attach(call)
+    }
+
+    private fun postResult(result: T, callback: Callback<T, U>, execution: Execution) {
+        execution.poster.post {
+            if (!execution.isCancelled) {
+                callback.onSuccess(result)
+                execution.trace?.markDelivered()
             }
+            execution.trace?.finish()
+        }
+    }
+
+    private fun postError(error: AuthokException, callback: Callback<T, U>, execution: Execution) {
+        @Suppress("UNCHECKED_CAST") // https://youtrack.jetbrains.com/issue/KT-11774
+        val uError: U = error as? U ?: errorAdapter.fromException(error)
+        execution.poster.post {
+            if (!execution.isCancelled) {
+                callback.onFailure(uError)
+                execution.trace?.markDelivered()
+            }
+            execution.trace?.finish()
         }
     }
 
@@ -85,15 +177,93 @@ internal open class BaseRequest<T, U : AuthokException>(
      */
     @kotlin.jvm.Throws(AuthokException::class)
     override fun execute(): T {
+        val trace = newTrace()
+        try {
+            return load(trace)
+        } finally {
+            trace?.finish()
+        }
+    }
+
+    @kotlin.jvm.Throws(AuthokException::class)
+    private fun load(trace: RequestTrace?): T {
+        trace?.markStarted()
         val response: ServerResponse
         try {
+            options.trace = trace
             response = client.load(url, options)
         } catch (exception: IOException) {
             //1. Network exceptions, timeouts, etc
             val error: U = errorAdapter.fromException(exception)
             throw error
+        } finally {
+            options.trace = null
+        }
+        return parseResponse(response, trace)
+    }
+
+    private fun loadAsync(
+        client: AsyncNetworkingClient,
+        trace: RequestTrace?,
+        callback: AsyncNetworkingClient.ResponseCallback
+    ): Cancellable {
+        try {
+            options.trace = trace
+            return client.loadAsync(url, options, callback)
+        } finally {
+            options.trace = null
+        }
+    }
+
+    private fun newTrace(): RequestTrace? =
+        eventListener?.let { RequestTrace(url, options.method.toString(), it) }
+
+    /**
+     * Suspends until the network request completes, without blocking the current thread.
+     * When the client is an [AsyncNetworkingClient], cancelling the coroutine cancels the HTTP call. Otherwise,
+     * the request is executed on [Dispatchers.IO] and the thread is interrupted on cancellation.
+     * The result is parsed into a <T> value or a <U> exception is thrown if something went wrong.
+     */
+    @kotlin.jvm.Throws(AuthokException::class)
+    internal suspend fun await(): T {
+        if (client !is AsyncNetworkingClient) {
+            return runInterruptible(Dispatchers.IO) { execute() }
         }
+        val trace = newTrace()
+        return suspendCancellableCoroutine { continuation ->
+            val call = loadAsync(client, trace, object : AsyncNetworkingClient.ResponseCallback {
+                override fun onResponse(response: ServerResponse) {
+                    val result: T = try {
+                        parseResponse(response, trace)
+                    } catch (error: AuthokException) {
+                        trace?.finish()
+                        continuation.resumeWithException(error)
+                        return
+                    }
+                    trace?.finish()
+                    continuation.resume(result)
+                }
 
+                override fun onFailure(exception: IOException) {
+                    //1. Network exceptions, timeouts, etc
+                    trace?.finish()
+                    continuation.resumeWithException(errorAdapter.fromException(exception))
+                }
+            })
+            continuation.invokeOnCancellation { call.cancel() }
+        }
+    }
+
+    private fun parseResponse(response: ServerResponse, trace: RequestTrace?): T {
+        trace?.statusCode = response.statusCode
+        try {
+            return parseResponse(response)
+        } finally {
+            trace?.markParsed()
+        }
+    }
+
+    private fun parseResponse(response: ServerResponse): T {
         InputStreamReader(response.body, StandardCharsets.UTF_8).use { reader ->
             if (response.isSuccess()) {
                 //2. Successful scenario. Response of type T
@@ -127,4 +297,28 @@ internal open class BaseRequest<T, U : AuthokException>(
         }
     }
 
+    /**
+     * Handle of a started request. Cancelling it cancels the asynchronous call, once attached.
+     * The callback is handed to the [poster], created for the delivery set when it was started.
+     */
+    private class Execution(val trace: RequestTrace?, val poster: ResultPoster) : Cancellable {
+        @Volatile
+        var isCancelled = false
+            private set
+
+        @Volatile
+        private var call: Cancellable? = null
+
+        fun attach(call: Cancellable) {
+            this.call = call
+            if (isCancelled) {
+                call.cancel()
+            }
+        }
+
+        override fun cancel() {
+            isCancelled = true
+            call?.cancel()
+        }
+    }
 }
@@ -0,0 +1,47 @@
+package cn.authok.android.request.internal
+
+import androidx.annotation.VisibleForTesting
+import okhttp3.Dns
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Dns that keeps the successful lookups of the delegate in memory for the given time,
+ * so that new connections to the same host don't wait for the system resolver again.
+ * Failed lookups are never cached.
+ * @param ttlMillis for how long, in milliseconds, a lookup result is reused.
+ * @param delegate the Dns used to resolve the host names that are not cached.
+ */
+internal class CachingDns @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE) constructor(
+    private val ttlMillis: Long,
+    private val delegate: Dns,
+    private val clock: () -> Long
+) : Dns {
+
+    constructor(ttlMillis: Long, delegate: Dns = Dns.SYSTEM) : this(
+        ttlMillis,
+        delegate,
+        { TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) })
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+
+    init {
+        require(ttlMillis > 0) { "The time to live must be a positive value." }
+    }
+
+    @Throws(UnknownHostException::class)
+    override fun lookup(hostname: String): List<InetAddress> {
+        val now = clock()
+        val cached = entries[hostname]
+        if (cached != null && now < cached.expiresAt) {
+            return cached.addresses
+        }
+        val addresses = delegate.lookup(hostname)
+        entries[hostname] = Entry(addresses, now + ttlMillis)
+        return addresses
+    }
+
+    private class Entry(val addresses: List<InetAddress>, val expiresAt: Long)
+}
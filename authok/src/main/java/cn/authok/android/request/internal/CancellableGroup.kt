@@ -0,0 +1,38 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.request.Cancellable
+
+/**
+ * Handle for requests made of several chained requests. Cancelling it cancels every
+ * request added so far, and any request added afterwards is cancelled right away.
+ */
+internal class CancellableGroup : Cancellable {
+    private val members = mutableListOf<Cancellable>()
+
+    @Volatile
+    var isCancelled = false
+        private set
+
+    fun add(member: Cancellable) {
+        synchronized(members) {
+            if (!isCancelled) {
+                members.add(member)
+                return
+            }
+        }
+        member.cancel()
+    }
+
+    override fun cancel() {
+        val cancelled: List<Cancellable>
+        synchronized(members) {
+            if (isCancelled) {
+                return
+            }
+            isCancelled = true
+            cancelled = members.toList()
+            members.clear()
+        }
+        cancelled.forEach { it.cancel() }
+    }
+}
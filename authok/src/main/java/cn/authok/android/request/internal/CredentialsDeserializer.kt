@@ -1,48 +1,57 @@
 package cn.authok.android.request.internal
 
 import androidx.annotation.VisibleForTesting
+import cn.authok.android.request.internal.StreamingDeserializer.Companion.readObject
 import cn.authok.android.result.Credentials
-import com.google.gson.JsonDeserializationContext
-import com.google.gson.JsonDeserializer
-import com.google.gson.JsonElement
+import com.google.gson.Gson
 import com.google.gson.JsonParseException
-import java.lang.reflect.Type
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
 import java.util.*
 
-internal open class CredentialsDeserializer : JsonDeserializer<Credentials> {
-    @Throws(JsonParseException::class)
-    override fun deserialize(
-        json: JsonElement,
-        typeOfT: Type,
-        context: JsonDeserializationContext
-    ): Credentials {
-        if (!json.isJsonObject || json.isJsonNull || json.asJsonObject.entrySet().isEmpty()) {
-            throw JsonParseException("credentials json is not a valid json object")
-        }
-        val jsonObject = json.asJsonObject
-        val idToken = context.deserialize<String>(jsonObject.remove("id_token"), String::class.java)
-        val accessToken =
-            context.deserialize<String>(jsonObject.remove("access_token"), String::class.java)
-        val type = context.deserialize<String>(jsonObject.remove("token_type"), String::class.java)
-        val refreshToken =
-            context.deserialize<String>(jsonObject.remove("refresh_token"), String::class.java)
-        val expiresIn = context.deserialize<Long>(jsonObject.remove("expires_in"), Long::class.java)
-        val scope = context.deserialize<String>(jsonObject.remove("scope"), String::class.java)
-        val recoveryCode =
-            context.deserialize<String>(jsonObject.remove("recovery_code"), String::class.java)
-        var expiresAt = context.deserialize<Date>(jsonObject.remove("expires_at"), Date::class.java)
-        if (expiresAt == null && expiresIn != null) {
-            expiresAt = Date(currentTimeInMillis + expiresIn * 1000)
+internal open class CredentialsDeserializer :
+    StreamingDeserializer<Credentials>(TypeToken.get(Credentials::class.java)) {
+
+    override fun newReader(gson: Gson): (JsonReader) -> Credentials {
+        val stringAdapter = gson.getAdapter(String::class.java)
+        val longAdapter = gson.getAdapter(Long::class.javaObjectType)
+        val dateAdapter = gson.getAdapter(Date::class.java)
+        return { reader ->
+            var idToken: String? = null
+            var accessToken: String? = null
+            var type: String? = null
+            var refreshToken: String? = null
+            var expiresIn: Long? = null
+            var scope: String? = null
+            var recoveryCode: String? = null
+            var expiresAt: Date? = null
+            reader.readObject("credentials json is not a valid json object") { name ->
+                when (name) {
+                    "id_token" -> idToken = stringAdapter.read(reader)
+                    "access_token" -> accessToken = stringAdapter.read(reader)
+                    "token_type" -> type = stringAdapter.read(reader)
+                    "refresh_token" -> refreshToken = stringAdapter.read(reader)
+                    "expires_in" -> expiresIn = longAdapter.read(reader)
+                    "scope" -> scope = stringAdapter.read(reader)
+                    "recovery_code" -> recoveryCode = stringAdapter.read(reader)
+                    "expires_at" -> expiresAt = dateAdapter.read(reader)
+                    else -> reader.skipValue()
+                }
+            }
+            val expiresInValue = expiresIn
+            if (expiresAt == null && expiresInValue != null) {
+                expiresAt = Date(currentTimeInMillis + expiresInValue * 1000)
+            }
+            createCredentials(
+                idToken ?: throw missingAttribute("id_token"),
+                accessToken ?: throw missingAttribute("access_token"),
+                type ?: throw missingAttribute("token_type"),
+                refreshToken,
+                expiresAt ?: throw missingAttribute("expires_at"),
+                scope,
+                recoveryCode
+            )
         }
-        return createCredentials(
-            idToken,
-            accessToken,
-            type,
-            refreshToken,
-            expiresAt,
-            scope,
-            recoveryCode
-        )
     }
 
     @get:VisibleForTesting
@@ -65,4 +74,7 @@ internal open class CredentialsDeserializer : JsonDeserializer<Credentials> {
         credentials.recoveryCode = recoveryCode
         return credentials
     }
-}
\ No newline at end of file
+
+    private fun missingAttribute(name: String): JsonParseException =
+        JsonParseException("Missing required attribute $name")
+}
@@ -1,12 +1,8 @@
 package cn.authok.android.request.internal
 
 import androidx.annotation.VisibleForTesting
-import cn.authok.android.result.Credentials
-import cn.authok.android.result.UserProfile
 import com.google.gson.Gson
 import com.google.gson.GsonBuilder
-import com.google.gson.reflect.TypeToken
-import java.security.PublicKey
 import java.text.SimpleDateFormat
 import java.util.*
 
@@ -16,16 +12,12 @@ internal object GsonProvider {
     private const val DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'"
 
     init {
-        val jwksType = TypeToken.getParameterized(
-            Map::class.java,
-            String::class.java,
-            PublicKey::class.java
-        ).type
         gson = GsonBuilder()
             .registerTypeAdapterFactory(JsonRequiredTypeAdapterFactory())
-            .registerTypeAdapter(UserProfile::class.java, UserProfileDeserializer())
-            .registerTypeAdapter(Credentials::class.java, CredentialsDeserializer())
-            .registerTypeAdapter(jwksType, JwksDeserializer())
+            .registerTypeAdapterFactory(UserProfileDeserializer())
+            .registerTypeAdapterFactory(UserIdentityDeserializer())
+            .registerTypeAdapterFactory(CredentialsDeserializer())
+            .registerTypeAdapterFactory(JwksDeserializer())
             .setDateFormat(DATE_FORMAT)
             .create()
         sdf = SimpleDateFormat(DATE_FORMAT, Locale.US)
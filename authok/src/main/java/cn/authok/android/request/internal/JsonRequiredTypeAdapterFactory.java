@@ -1,6 +1,7 @@
 package cn.authok.android.request.internal;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
@@ -12,13 +13,27 @@ import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
 
 
 class JsonRequiredTypeAdapterFactory implements TypeAdapterFactory {
 
-    @NonNull
+    @Nullable
     public <T> TypeAdapter<T> create(@NonNull Gson gson, @NonNull final TypeToken<T> type) {
 
+        final List<Field> requiredFields = new ArrayList<>();
+        for (Field f : type.getRawType().getDeclaredFields()) {
+            if (f.getAnnotation(JsonRequired.class) != null) {
+                f.setAccessible(true);
+                requiredFields.add(f);
+            }
+        }
+        if (requiredFields.isEmpty()) {
+            //Let the next factory handle this type
+            return null;
+        }
+
         final TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
 
         return new TypeAdapter<T>() {
@@ -30,17 +45,13 @@ class JsonRequiredTypeAdapterFactory implements TypeAdapterFactory {
             public T read(JsonReader in) throws IOException {
                 T pojo = delegate.read(in);
 
-                Field[] fields = pojo.getClass().getDeclaredFields();
-                for (Field f : fields) {
-                    if (f.getAnnotation(JsonRequired.class) != null) {
-                        try {
-                            f.setAccessible(true);
-                            if (f.get(pojo) == null) {
-                                throw new JsonParseException(String.format("Missing required attribute %s", f.getName()));
-                            }
-                        } catch (IllegalAccessException ex) {
+                for (Field f : requiredFields) {
+                    try {
+                        if (f.get(pojo) == null) {
                             throw new JsonParseException(String.format("Missing required attribute %s", f.getName()));
                         }
+                    } catch (IllegalAccessException ex) {
+                        throw new JsonParseException(String.format("Missing required attribute %s", f.getName()));
                     }
                 }
                 return pojo;
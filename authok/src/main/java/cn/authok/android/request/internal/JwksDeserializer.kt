@@ -2,11 +2,10 @@ package cn.authok.android.request.internal
 
 import android.util.Base64
 import android.util.Log
-import com.google.gson.JsonDeserializationContext
-import com.google.gson.JsonDeserializer
-import com.google.gson.JsonElement
-import com.google.gson.JsonParseException
-import java.lang.reflect.Type
+import cn.authok.android.request.internal.StreamingDeserializer.Companion.readObject
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
 import java.math.BigInteger
 import java.security.KeyFactory
 import java.security.NoSuchAlgorithmException
@@ -14,68 +13,104 @@ import java.security.PublicKey
 import java.security.spec.InvalidKeySpecException
 import java.security.spec.RSAPublicKeySpec
 
-internal class JwksDeserializer : JsonDeserializer<Map<String, PublicKey>> {
-    @Throws(JsonParseException::class)
-    override fun deserialize(
-        json: JsonElement,
-        typeOfT: Type,
-        context: JsonDeserializationContext
-    ): Map<String, PublicKey> {
-        if (!json.isJsonObject || json.isJsonNull || json.asJsonObject.entrySet().isEmpty()) {
-            throw JsonParseException("jwks json must be a valid and non-empty json object")
-        }
-        val jwks = mutableMapOf<String, PublicKey>()
-        val keys = json.asJsonObject.getAsJsonArray("keys")
-        for (k in keys) {
-            val currentKey = k.asJsonObject
-            val keyAlg = context.deserialize<String>(currentKey["alg"], String::class.java)
-            val keyUse = context.deserialize<String>(currentKey["use"], String::class.java)
-            if (RSA_ALGORITHM != keyAlg || USE_SIGNING != keyUse) {
-                //Key not supported at this time
-                continue
+internal class JwksDeserializer : StreamingDeserializer<Map<String, PublicKey>>(JWKS_TYPE) {
+
+    override fun newReader(gson: Gson): (JsonReader) -> Map<String, PublicKey> {
+        val stringAdapter = gson.getAdapter(String::class.java)
+        return { reader ->
+            val jwks = mutableMapOf<String, PublicKey>()
+            reader.readObject("jwks json must be a valid and non-empty json object") { name ->
+                if (name != "keys") {
+                    reader.skipValue()
+                    return@readObject
+                }
+                reader.beginArray()
+                while (reader.hasNext()) {
+                    var keyAlg: String? = null
+                    var keyUse: String? = null
+                    var keyType: String? = null
+                    var keyId: String? = null
+                    var keyModulus: String? = null
+                    var keyPublicExponent: String? = null
+                    reader.beginObject()
+                    while (reader.hasNext()) {
+                        when (reader.nextName()) {
+                            "alg" -> keyAlg = stringAdapter.read(reader)
+                            "use" -> keyUse = stringAdapter.read(reader)
+                            "kty" -> keyType = stringAdapter.read(reader)
+                            "kid" -> keyId = stringAdapter.read(reader)
+                            "n" -> keyModulus = stringAdapter.read(reader)
+                            "e" -> keyPublicExponent = stringAdapter.read(reader)
+                            else -> reader.skipValue()
+                        }
+                    }
+                    reader.endObject()
+                    if (RSA_ALGORITHM != keyAlg || USE_SIGNING != keyUse) {
+                        //Key not supported at this time
+                        continue
+                    }
+                    //Keys without an ID can't be matched with a token, skip them
+                    val id = keyId ?: continue
+                    val pub = createPublicKey(id, keyType, keyModulus, keyPublicExponent)
+                    if (pub != null) {
+                        jwks[id] = pub
+                    }
+                }
+                reader.endArray()
             }
-            val keyType = context.deserialize<String>(currentKey["kty"], String::class.java)
-            val keyId = context.deserialize<String>(currentKey["kid"], String::class.java)
-            val keyModulus = context.deserialize<String>(currentKey["n"], String::class.java)
-            val keyPublicExponent = context.deserialize<String>(currentKey["e"], String::class.java)
-            try {
-                val kf = KeyFactory.getInstance(keyType)
-                val modulus = BigInteger(
-                    1,
-                    Base64.decode(
-                        keyModulus,
-                        Base64.URL_SAFE or Base64.NO_PADDING or Base64.NO_WRAP
-                    )
-                )
-                val exponent = BigInteger(
-                    1,
-                    Base64.decode(
-                        keyPublicExponent,
-                        Base64.URL_SAFE or Base64.NO_PADDING or Base64.NO_WRAP
-                    )
-                )
-                val pub = kf.generatePublic(RSAPublicKeySpec(modulus, exponent))
-                jwks[keyId] = pub
-            } catch (e: NoSuchAlgorithmException) {
-                Log.e(
-                    JwksDeserializer::class.java.simpleName,
-                    "Could not parse the JWK with ID $keyId",
-                    e
+            jwks.toMap()
+        }
+    }
+
+    private fun createPublicKey(
+        keyId: String?,
+        keyType: String?,
+        keyModulus: String?,
+        keyPublicExponent: String?
+    ): PublicKey? {
+        try {
+            val kf = KeyFactory.getInstance(keyType)
+            val modulus = BigInteger(
+                1,
+                Base64.decode(
+                    keyModulus,
+                    Base64.URL_SAFE or Base64.NO_PADDING or Base64.NO_WRAP
                 )
-                //Would result in an empty key set
-            } catch (e: InvalidKeySpecException) {
-                Log.e(
-                    JwksDeserializer::class.java.simpleName,
-                    "Could not parse the JWK with ID $keyId",
-                    e
+            )
+            val exponent = BigInteger(
+                1,
+                Base64.decode(
+                    keyPublicExponent,
+                    Base64.URL_SAFE or Base64.NO_PADDING or Base64.NO_WRAP
                 )
-            }
+            )
+            return kf.generatePublic(RSAPublicKeySpec(modulus, exponent))
+        } catch (e: NoSuchAlgorithmException) {
+            Log.e(
+                JwksDeserializer::class.java.simpleName,
+                "Could not parse the JWK with ID $keyId",
+                e
+            )
+            //Would result in an empty key set
+        } catch (e: InvalidKeySpecException) {
+            Log.e(
+                JwksDeserializer::class.java.simpleName,
+                "Could not parse the JWK with ID $keyId",
+                e
+            )
         }
-        return jwks.toMap()
+        return null
     }
 
     companion object {
         private const val RSA_ALGORITHM = "RS256"
         private const val USE_SIGNING = "sig"
+
+        @Suppress("UNCHECKED_CAST")
+        val JWKS_TYPE: TypeToken<Map<String, PublicKey>> = TypeToken.getParameterized(
+            Map::class.java,
+            String::class.java,
+            PublicKey::class.java
+        ) as TypeToken<Map<String, PublicKey>>
     }
-}
\ No newline at end of file
+}
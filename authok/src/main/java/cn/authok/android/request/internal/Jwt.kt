@@ -1,61 +1,87 @@
 package cn.authok.android.request.internal
 
 import android.util.Base64
-import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import java.io.StringReader
 import java.util.*
 
 
 /**
  * Internal class meant to decode the given token of type JWT and provide access to its claims.
+ * The header is decoded right away, while the payload claims are decoded the first time one of them is read.
  */
 internal class Jwt(rawToken: String) {
 
-    private val decodedHeader: Map<String, Any>
-    private val decodedPayload: Map<String, Any>
+    private val tokenParts: Array<String> = splitToken(rawToken)
+
+    /**
+     * The encoded header, payload and signature of the token. Every call returns a new copy.
+     */
     val parts: Array<String>
+        get() = tokenParts.copyOf()
 
     // header
     val algorithm: String
     val keyId: String?
 
     // payload
+    private val payload: Payload by lazy { readPayload(tokenParts[1].decodeBase64()) }
     val subject: String?
+        get() = payload.subject
     val issuer: String?
+        get() = payload.issuer
     val nonce: String?
+        get() = payload.nonce
     val organizationId: String?
+        get() = payload.organizationId
     val issuedAt: Date?
+        get() = payload.issuedAt
     val expiresAt: Date?
+        get() = payload.expiresAt
     val authorizedParty: String?
+        get() = payload.authorizedParty
     val authenticationTime: Date?
+        get() = payload.authenticationTime
     val audience: List<String>
+        get() = payload.audience
 
     init {
-        parts = splitToken(rawToken)
-        val jsonHeader = parts[0].decodeBase64()
-        val jsonPayload = parts[1].decodeBase64()
-        val mapAdapter = GsonProvider.gson.getAdapter(object : TypeToken<Map<String, Any>>() {})
-        decodedHeader = mapAdapter.fromJson(jsonHeader)
-        decodedPayload = mapAdapter.fromJson(jsonPayload)
-
-        // header claims
-        algorithm = decodedHeader["alg"] as String
-        keyId = decodedHeader["kid"] as String?
-
-        // payload claims
-        subject = decodedPayload["sub"] as String?
-        issuer = decodedPayload["iss"] as String?
-        nonce = decodedPayload["nonce"] as String?
-        organizationId = decodedPayload["org_id"] as String?
-        issuedAt = (decodedPayload["iat"] as? Double)?.let { Date(it.toLong() * 1000) }
-        expiresAt = (decodedPayload["exp"] as? Double)?.let { Date(it.toLong() * 1000) }
-        authorizedParty = decodedPayload["azp"] as String?
-        authenticationTime =
-            (decodedPayload["auth_time"] as? Double)?.let { Date(it.toLong() * 1000) }
-        audience = when (val aud = decodedPayload["aud"]) {
-            is String -> listOf(aud)
-            is List<*> -> aud as List<String>
-            else -> emptyList()
+        val jsonHeader = tokenParts[0].decodeBase64()
+        var algorithm: String? = null
+        var keyId: String? = null
+        JsonReader(StringReader(jsonHeader)).readClaims { reader, name ->
+            when (name) {
+                "alg" -> algorithm = reader.nextStringOrNull()
+                "kid" -> keyId = reader.nextStringOrNull()
+                else -> reader.skipValue()
+            }
+        }
+        this.algorithm = algorithm
+            ?: throw IllegalArgumentException("The token's header doesn't contain the \"alg\" claim.")
+        this.keyId = keyId
+    }
+
+    /**
+     * Reads the payload claims in a single pass, other claims are skipped without being decoded.
+     */
+    private fun readPayload(jsonPayload: String): Payload {
+        val payload = Payload()
+        JsonReader(StringReader(jsonPayload)).readClaims { reader, name ->
+            when (name) {
+                "sub" -> payload.subject = reader.nextStringOrNull()
+                "iss" -> payload.issuer = reader.nextStringOrNull()
+                "nonce" -> payload.nonce = reader.nextStringOrNull()
+                "org_id" -> payload.organizationId = reader.nextStringOrNull()
+                "iat" -> payload.issuedAt = reader.nextDateOrNull()
+                "exp" -> payload.expiresAt = reader.nextDateOrNull()
+                "azp" -> payload.authorizedParty = reader.nextStringOrNull()
+                "auth_time" -> payload.authenticationTime = reader.nextDateOrNull()
+                "aud" -> payload.audience = reader.nextAudience()
+                else -> reader.skipValue()
+            }
         }
+        return payload
     }
 
     private fun splitToken(token: String): Array<String> {
@@ -81,4 +107,94 @@ internal class Jwt(rawToken: String) {
         return String(bytes, Charsets.UTF_8)
     }
 
+    private inline fun JsonReader.readClaims(readClaim: (JsonReader, String) -> Unit) {
+        beginObject()
+        while (hasNext()) {
+            readClaim(this, nextName())
+        }
+        endObject()
+    }
+
+    private fun JsonReader.nextStringOrNull(): String? {
+        if (peek() != JsonToken.STRING) {
+            skipValue()
+            return null
+        }
+        return nextString()
+    }
+
+    private fun JsonReader.nextDateOrNull(): Date? {
+        if (peek() != JsonToken.NUMBER) {
+            skipValue()
+            return null
+        }
+        return Date(nextDouble().toLong() * 1000)
+    }
+
+    private fun JsonReader.nextAudience(): List<String> {
+        return when (peek()) {
+            JsonToken.STRING -> listOf(nextString())
+            JsonToken.BEGIN_ARRAY -> {
+                val audience = mutableListOf<String>()
+                beginArray()
+                while (hasNext()) {
+                    nextStringOrNull()?.let { audience.add(it) }
+                }
+                endArray()
+                audience
+            }
+            else -> {
+                skipValue()
+                emptyList()
+            }
+        }
+    }
+
+    private class Payload {
+        var subject: String? = null
+        var issuer: String? = null
+        var nonce: String? = null
+        var organizationId: String? = null
+        var issuedAt: Date? = null
+        var expiresAt: Date? = null
+        var authorizedParty: String? = null
+        var authenticationTime: Date? = null
+        var audience: List<String> = emptyList()
+    }
+
+    companion object {
+        private const val MAX_CACHED_TOKENS = 8
+        private val cache = object : LinkedHashMap<String, Jwt>(MAX_CACHED_TOKENS, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Jwt>?): Boolean {
+                return size > MAX_CACHED_TOKENS
+            }
+        }
+
+        /**
+         * Decodes the given token, reusing the result of a previous call with the same token.
+         * The last few tokens are kept, as the same ID token is usually decoded again right after
+         * to verify it or to save the credentials.
+         */
+        @JvmStatic
+        fun decode(rawToken: String): Jwt {
+            synchronized(cache) {
+                cache[rawToken]?.let { return it }
+            }
+            val jwt = Jwt(rawToken)
+            synchronized(cache) {
+                cache[rawToken] = jwt
+            }
+            return jwt
+        }
+
+        /**
+         * Discards the decoded tokens, so they are not kept in memory once the user logs out.
+         */
+        @JvmStatic
+        fun clearCache() {
+            synchronized(cache) {
+                cache.clear()
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -26,6 +26,21 @@ internal class RequestFactory<U : AuthokException> internal constructor(
 
     private val baseHeaders = mutableMapOf(Pair(ACCEPT_LANGUAGE_HEADER, defaultLocale))
 
+    /**
+     * Receives the metrics of the requests created from now on, or null to not collect them.
+     */
+    var eventListener: RequestEventListener? = null
+
+    /**
+     * Runs the requests created from now on in the background and posts their results to the main thread.
+     */
+    var threadSwitcher: ThreadSwitcher = CommonThreadSwitcher.getInstance()
+
+    /**
+     * Where the callbacks of the requests created from now on are invoked.
+     */
+    var resultDelivery: ResultDelivery = ResultDelivery.MainThread
+
     fun <T> post(
         url: String,
         resultAdapter: JsonAdapter<T>
@@ -69,7 +84,16 @@ internal class RequestFactory<U : AuthokException> internal constructor(
         resultAdapter: JsonAdapter<T>,
         errorAdapter: ErrorAdapter<U>,
         threadSwitcher: ThreadSwitcher
-    ): Request<T, U> = BaseRequest(method, url, client, resultAdapter, errorAdapter, threadSwitcher)
+    ): Request<T, U> = BaseRequest(
+        method,
+        url,
+        client,
+        resultAdapter,
+        errorAdapter,
+        threadSwitcher,
+        eventListener,
+        resultDelivery
+    )
 
 
     private fun <T> setupRequest(
@@ -85,7 +109,7 @@ internal class RequestFactory<U : AuthokException> internal constructor(
                 client,
                 resultAdapter,
                 errorAdapter,
-                CommonThreadSwitcher.getInstance()
+                threadSwitcher
             )
         baseHeaders.map { request.addHeader(it.key, it.value) }
         return request
@@ -0,0 +1,141 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.request.RequestEventListener
+import cn.authok.android.request.RequestMetrics
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Collects the timings of a single run of a request, and reports them to the listener once it finishes.
+ * The phases can be marked from different threads: the one that started the request, the HTTP client ones
+ * and the one that delivers the result.
+ */
+internal class RequestTrace(
+    url: String,
+    private val method: String,
+    private val listener: RequestEventListener,
+    private val clock: () -> Long = System::nanoTime
+) {
+    private val endpoint: String = url.toHttpUrlOrNull()?.encodedPath ?: url
+    private val enqueuedAt = clock()
+    private val finished = AtomicBoolean(false)
+
+    @Volatile
+    private var startedAt = NOT_REACHED
+
+    @Volatile
+    private var dnsStartedAt = NOT_REACHED
+
+    @Volatile
+    private var dnsNanos = NOT_REACHED
+
+    @Volatile
+    private var tlsStartedAt = NOT_REACHED
+
+    @Volatile
+    private var tlsNanos = NOT_REACHED
+
+    @Volatile
+    private var connectedAt = NOT_REACHED
+
+    @Volatile
+    private var firstByteAt = NOT_REACHED
+
+    @Volatile
+    private var parsedAt = NOT_REACHED
+
+    @Volatile
+    private var deliveredAt = NOT_REACHED
+
+    @Volatile
+    var statusCode: Int? = null
+
+    @Volatile
+    var requestBytes: Long? = null
+
+    @Volatile
+    var responseBytes: Long? = null
+
+    /**
+     * Marks when the request started running. Only the first call counts, as both the background thread
+     * and the HTTP client report it.
+     */
+    fun markStarted() {
+        if (startedAt == NOT_REACHED) {
+            startedAt = clock()
+        }
+    }
+
+    fun markDnsStarted() {
+        dnsStartedAt = clock()
+    }
+
+    fun markDnsEnded() {
+        if (dnsStartedAt != NOT_REACHED) {
+            dnsNanos = clock() - dnsStartedAt
+        }
+    }
+
+    fun markTlsStarted() {
+        tlsStartedAt = clock()
+    }
+
+    fun markTlsEnded() {
+        if (tlsStartedAt != NOT_REACHED) {
+            tlsNanos = clock() - tlsStartedAt
+        }
+    }
+
+    fun markConnected() {
+        connectedAt = clock()
+    }
+
+    fun markFirstByte() {
+        if (firstByteAt == NOT_REACHED) {
+            firstByteAt = clock()
+        }
+    }
+
+    fun markParsed() {
+        parsedAt = clock()
+    }
+
+    fun markDelivered() {
+        deliveredAt = clock()
+    }
+
+    /**
+     * Reports the metrics to the listener. Only the first call has effect.
+     */
+    fun finish() {
+        if (!finished.compareAndSet(false, true)) {
+            return
+        }
+        val metrics = RequestMetrics(
+            endpoint,
+            method,
+            statusCode,
+            requestBytes,
+            responseBytes,
+            sinceEnqueued(startedAt),
+            toMillis(dnsNanos),
+            toMillis(tlsNanos),
+            sinceEnqueued(connectedAt),
+            sinceEnqueued(firstByteAt),
+            sinceEnqueued(parsedAt),
+            sinceEnqueued(deliveredAt)
+        )
+        listener.onRequestFinished(metrics)
+    }
+
+    private fun sinceEnqueued(time: Long): Long? =
+        if (time == NOT_REACHED) null else TimeUnit.NANOSECONDS.toMillis(time - enqueuedAt)
+
+    private fun toMillis(nanos: Long): Long? =
+        if (nanos == NOT_REACHED) null else TimeUnit.NANOSECONDS.toMillis(nanos)
+
+    private companion object {
+        private const val NOT_REACHED = Long.MIN_VALUE
+    }
+}
@@ -0,0 +1,58 @@
+package cn.authok.android.request.internal
+
+import android.os.Looper
+import androidx.core.os.HandlerCompat
+import cn.authok.android.request.ResultDelivery
+
+/**
+ * Hands the callbacks of a started request to the thread chosen by its [ResultDelivery].
+ * Must be created on the thread that starts the request, to remember its Looper.
+ * @param resultDelivery where the callbacks are invoked.
+ * @param threadSwitcher posts the callbacks to the main thread.
+ */
+internal class ResultPoster(
+    private val resultDelivery: ResultDelivery,
+    private val threadSwitcher: ThreadSwitcher
+) {
+    private val callerLooper: Looper? =
+        if (resultDelivery is ResultDelivery.CallerThread) Looper.myLooper() else null
+
+    /**
+     * Posts the runnable to the delivery thread, even when called from it.
+     */
+    fun post(runnable: Runnable) {
+        when (resultDelivery) {
+            ResultDelivery.MainThread -> threadSwitcher.mainThread(runnable)
+            ResultDelivery.CallerThread -> postToCaller(runnable)
+            ResultDelivery.Immediate -> runnable.run()
+            is ResultDelivery.OnExecutor -> resultDelivery.executor.execute(runnable)
+        }
+    }
+
+    /**
+     * Runs the runnable right away when called from the delivery thread, or posts it otherwise.
+     * Used by the requests that chain others, whose results may already be on the delivery thread.
+     */
+    fun runOrPost(runnable: Runnable) {
+        val looper = Looper.myLooper()
+        val isOnDeliveryThread = when (resultDelivery) {
+            ResultDelivery.MainThread -> looper != null && looper == Looper.getMainLooper()
+            ResultDelivery.CallerThread -> callerLooper == null || looper == callerLooper
+            else -> false
+        }
+        if (isOnDeliveryThread) {
+            runnable.run()
+        } else {
+            post(runnable)
+        }
+    }
+
+    private fun postToCaller(runnable: Runnable) {
+        val looper = callerLooper
+        if (looper != null) {
+            HandlerCompat.createAsync(looper).post(runnable)
+        } else {
+            runnable.run()
+        }
+    }
+}
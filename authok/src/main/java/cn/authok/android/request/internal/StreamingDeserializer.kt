@@ -0,0 +1,61 @@
+package cn.authok.android.request.internal
+
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import com.google.gson.TypeAdapter
+import com.google.gson.TypeAdapterFactory
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+
+/**
+ * Base class of the deserializers that read the value of the given type straight from the [JsonReader],
+ * without parsing the whole response into a tree of JsonElements first.
+ * The value is serialized as Gson would do without this factory.
+ */
+internal abstract class StreamingDeserializer<T>(private val type: TypeToken<T>) : TypeAdapterFactory {
+
+    /**
+     * Creates the function that reads a value, using the given Gson to obtain the adapters of its properties.
+     */
+    abstract fun newReader(gson: Gson): (JsonReader) -> T
+
+    override fun <R> create(gson: Gson, type: TypeToken<R>): TypeAdapter<R>? {
+        if (type != this.type) {
+            return null
+        }
+        val delegate by lazy { gson.getDelegateAdapter(this, type) }
+        val reader = newReader(gson)
+        return object : TypeAdapter<R>() {
+            override fun write(out: JsonWriter, value: R) {
+                delegate.write(out, value)
+            }
+
+            @Suppress("UNCHECKED_CAST")
+            override fun read(input: JsonReader): R {
+                return reader(input) as R
+            }
+        }.nullSafe()
+    }
+
+    internal companion object {
+        /**
+         * Reads a non-empty JSON object, calling [readProperty] with the name of each of its properties.
+         * The value of the property must be read or skipped by [readProperty].
+         */
+        inline fun JsonReader.readObject(errorMessage: String, readProperty: (String) -> Unit) {
+            if (peek() != JsonToken.BEGIN_OBJECT) {
+                throw JsonParseException(errorMessage)
+            }
+            beginObject()
+            if (!hasNext()) {
+                throw JsonParseException(errorMessage)
+            }
+            while (hasNext()) {
+                readProperty(nextName())
+            }
+            endObject()
+        }
+    }
+}
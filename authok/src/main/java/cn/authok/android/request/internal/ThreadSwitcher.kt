@@ -4,9 +4,14 @@ import android.os.Handler
 import android.os.Looper
 import androidx.annotation.VisibleForTesting
 import androidx.core.os.HandlerCompat
-import java.lang.reflect.InvocationTargetException
+import cn.authok.android.request.ExecutorStats
 import java.util.concurrent.Executor
-import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * The maximum concurrent threads to execute
@@ -15,15 +20,25 @@ import java.util.concurrent.Executors
  */
 private const val MAX_CONCURRENT_THREADS = 4
 
+/**
+ * How long an idle background thread is kept before it ends.
+ */
+private const val KEEP_ALIVE_SECONDS = 60L
+
 /**
  * Thread Switcher that makes use of the Main Looper
  * and a background thread Executor.
  * @param backgroundExecutor The executor that enqueues tasks to be run in the background.
  */
 internal class DefaultThreadSwitcher(
-    private val backgroundExecutor: Executor = Executors.newFixedThreadPool(MAX_CONCURRENT_THREADS)
+    private val backgroundExecutor: Executor = createDefaultExecutor()
 ) : ThreadSwitcher {
 
+    /**
+     * Counts the tasks given to the background executor.
+     */
+    val stats: ExecutorStats = ExecutorStats()
+
     @Volatile
     private var mainHandler: Handler? = null
 
@@ -37,12 +52,50 @@ internal class DefaultThreadSwitcher(
     }
 
     override fun backgroundThread(runnable: Runnable) {
-        backgroundExecutor.execute(runnable)
+        stats.recordSubmitted()
+        try {
+            backgroundExecutor.execute {
+                stats.recordStarted()
+                try {
+                    runnable.run()
+                } finally {
+                    stats.recordCompleted()
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            stats.recordRejected()
+            throw e
+        }
     }
 
     private fun createAsync(looper: Looper): Handler {
         return HandlerCompat.createAsync(looper)
     }
+
+    internal companion object {
+        /**
+         * Creates the default background executor: up to [MAX_CONCURRENT_THREADS] daemon threads, named after
+         * the SDK so they can be told apart in thread dumps, that end after being idle for a while.
+         */
+        fun createDefaultExecutor(): Executor {
+            val threadCount = AtomicInteger()
+            val threadFactory = ThreadFactory { runnable ->
+                val thread = Thread(runnable, "Authok-Background-${threadCount.incrementAndGet()}")
+                thread.isDaemon = true
+                thread
+            }
+            val executor = ThreadPoolExecutor(
+                MAX_CONCURRENT_THREADS,
+                MAX_CONCURRENT_THREADS,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                LinkedBlockingQueue(),
+                threadFactory
+            )
+            executor.allowCoreThreadTimeOut(true)
+            return executor
+        }
+    }
 }
 
 /**
@@ -76,6 +129,7 @@ public class CommonThreadSwitcher(
      * should you wish to have your own object that handles task execution.
      * If set to `null`, the default Looper-based [DefaultThreadSwitcher] will be used.
      * This is useful for unit tests when you don't want to use the actual main looper.
+     * To run the requests of an Authok instance on your own executor, set [cn.authok.android.Authok.executor] instead.
      */
     public fun setDelegate(threadSwitcher: ThreadSwitcher?) {
         delegateThreadSwitcher = threadSwitcher ?: defaultThreadSwitcher
@@ -107,6 +161,12 @@ public class CommonThreadSwitcher(
         }
     }
 
+    /**
+     * Counts the tasks run in the background by the default thread switcher, when it's a [DefaultThreadSwitcher].
+     */
+    internal val stats: ExecutorStats =
+        (defaultThreadSwitcher as? DefaultThreadSwitcher)?.stats ?: ExecutorStats()
+
     init {
         delegateThreadSwitcher = defaultThreadSwitcher
     }
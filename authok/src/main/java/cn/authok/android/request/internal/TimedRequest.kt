@@ -0,0 +1,77 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.AuthokException
+import cn.authok.android.callback.Callback
+import cn.authok.android.request.Cancellable
+import cn.authok.android.request.Request
+import cn.authok.android.request.ResultDelivery
+import cn.authok.android.request.await
+import java.util.concurrent.TimeUnit
+
+/**
+ * Request that discards the result of the wrapped request, and instead yields the time,
+ * in milliseconds, it took to complete.
+ */
+internal class TimedRequest<T, U : AuthokException>(
+    private val request: Request<T, U>
+) : Request<Long, U> {
+
+    override fun addParameters(parameters: Map<String, String>): Request<Long, U> {
+        request.addParameters(parameters)
+        return this
+    }
+
+    override fun addParameter(name: String, value: String): Request<Long, U> {
+        request.addParameter(name, value)
+        return this
+    }
+
+    override fun addHeader(name: String, value: String): Request<Long, U> {
+        request.addHeader(name, value)
+        return this
+    }
+
+    override fun withTimeout(timeout: Long, unit: TimeUnit): Request<Long, U> {
+        request.withTimeout(timeout, unit)
+        return this
+    }
+
+    override fun withResultDelivery(resultDelivery: ResultDelivery): Request<Long, U> {
+        request.withResultDelivery(resultDelivery)
+        return this
+    }
+
+    override fun start(callback: Callback<Long, U>) {
+        startCancellable(callback)
+    }
+
+    override fun startCancellable(callback: Callback<Long, U>): Cancellable {
+        val startedAt = System.nanoTime()
+        return request.startCancellable(object : Callback<T, U> {
+            override fun onSuccess(result: T) {
+                callback.onSuccess(elapsedMillis(startedAt))
+            }
+
+            override fun onFailure(error: U) {
+                callback.onFailure(error)
+            }
+        })
+    }
+
+    @Throws(AuthokException::class)
+    override fun execute(): Long {
+        val startedAt = System.nanoTime()
+        request.execute()
+        return elapsedMillis(startedAt)
+    }
+
+    @Throws(AuthokException::class)
+    internal suspend fun await(): Long {
+        val startedAt = System.nanoTime()
+        request.await()
+        return elapsedMillis(startedAt)
+    }
+
+    private fun elapsedMillis(startedAt: Long): Long =
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)
+}
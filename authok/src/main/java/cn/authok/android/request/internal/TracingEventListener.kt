@@ -0,0 +1,154 @@
+package cn.authok.android.request.internal
+
+import okhttp3.*
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+
+/**
+ * Bridges the events of an OkHttp call into its [RequestTrace], while still forwarding every event to
+ * the listener the base OkHttpClient was configured with.
+ */
+internal class TracingEventListener(
+    private val trace: RequestTrace,
+    private val delegate: EventListener
+) : EventListener() {
+
+    override fun callStart(call: Call) {
+        trace.markStarted()
+        delegate.callStart(call)
+    }
+
+    override fun proxySelectStart(call: Call, url: HttpUrl) {
+        delegate.proxySelectStart(call, url)
+    }
+
+    override fun proxySelectEnd(call: Call, url: HttpUrl, proxies: List<Proxy>) {
+        delegate.proxySelectEnd(call, url, proxies)
+    }
+
+    override fun dnsStart(call: Call, domainName: String) {
+        trace.markDnsStarted()
+        delegate.dnsStart(call, domainName)
+    }
+
+    override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+        trace.markDnsEnded()
+        delegate.dnsEnd(call, domainName, inetAddressList)
+    }
+
+    override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+        delegate.connectStart(call, inetSocketAddress, proxy)
+    }
+
+    override fun secureConnectStart(call: Call) {
+        trace.markTlsStarted()
+        delegate.secureConnectStart(call)
+    }
+
+    override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+        trace.markTlsEnded()
+        delegate.secureConnectEnd(call, handshake)
+    }
+
+    override fun connectEnd(
+        call: Call,
+        inetSocketAddress: InetSocketAddress,
+        proxy: Proxy,
+        protocol: Protocol?
+    ) {
+        delegate.connectEnd(call, inetSocketAddress, proxy, protocol)
+    }
+
+    override fun connectFailed(
+        call: Call,
+        inetSocketAddress: InetSocketAddress,
+        proxy: Proxy,
+        protocol: Protocol?,
+        ioe: IOException
+    ) {
+        delegate.connectFailed(call, inetSocketAddress, proxy, protocol, ioe)
+    }
+
+    override fun connectionAcquired(call: Call, connection: Connection) {
+        trace.markConnected()
+        delegate.connectionAcquired(call, connection)
+    }
+
+    override fun connectionReleased(call: Call, connection: Connection) {
+        delegate.connectionReleased(call, connection)
+    }
+
+    override fun requestHeadersStart(call: Call) {
+        delegate.requestHeadersStart(call)
+    }
+
+    override fun requestHeadersEnd(call: Call, request: Request) {
+        delegate.requestHeadersEnd(call, request)
+    }
+
+    override fun requestBodyStart(call: Call) {
+        delegate.requestBodyStart(call)
+    }
+
+    override fun requestBodyEnd(call: Call, byteCount: Long) {
+        trace.requestBytes = byteCount
+        delegate.requestBodyEnd(call, byteCount)
+    }
+
+    override fun requestFailed(call: Call, ioe: IOException) {
+        delegate.requestFailed(call, ioe)
+    }
+
+    override fun responseHeadersStart(call: Call) {
+        trace.markFirstByte()
+        delegate.responseHeadersStart(call)
+    }
+
+    override fun responseHeadersEnd(call: Call, response: Response) {
+        trace.statusCode = response.code
+        delegate.responseHeadersEnd(call, response)
+    }
+
+    override fun responseBodyStart(call: Call) {
+        delegate.responseBodyStart(call)
+    }
+
+    override fun responseBodyEnd(call: Call, byteCount: Long) {
+        trace.responseBytes = byteCount
+        delegate.responseBodyEnd(call, byteCount)
+    }
+
+    override fun responseFailed(call: Call, ioe: IOException) {
+        delegate.responseFailed(call, ioe)
+    }
+
+    override fun callEnd(call: Call) {
+        delegate.callEnd(call)
+    }
+
+    override fun callFailed(call: Call, ioe: IOException) {
+        delegate.callFailed(call, ioe)
+    }
+
+    override fun canceled(call: Call) {
+        delegate.canceled(call)
+    }
+
+    override fun satisfactionFailure(call: Call, response: Response) {
+        delegate.satisfactionFailure(call, response)
+    }
+
+    override fun cacheHit(call: Call, response: Response) {
+        delegate.cacheHit(call, response)
+    }
+
+    override fun cacheMiss(call: Call) {
+        delegate.cacheMiss(call)
+    }
+
+    override fun cacheConditionalHit(call: Call, cachedResponse: Response) {
+        delegate.cacheConditionalHit(call, cachedResponse)
+    }
+}
@@ -0,0 +1,51 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.request.internal.StreamingDeserializer.Companion.readObject
+import cn.authok.android.result.UserIdentity
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+
+internal class UserIdentityDeserializer :
+    StreamingDeserializer<UserIdentity>(TypeToken.get(UserIdentity::class.java)) {
+
+    override fun newReader(gson: Gson): (JsonReader) -> UserIdentity {
+        val stringAdapter = gson.getAdapter(String::class.java)
+        val booleanAdapter = gson.getAdapter(Boolean::class.javaObjectType)
+        val mapAdapter = gson.getAdapter(object : TypeToken<Map<String, Any>>() {})
+        return { reader ->
+            var id: String? = null
+            var connection: String? = null
+            var provider: String? = null
+            var isSocial = false
+            var accessToken: String? = null
+            var accessTokenSecret: String? = null
+            var profileInfo: Map<String, Any>? = null
+            reader.readObject("user identity json is not a valid json object") { name ->
+                when (name) {
+                    "user_id" -> id = stringAdapter.read(reader)
+                    "connection" -> connection = stringAdapter.read(reader)
+                    "provider" -> provider = stringAdapter.read(reader)
+                    "isSocial" -> isSocial = booleanAdapter.read(reader) ?: isSocial
+                    "access_token" -> accessToken = stringAdapter.read(reader)
+                    "access_token_secret" -> accessTokenSecret = stringAdapter.read(reader)
+                    "profileData" -> profileInfo = mapAdapter.read(reader)
+                    else -> reader.skipValue()
+                }
+            }
+            UserIdentity(
+                id ?: throw missingAttribute("id"),
+                connection ?: throw missingAttribute("connection"),
+                provider ?: throw missingAttribute("provider"),
+                isSocial,
+                accessToken,
+                accessTokenSecret,
+                profileInfo
+            )
+        }
+    }
+
+    private fun missingAttribute(name: String): JsonParseException =
+        JsonParseException("Missing required attribute $name")
+}
@@ -0,0 +1,70 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.request.internal.StreamingDeserializer.Companion.readObject
+import cn.authok.android.result.UserIdentity
+import cn.authok.android.result.UserProfile
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import java.util.*
+
+internal class UserProfileDeserializer :
+    StreamingDeserializer<UserProfile>(TypeToken.get(UserProfile::class.java)) {
+
+    override fun newReader(gson: Gson): (JsonReader) -> UserProfile {
+        val stringAdapter = gson.getAdapter(String::class.java)
+        val booleanAdapter = gson.getAdapter(Boolean::class.javaObjectType)
+        val dateAdapter = gson.getAdapter(Date::class.java)
+        val identitiesAdapter = gson.getAdapter(object : TypeToken<List<UserIdentity>>() {})
+        val metadataAdapter = gson.getAdapter(object : TypeToken<Map<String, Any>>() {})
+        val valueAdapter = gson.getAdapter(Any::class.java)
+        return { reader ->
+            var id: String? = null
+            var name: String? = null
+            var nickname: String? = null
+            var picture: String? = null
+            var email: String? = null
+            var givenName: String? = null
+            var familyName: String? = null
+            var emailVerified: Boolean? = false
+            var createdAt: Date? = null
+            var identities: List<UserIdentity>? = null
+            var userMetadata: Map<String, Any>? = null
+            var appMetadata: Map<String, Any>? = null
+            val extraInfo = mutableMapOf<String, Any?>()
+            reader.readObject("user profile json is not a valid json object") { property ->
+                when (property) {
+                    "user_id" -> id = stringAdapter.read(reader)
+                    "name" -> name = stringAdapter.read(reader)
+                    "nickname" -> nickname = stringAdapter.read(reader)
+                    "picture" -> picture = stringAdapter.read(reader)
+                    "email" -> email = stringAdapter.read(reader)
+                    "given_name" -> givenName = stringAdapter.read(reader)
+                    "family_name" -> familyName = stringAdapter.read(reader)
+                    "email_verified" -> emailVerified = booleanAdapter.read(reader)
+                    "created_at" -> createdAt = dateAdapter.read(reader)
+                    "identities" -> identities = identitiesAdapter.read(reader)
+                    "user_metadata" -> userMetadata = metadataAdapter.read(reader)
+                    "app_metadata" -> appMetadata = metadataAdapter.read(reader)
+                    else -> extraInfo[property] = valueAdapter.read(reader)
+                }
+            }
+            UserProfile(
+                id,
+                name,
+                nickname,
+                picture,
+                email,
+                emailVerified,
+                familyName,
+                createdAt,
+                identities,
+                @Suppress("UNCHECKED_CAST")
+                (extraInfo as Map<String, Any>),
+                userMetadata,
+                appMetadata,
+                givenName
+            )
+        }
+    }
+}
@@ -3,6 +3,7 @@ package cn.authok.android;
 import android.content.Context;
 import android.content.res.Resources;
 
+import cn.authok.android.request.ExecutorStats;
 import cn.authok.android.util.AuthokUserAgent;
 
 import org.junit.Assert;
@@ -22,7 +23,10 @@ import static cn.authok.android.util.HttpUrlMatcher.hasScheme;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.when;
 
@@ -173,4 +177,23 @@ public class AuthokTest {
     public void shouldThrowWhenConfigDomainIsHttp() {
         Assert.assertThrows("Invalid domain url: 'http://" + OTHER_DOMAIN + "'. Only HTTPS domain URLs are supported. If no scheme is passed, HTTPS will be used.", IllegalArgumentException.class, () -> new Authok(CLIENT_ID, DOMAIN, "HTTP://" + OTHER_DOMAIN));
     }
+
+    @Test
+    public void shouldShareTheStatsOfTheDefaultExecutor() {
+        Authok authok = new Authok(CLIENT_ID, DOMAIN);
+        Authok other = new Authok(CLIENT_ID, OTHER_DOMAIN);
+        assertThat(authok.getExecutor(), is(nullValue()));
+        assertThat(authok.getExecutorStats(), is(sameInstance(other.getExecutorStats())));
+    }
+
+    @Test
+    public void shouldUseTheStatsOfACustomExecutor() {
+        Authok authok = new Authok(CLIENT_ID, DOMAIN);
+        ExecutorStats defaultStats = authok.getExecutorStats();
+        authok.setExecutor(Runnable::run);
+        assertThat(authok.getExecutorStats(), is(not(sameInstance(defaultStats))));
+
+        authok.setExecutor(null);
+        assertThat(authok.getExecutorStats(), is(sameInstance(defaultStats)));
+    }
 }
\ No newline at end of file
@@ -1629,6 +1629,30 @@ public class AuthenticationAPIClientTest {
         assertThat(result, Matchers.`is`(emptyMap()))
     }
 
+    @Test
+    public fun shouldPrewarm() {
+        mockAPI.willReturnEmptyJsonWebKeys()
+        val callback = MockAuthenticationCallback<Long>()
+        client.prewarm()
+            .start(callback)
+        ShadowLooper.idleMainLooper()
+        val request = mockAPI.takeRequest()
+        assertThat(request.path, Matchers.equalTo("/.well-known/jwks.json"))
+        assertThat(request.method, Matchers.equalTo("GET"))
+        assertThat(callback, AuthenticationCallbackMatcher.hasPayloadOfType(Long::class.javaObjectType))
+    }
+
+    @Test
+    public fun shouldPrewarmSync() {
+        mockAPI.willReturnEmptyJsonWebKeys()
+        val result = client.prewarm()
+            .execute()
+        val request = mockAPI.takeRequest()
+        assertThat(request.path, Matchers.equalTo("/.well-known/jwks.json"))
+        assertThat(request.getHeader("Cache-Control"), Matchers.`is`("no-cache"))
+        assertThat(result, Matchers.greaterThanOrEqualTo(0L))
+    }
+
     @Test
     public fun shouldFetchProfileAfterLoginRequest() {
         mockAPI.willReturnSuccessfulLogin()
@@ -0,0 +1,293 @@
+package cn.authok.android.authentication
+
+import cn.authok.android.Authok
+import cn.authok.android.AuthokException
+import cn.authok.android.authentication.storage.CredentialsManager
+import cn.authok.android.authentication.storage.CredentialsManagerException
+import cn.authok.android.authentication.storage.Storage
+import cn.authok.android.callback.Callback
+import cn.authok.android.request.DefaultClient
+import cn.authok.android.request.internal.CommonThreadSwitcher
+import cn.authok.android.request.internal.DefaultThreadSwitcher
+import cn.authok.android.request.internal.ThreadSwitcher
+import cn.authok.android.result.Credentials
+import cn.authok.android.result.UserProfile
+import cn.authok.android.util.AuthenticationAPIMockServer
+import cn.authok.android.util.SSLTestUtils
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.`is`
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.lang.management.ManagementFactory
+import java.nio.charset.StandardCharsets
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.ceil
+
+/**
+ * Load benchmark of the authentication flows against a local [AuthenticationAPIMockServer]. For each flow,
+ * a number of users repeat it concurrently while the server delays every response, and the throughput, the latency
+ * percentiles, the threads and the allocation rate are printed.
+ *
+ * The callbacks are posted to a single thread standing in for the main thread, as Robolectric runs the main looper
+ * in the test thread, which waits for the users to finish. The background threads are the default ones.
+ *
+ * Skipped unless enabled, as it takes longer than the unit tests:
+ * ```
+ * ./gradlew :authok:testDebugUnitTest --tests '*AuthenticationLoadBenchmark' -Pauthok.benchmark=true \
+ *     -Pauthok.benchmark.concurrency=8 -Pauthok.benchmark.iterations=50 -Pauthok.benchmark.latencyMillis=20
+ * ```
+ */
+@RunWith(RobolectricTestRunner::class)
+public class AuthenticationLoadBenchmark {
+
+    private val concurrency = Integer.getInteger("authok.benchmark.concurrency", 8)
+    private val iterations = Integer.getInteger("authok.benchmark.iterations", 50)
+    private val warmUpIterations = Integer.getInteger("authok.benchmark.warmUpIterations", 5)
+    private val latencyMillis = java.lang.Long.getLong("authok.benchmark.latencyMillis", 20)
+
+    private lateinit var mockAPI: AuthenticationAPIMockServer
+    private lateinit var client: AuthenticationAPIClient
+    private lateinit var mainThread: ExecutorService
+
+    @Before
+    public fun setUp() {
+        assumeTrue("Enable with -Pauthok.benchmark=true", java.lang.Boolean.getBoolean("authok.benchmark"))
+        mockAPI = AuthenticationAPIMockServer().willAnswerByPath(latencyMillis, idToken())
+        val authok = Authok(CLIENT_ID, mockAPI.domain, mockAPI.domain)
+        authok.networkingClient = DefaultClient(
+            connectTimeout = 10,
+            readTimeout = 10,
+            defaultHeaders = mapOf(),
+            enableLogging = false,
+            sslSocketFactory = SSLTestUtils.clientCertificates.sslSocketFactory(),
+            trustManager = SSLTestUtils.clientCertificates.trustManager
+        )
+        client = AuthenticationAPIClient(authok)
+
+        mainThread = Executors.newSingleThreadExecutor { runnable -> Thread(runnable, "benchmark-main") }
+        val defaultThreadSwitcher = DefaultThreadSwitcher()
+        CommonThreadSwitcher.getInstance().setDelegate(object : ThreadSwitcher {
+            override fun mainThread(runnable: Runnable) {
+                mainThread.execute(runnable)
+            }
+
+            override fun backgroundThread(runnable: Runnable) {
+                defaultThreadSwitcher.backgroundThread(runnable)
+            }
+        })
+    }
+
+    @After
+    public fun tearDown() {
+        if (!::mockAPI.isInitialized) {
+            return
+        }
+        CommonThreadSwitcher.getInstance().setDelegate(null)
+        mainThread.shutdown()
+        mockAPI.shutdown()
+    }
+
+    @Test
+    public fun login() {
+        measure<Credentials, AuthenticationException>("login") { _, callback ->
+            client.login(EMAIL, PASSWORD, CONNECTION).start(callback)
+        }
+    }
+
+    @Test
+    public fun renewAuth() {
+        measure<Credentials, AuthenticationException>("renewAuth") { _, callback ->
+            client.renewAuth(AuthenticationAPIMockServer.REFRESH_TOKEN).start(callback)
+        }
+    }
+
+    @Test
+    public fun userInfo() {
+        measure<UserProfile, AuthenticationException>("userInfo") { _, callback ->
+            client.userInfo(AuthenticationAPIMockServer.ACCESS_TOKEN).start(callback)
+        }
+    }
+
+    @Test
+    public fun getCredentials() {
+        // each user has its own storage, and its credentials expire before every iteration so that they are renewed
+        val managers = List(concurrency) { CredentialsManager(client, InMemoryStorage()) }
+        val expired = Credentials(
+            idToken(),
+            AuthenticationAPIMockServer.ACCESS_TOKEN,
+            "Bearer",
+            AuthenticationAPIMockServer.REFRESH_TOKEN,
+            Date(System.currentTimeMillis() - 1000),
+            "openid"
+        )
+        measure<Credentials, CredentialsManagerException>(
+            "getCredentials",
+            prepare = { user -> managers[user].saveCredentials(expired) }
+        ) { user, callback ->
+            managers[user].getCredentials(callback)
+        }
+    }
+
+    /**
+     * Runs the flow on [concurrency] threads, each one starting it [iterations] times and waiting for its callback
+     * before starting it again, and prints the results.
+     */
+    private fun <T, U : AuthokException> measure(
+        name: String,
+        prepare: (user: Int) -> Unit = {},
+        start: (user: Int, callback: Callback<T, U>) -> Unit
+    ) {
+        runUsers(warmUpIterations, prepare, start)
+
+        val threadBean = ManagementFactory.getThreadMXBean()
+        threadBean.resetPeakThreadCount()
+        val startedThreads = threadBean.totalStartedThreadCount
+        val allocatedBytes = allocatedBytes()
+        val startedAt = System.nanoTime()
+        val run = runUsers(iterations, prepare, start)
+        val elapsedNanos = System.nanoTime() - startedAt
+        val allocatedBytesPerSecond =
+            (allocatedBytes() - allocatedBytes) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos
+
+        val latencies = run.latencies.sorted()
+        val seconds = elapsedNanos.toDouble() / TimeUnit.SECONDS.toNanos(1)
+        println(
+            String.format(
+                Locale.US,
+                "%s: users=%d, latency=%dms, flows=%d, failures=%d, throughput=%.1f/s, " +
+                        "p50=%.2fms, p95=%.2fms, p99=%.2fms, peakThreads=%d, startedThreads=%d, allocation=%.1fMB/s",
+                name, concurrency, latencyMillis, latencies.size, run.failures.get(), latencies.size / seconds,
+                percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.95), percentileMillis(latencies, 0.99),
+                threadBean.peakThreadCount, threadBean.totalStartedThreadCount - startedThreads,
+                allocatedBytesPerSecond / (1024.0 * 1024.0)
+            )
+        )
+        assertThat("$name failures", run.failures.get(), `is`(0))
+    }
+
+    private fun <T, U : AuthokException> runUsers(
+        iterations: Int,
+        prepare: (user: Int) -> Unit,
+        start: (user: Int, callback: Callback<T, U>) -> Unit
+    ): Run {
+        val run = Run()
+        val users = (0 until concurrency).map { user ->
+            Thread({
+                val latencies = LongArray(iterations)
+                for (i in 0 until iterations) {
+                    prepare(user)
+                    val finished = CountDownLatch(1)
+                    val startedAt = System.nanoTime()
+                    start(user, object : Callback<T, U> {
+                        override fun onSuccess(result: T) {
+                            finished.countDown()
+                        }
+
+                        override fun onFailure(error: U) {
+                            run.failures.incrementAndGet()
+                            finished.countDown()
+                        }
+                    })
+                    if (!finished.await(FLOW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        run.failures.incrementAndGet()
+                    }
+                    latencies[i] = System.nanoTime() - startedAt
+                }
+                synchronized(run) {
+                    run.latencies.addAll(latencies.asList())
+                }
+            }, "benchmark-user-$user")
+        }
+        users.forEach { it.start() }
+        users.forEach { it.join() }
+        return run
+    }
+
+    /**
+     * The bytes allocated so far by the live threads. The allocations of the threads that end during the run
+     * are not counted.
+     */
+    private fun allocatedBytes(): Long {
+        val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean ?: return 0
+        if (!threadBean.isThreadAllocatedMemorySupported) {
+            return 0
+        }
+        threadBean.isThreadAllocatedMemoryEnabled = true
+        return threadBean.getThreadAllocatedBytes(threadBean.allThreadIds).filter { it > 0 }.sum()
+    }
+
+    private fun percentileMillis(sortedLatencies: List<Long>, percentile: Double): Double {
+        if (sortedLatencies.isEmpty()) {
+            return 0.0
+        }
+        val index = (ceil(percentile * sortedLatencies.size).toInt() - 1).coerceIn(0, sortedLatencies.size - 1)
+        return sortedLatencies[index].toDouble() / TimeUnit.MILLISECONDS.toNanos(1)
+    }
+
+    /**
+     * Creates an ID token that expires after the renewed credentials, so that these are not renewed again.
+     */
+    private fun idToken(): String {
+        val encoder = Base64.getUrlEncoder().withoutPadding()
+        val expiresAt = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + TimeUnit.DAYS.toSeconds(2)
+        val header = """{"alg":"RS256","typ":"JWT"}"""
+        val payload = """{"sub":"authok|123456","aud":"$CLIENT_ID","exp":$expiresAt}"""
+        return encoder.encodeToString(header.toByteArray(StandardCharsets.UTF_8)) + "." +
+                encoder.encodeToString(payload.toByteArray(StandardCharsets.UTF_8)) + ".signature"
+    }
+
+    private class Run {
+        val latencies = ArrayList<Long>()
+        val failures = AtomicInteger()
+    }
+
+    private class InMemoryStorage : Storage {
+        private val values = ConcurrentHashMap<String, Any>()
+
+        override fun store(name: String, value: Long?) = storeValue(name, value)
+
+        override fun store(name: String, value: Int?) = storeValue(name, value)
+
+        override fun store(name: String, value: String?) = storeValue(name, value)
+
+        override fun store(name: String, value: Boolean?) = storeValue(name, value)
+
+        override fun retrieveLong(name: String): Long? = values[name] as Long?
+
+        override fun retrieveString(name: String): String? = values[name] as String?
+
+        override fun retrieveInteger(name: String): Int? = values[name] as Int?
+
+        override fun retrieveBoolean(name: String): Boolean? = values[name] as Boolean?
+
+        override fun remove(name: String) {
+            values.remove(name)
+        }
+
+        private fun storeValue(name: String, value: Any?) {
+            if (value == null) {
+                values.remove(name)
+            } else {
+                values[name] = value
+            }
+        }
+    }
+
+    private companion object {
+        private const val CLIENT_ID = "CLIENTID"
+        private const val EMAIL = "support@authok.cn"
+        private const val PASSWORD = "secret"
+        private const val CONNECTION = "Username-Password-Authentication"
+        private const val FLOW_TIMEOUT_SECONDS = 30L
+    }
+}
@@ -3,19 +3,27 @@ package cn.authok.android.authentication.request;
 import cn.authok.android.authentication.AuthenticationException;
 import cn.authok.android.callback.Callback;
 import cn.authok.android.request.AuthenticationRequest;
+import cn.authok.android.request.Cancellable;
 import cn.authok.android.request.ProfileRequest;
 import cn.authok.android.request.Request;
+import cn.authok.android.request.ResultDelivery;
 import cn.authok.android.result.Authentication;
 import cn.authok.android.result.Credentials;
 import cn.authok.android.result.UserProfile;
+import cn.authok.android.util.CommonThreadSwitcherRule;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TestWatcher;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
@@ -23,15 +31,22 @@ import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(RobolectricTestRunner.class)
 public class ProfileRequestTest {
 
+    @Rule
+    public TestWatcher commonThreadSwitcherRule = new CommonThreadSwitcherRule();
+
     private AuthenticationRequest authenticationMockRequest;
     private Request userInfoMockRequest;
     private ProfileRequest profileRequest;
@@ -146,6 +161,33 @@ public class ProfileRequestTest {
         verify(callback).onFailure(error);
     }
 
+    @Test
+    public void shouldNotStartTheUserInfoRequestWhenCancelled() {
+        final Credentials credentials = mock(Credentials.class);
+        final Cancellable authenticationCall = mock(Cancellable.class);
+        final Callback callback = mock(Callback.class);
+        when(authenticationMockRequest.startCancellable(any(Callback.class))).thenReturn(authenticationCall);
+
+        Cancellable cancellable = profileRequest.startCancellable(callback);
+        cancellable.cancel();
+        verify(authenticationCall).cancel();
+
+        ArgumentCaptor<Callback> callbackCaptor = ArgumentCaptor.forClass(Callback.class);
+        verify(authenticationMockRequest).startCancellable(callbackCaptor.capture());
+        callbackCaptor.getValue().onSuccess(credentials);
+        verify(userInfoMockRequest, never()).startCancellable(any(Callback.class));
+        verifyZeroInteractions(callback);
+    }
+
+    @Test
+    public void shouldSetTheTimeoutOnBothRequests() {
+        final ProfileRequest req = profileRequest.withTimeout(5, TimeUnit.SECONDS);
+        verify(authenticationMockRequest).withTimeout(5, TimeUnit.SECONDS);
+        verify(userInfoMockRequest).withTimeout(5, TimeUnit.SECONDS);
+        assertThat(req, is(notNullValue()));
+        assertThat(req, is(profileRequest));
+    }
+
     @Test
     public void shouldExecuteTheRequest() {
         final Credentials credentials = mock(Credentials.class);
@@ -166,4 +208,62 @@ public class ProfileRequestTest {
         assertThat(executeResult.getProfile(), is(userProfile));
     }
 
+
+    @Test
+    public void shouldChainTheRequestsRightAwayWithTheDefaultDelivery() {
+        final UserProfile userProfile = mock(UserProfile.class);
+        final Credentials credentials = mock(Credentials.class);
+        final AuthenticationRequest authenticationRequest = spy(new AuthenticationRequestMock(credentials, null));
+        final Request tokenInfoRequest = spy(new RequestMock(userProfile, null));
+        final Callback callback = mock(Callback.class);
+
+        profileRequest = new ProfileRequest(authenticationRequest, tokenInfoRequest);
+        profileRequest.start(callback);
+
+        verify(authenticationRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verify(tokenInfoRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verify(callback).onSuccess(any(Authentication.class));
+    }
+
+    @Test
+    public void shouldDeliverOnlyTheFinalResultWhenTheDeliveryIsSet() {
+        final UserProfile userProfile = mock(UserProfile.class);
+        final Credentials credentials = mock(Credentials.class);
+        final AuthenticationRequest authenticationRequest = spy(new AuthenticationRequestMock(credentials, null));
+        final Request tokenInfoRequest = spy(new RequestMock(userProfile, null));
+        final List<Runnable> posted = new ArrayList<>();
+        final Callback callback = mock(Callback.class);
+
+        profileRequest = new ProfileRequest(authenticationRequest, tokenInfoRequest)
+                .withResultDelivery(new ResultDelivery.OnExecutor(posted::add));
+        profileRequest.start(callback);
+
+        verify(authenticationRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verify(tokenInfoRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verifyZeroInteractions(callback);
+        assertThat(posted.size(), is(1));
+
+        posted.get(0).run();
+        ArgumentCaptor<Authentication> authenticationCaptor = ArgumentCaptor.forClass(Authentication.class);
+        verify(callback).onSuccess(authenticationCaptor.capture());
+        assertThat(authenticationCaptor.getValue().getCredentials(), is(credentials));
+        assertThat(authenticationCaptor.getValue().getProfile(), is(userProfile));
+    }
+
+    @Test
+    public void shouldNotDeliverTheFinalResultWhenCancelledBeforeItRuns() {
+        final AuthenticationException error = mock(AuthenticationException.class);
+        final AuthenticationRequestMock authenticationRequestMock = new AuthenticationRequestMock(null, error);
+        final List<Runnable> posted = new ArrayList<>();
+        final Callback callback = mock(Callback.class);
+
+        profileRequest = new ProfileRequest(authenticationRequestMock, userInfoMockRequest)
+                .withResultDelivery(new ResultDelivery.OnExecutor(posted::add));
+        Cancellable cancellable = profileRequest.startCancellable(callback);
+        cancellable.cancel();
+
+        assertThat(posted.size(), is(1));
+        posted.get(0).run();
+        verifyZeroInteractions(callback);
+    }
 }
\ No newline at end of file
@@ -3,33 +3,46 @@ package cn.authok.android.authentication.request;
 import cn.authok.android.authentication.AuthenticationException;
 import cn.authok.android.callback.Callback;
 import cn.authok.android.request.AuthenticationRequest;
+import cn.authok.android.request.Cancellable;
 import cn.authok.android.request.Request;
+import cn.authok.android.request.ResultDelivery;
 import cn.authok.android.request.SignUpRequest;
 import cn.authok.android.result.Credentials;
 import cn.authok.android.result.DatabaseUser;
+import cn.authok.android.util.CommonThreadSwitcherRule;
 
 import org.hamcrest.Matchers;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TestWatcher;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static junit.framework.Assert.assertTrue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(RobolectricTestRunner.class)
 public class SignUpRequestTest {
 
+    @Rule
+    public TestWatcher commonThreadSwitcherRule = new CommonThreadSwitcherRule();
+
     private Request dbMockRequest;
     private AuthenticationRequest authenticationMockRequest;
     private SignUpRequest signUpRequest;
@@ -140,15 +153,15 @@ public class SignUpRequestTest {
 
         doAnswer(invocation -> {
             ((Callback) invocation.getArguments()[0]).onSuccess(credentials);
-            return null;
-        }).when(authenticationMockRequest).start(callback);
+            return mock(Cancellable.class);
+        }).when(authenticationMockRequest).startCancellable(any(Callback.class));
 
 
         signUpRequest = new SignUpRequest(dbRequestMock, authenticationMockRequest);
         signUpRequest.start(callback);
 
         assertTrue(dbRequestMock.isStarted());
-        verify(authenticationMockRequest).start(callback);
+        verify(authenticationMockRequest).startCancellable(any(Callback.class));
         verify(callback).onSuccess(credentials);
     }
 
@@ -174,14 +187,14 @@ public class SignUpRequestTest {
 
         doAnswer(invocation -> {
             ((Callback) invocation.getArguments()[0]).onFailure(error);
-            return null;
-        }).when(authenticationMockRequest).start(callback);
+            return mock(Cancellable.class);
+        }).when(authenticationMockRequest).startCancellable(any(Callback.class));
 
         signUpRequest = new SignUpRequest(dbRequestMock, authenticationMockRequest);
         signUpRequest.start(callback);
 
         assertTrue(dbRequestMock.isStarted());
-        verify(authenticationMockRequest).start(callback);
+        verify(authenticationMockRequest).startCancellable(any(Callback.class));
         verify(callback).onFailure(error);
     }
 
@@ -198,4 +211,61 @@ public class SignUpRequestTest {
         assertThat(executeResult, is(credentials));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldChainTheRequestsRightAwayWithTheDefaultDelivery() {
+        final DatabaseUser user = mock(DatabaseUser.class);
+        final Credentials credentials = mock(Credentials.class);
+        final Request dbRequest = spy(new RequestMock(user, null));
+        final AuthenticationRequest authenticationRequest = spy(new AuthenticationRequestMock(credentials, null));
+        final Callback callback = mock(Callback.class);
+
+        signUpRequest = new SignUpRequest(dbRequest, authenticationRequest);
+        signUpRequest.start(callback);
+
+        verify(dbRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verify(authenticationRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verify(callback).onSuccess(credentials);
+    }
+
+    @Test
+    public void shouldDeliverTheFailureOfTheDatabaseRequestWhenTheDeliveryIsSet() {
+        final AuthenticationException error = mock(AuthenticationException.class);
+        final Request dbRequest = spy(new RequestMock<>(null, error));
+        final List<Runnable> posted = new ArrayList<>();
+        final Callback callback = mock(Callback.class);
+
+        signUpRequest = new SignUpRequest(dbRequest, authenticationMockRequest)
+                .withResultDelivery(new ResultDelivery.OnExecutor(posted::add));
+        signUpRequest.start(callback);
+
+        verify(dbRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verify(authenticationMockRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verifyZeroInteractions(callback);
+        assertThat(posted.size(), is(1));
+
+        posted.get(0).run();
+        verify(callback).onFailure(error);
+    }
+
+    @Test
+    public void shouldDeliverOnlyTheCredentialsWhenTheDeliveryIsSet() {
+        final DatabaseUser user = mock(DatabaseUser.class);
+        final Credentials credentials = mock(Credentials.class);
+        final RequestMock dbRequestMock = new RequestMock(user, null);
+        final AuthenticationRequestMock authenticationRequestMock = new AuthenticationRequestMock(credentials, null);
+        final List<Runnable> posted = new ArrayList<>();
+        final Callback callback = mock(Callback.class);
+
+        signUpRequest = new SignUpRequest(dbRequestMock, authenticationRequestMock)
+                .withResultDelivery(new ResultDelivery.OnExecutor(posted::add));
+        signUpRequest.start(callback);
+
+        assertTrue(authenticationRequestMock.isStarted());
+        verifyZeroInteractions(callback);
+        assertThat(posted.size(), is(1));
+
+        posted.get(0).run();
+        verify(callback).onSuccess(credentials);
+    }
+
+}
@@ -9,6 +9,12 @@ import cn.authok.android.result.Credentials
 import cn.authok.android.result.CredentialsMock
 import cn.authok.android.util.Clock
 import com.nhaarman.mockitokotlin2.*
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
 import org.hamcrest.MatcherAssert
 import org.hamcrest.Matchers
 import org.hamcrest.core.Is
@@ -27,6 +33,9 @@ import java.lang.Exception
 import java.lang.IllegalArgumentException
 import java.util.*
 import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
 
 @RunWith(RobolectricTestRunner::class)
 public class CredentialsManagerTest {
@@ -103,6 +112,37 @@ public class CredentialsManagerTest {
         verifyNoMoreInteractions(storage)
     }
 
+    @Test
+    public fun shouldSaveCredentialsInASingleBatchWhenTheStorageSupportsIt() {
+        val batchStorage: BatchStorage = mock()
+        val batchedStorage: Storage = mock()
+        doAnswer { invocation ->
+            invocation.getArgument<Storage.() -> Unit>(0).invoke(batchedStorage)
+        }.`when`(batchStorage).batch(any())
+        val expirationTime = CredentialsMock.ONE_HOUR_AHEAD_MS
+        val credentials: Credentials = CredentialsMock(
+            "idToken",
+            "accessToken",
+            "type",
+            "refreshToken",
+            Date(expirationTime),
+            "scope"
+        )
+        prepareJwtDecoderMock(Date(expirationTime))
+        val manager = CredentialsManager(client, batchStorage, jwtDecoder, serialExecutor)
+        manager.saveCredentials(credentials)
+        verify(batchStorage).batch(any())
+        verifyNoMoreInteractions(batchStorage)
+        verify(batchedStorage).store("cn.authok.id_token", "idToken")
+        verify(batchedStorage).store("cn.authok.access_token", "accessToken")
+        verify(batchedStorage).store("cn.authok.refresh_token", "refreshToken")
+        verify(batchedStorage).store("cn.authok.token_type", "type")
+        verify(batchedStorage).store("cn.authok.expires_at", expirationTime)
+        verify(batchedStorage).store("cn.authok.scope", "scope")
+        verify(batchedStorage).store("cn.authok.cache_expires_at", expirationTime)
+        verifyNoMoreInteractions(batchedStorage)
+    }
+
     @Test
     public fun shouldSaveRefreshableCredentialsUsingAccessTokenExpForCacheExpirationInStorage() {
         val accessTokenExpirationTime = CredentialsMock.ONE_HOUR_AHEAD_MS
@@ -772,6 +812,404 @@ public class CredentialsManagerTest {
         )
     }
 
+    @Test
+    public fun shouldReadTheStorageInTheBackgroundWhenWarmingUp() {
+        val executor = mock<Executor>()
+        val manager = CredentialsManager(client, storage, jwtDecoder, executor)
+        manager.warmUp()
+        verifyNoMoreInteractions(storage)
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(executor).execute(runnableCaptor.capture())
+        runnableCaptor.firstValue.run()
+        verify(storage).retrieveString("cn.authok.access_token")
+        verify(storage).retrieveLong("cn.authok.expires_at")
+        verify(storage).retrieveLong("cn.authok.cache_expires_at")
+        verify(storage, never()).store(any<String>(), any<String>())
+    }
+
+    @Test
+    public fun shouldAwaitNonExpiredCredentialsFromStorage() {
+        Mockito.`when`(storage.retrieveString("cn.authok.id_token")).thenReturn("idToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn("accessToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.token_type")).thenReturn("type")
+        val expirationTime = CredentialsMock.ONE_HOUR_AHEAD_MS
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at")).thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveLong("cn.authok.cache_expires_at"))
+            .thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveString("cn.authok.scope")).thenReturn("scope")
+        val retrievedCredentials = runBlocking { manager.awaitCredentials() }
+        MatcherAssert.assertThat(retrievedCredentials.accessToken, Is.`is`("accessToken"))
+        MatcherAssert.assertThat(retrievedCredentials.idToken, Is.`is`("idToken"))
+        MatcherAssert.assertThat(retrievedCredentials.expiresAt.time, Is.`is`(expirationTime))
+        verifyNoMoreInteractions(client)
+    }
+
+    @Test
+    public fun shouldThrowWhenAwaitingCredentialsThatWereNotSaved() {
+        Mockito.`when`(storage.retrieveString("cn.authok.id_token")).thenReturn(null)
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn(null)
+        val exception = Assert.assertThrows(CredentialsManagerException::class.java) {
+            runBlocking { manager.awaitCredentials("scope", 60) }
+        }
+        MatcherAssert.assertThat(exception.message, Is.`is`("No Credentials were previously set."))
+    }
+
+    @Test
+    public fun shouldEmitCredentialsWhenSavedAndNullWhenCleared() {
+        val expirationTime = CredentialsMock.ONE_HOUR_AHEAD_MS
+        val credentials: Credentials = CredentialsMock(
+            "idToken",
+            "accessToken",
+            "type",
+            "refreshToken",
+            Date(expirationTime),
+            "scope"
+        )
+        prepareJwtDecoderMock(Date(expirationTime))
+        val emitted = runBlocking {
+            val updates = async(start = CoroutineStart.UNDISPATCHED) {
+                manager.credentialsFlow.take(2).toList()
+            }
+            manager.saveCredentials(credentials)
+            yield()
+            manager.clearCredentials()
+            updates.await()
+        }
+        MatcherAssert.assertThat(emitted.size, Is.`is`(2))
+        MatcherAssert.assertThat(emitted[0], Is.`is`(Matchers.sameInstance(credentials)))
+        MatcherAssert.assertThat(emitted[1], Is.`is`(Matchers.nullValue()))
+    }
+
+    @Test
+    public fun shouldScheduleRefreshBeforeTheAccessTokenExpires() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at"))
+            .thenReturn(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        manager.random = mock()
+        Mockito.`when`(manager.random.nextDouble()).thenReturn(0.5)
+        manager.enableProactiveRefresh(300, 60, refreshExecutor)
+        // 1 hour minus the lead time (5 minutes) and the jitter (half of 1 minute)
+        verify(refreshExecutor).schedule(
+            any(),
+            eq(ONE_HOUR_SECONDS * 1000 - 300 * 1000 - 30 * 1000),
+            eq(TimeUnit.MILLISECONDS)
+        )
+    }
+
+    @Test
+    public fun shouldNotScheduleRefreshWithoutRefreshToken() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at"))
+            .thenReturn(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        manager.enableProactiveRefresh(300, 60, refreshExecutor)
+        verifyNoMoreInteractions(refreshExecutor)
+    }
+
+    @Test
+    public fun shouldNotAllowInvalidProactiveRefreshTimes() {
+        Assert.assertThrows(IllegalArgumentException::class.java) {
+            manager.enableProactiveRefresh(0, 60)
+        }
+        Assert.assertThrows(IllegalArgumentException::class.java) {
+            manager.enableProactiveRefresh(300, -1)
+        }
+    }
+
+    @Test
+    public fun shouldRescheduleRefreshWhenSavingCredentials() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        val scheduledRefresh = mock<ScheduledFuture<Any>>()
+        Mockito.doReturn(scheduledRefresh).`when`(refreshExecutor)
+            .schedule(any<Runnable>(), any(), any())
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at"))
+            .thenReturn(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        manager.enableProactiveRefresh(300, 0, refreshExecutor)
+        val credentials: Credentials = CredentialsMock(
+            "",
+            "accessToken",
+            "type",
+            "refreshToken",
+            Date(CredentialsMock.ONE_HOUR_AHEAD_MS),
+            "scope"
+        )
+        manager.saveCredentials(credentials)
+        verify(scheduledRefresh).cancel(false)
+        verify(refreshExecutor, times(2)).schedule(
+            any(),
+            eq(ONE_HOUR_SECONDS * 1000 - 300 * 1000),
+            eq(TimeUnit.MILLISECONDS)
+        )
+    }
+
+    @Test
+    public fun shouldCancelScheduledRefreshWhenClearingCredentials() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        val scheduledRefresh = mock<ScheduledFuture<Any>>()
+        Mockito.doReturn(scheduledRefresh).`when`(refreshExecutor)
+            .schedule(any<Runnable>(), any(), any())
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at"))
+            .thenReturn(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        manager.enableProactiveRefresh(300, 0, refreshExecutor)
+        manager.clearCredentials()
+        verify(scheduledRefresh).cancel(false)
+    }
+
+    @Test
+    public fun shouldStopSchedulingRefreshWhenDisabled() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        manager.enableProactiveRefresh(300, 0, refreshExecutor)
+        manager.disableProactiveRefresh()
+        verify(refreshExecutor).shutdownNow()
+        val credentials: Credentials = CredentialsMock(
+            "",
+            "accessToken",
+            "type",
+            "refreshToken",
+            Date(CredentialsMock.ONE_HOUR_AHEAD_MS),
+            "scope"
+        )
+        manager.saveCredentials(credentials)
+        verify(refreshExecutor, never()).schedule(any<Runnable>(), any(), any())
+    }
+
+    @Test
+    public fun shouldRenewCredentialsWhenTheScheduledRefreshRuns() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        Mockito.`when`(storage.retrieveString("cn.authok.id_token")).thenReturn("idToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn("accessToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.token_type")).thenReturn("type")
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at"))
+            .thenReturn(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        Mockito.`when`(storage.retrieveLong("cn.authok.cache_expires_at"))
+            .thenReturn(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        Mockito.`when`(storage.retrieveString("cn.authok.scope")).thenReturn("scope")
+        Mockito.`when`(client.renewAuth("refreshToken")).thenReturn(request)
+        val newDate = Date(CredentialsMock.ONE_HOUR_AHEAD_MS + ONE_HOUR_SECONDS * 1000)
+        val jwtMock = mock<Jwt>()
+        Mockito.`when`(jwtMock.expiresAt).thenReturn(newDate)
+        Mockito.`when`(jwtDecoder.decode("newId")).thenReturn(jwtMock)
+        val renewedCredentials =
+            Credentials("newId", "newAccess", "newType", "newRefresh", newDate, "newScope")
+        Mockito.`when`(request.execute()).thenReturn(renewedCredentials)
+        manager.enableProactiveRefresh(300, 0, refreshExecutor)
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(refreshExecutor).schedule(runnableCaptor.capture(), any(), any())
+        // The stored access token doesn't expire within the lead time yet
+        runnableCaptor.firstValue.run()
+        verify(request).execute()
+        verify(storage).store("cn.authok.access_token", "newAccess")
+        verify(storage).store("cn.authok.expires_at", newDate.time)
+    }
+
+    @Test
+    public fun shouldBackOffWhenTheScheduledRefreshFails() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn("accessToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.token_type")).thenReturn("type")
+        val expirationTime = CredentialsMock.CURRENT_TIME_MS + 60 * 1000
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at")).thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveLong("cn.authok.cache_expires_at")).thenReturn(expirationTime)
+        Mockito.`when`(client.renewAuth("refreshToken")).thenReturn(request)
+        Mockito.`when`(request.execute()).thenThrow(mock<AuthenticationException>())
+        manager.enableProactiveRefresh(300, 0, refreshExecutor)
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(refreshExecutor).schedule(runnableCaptor.capture(), eq(0L), eq(TimeUnit.MILLISECONDS))
+        runnableCaptor.firstValue.run()
+        verify(refreshExecutor).schedule(any(), eq(30 * 1000L), eq(TimeUnit.MILLISECONDS))
+        runnableCaptor.firstValue.run()
+        verify(refreshExecutor).schedule(any(), eq(60 * 1000L), eq(TimeUnit.MILLISECONDS))
+    }
+
+    @Test
+    public fun shouldCoalesceConcurrentRenewalsOfTheSameRequest() {
+        Mockito.`when`(storage.retrieveString("cn.authok.id_token")).thenReturn("idToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn("accessToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.token_type")).thenReturn("type")
+        val expirationTime = CredentialsMock.CURRENT_TIME_MS //Same as current time --> expired
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at")).thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveLong("cn.authok.cache_expires_at"))
+            .thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveString("cn.authok.scope")).thenReturn("scope")
+        Mockito.`when`(
+            client.renewAuth("refreshToken")
+        ).thenReturn(request)
+        val newDate = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        val jwtMock = mock<Jwt>()
+        Mockito.`when`(jwtMock.expiresAt).thenReturn(newDate)
+        Mockito.`when`(jwtDecoder.decode("newId")).thenReturn(jwtMock)
+
+        // A second caller arrives while the renewal is in flight
+        val secondCallback = mock<Callback<Credentials, CredentialsManagerException>>()
+        val renewedCredentials =
+            Credentials("newId", "newAccess", "newType", "newRefresh", newDate, "newScope")
+        Mockito.`when`(request.execute()).thenAnswer {
+            manager.getCredentials(secondCallback)
+            renewedCredentials
+        }
+        manager.getCredentials(callback)
+
+        verify(client, times(1)).renewAuth("refreshToken")
+        verify(request, times(1)).execute()
+        verify(callback).onSuccess(credentialsCaptor.capture())
+        verify(secondCallback).onSuccess(credentialsCaptor.capture())
+        MatcherAssert.assertThat(credentialsCaptor.firstValue.accessToken, Is.`is`("newAccess"))
+        MatcherAssert.assertThat(credentialsCaptor.secondValue, Is.`is`(credentialsCaptor.firstValue))
+        MatcherAssert.assertThat(manager.renewalCount, Is.`is`(1L))
+        MatcherAssert.assertThat(manager.coalescedRenewalCount, Is.`is`(1L))
+    }
+
+    @Test
+    public fun shouldNotifyTheCoalescedCallersWhenACallbackThrows() {
+        Mockito.`when`(storage.retrieveString("cn.authok.id_token")).thenReturn("idToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn("accessToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.token_type")).thenReturn("type")
+        val expirationTime = CredentialsMock.CURRENT_TIME_MS //Same as current time --> expired
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at")).thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveLong("cn.authok.cache_expires_at"))
+            .thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveString("cn.authok.scope")).thenReturn("scope")
+        Mockito.`when`(
+            client.renewAuth("refreshToken")
+        ).thenReturn(request)
+        val newDate = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        val jwtMock = mock<Jwt>()
+        Mockito.`when`(jwtMock.expiresAt).thenReturn(newDate)
+        Mockito.`when`(jwtDecoder.decode("newId")).thenReturn(jwtMock)
+
+        // The first caller's callback throws, the second caller must still receive the result
+        Mockito.doThrow(IllegalStateException("callback error")).`when`(callback).onSuccess(any())
+        val secondCallback = mock<Callback<Credentials, CredentialsManagerException>>()
+        val renewedCredentials =
+            Credentials("newId", "newAccess", "newType", "newRefresh", newDate, "newScope")
+        Mockito.`when`(request.execute()).thenAnswer {
+            manager.getCredentials(secondCallback)
+            renewedCredentials
+        }
+        manager.getCredentials(callback)
+
+        verify(callback).onSuccess(credentialsCaptor.capture())
+        verify(secondCallback).onSuccess(credentialsCaptor.capture())
+        verify(secondCallback, never()).onFailure(any())
+        MatcherAssert.assertThat(credentialsCaptor.secondValue.accessToken, Is.`is`("newAccess"))
+    }
+
+    @Test
+    public fun shouldShareRenewalFailureWithCoalescedCallers() {
+        Mockito.`when`(storage.retrieveString("cn.authok.id_token")).thenReturn("idToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn("accessToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.token_type")).thenReturn("type")
+        val expirationTime = CredentialsMock.CURRENT_TIME_MS //Same as current time --> expired
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at")).thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveLong("cn.authok.cache_expires_at"))
+            .thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveString("cn.authok.scope")).thenReturn("scope")
+        Mockito.`when`(
+            client.renewAuth("refreshToken")
+        ).thenReturn(request)
+
+        val secondCallback = mock<Callback<Credentials, CredentialsManagerException>>()
+        val authenticationException = mock<AuthenticationException>()
+        Mockito.`when`(request.execute()).thenAnswer {
+            manager.getCredentials(secondCallback)
+            throw authenticationException
+        }
+        manager.getCredentials(callback)
+
+        verify(request, times(1)).execute()
+        verify(callback).onFailure(exceptionCaptor.capture())
+        verify(secondCallback).onFailure(exceptionCaptor.capture())
+        MatcherAssert.assertThat(exceptionCaptor.firstValue.cause, Is.`is`(authenticationException))
+        MatcherAssert.assertThat(
+            exceptionCaptor.secondValue,
+            Is.`is`(exceptionCaptor.firstValue)
+        )
+    }
+
+    @Test
+    public fun shouldCompleteTheRenewalWhenItFailsUnexpectedly() {
+        Mockito.`when`(storage.retrieveString("cn.authok.id_token")).thenReturn("idToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn("accessToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.token_type")).thenReturn("type")
+        val expirationTime = CredentialsMock.CURRENT_TIME_MS //Same as current time --> expired
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at")).thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveLong("cn.authok.cache_expires_at"))
+            .thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveString("cn.authok.scope")).thenReturn("scope")
+        Mockito.`when`(
+            client.renewAuth("refreshToken")
+        ).thenReturn(request)
+        val runtimeException = IllegalArgumentException("The token was expected to have 3 parts")
+        Mockito.`when`(request.execute()).thenThrow(runtimeException)
+
+        manager.getCredentials(callback)
+        verify(callback).onFailure(exceptionCaptor.capture())
+        MatcherAssert.assertThat(exceptionCaptor.firstValue.cause, Is.`is`(runtimeException))
+        MatcherAssert.assertThat(
+            exceptionCaptor.firstValue.message,
+            Is.`is`("An error occurred while trying to use the Refresh Token to renew the Credentials.")
+        )
+
+        // The same renewal can be started again
+        val secondCallback = mock<Callback<Credentials, CredentialsManagerException>>()
+        manager.getCredentials(secondCallback)
+        verify(secondCallback).onFailure(any())
+        verify(request, times(2)).execute()
+        MatcherAssert.assertThat(manager.renewalCount, Is.`is`(2L))
+        MatcherAssert.assertThat(manager.coalescedRenewalCount, Is.`is`(0L))
+    }
+
+    @Test
+    public fun shouldNotCoalesceRenewalsOfDifferentRequests() {
+        Mockito.`when`(storage.retrieveString("cn.authok.id_token")).thenReturn("idToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.access_token")).thenReturn("accessToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.refresh_token")).thenReturn("refreshToken")
+        Mockito.`when`(storage.retrieveString("cn.authok.token_type")).thenReturn("type")
+        val expirationTime = CredentialsMock.CURRENT_TIME_MS //Same as current time --> expired
+        Mockito.`when`(storage.retrieveLong("cn.authok.expires_at")).thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveLong("cn.authok.cache_expires_at"))
+            .thenReturn(expirationTime)
+        Mockito.`when`(storage.retrieveString("cn.authok.scope")).thenReturn("scope")
+        Mockito.`when`(
+            client.renewAuth("refreshToken")
+        ).thenReturn(request)
+        val newDate = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        val jwtMock = mock<Jwt>()
+        Mockito.`when`(jwtMock.expiresAt).thenReturn(newDate)
+        Mockito.`when`(jwtDecoder.decode("newId")).thenReturn(jwtMock)
+
+        val secondCallback = mock<Callback<Credentials, CredentialsManagerException>>()
+        val renewedCredentials =
+            Credentials("newId", "newAccess", "newType", "newRefresh", newDate, "newScope")
+        var nested = false
+        Mockito.`when`(request.execute()).thenAnswer {
+            if (!nested) {
+                nested = true
+                manager.getCredentials("other scope", 0, secondCallback)
+            }
+            renewedCredentials
+        }
+        manager.getCredentials(callback)
+
+        verify(request, times(2)).execute()
+        verify(callback).onSuccess(any())
+        verify(secondCallback).onSuccess(any())
+        MatcherAssert.assertThat(manager.renewalCount, Is.`is`(2L))
+        MatcherAssert.assertThat(manager.coalescedRenewalCount, Is.`is`(0L))
+    }
+
     @Test
     public fun shouldClearCredentials() {
         manager.clearCredentials()
@@ -785,6 +1223,14 @@ public class CredentialsManagerTest {
         verifyNoMoreInteractions(storage)
     }
 
+    @Test
+    public fun shouldForgetTheDecodedTokensWhenClearingCredentials() {
+        val token = "eyJhbGciOiJIUzI1NiJ9.e30.XmNK3GpH3Ys_7wsYBfq4C3M6goz71I7dTgUkuIa5lyQ"
+        val decoded = Jwt.decode(token)
+        manager.clearCredentials()
+        MatcherAssert.assertThat(Jwt.decode(token), Is.`is`(Matchers.not(Matchers.sameInstance(decoded))))
+    }
+
     @Test
     public fun shouldHaveCredentialsWhenTokenHasNotExpired() {
         val expirationTime = CredentialsMock.ONE_HOUR_AHEAD_MS
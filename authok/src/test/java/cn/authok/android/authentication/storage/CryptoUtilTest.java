@@ -50,6 +50,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.security.auth.x500.X500Principal;
 
@@ -62,6 +63,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doReturn;
@@ -95,6 +97,8 @@ public class CryptoUtilTest {
     private final KeyStore keyStore = PowerMockito.mock(KeyStore.class);
     private final KeyPairGenerator keyPairGenerator = PowerMockito.mock(KeyPairGenerator.class);
     private final KeyGenerator keyGenerator = PowerMockito.mock(KeyGenerator.class);
+    private final KeyStrategy keyStoreKeyStrategy = PowerMockito.mock(KeyStrategy.class);
+    private final SecretKey keyStoreKey = PowerMockito.mock(SecretKey.class);
 
     private CryptoUtil cryptoUtil;
 
@@ -119,6 +123,8 @@ public class CryptoUtilTest {
 
         context = mock(Context.class);
         when(context.getPackageName()).thenReturn(APP_PACKAGE_NAME);
+        when(keyStoreKeyStrategy.getId()).thenReturn((byte) 2);
+        when(keyStoreKeyStrategy.getKey()).thenReturn(keyStoreKey);
         cryptoUtil = newCryptoUtilSpy();
     }
 
@@ -924,29 +930,47 @@ public class CryptoUtilTest {
     @Test
     public void shouldAESEncryptData() throws Exception {
         ArgumentCaptor<SecretKey> secretKeyCaptor = ArgumentCaptor.forClass(SecretKey.class);
+        ArgumentCaptor<GCMParameterSpec> gcmParameterSpecCaptor = ArgumentCaptor.forClass(GCMParameterSpec.class);
         byte[] aesKey = "aes-decrypted-key".getBytes();
         byte[] data = "data".getBytes();
-        byte[] encryptedData = new byte[]{0, 1, 2, 3, 4, 5};
-        byte[] iv = new byte[]{99, 99, 11, 11};
-        byte[] encodedIv = "iv-data".getBytes();
+        byte[] encryptedData = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19};
 
         doReturn(aesKey).when(cryptoUtil).getAESKey();
         doReturn(encryptedData).when(aesCipher).doFinal(data);
         PowerMockito.when(aesCipher.doFinal(data)).thenReturn(encryptedData);
-        PowerMockito.when(aesCipher.getIV()).thenReturn(iv);
-        PowerMockito.mockStatic(Base64.class);
-        PowerMockito.when(Base64.encode(iv, Base64.DEFAULT)).thenReturn(encodedIv);
 
         final byte[] encrypted = cryptoUtil.encrypt(data);
 
 
-        Mockito.verify(aesCipher).init(eq(Cipher.ENCRYPT_MODE), secretKeyCaptor.capture());
+        Mockito.verify(aesCipher).init(eq(Cipher.ENCRYPT_MODE), secretKeyCaptor.capture(), gcmParameterSpecCaptor.capture());
         assertThat(secretKeyCaptor.getValue(), is(notNullValue()));
         assertThat(secretKeyCaptor.getValue().getAlgorithm(), is(ALGORITHM_AES));
         assertThat(secretKeyCaptor.getValue().getEncoded(), is(aesKey));
+        assertThat(gcmParameterSpecCaptor.getValue().getTLen(), is(128));
+        byte[] iv = gcmParameterSpecCaptor.getValue().getIV();
+        assertThat(iv.length, is(12));
+
+        Mockito.verify(storage, never()).store(anyString(), anyString());
+        assertThat(encrypted.length, is(2 + 12 + encryptedData.length));
+        assertThat(encrypted[0], is((byte) 1));
+        assertThat(encrypted[1], is((byte) 12));
+        assertThat(Arrays.copyOfRange(encrypted, 2, 14), is(iv));
+        assertThat(Arrays.copyOfRange(encrypted, 14, encrypted.length), is(encryptedData));
+        assertThat(cryptoUtil.needsMigration(encrypted), is(false));
+    }
+
+    @Test
+    public void shouldUseADifferentIVForEveryEncryption() throws Exception {
+        ArgumentCaptor<SecretKey> secretKeyCaptor = ArgumentCaptor.forClass(SecretKey.class);
+        ArgumentCaptor<GCMParameterSpec> gcmParameterSpecCaptor = ArgumentCaptor.forClass(GCMParameterSpec.class);
+        doReturn("aes-decrypted-key".getBytes()).when(cryptoUtil).getAESKey();
+        PowerMockito.when(aesCipher.doFinal(any(byte[].class))).thenReturn(new byte[16]);
+
+        cryptoUtil.encrypt("data".getBytes());
+        cryptoUtil.encrypt("data".getBytes());
 
-        Mockito.verify(storage).store(KEY_ALIAS + "_iv", "iv-data");
-        assertThat(encrypted, is(encryptedData));
+        Mockito.verify(aesCipher, Mockito.times(2)).init(eq(Cipher.ENCRYPT_MODE), secretKeyCaptor.capture(), gcmParameterSpecCaptor.capture());
+        assertThat(Arrays.equals(gcmParameterSpecCaptor.getAllValues().get(0).getIV(), gcmParameterSpecCaptor.getAllValues().get(1).getIV()), is(false));
     }
 
     @Test
@@ -1024,7 +1048,7 @@ public class CryptoUtilTest {
 
             PowerMockito.mockStatic(Cipher.class);
             PowerMockito.when(Cipher.getInstance(AES_TRANSFORMATION)).thenReturn(aesCipher);
-            doThrow(new InvalidKeyException()).when(aesCipher).init(eq(Cipher.ENCRYPT_MODE), secretKeyArgumentCaptor.capture());
+            doThrow(new InvalidKeyException()).when(aesCipher).init(eq(Cipher.ENCRYPT_MODE), secretKeyArgumentCaptor.capture(), any(GCMParameterSpec.class));
 
             cryptoUtil.encrypt(new byte[0]);
         } catch (IncompatibleDeviceException e) {
@@ -1100,12 +1124,181 @@ public class CryptoUtilTest {
         assertThat(decrypted, is(decryptedData));
     }
 
+    @Test
+    public void shouldAESDecryptEnvelopeData() throws Exception {
+        ArgumentCaptor<SecretKey> secretKeyCaptor = ArgumentCaptor.forClass(SecretKey.class);
+        ArgumentCaptor<GCMParameterSpec> gcmParameterSpecCaptor = ArgumentCaptor.forClass(GCMParameterSpec.class);
+        byte[] aesKey = "aes-decrypted-key".getBytes();
+        byte[] iv = new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+        byte[] ciphertext = new byte[24];
+        Arrays.fill(ciphertext, (byte) 7);
+        byte[] envelope = newEnvelope(iv, ciphertext);
+        byte[] decryptedData = "data".getBytes();
+
+        doReturn(aesKey).when(cryptoUtil).getAESKey();
+        PowerMockito.when(aesCipher.doFinal(envelope, 14, ciphertext.length)).thenReturn(decryptedData);
+
+        final byte[] decrypted = cryptoUtil.decrypt(envelope);
+
+
+        Mockito.verify(aesCipher).init(eq(Cipher.DECRYPT_MODE), secretKeyCaptor.capture(), gcmParameterSpecCaptor.capture());
+        assertThat(secretKeyCaptor.getValue().getEncoded(), is(aesKey));
+        assertThat(gcmParameterSpecCaptor.getValue().getTLen(), is(128));
+        assertThat(gcmParameterSpecCaptor.getValue().getIV(), is(iv));
+        Mockito.verify(storage, never()).retrieveString(anyString());
+        assertThat(decrypted, is(decryptedData));
+    }
+
+    @Test
+    public void shouldAESDecryptLegacyDataThatLooksLikeAnEnvelope() throws Exception {
+        ArgumentCaptor<SecretKey> secretKeyCaptor = ArgumentCaptor.forClass(SecretKey.class);
+        ArgumentCaptor<AlgorithmParameterSpec> parameterSpecCaptor = ArgumentCaptor.forClass(AlgorithmParameterSpec.class);
+        byte[] legacyData = newEnvelope(new byte[12], new byte[24]);
+        byte[] decryptedData = "data".getBytes();
+        String encodedIv = "iv-data";
+
+        doReturn("aes-decrypted-key".getBytes()).when(cryptoUtil).getAESKey();
+        PowerMockito.when(aesCipher.doFinal(legacyData, 14, 24)).thenThrow(new BadPaddingException());
+        PowerMockito.when(aesCipher.doFinal(legacyData)).thenReturn(decryptedData);
+        PowerMockito.when(storage.retrieveString(KEY_ALIAS + "_iv")).thenReturn(encodedIv);
+        PowerMockito.mockStatic(Base64.class);
+        PowerMockito.when(Base64.decode(encodedIv, Base64.DEFAULT)).thenReturn(encodedIv.getBytes());
+
+        final byte[] decrypted = cryptoUtil.decrypt(legacyData);
+
+
+        Mockito.verify(aesCipher, Mockito.times(2)).init(eq(Cipher.DECRYPT_MODE), secretKeyCaptor.capture(), parameterSpecCaptor.capture());
+        assertThat(parameterSpecCaptor.getAllValues().get(0) instanceof GCMParameterSpec, is(true));
+        assertThat(((IvParameterSpec) parameterSpecCaptor.getAllValues().get(1)).getIV(), is(encodedIv.getBytes()));
+        assertThat(decrypted, is(decryptedData));
+    }
+
+    @Test
+    public void shouldThrowOnCorruptedEnvelopeWhenTryingToAESDecrypt() {
+        Assert.assertThrows(CryptoException.class, () -> {
+            byte[] envelope = newEnvelope(new byte[12], new byte[24]);
+            doReturn("aes-decrypted-key".getBytes()).when(cryptoUtil).getAESKey();
+            PowerMockito.when(aesCipher.doFinal(envelope, 14, 24)).thenThrow(new BadPaddingException());
+            PowerMockito.when(storage.retrieveString(KEY_ALIAS + "_iv")).thenReturn("");
+            PowerMockito.when(storage.retrieveString(BASE_ALIAS + "_iv")).thenReturn("");
+
+            cryptoUtil.decrypt(envelope);
+        });
+    }
+
+    @Test
+    public void shouldNotReadTheRSAWrappedKeyWithoutALegacyIV() throws Exception {
+        byte[] keyStoreKeyEnvelope = newEnvelope(new byte[12], new byte[24]);
+        keyStoreKeyEnvelope[0] = 2;
+        PowerMockito.when(aesCipher.doFinal(keyStoreKeyEnvelope, 14, 24)).thenThrow(new BadPaddingException());
+        PowerMockito.when(storage.retrieveString(KEY_ALIAS + "_iv")).thenReturn(null);
+        PowerMockito.when(storage.retrieveString(BASE_ALIAS + "_iv")).thenReturn(null);
+
+        cryptoUtil.setUseKeyStoreKey(true);
+        Assert.assertThrows("The encryption keys changed recently. You need to re-encrypt something first.", CryptoException.class, () ->
+                cryptoUtil.decrypt(keyStoreKeyEnvelope));
+
+        Mockito.verify(cryptoUtil, never()).getAESKey();
+        Mockito.verify(cryptoUtil, never()).getRSAKeyEntry();
+    }
+
+    @Test
+    public void shouldRequireMigrationOfLegacyFormat() {
+        assertThat(cryptoUtil.needsMigration(new byte[0]), is(true));
+        assertThat(cryptoUtil.needsMigration("data".getBytes()), is(true));
+        assertThat(cryptoUtil.needsMigration(newEnvelope(new byte[12], new byte[15])), is(true));
+        byte[] unknownVersion = newEnvelope(new byte[12], new byte[16]);
+        unknownVersion[0] = 9;
+        assertThat(cryptoUtil.needsMigration(unknownVersion), is(true));
+        assertThat(cryptoUtil.needsMigration(newEnvelope(new byte[12], new byte[16])), is(false));
+    }
+
+    @Test
+    public void shouldRequireMigrationOfContentEncryptedWithAnotherKey() {
+        byte[] rsaWrappedKeyEnvelope = newEnvelope(new byte[12], new byte[16]);
+        byte[] keyStoreKeyEnvelope = newEnvelope(new byte[12], new byte[16]);
+        keyStoreKeyEnvelope[0] = 2;
+
+        assertThat(cryptoUtil.needsMigration(rsaWrappedKeyEnvelope), is(false));
+        assertThat(cryptoUtil.needsMigration(keyStoreKeyEnvelope), is(true));
+
+        cryptoUtil.setUseKeyStoreKey(true);
+        assertThat(cryptoUtil.needsMigration(rsaWrappedKeyEnvelope), is(true));
+        assertThat(cryptoUtil.needsMigration(keyStoreKeyEnvelope), is(false));
+    }
+
+    @Test
+    public void shouldNotUseKeyStoreKeyWhenNotAvailable() {
+        CryptoUtil cryptoUtil = new CryptoUtil(context, storage, BASE_ALIAS, null);
+        byte[] rsaWrappedKeyEnvelope = newEnvelope(new byte[12], new byte[16]);
+
+        assertThat(cryptoUtil.setUseKeyStoreKey(true), is(false));
+        assertThat(cryptoUtil.needsMigration(rsaWrappedKeyEnvelope), is(false));
+    }
+
+    @Test
+    public void shouldAESEncryptDataWithKeyStoreKey() throws Exception {
+        ArgumentCaptor<SecretKey> secretKeyCaptor = ArgumentCaptor.forClass(SecretKey.class);
+        byte[] encryptedData = new byte[16];
+        PowerMockito.when(aesCipher.doFinal(any(byte[].class))).thenReturn(encryptedData);
+
+        cryptoUtil.setUseKeyStoreKey(true);
+        final byte[] encrypted = cryptoUtil.encrypt("data".getBytes());
+
+        Mockito.verify(aesCipher).init(eq(Cipher.ENCRYPT_MODE), secretKeyCaptor.capture(), any(GCMParameterSpec.class));
+        assertThat(secretKeyCaptor.getValue(), is(keyStoreKey));
+        Mockito.verify(cryptoUtil, never()).getAESKey();
+        assertThat(encrypted[0], is((byte) 2));
+        assertThat(cryptoUtil.needsMigration(encrypted), is(false));
+    }
+
+    @Test
+    public void shouldAESDecryptDataWithTheKeyThatEncryptedIt() throws Exception {
+        ArgumentCaptor<SecretKey> secretKeyCaptor = ArgumentCaptor.forClass(SecretKey.class);
+        byte[] keyStoreKeyEnvelope = newEnvelope(new byte[12], new byte[16]);
+        keyStoreKeyEnvelope[0] = 2;
+        byte[] decryptedData = "data".getBytes();
+        PowerMockito.when(aesCipher.doFinal(keyStoreKeyEnvelope, 14, 16)).thenReturn(decryptedData);
+
+        final byte[] decrypted = cryptoUtil.decrypt(keyStoreKeyEnvelope);
+
+        Mockito.verify(aesCipher).init(eq(Cipher.DECRYPT_MODE), secretKeyCaptor.capture(), any(GCMParameterSpec.class));
+        assertThat(secretKeyCaptor.getValue(), is(keyStoreKey));
+        Mockito.verify(cryptoUtil, never()).getAESKey();
+        assertThat(decrypted, is(decryptedData));
+    }
+
+    @Test
+    public void shouldDeleteLegacyIVAndRSAWrappedKeyWhenCompletingMigrationToKeyStoreKey() throws Exception {
+        cryptoUtil.setUseKeyStoreKey(true);
+        cryptoUtil.completeMigration();
+
+        Mockito.verify(storage, atLeastOnce()).remove(KEY_ALIAS + "_iv");
+        Mockito.verify(storage).remove(OLD_KEY_ALIAS + "_iv");
+        Mockito.verify(storage).remove(KEY_ALIAS);
+        Mockito.verify(keyStore).deleteEntry(KEY_ALIAS);
+        Mockito.verify(keyStoreKeyStrategy, never()).deleteKeys();
+    }
+
+    @Test
+    public void shouldDeleteLegacyIVAndKeyStoreKeyWhenCompletingMigrationToRSAWrappedKey() throws Exception {
+        cryptoUtil.completeMigration();
+
+        Mockito.verify(storage).remove(KEY_ALIAS + "_iv");
+        Mockito.verify(storage).remove(OLD_KEY_ALIAS + "_iv");
+        Mockito.verify(storage, never()).remove(KEY_ALIAS);
+        Mockito.verify(keyStore, never()).deleteEntry(KEY_ALIAS);
+        Mockito.verify(keyStoreKeyStrategy).deleteKeys();
+    }
+
     @Test
     public void shouldThrowOnCryptoExceptionOnRSAKeyReadingWhenTryingToAESDecrypt() {
         Assert.assertThrows(CryptoException.class, () -> {
             PowerMockito.mockStatic(Base64.class);
             PowerMockito.when(Base64.decode("encoded-key", Base64.DEFAULT)).thenReturn(new byte[0]);
             PowerMockito.when(storage.retrieveString(KEY_ALIAS)).thenReturn("encoded-key");
+            PowerMockito.when(storage.retrieveString(KEY_ALIAS + "_iv")).thenReturn("encoded-iv");
+            PowerMockito.when(Base64.decode("encoded-iv", Base64.DEFAULT)).thenReturn(new byte[12]);
 
             doThrow(new CryptoException("err", null)).when(cryptoUtil).getRSAKeyEntry();
             cryptoUtil.decrypt(new byte[0]);
@@ -1115,6 +1308,9 @@ public class CryptoUtilTest {
     @Test
     public void shouldThrowOnCryptoExceptionOnAESKeyReadingWhenTryingToAESDecrypt() {
         Assert.assertThrows(CryptoException.class, () -> {
+            PowerMockito.mockStatic(Base64.class);
+            PowerMockito.when(storage.retrieveString(KEY_ALIAS + "_iv")).thenReturn("encoded-iv");
+            PowerMockito.when(Base64.decode("encoded-iv", Base64.DEFAULT)).thenReturn(new byte[12]);
             doThrow(new CryptoException("err", null)).when(cryptoUtil).getAESKey();
             cryptoUtil.decrypt(new byte[0]);
         });
@@ -1126,6 +1322,8 @@ public class CryptoUtilTest {
             PowerMockito.mockStatic(Base64.class);
             PowerMockito.when(Base64.decode("encoded-key", Base64.DEFAULT)).thenReturn(new byte[0]);
             PowerMockito.when(storage.retrieveString(KEY_ALIAS)).thenReturn("encoded-key");
+            PowerMockito.when(storage.retrieveString(KEY_ALIAS + "_iv")).thenReturn("encoded-iv");
+            PowerMockito.when(Base64.decode("encoded-iv", Base64.DEFAULT)).thenReturn(new byte[12]);
 
             doThrow(new IncompatibleDeviceException(null)).when(cryptoUtil).getRSAKeyEntry();
             cryptoUtil.decrypt(new byte[0]);
@@ -1135,6 +1333,9 @@ public class CryptoUtilTest {
     @Test
     public void shouldThrowOnIncompatibleDeviceExceptionOnAESKeyReadingWhenTryingToAESDecrypt() {
         Assert.assertThrows("The device is not compatible with the CryptoUtil class", IncompatibleDeviceException.class, () -> {
+            PowerMockito.mockStatic(Base64.class);
+            PowerMockito.when(storage.retrieveString(KEY_ALIAS + "_iv")).thenReturn("encoded-iv");
+            PowerMockito.when(Base64.decode("encoded-iv", Base64.DEFAULT)).thenReturn(new byte[12]);
             doThrow(new IncompatibleDeviceException(null)).when(cryptoUtil).getAESKey();
             cryptoUtil.decrypt(new byte[0]);
         });
@@ -1284,6 +1485,83 @@ public class CryptoUtilTest {
     }
 
 
+    /*
+     * AES KEY CACHE tests
+     */
+
+    @Test
+    public void shouldRecoverAESKeyOnlyOnceAcrossOperations() throws Exception {
+        byte[] aesKey = "aes-decrypted-key".getBytes();
+        doReturn(aesKey).when(cryptoUtil).getAESKey();
+        PowerMockito.when(aesCipher.doFinal(any(byte[].class))).thenReturn(new byte[16]);
+        PowerMockito.mockStatic(Base64.class);
+        PowerMockito.when(Base64.decode(anyString(), anyInt())).thenReturn("iv-data".getBytes());
+        PowerMockito.when(storage.retrieveString(KEY_ALIAS + "_iv")).thenReturn("iv-data");
+
+        cryptoUtil.encrypt("data".getBytes());
+        cryptoUtil.decrypt("data".getBytes());
+        cryptoUtil.encrypt("data".getBytes());
+
+        Mockito.verify(cryptoUtil, Mockito.times(1)).getAESKey();
+        PowerMockito.verifyStatic(Cipher.class, Mockito.times(1));
+        Cipher.getInstance(AES_TRANSFORMATION);
+    }
+
+    @Test
+    public void shouldRecoverAESKeyAgainAfterIdleTimeout() throws Exception {
+        byte[] aesKey = "aes-decrypted-key".getBytes();
+        doReturn(aesKey).when(cryptoUtil).getAESKey();
+        doReturn(0L, 500L, 2000L).when(cryptoUtil).currentTimeInMillis();
+        PowerMockito.when(aesCipher.doFinal(any(byte[].class))).thenReturn(new byte[16]);
+
+        cryptoUtil.setKeyCacheIdleTimeout(1000);
+        cryptoUtil.encrypt("data".getBytes());
+        cryptoUtil.encrypt("data".getBytes());
+        Mockito.verify(cryptoUtil, Mockito.times(1)).getAESKey();
+
+        cryptoUtil.encrypt("data".getBytes());
+        Mockito.verify(cryptoUtil, Mockito.times(2)).getAESKey();
+        assertThat(aesKey, is(new byte[aesKey.length]));
+    }
+
+    @Test
+    public void shouldThrowWhenKeyCacheIdleTimeoutIsNegative() {
+        Assert.assertThrows(IllegalArgumentException.class, () -> cryptoUtil.setKeyCacheIdleTimeout(-1));
+    }
+
+    @Test
+    public void shouldZeroizeCachedAESKeyWhenAESKeysAreDeleted() throws Exception {
+        byte[] aesKey = "aes-decrypted-key".getBytes();
+        doReturn(aesKey).when(cryptoUtil).getAESKey();
+        PowerMockito.when(aesCipher.doFinal(any(byte[].class))).thenReturn(new byte[16]);
+        cryptoUtil.encrypt("data".getBytes());
+
+        PrivateKey privateKey = PowerMockito.mock(PrivateKey.class);
+        KeyStore.PrivateKeyEntry privateKeyEntry = PowerMockito.mock(KeyStore.PrivateKeyEntry.class);
+        doReturn(privateKey).when(privateKeyEntry).getPrivateKey();
+        doReturn(privateKeyEntry).when(cryptoUtil).getRSAKeyEntry();
+        doThrow(new BadPaddingException()).when(rsaCipher).doFinal(any(byte[].class));
+        Assert.assertThrows(CryptoException.class, () -> cryptoUtil.RSADecrypt(new byte[0]));
+
+        assertThat(aesKey, is(new byte[aesKey.length]));
+        cryptoUtil.encrypt("data".getBytes());
+        Mockito.verify(cryptoUtil, Mockito.times(2)).getAESKey();
+    }
+
+    @Test
+    public void shouldZeroizeCachedAESKeyWhenRSAKeysAreDeleted() throws Exception {
+        byte[] aesKey = "aes-decrypted-key".getBytes();
+        doReturn(aesKey).when(cryptoUtil).getAESKey();
+        PowerMockito.when(aesCipher.doFinal(any(byte[].class))).thenReturn(new byte[16]);
+        cryptoUtil.encrypt("data".getBytes());
+
+        doThrow(new IOException()).when(keyStore).load(nullable(KeyStore.LoadStoreParameter.class));
+        Assert.assertThrows(CryptoException.class, () -> cryptoUtil.getRSAKeyEntry());
+
+        assertThat(aesKey, is(new byte[aesKey.length]));
+    }
+
+
     /*
      * Helper methods
      */
@@ -1315,8 +1593,17 @@ public class CryptoUtilTest {
         return builder;
     }
 
+    private byte[] newEnvelope(byte[] iv, byte[] ciphertext) {
+        byte[] envelope = new byte[2 + iv.length + ciphertext.length];
+        envelope[0] = 1;
+        envelope[1] = (byte) iv.length;
+        System.arraycopy(iv, 0, envelope, 2, iv.length);
+        System.arraycopy(ciphertext, 0, envelope, 2 + iv.length, ciphertext.length);
+        return envelope;
+    }
+
     private CryptoUtil newCryptoUtilSpy() throws Exception {
-        CryptoUtil cryptoUtil = PowerMockito.spy(new CryptoUtil(context, storage, BASE_ALIAS));
+        CryptoUtil cryptoUtil = PowerMockito.spy(new CryptoUtil(context, storage, BASE_ALIAS, keyStoreKeyStrategy));
         PowerMockito.mockStatic(KeyStore.class);
         PowerMockito.when(KeyStore.getInstance(ANDROID_KEY_STORE)).thenReturn(keyStore);
         PowerMockito.mockStatic(KeyPairGenerator.class);
@@ -0,0 +1,272 @@
+package cn.authok.android.authentication.storage;
+
+import android.security.keystore.KeyGenParameterSpec;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyPairGeneratorSpi;
+import java.security.KeyStore;
+import java.security.KeyStoreSpi;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.KeyGeneratorSpi;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * In-memory replacement of the "AndroidKeyStore" provider, which is not available on the JVM.
+ * Supports the RSA key pairs and AES keys generated by {@link CryptoUtil} and its key strategies,
+ * backed by the default software implementations.
+ */
+public class FakeAndroidKeyStoreProvider extends Provider {
+
+    private static final String NAME = "AndroidKeyStore";
+    private static final Map<String, KeyStore.Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    private static Provider replacedProvider;
+
+    @SuppressWarnings("deprecation")
+    private FakeAndroidKeyStoreProvider() {
+        super(NAME, 1.0, "Fake AndroidKeyStore");
+        put("KeyStore." + NAME, FakeKeyStoreSpi.class.getName());
+        put("KeyPairGenerator.RSA", FakeRSAKeyPairGeneratorSpi.class.getName());
+        put("KeyGenerator.AES", FakeAESKeyGeneratorSpi.class.getName());
+    }
+
+    /**
+     * Registers the fake provider with an empty KeyStore, replacing any existing "AndroidKeyStore" provider.
+     */
+    public static void install() {
+        replacedProvider = Security.getProvider(NAME);
+        Security.removeProvider(NAME);
+        Security.addProvider(new FakeAndroidKeyStoreProvider());
+        ENTRIES.clear();
+    }
+
+    /**
+     * Unregisters the fake provider, restoring the one it replaced, if any.
+     */
+    public static void uninstall() {
+        Security.removeProvider(NAME);
+        if (replacedProvider != null) {
+            Security.addProvider(replacedProvider);
+            replacedProvider = null;
+        }
+        ENTRIES.clear();
+    }
+
+    public static boolean containsAlias(String alias) {
+        return ENTRIES.containsKey(alias);
+    }
+
+    public static class FakeKeyStoreSpi extends KeyStoreSpi {
+
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            KeyStore.Entry entry = ENTRIES.get(alias);
+            if (entry instanceof KeyStore.PrivateKeyEntry) {
+                return ((KeyStore.PrivateKeyEntry) entry).getPrivateKey();
+            }
+            if (entry instanceof KeyStore.SecretKeyEntry) {
+                return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+            }
+            return null;
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            KeyStore.Entry entry = ENTRIES.get(alias);
+            return entry instanceof KeyStore.PrivateKeyEntry ? ((KeyStore.PrivateKeyEntry) entry).getCertificateChain() : null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            Certificate[] chain = engineGetCertificateChain(alias);
+            return chain != null ? chain[0] : null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            return ENTRIES.containsKey(alias) ? new Date() : null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) {
+            ENTRIES.remove(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.enumeration(ENTRIES.keySet());
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return ENTRIES.containsKey(alias);
+        }
+
+        @Override
+        public int engineSize() {
+            return ENTRIES.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return ENTRIES.containsKey(alias);
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) {
+            //Nothing to load, entries live in memory
+        }
+    }
+
+    public static class FakeRSAKeyPairGeneratorSpi extends KeyPairGeneratorSpi {
+        private String alias;
+        private int keySize = 2048;
+
+        @Override
+        public void initialize(int keySize, SecureRandom random) {
+            this.keySize = keySize;
+        }
+
+        @Override
+        public void initialize(AlgorithmParameterSpec params, SecureRandom random) throws InvalidAlgorithmParameterException {
+            if (!(params instanceof KeyGenParameterSpec)) {
+                throw new InvalidAlgorithmParameterException("Expected a KeyGenParameterSpec");
+            }
+            KeyGenParameterSpec spec = (KeyGenParameterSpec) params;
+            alias = spec.getKeystoreAlias();
+            keySize = spec.getKeySize();
+        }
+
+        @Override
+        public KeyPair generateKeyPair() {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", "SunRsaSign");
+                generator.initialize(keySize);
+                KeyPair keyPair = generator.generateKeyPair();
+                if (alias != null) {
+                    Certificate[] chain = new Certificate[]{new FakeCertificate(keyPair.getPublic())};
+                    ENTRIES.put(alias, new KeyStore.PrivateKeyEntry(keyPair.getPrivate(), chain));
+                }
+                return keyPair;
+            } catch (NoSuchAlgorithmException | java.security.NoSuchProviderException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public static class FakeAESKeyGeneratorSpi extends KeyGeneratorSpi {
+        private final SecureRandom random = new SecureRandom();
+        private String alias;
+        private int keySize = 256;
+
+        @Override
+        protected void engineInit(SecureRandom random) {
+        }
+
+        @Override
+        protected void engineInit(AlgorithmParameterSpec params, SecureRandom random) throws InvalidAlgorithmParameterException {
+            if (!(params instanceof KeyGenParameterSpec)) {
+                throw new InvalidAlgorithmParameterException("Expected a KeyGenParameterSpec");
+            }
+            KeyGenParameterSpec spec = (KeyGenParameterSpec) params;
+            alias = spec.getKeystoreAlias();
+            keySize = spec.getKeySize();
+        }
+
+        @Override
+        protected void engineInit(int keySize, SecureRandom random) {
+            this.keySize = keySize;
+        }
+
+        @Override
+        protected SecretKey engineGenerateKey() {
+            byte[] bytes = new byte[keySize / 8];
+            random.nextBytes(bytes);
+            SecretKey key = new SecretKeySpec(bytes, "AES");
+            if (alias != null) {
+                ENTRIES.put(alias, new KeyStore.SecretKeyEntry(key));
+            }
+            return key;
+        }
+    }
+
+    private static class FakeCertificate extends Certificate {
+        private final PublicKey publicKey;
+
+        FakeCertificate(PublicKey publicKey) {
+            super("Fake");
+            this.publicKey = publicKey;
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return publicKey.getEncoded();
+        }
+
+        @Override
+        public void verify(PublicKey key) {
+        }
+
+        @Override
+        public void verify(PublicKey key, String sigProvider) {
+        }
+
+        @Override
+        public String toString() {
+            return "FakeCertificate";
+        }
+
+        @Override
+        public PublicKey getPublicKey() {
+            return publicKey;
+        }
+    }
+}
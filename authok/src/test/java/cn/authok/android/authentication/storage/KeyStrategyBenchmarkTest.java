@@ -0,0 +1,192 @@
+package cn.authok.android.authentication.storage;
+
+import android.content.Context;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares the latency of the two key strategies available in {@link CryptoUtil} against an
+ * in-memory KeyStore. A cold operation starts with a new instance, so the key has to be recovered
+ * first, which is what happens when the credentials are read for the first time after the app starts.
+ * <p>
+ * The comparison is skipped unless enabled, while the round trip and migration tests always run:
+ * <pre>
+ * ./gradlew :authok:testDebugUnitTest --tests '*KeyStrategyBenchmarkTest' -Pauthok.benchmark=true
+ * </pre>
+ */
+@RunWith(RobolectricTestRunner.class)
+public class KeyStrategyBenchmarkTest {
+
+    private static final String KEY_ALIAS = "benchmark";
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int COLD_ITERATIONS = 30;
+    private static final int WARM_ITERATIONS = 300;
+    private static final byte[] INPUT = ("{\"access_token\":\"accessToken\",\"id_token\":\"idToken\"," +
+            "\"refresh_token\":\"refreshToken\",\"token_type\":\"bearer\",\"expires_at\":1234567890}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private Context context;
+    private Storage storage;
+
+    @Before
+    public void setUp() {
+        FakeAndroidKeyStoreProvider.install();
+        context = RuntimeEnvironment.application;
+        storage = new SharedPreferencesStorage(context, "benchmark");
+    }
+
+    @After
+    public void tearDown() {
+        FakeAndroidKeyStoreProvider.uninstall();
+    }
+
+    @Test
+    public void shouldEncryptAndDecryptWithBothKeyStrategies() {
+        CryptoUtil rsaWrapped = newCryptoUtil(false);
+        byte[] rsaWrappedEnvelope = rsaWrapped.encrypt(INPUT);
+        assertThat(rsaWrapped.decrypt(rsaWrappedEnvelope), is(INPUT));
+        assertThat(newCryptoUtil(false).decrypt(rsaWrappedEnvelope), is(INPUT));
+
+        CryptoUtil keyStore = newCryptoUtil(true);
+        byte[] keyStoreEnvelope = keyStore.encrypt(INPUT);
+        assertThat(keyStore.decrypt(keyStoreEnvelope), is(INPUT));
+        assertThat(newCryptoUtil(true).decrypt(keyStoreEnvelope), is(INPUT));
+    }
+
+    @Test
+    public void shouldMigrateFromRSAWrappedKeyToKeyStoreKey() {
+        byte[] rsaWrappedEnvelope = newCryptoUtil(false).encrypt(INPUT);
+        String rsaKeyAlias = context.getPackageName() + "." + KEY_ALIAS;
+        assertThat(FakeAndroidKeyStoreProvider.containsAlias(rsaKeyAlias), is(true));
+
+        CryptoUtil cryptoUtil = newCryptoUtil(true);
+        assertThat(cryptoUtil.needsMigration(rsaWrappedEnvelope), is(true));
+        byte[] decrypted = cryptoUtil.decrypt(rsaWrappedEnvelope);
+        byte[] keyStoreEnvelope = cryptoUtil.encrypt(decrypted);
+        cryptoUtil.completeMigration();
+
+        assertThat(cryptoUtil.needsMigration(keyStoreEnvelope), is(false));
+        assertThat(FakeAndroidKeyStoreProvider.containsAlias(rsaKeyAlias), is(false));
+        assertThat(storage.retrieveString(rsaKeyAlias), is((String) null));
+        assertThat(newCryptoUtil(true).decrypt(keyStoreEnvelope), is(INPUT));
+    }
+
+    @Test
+    public void shouldNotRecreateTheRSAWrappedKeyWhenDecryptingFailsAfterTheMigration() {
+        byte[] rsaWrappedEnvelope = newCryptoUtil(false).encrypt(INPUT);
+        CryptoUtil cryptoUtil = newCryptoUtil(true);
+        cryptoUtil.encrypt(cryptoUtil.decrypt(rsaWrappedEnvelope));
+        cryptoUtil.completeMigration();
+        String rsaKeyAlias = context.getPackageName() + "." + KEY_ALIAS;
+        assertThat(FakeAndroidKeyStoreProvider.containsAlias(rsaKeyAlias), is(false));
+
+        //The RSA wrapped key is gone, so the tag check fails and there's no legacy IV to fall back to
+        Assert.assertThrows(CryptoException.class, () -> newCryptoUtil(true).decrypt(rsaWrappedEnvelope));
+
+        assertThat(FakeAndroidKeyStoreProvider.containsAlias(rsaKeyAlias), is(false));
+        assertThat(storage.retrieveString(rsaKeyAlias), is((String) null));
+    }
+
+    @Test
+    public void shouldNotEncryptWithAClearedKeyWhenTheKeyIsClearedConcurrently() throws Exception {
+        final CryptoUtil cryptoUtil = newCryptoUtil(false);
+        final AtomicBoolean encrypting = new AtomicBoolean(true);
+        Thread clearing = new Thread(() -> {
+            while (encrypting.get()) {
+                cryptoUtil.clearCachedAESKey();
+            }
+        });
+        clearing.start();
+        List<byte[]> envelopes = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                envelopes.add(cryptoUtil.encrypt(INPUT));
+            }
+        } finally {
+            encrypting.set(false);
+            clearing.join();
+        }
+
+        //A new instance recovers the stored key, so an envelope encrypted with a zeroed key can't be decrypted
+        CryptoUtil other = newCryptoUtil(false);
+        for (byte[] envelope : envelopes) {
+            assertThat(other.decrypt(envelope), is(INPUT));
+        }
+    }
+
+    @Test
+    public void benchmarkKeyStrategies() {
+        assumeTrue("Enable with -Pauthok.benchmark=true", Boolean.getBoolean("authok.benchmark"));
+        long rsaWrappedCold = measureColdDecrypt(false);
+        long keyStoreCold = measureColdDecrypt(true);
+        long rsaWrappedWarm = measureWarmRoundTrip(false);
+        long keyStoreWarm = measureWarmRoundTrip(true);
+
+        System.out.println(String.format(Locale.US, "RSA wrapped key: cold decrypt %d us, warm encrypt+decrypt %d us",
+                rsaWrappedCold / 1000, rsaWrappedWarm / 1000));
+        System.out.println(String.format(Locale.US, "KeyStore key: cold decrypt %d us, warm encrypt+decrypt %d us",
+                keyStoreCold / 1000, keyStoreWarm / 1000));
+    }
+
+    /**
+     * @return the median time in nanoseconds to decrypt using a new instance every time.
+     */
+    private long measureColdDecrypt(boolean useKeyStoreKey) {
+        byte[] envelope = newCryptoUtil(useKeyStoreKey).encrypt(INPUT);
+        long[] samples = new long[COLD_ITERATIONS];
+        for (int i = -WARM_UP_ITERATIONS; i < COLD_ITERATIONS; i++) {
+            CryptoUtil cryptoUtil = newCryptoUtil(useKeyStoreKey);
+            long start = System.nanoTime();
+            cryptoUtil.decrypt(envelope);
+            if (i >= 0) {
+                samples[i] = System.nanoTime() - start;
+            }
+        }
+        return median(samples);
+    }
+
+    /**
+     * @return the median time in nanoseconds to encrypt and decrypt reusing the same instance.
+     */
+    private long measureWarmRoundTrip(boolean useKeyStoreKey) {
+        CryptoUtil cryptoUtil = newCryptoUtil(useKeyStoreKey);
+        long[] samples = new long[WARM_ITERATIONS];
+        for (int i = -WARM_UP_ITERATIONS; i < WARM_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            cryptoUtil.decrypt(cryptoUtil.encrypt(INPUT));
+            if (i >= 0) {
+                samples[i] = System.nanoTime() - start;
+            }
+        }
+        return median(samples);
+    }
+
+    private CryptoUtil newCryptoUtil(boolean useKeyStoreKey) {
+        CryptoUtil cryptoUtil = new CryptoUtil(context, storage, KEY_ALIAS);
+        assertThat(cryptoUtil.setUseKeyStoreKey(useKeyStoreKey), is(true));
+        return cryptoUtil;
+    }
+
+    private static long median(long[] samples) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
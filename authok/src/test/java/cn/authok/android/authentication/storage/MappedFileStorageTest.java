@@ -0,0 +1,252 @@
+package cn.authok.android.authentication.storage;
+
+import android.content.SharedPreferences;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import kotlin.Unit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class MappedFileStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "storage.bin");
+    }
+
+    @Test
+    public void shouldNotCreateTheFileWhenReading() {
+        MappedFileStorage storage = new MappedFileStorage(file);
+        assertThat(storage.retrieveString("name"), is(nullValue()));
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test
+    public void shouldStoreAndRetrieveValues() {
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.store("string", "value");
+        storage.store("long", 123L);
+        storage.store("integer", 123);
+        storage.store("boolean", true);
+
+        assertThat(storage.retrieveString("string"), is("value"));
+        assertThat(storage.retrieveLong("long"), is(123L));
+        assertThat(storage.retrieveInteger("integer"), is(123));
+        assertThat(storage.retrieveBoolean("boolean"), is(true));
+    }
+
+    @Test
+    public void shouldReadValuesStoredByAnotherInstance() {
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.store("string", "v\u00e4lue");
+        storage.store("long", 123L);
+        storage.store("integer", 123);
+        storage.store("boolean", false);
+        storage.store("string", "new value");
+
+        MappedFileStorage newStorage = new MappedFileStorage(file);
+        assertThat(newStorage.retrieveString("string"), is("new value"));
+        assertThat(newStorage.retrieveLong("long"), is(123L));
+        assertThat(newStorage.retrieveInteger("integer"), is(123));
+        assertThat(newStorage.retrieveBoolean("boolean"), is(false));
+    }
+
+    @Test
+    public void shouldRemoveValues() {
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.store("string", "value");
+        storage.store("long", 123L);
+        storage.remove("string");
+        storage.store("long", (Long) null);
+
+        assertThat(storage.retrieveString("string"), is(nullValue()));
+        assertThat(storage.retrieveLong("long"), is(nullValue()));
+        MappedFileStorage newStorage = new MappedFileStorage(file);
+        assertThat(newStorage.retrieveString("string"), is(nullValue()));
+        assertThat(newStorage.retrieveLong("long"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldWriteAllTheChangesOfABatch() {
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.store("removed", "value");
+        storage.batch(editor -> {
+            editor.store("string", "value");
+            editor.store("long", 123L);
+            editor.remove("removed");
+            return Unit.INSTANCE;
+        });
+
+        MappedFileStorage newStorage = new MappedFileStorage(file);
+        assertThat(newStorage.retrieveString("string"), is("value"));
+        assertThat(newStorage.retrieveLong("long"), is(123L));
+        assertThat(newStorage.retrieveString("removed"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotWriteTheChangesOfABatchThatFails() {
+        MappedFileStorage storage = new MappedFileStorage(file);
+        Assert.assertThrows(IllegalStateException.class, () -> storage.batch(editor -> {
+            editor.store("string", "value");
+            throw new IllegalStateException();
+        }));
+        assertThat(storage.retrieveString("string"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldDiscardAnInterruptedWrite() throws IOException {
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.store("a", "x");
+        storage.store("b", "y");
+        // Header (4) + first record (8 + 9). Corrupt the first byte of the second record
+        int secondRecordPayload = 4 + 8 + 9 + 8;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(secondRecordPayload);
+            raf.write(0x7F);
+        }
+
+        MappedFileStorage newStorage = new MappedFileStorage(file);
+        assertThat(newStorage.retrieveString("a"), is("x"));
+        assertThat(newStorage.retrieveString("b"), is(nullValue()));
+        newStorage.store("c", "z");
+
+        MappedFileStorage lastStorage = new MappedFileStorage(file);
+        assertThat(lastStorage.retrieveString("a"), is("x"));
+        assertThat(lastStorage.retrieveString("b"), is(nullValue()));
+        assertThat(lastStorage.retrieveString("c"), is("z"));
+    }
+
+    @Test
+    public void shouldDiscardAFileWithAnUnknownFormat() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeUTF("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>");
+        }
+
+        MappedFileStorage storage = new MappedFileStorage(file);
+        assertThat(storage.retrieveString("name"), is(nullValue()));
+        storage.store("name", "value");
+        assertThat(new MappedFileStorage(file).retrieveString("name"), is("value"));
+    }
+
+    @Test
+    public void shouldCompactTheFileWhenMostValuesWereReplaced() {
+        MappedFileStorage storage = new MappedFileStorage(file);
+        int writes = 2000;
+        for (int i = 0; i < writes; i++) {
+            storage.store("access_token", String.format("token-%014d", i));
+        }
+        storage.store("scope", "openid");
+
+        // Without compaction, every record would take 47 bytes
+        assertThat(file.length(), is(lessThan(writes * 47L)));
+        MappedFileStorage newStorage = new MappedFileStorage(file);
+        assertThat(newStorage.retrieveString("access_token"), is(String.format("token-%014d", writes - 1)));
+        assertThat(newStorage.retrieveString("scope"), is("openid"));
+    }
+
+    @Test
+    public void shouldImportValuesFromSharedPreferences() {
+        SharedPreferences sharedPreferences = mock(SharedPreferences.class);
+        SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+        when(sharedPreferences.edit()).thenReturn(editor);
+        when(editor.remove(anyString())).thenReturn(editor);
+        Map<String, Object> values = new HashMap<>();
+        values.put("string", "value");
+        values.put("long", 123L);
+        values.put("integer", 123);
+        values.put("boolean", true);
+        values.put("float", 1.5f);
+        mockAll(sharedPreferences, values);
+
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.importSharedPreferences(sharedPreferences);
+
+        MappedFileStorage newStorage = new MappedFileStorage(file);
+        assertThat(newStorage.retrieveString("string"), is("value"));
+        assertThat(newStorage.retrieveLong("long"), is(123L));
+        assertThat(newStorage.retrieveInteger("integer"), is(123));
+        assertThat(newStorage.retrieveBoolean("boolean"), is(true));
+        verify(editor).remove("string");
+        verify(editor).remove("long");
+        verify(editor).remove("integer");
+        verify(editor).remove("boolean");
+        verify(editor, never()).remove("float");
+        verify(editor).commit();
+    }
+
+    @Test
+    public void shouldNotEditSharedPreferencesWithoutValuesToImport() {
+        SharedPreferences sharedPreferences = mock(SharedPreferences.class);
+        mockAll(sharedPreferences, new HashMap<>());
+
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.importSharedPreferences(sharedPreferences);
+
+        verify(sharedPreferences, never()).edit();
+        assertThat(file.exists(), is(false));
+    }
+
+    @Test
+    public void shouldNotRemoveSharedPreferencesWhenTheFileCannotBeRead() {
+        // A directory can't be opened as the storage file
+        assertThat(file.mkdirs(), is(true));
+        SharedPreferences sharedPreferences = mock(SharedPreferences.class);
+        Map<String, Object> values = new HashMap<>();
+        values.put("string", "value");
+        mockAll(sharedPreferences, values);
+
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.importSharedPreferences(sharedPreferences);
+
+        verify(sharedPreferences, never()).edit();
+        assertThat(storage.retrieveString("string"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotRemoveSharedPreferencesWhenTheFileCannotBeWritten() throws IOException {
+        // The storage file can't be created inside a regular file
+        file = new File(folder.newFile("parent"), "storage.bin");
+        SharedPreferences sharedPreferences = mock(SharedPreferences.class);
+        Map<String, Object> values = new HashMap<>();
+        values.put("string", "value");
+        mockAll(sharedPreferences, values);
+
+        MappedFileStorage storage = new MappedFileStorage(file);
+        storage.importSharedPreferences(sharedPreferences);
+
+        verify(sharedPreferences, never()).edit();
+        assertThat(file.exists(), is(false));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void mockAll(SharedPreferences sharedPreferences, Map<String, ?> values) {
+        when((Map) sharedPreferences.getAll()).thenReturn(values);
+    }
+}
@@ -49,6 +49,8 @@ import org.robolectric.util.ReflectionHelpers
 import java.lang.reflect.Modifier
 import java.util.*
 import java.util.concurrent.Executor
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
 
 @RunWith(RobolectricTestRunner::class)
 public class SecureCredentialsManagerTest {
@@ -966,6 +968,305 @@ public class SecureCredentialsManagerTest {
         )
     }
 
+    @Test
+    public fun shouldCoalesceConcurrentRenewalsOfTheSameRequest() {
+        val expiresAt = Date(CredentialsMock.CURRENT_TIME_MS)
+        insertTestCredentials(false, true, true, expiresAt, "scope")
+        val newDate = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        val jwtMock = mock<Jwt>()
+        Mockito.`when`(jwtMock.expiresAt).thenReturn(newDate)
+        Mockito.`when`(jwtDecoder.decode("newId")).thenReturn(jwtMock)
+        Mockito.`when`(
+            client.renewAuth("refreshToken")
+        ).thenReturn(request)
+
+        // A second caller arrives while the renewal is in flight
+        val secondCallback = mock<Callback<Credentials, CredentialsManagerException>>()
+        val renewedCredentials =
+            Credentials("newId", "newAccess", "newType", "rotatedRefreshToken", newDate, "newScope")
+        Mockito.`when`(request.execute()).thenAnswer {
+            manager.getCredentials(secondCallback)
+            renewedCredentials
+        }
+        val expectedJson = gson.toJson(renewedCredentials)
+        Mockito.`when`(crypto.encrypt(expectedJson.toByteArray()))
+            .thenReturn(expectedJson.toByteArray())
+        manager.getCredentials(callback)
+
+        verify(client, times(1)).renewAuth("refreshToken")
+        verify(request, times(1)).execute()
+        verify(callback).onSuccess(credentialsCaptor.capture())
+        verify(secondCallback).onSuccess(credentialsCaptor.capture())
+        MatcherAssert.assertThat(credentialsCaptor.firstValue.accessToken, Is.`is`("newAccess"))
+        MatcherAssert.assertThat(credentialsCaptor.secondValue, Is.`is`(credentialsCaptor.firstValue))
+        MatcherAssert.assertThat(manager.renewalCount, Is.`is`(1L))
+        MatcherAssert.assertThat(manager.coalescedRenewalCount, Is.`is`(1L))
+    }
+
+    @Test
+    public fun shouldCompleteTheRenewalWhenItFailsUnexpectedly() {
+        val expiresAt = Date(CredentialsMock.CURRENT_TIME_MS)
+        insertTestCredentials(false, true, true, expiresAt, "scope")
+        Mockito.`when`(
+            client.renewAuth("refreshToken")
+        ).thenReturn(request)
+        val runtimeException = IllegalArgumentException("The token was expected to have 3 parts")
+        Mockito.`when`(request.execute()).thenThrow(runtimeException)
+
+        manager.getCredentials(callback)
+        verify(callback).onFailure(exceptionCaptor.capture())
+        MatcherAssert.assertThat(exceptionCaptor.firstValue.cause, Is.`is`(runtimeException))
+        MatcherAssert.assertThat(
+            exceptionCaptor.firstValue.message,
+            Is.`is`("An error occurred while trying to use the Refresh Token to renew the Credentials.")
+        )
+
+        // The same renewal can be started again
+        val secondCallback = mock<Callback<Credentials, CredentialsManagerException>>()
+        manager.getCredentials(secondCallback)
+        verify(secondCallback).onFailure(any())
+        verify(request, times(2)).execute()
+        MatcherAssert.assertThat(manager.renewalCount, Is.`is`(2L))
+        MatcherAssert.assertThat(manager.coalescedRenewalCount, Is.`is`(0L))
+    }
+
+    /*
+     * Credentials cache tests
+     */
+    @Test
+    public fun shouldDecryptCredentialsOnEveryCallWhenCacheIsDisabled() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.getCredentials(callback)
+        manager.getCredentials(callback)
+        verify(crypto, times(2)).decrypt(any())
+        verify(callback, times(2)).onSuccess(any())
+    }
+
+    @Test
+    public fun shouldReuseDecryptedCredentialsWhenCacheIsEnabled() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.setCredentialsCacheTtl(60)
+        manager.getCredentials(callback)
+        manager.getCredentials(callback)
+        verify(crypto, times(1)).decrypt(any())
+        // read once to decrypt them, and once per call to check they are still valid
+        verify(storage, times(3)).retrieveString("cn.authok.credentials")
+        verify(callback, times(2)).onSuccess(credentialsCaptor.capture())
+        MatcherAssert.assertThat(
+            credentialsCaptor.secondValue,
+            Is.`is`(Matchers.sameInstance(credentialsCaptor.firstValue))
+        )
+        MatcherAssert.assertThat(credentialsCaptor.secondValue.accessToken, Is.`is`("accessToken"))
+    }
+
+    @Test
+    public fun shouldNotCacheCredentialsDecryptedWhileNewOnesWereSaved() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        val storedJson = insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.setCredentialsCacheTtl(60)
+        val savedCredentials =
+            Credentials("newIdToken", "newAccessToken", "type", "refreshToken", expiresAt, "scope")
+        val savedJson = gson.toJson(savedCredentials)
+        Mockito.`when`(crypto.encrypt(savedJson.toByteArray())).thenReturn(savedJson.toByteArray())
+        val jwtMock = mock<Jwt>()
+        Mockito.`when`(jwtMock.expiresAt).thenReturn(expiresAt)
+        Mockito.`when`(jwtDecoder.decode("newIdToken")).thenReturn(jwtMock)
+        // The new credentials are saved while the previous ones are being decrypted
+        Mockito.`when`(crypto.decrypt(storedJson.toByteArray())).thenAnswer {
+            manager.saveCredentials(savedCredentials)
+            storedJson.toByteArray()
+        }
+
+        manager.getCredentials(callback)
+        manager.getCredentials(callback)
+        verify(crypto, times(2)).decrypt(any())
+        verify(callback, times(2)).onSuccess(any())
+    }
+
+    @Test
+    public fun shouldReadTheStorageInTheBackgroundWhenWarmingUp() {
+        val executor = mock<Executor>()
+        val manager = SecureCredentialsManager(client, storage, crypto, jwtDecoder, executor)
+        manager.warmUp()
+        verifyNoMoreInteractions(storage)
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(executor).execute(runnableCaptor.capture())
+        runnableCaptor.firstValue.run()
+        verify(storage).retrieveString("cn.authok.credentials")
+        verify(storage).retrieveLong("cn.authok.credentials_access_token_expires_at")
+        verify(storage).retrieveLong("cn.authok.credentials_expires_at")
+        verifyNoMoreInteractions(crypto)
+    }
+
+    @Test
+    public fun shouldNotDecryptCredentialsWhenWarmingUpWithTheCacheDisabled() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.warmUp(true)
+        verify(crypto, never()).decrypt(any())
+    }
+
+    @Test
+    public fun shouldDecryptCredentialsWhenWarmingUpWithTheCacheEnabled() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.setCredentialsCacheTtl(60)
+        manager.warmUp(true)
+        verify(crypto, times(1)).decrypt(any())
+
+        manager.getCredentials(callback)
+        verify(crypto, times(1)).decrypt(any())
+        verify(callback).onSuccess(credentialsCaptor.capture())
+        MatcherAssert.assertThat(credentialsCaptor.firstValue.accessToken, Is.`is`("accessToken"))
+    }
+
+    @Test
+    public fun shouldNotDecryptCredentialsWhenWarmingUpWithoutCredentials() {
+        manager.setCredentialsCacheTtl(60)
+        manager.warmUp(true)
+        verify(crypto, never()).decrypt(any())
+    }
+
+    @Test
+    public fun shouldIgnoreCryptoExceptionWhenWarmingUp() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        val storedJson = insertTestCredentials(true, true, true, expiresAt, "scope")
+        Mockito.`when`(crypto.decrypt(storedJson.toByteArray()))
+            .thenThrow(CryptoException("err", null))
+        manager.setCredentialsCacheTtl(60)
+        manager.warmUp(true)
+        verify(storage, never()).remove(any())
+    }
+
+    @Test
+    public fun shouldScheduleRefreshWhenCredentialsCanBeRenewed() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        insertTestCredentials(true, true, true, Date(CredentialsMock.ONE_HOUR_AHEAD_MS), "scope")
+        Mockito.`when`(storage.retrieveLong("cn.authok.credentials_access_token_expires_at"))
+            .thenReturn(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        manager.enableProactiveRefresh(300, 0, refreshExecutor)
+        verify(refreshExecutor).schedule(
+            any(),
+            eq(ONE_HOUR_SECONDS * 1000 - 300 * 1000),
+            eq(TimeUnit.MILLISECONDS)
+        )
+    }
+
+    @Test
+    public fun shouldNotScheduleRefreshWhenCredentialsCannotBeRenewed() {
+        val refreshExecutor = mock<ScheduledExecutorService>()
+        insertTestCredentials(true, true, false, Date(CredentialsMock.ONE_HOUR_AHEAD_MS), "scope")
+        Mockito.`when`(storage.retrieveLong("cn.authok.credentials_access_token_expires_at"))
+            .thenReturn(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        manager.enableProactiveRefresh(300, 0, refreshExecutor)
+        verifyNoMoreInteractions(refreshExecutor)
+    }
+
+    @Test
+    public fun shouldMigrateCredentialsStoredWithALegacyFormatOrKey() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        val storedJson = insertTestCredentials(true, true, true, expiresAt, "scope")
+        Mockito.`when`(crypto.needsMigration(storedJson.toByteArray())).thenReturn(true)
+        Mockito.`when`(crypto.encrypt(storedJson.toByteArray())).thenReturn("envelope".toByteArray())
+        manager.getCredentials(callback)
+        verify(callback).onSuccess(credentialsCaptor.capture())
+        MatcherAssert.assertThat(credentialsCaptor.firstValue.accessToken, Is.`is`("accessToken"))
+        val encodedEnvelope = String(Base64.encode("envelope".toByteArray(), Base64.DEFAULT))
+        verify(storage).store("cn.authok.credentials", encodedEnvelope)
+        verify(crypto).completeMigration()
+    }
+
+    @Test
+    public fun shouldNotMigrateCredentialsStoredWithTheCurrentFormatAndKey() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.getCredentials(callback)
+        verify(callback).onSuccess(any())
+        verify(crypto, never()).encrypt(any())
+        verify(crypto, never()).completeMigration()
+        verify(storage, never()).store(eq("cn.authok.credentials"), anyString())
+    }
+
+    @Test
+    public fun shouldKeepLegacyCredentialsWhenTheMigrationFails() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        val storedJson = insertTestCredentials(true, true, true, expiresAt, "scope")
+        Mockito.`when`(crypto.needsMigration(storedJson.toByteArray())).thenReturn(true)
+        Mockito.`when`(crypto.encrypt(storedJson.toByteArray()))
+            .thenThrow(CryptoException("err", null))
+        manager.getCredentials(callback)
+        verify(callback).onSuccess(any())
+        verify(crypto, never()).completeMigration()
+        verify(storage, never()).remove(anyString())
+    }
+
+    @Test
+    public fun shouldDecryptCredentialsAgainAfterCacheTtlElapsed() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.setCredentialsCacheTtl(60)
+        manager.getCredentials(callback)
+        Mockito.doReturn(CredentialsMock.CURRENT_TIME_MS + 60 * 1000).`when`(manager).currentTimeInMillis
+        manager.getCredentials(callback)
+        verify(crypto, times(2)).decrypt(any())
+        verify(callback, times(2)).onSuccess(any())
+    }
+
+    @Test
+    public fun shouldDiscardCachedCredentialsWhenClearingTheCache() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.setCredentialsCacheTtl(60)
+        manager.getCredentials(callback)
+        manager.clearCredentialsCache()
+        manager.getCredentials(callback)
+        verify(crypto, times(2)).decrypt(any())
+    }
+
+    @Test
+    public fun shouldDiscardCachedCredentialsWhenClearingCredentials() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.setCredentialsCacheTtl(60)
+        manager.getCredentials(callback)
+        manager.clearCredentials()
+        manager.getCredentials(callback)
+        verify(crypto, times(2)).decrypt(any())
+    }
+
+    @Test
+    public fun shouldDiscardCachedCredentialsWhenSavingCredentials() {
+        val expiresAt = Date(CredentialsMock.ONE_HOUR_AHEAD_MS)
+        insertTestCredentials(true, true, true, expiresAt, "scope")
+        manager.setCredentialsCacheTtl(60)
+        manager.getCredentials(callback)
+
+        val credentials: Credentials = CredentialsMock(
+            "idToken",
+            "newAccessToken",
+            "type",
+            "refreshToken",
+            expiresAt,
+            "scope"
+        )
+        val json = gson.toJson(credentials)
+        prepareJwtDecoderMock(expiresAt)
+        Mockito.`when`(crypto.encrypt(json.toByteArray())).thenReturn(json.toByteArray())
+        manager.saveCredentials(credentials)
+        manager.getCredentials(callback)
+        verify(crypto, times(2)).decrypt(any())
+    }
+
+    @Test
+    public fun shouldNotAllowNegativeCacheTtl() {
+        exception.expect(IllegalArgumentException::class.java)
+        exception.expectMessage("The cache TTL must be a positive value or 0.")
+        manager.setCredentialsCacheTtl(-1)
+    }
+
     /*
      * CLEAR Credentials tests
      */
@@ -12,6 +12,8 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 
+import kotlin.Unit;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.nullValue;
@@ -22,6 +24,8 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -221,4 +225,50 @@ public class SharedPreferencesStorageTest {
         verify(sharedPreferencesEditor).apply();
     }
 
-}
\ No newline at end of file
+    //Batch
+
+    @Test
+    public void shouldApplyAllTheChangesOfABatchAtOnce() {
+        SharedPreferencesStorage storage = new SharedPreferencesStorage(context);
+        storage.batch(editor -> {
+            editor.store("string", "value");
+            editor.store("long", 123L);
+            editor.store("integer", 123);
+            editor.store("boolean", true);
+            editor.store("null", (String) null);
+            editor.remove("name");
+            return Unit.INSTANCE;
+        });
+        verify(sharedPreferences, times(1)).edit();
+        verify(sharedPreferencesEditor).putString("string", "value");
+        verify(sharedPreferencesEditor).putLong("long", 123L);
+        verify(sharedPreferencesEditor).putInt("integer", 123);
+        verify(sharedPreferencesEditor).putBoolean("boolean", true);
+        verify(sharedPreferencesEditor).remove("null");
+        verify(sharedPreferencesEditor).remove("name");
+        verify(sharedPreferencesEditor, times(1)).apply();
+    }
+
+    @Test
+    public void shouldNotApplyTheChangesOfABatchThatFails() {
+        SharedPreferencesStorage storage = new SharedPreferencesStorage(context);
+        Assert.assertThrows(IllegalStateException.class, () -> storage.batch(editor -> {
+            editor.store("string", "value");
+            throw new IllegalStateException();
+        }));
+        verify(sharedPreferencesEditor).putString("string", "value");
+        verify(sharedPreferencesEditor, never()).apply();
+    }
+
+    @Test
+    public void shouldRetrieveTheStoredValuesInsideABatch() {
+        when(sharedPreferences.contains("name")).thenReturn(true);
+        when(sharedPreferences.getString("name", null)).thenReturn("value");
+        SharedPreferencesStorage storage = new SharedPreferencesStorage(context);
+        storage.batch(editor -> {
+            assertThat(editor.retrieveString("name"), is("value"));
+            return Unit.INSTANCE;
+        });
+    }
+
+}
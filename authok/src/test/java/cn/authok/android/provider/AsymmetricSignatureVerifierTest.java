@@ -7,11 +7,24 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.security.KeyPairGenerator;
 import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static cn.authok.android.provider.JwtTestUtils.createJWTBody;
 import static cn.authok.android.provider.JwtTestUtils.createTestJWT;
 import static cn.authok.android.provider.JwtTestUtils.getPublicKey;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 
 @RunWith(RobolectricTestRunner.class)
 public class AsymmetricSignatureVerifierTest {
@@ -68,4 +81,99 @@ public class AsymmetricSignatureVerifierTest {
             verifier.verify(new Jwt(hsToken));
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldReuseTheVerifierOfTheSameKey() throws Exception {
+        PublicKey publicKey = getPublicKey();
+        AsymmetricSignatureVerifier verifier = AsymmetricSignatureVerifier.forKey(publicKey);
+
+        assertThat(AsymmetricSignatureVerifier.forKey(publicKey), is(sameInstance(verifier)));
+    }
+
+    @Test
+    public void shouldReleaseTheVerifiersOfOlderKeys() throws Exception {
+        PublicKey publicKey = getPublicKey();
+        AsymmetricSignatureVerifier verifier = AsymmetricSignatureVerifier.forKey(publicKey);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        for (int i = 0; i < 8; i++) {
+            AsymmetricSignatureVerifier.forKey(generator.generateKeyPair().getPublic());
+        }
+
+        assertThat(AsymmetricSignatureVerifier.forKey(publicKey), is(not(sameInstance(verifier))));
+    }
+
+    @Test
+    public void shouldReuseTheSignatureBetweenTokens() throws Exception {
+        PublicKey publicKey = getPublicKey();
+        AsymmetricSignatureVerifier verifier = new AsymmetricSignatureVerifier(publicKey);
+
+        verifier.verify(new Jwt(createTestJWT("RS256", createJWTBody("iss"))));
+        verifier.verify(new Jwt(createTestJWT("RS256", createJWTBody("sub"))));
+
+        assertThat(verifier.getPooledSignatures(), is(1));
+    }
+
+    @Test
+    public void shouldVerifyTheSameTokenAgain() throws Exception {
+        PublicKey publicKey = getPublicKey();
+        AsymmetricSignatureVerifier verifier = new AsymmetricSignatureVerifier(publicKey);
+
+        Jwt token = new Jwt(createTestJWT("RS256", createJWTBody()));
+        verifier.verify(token);
+        verifier.verify(token);
+    }
+
+    @Test
+    public void shouldThrowWhenSignatureIsInvalidAfterVerifyingTheSameContent() throws Exception {
+        PublicKey publicKey = getPublicKey();
+        AsymmetricSignatureVerifier verifier = new AsymmetricSignatureVerifier(publicKey);
+
+        String signedToken = createTestJWT("RS256", createJWTBody());
+        verifier.verify(new Jwt(signedToken));
+
+        String[] parts = signedToken.split("\\.");
+        String tamperedToken = parts[0] + "." + parts[1] + "." + parts[2].substring(1) + "A";
+        Assert.assertThrows("Invalid ID token signature.", TokenValidationException.class, () ->
+                verifier.verify(new Jwt(tamperedToken)));
+    }
+
+    @Test
+    public void shouldThrowWhenSignatureCharactersAreMovedToThePayload() throws Exception {
+        PublicKey publicKey = getPublicKey();
+        AsymmetricSignatureVerifier verifier = new AsymmetricSignatureVerifier(publicKey);
+
+        String signedToken = createTestJWT("RS256", createJWTBody());
+        verifier.verify(new Jwt(signedToken));
+
+        String[] parts = signedToken.split("\\.");
+        String[] forgedParts = new String[]{parts[0], parts[1] + parts[2].substring(0, 4), parts[2].substring(4)};
+        Assert.assertThrows("Invalid ID token signature.", TokenValidationException.class, () ->
+                verifier.checkSignature(forgedParts));
+    }
+
+    @Test
+    public void shouldVerifyTokensFromMultipleThreads() throws Exception {
+        PublicKey publicKey = getPublicKey();
+        AsymmetricSignatureVerifier verifier = new AsymmetricSignatureVerifier(publicKey);
+        List<Jwt> tokens = new ArrayList<>();
+        for (String claim : Arrays.asList("iss", "sub", "aud", "nonce", "exp", "iat")) {
+            tokens.add(new Jwt(createTestJWT("RS256", createJWTBody(claim))));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            Jwt token = tokens.get(i % tokens.size());
+            results.add(executor.submit(() -> {
+                verifier.verify(token);
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertThat(verifier.getPooledSignatures(), is(lessThanOrEqualTo(4)));
+    }
+}
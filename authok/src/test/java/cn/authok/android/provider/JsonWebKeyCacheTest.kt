@@ -0,0 +1,309 @@
+package cn.authok.android.provider
+
+import cn.authok.android.authentication.AuthenticationAPIClient
+import cn.authok.android.authentication.AuthenticationException
+import cn.authok.android.authentication.storage.Storage
+import cn.authok.android.callback.Callback
+import cn.authok.android.request.Request
+import cn.authok.android.request.ResultDelivery
+import cn.authok.android.request.internal.ThreadSwitcher
+import cn.authok.android.util.CommonThreadSwitcherRule
+import com.nhaarman.mockitokotlin2.*
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.*
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TestWatcher
+import org.junit.runner.RunWith
+import org.mockito.Mock
+import org.mockito.MockitoAnnotations
+import org.robolectric.RobolectricTestRunner
+import java.security.PublicKey
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+@RunWith(RobolectricTestRunner::class)
+public class JsonWebKeyCacheTest {
+
+    @get:Rule
+    public val commonThreadSwitcherRule: TestWatcher = CommonThreadSwitcherRule()
+
+    @Mock
+    private lateinit var apiClient: AuthenticationAPIClient
+
+    @Mock
+    private lateinit var jwksRequest: Request<Map<String, PublicKey>, AuthenticationException>
+
+    @Mock
+    private lateinit var callback: Callback<PublicKey, TokenValidationException>
+
+    private lateinit var publicKey: PublicKey
+    private lateinit var cache: JsonWebKeyCache
+    private var now = 0L
+
+    @Before
+    public fun setUp() {
+        MockitoAnnotations.openMocks(this)
+        publicKey = JwtTestUtils.getPublicKey()
+        whenever(apiClient.baseURL).thenReturn(DOMAIN)
+        whenever(apiClient.fetchJsonWebKeys()).thenReturn(jwksRequest)
+        cache = JsonWebKeyCache(TTL_MILLIS, MIN_REFETCH_INTERVAL_MILLIS) { now }
+    }
+
+    @Test
+    public fun shouldFetchTheKeysOnlyOnce() {
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+        cache.getKey(KEY_ID, apiClient, null, callback)
+
+        verify(jwksRequest, times(1)).start(any())
+        verify(callback, times(2)).onSuccess(publicKey)
+        assertThat(cache.stats.hits, `is`(1))
+        assertThat(cache.stats.misses, `is`(1))
+        assertThat(cache.stats.fetches, `is`(1))
+    }
+
+    @Test
+    public fun shouldFetchTheKeysAgainWhenExpired() {
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+        now += TTL_MILLIS
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+
+        verify(jwksRequest, times(2)).start(any())
+        verify(callback, times(2)).onSuccess(publicKey)
+        assertThat(cache.stats.fetches, `is`(2))
+    }
+
+    @Test
+    public fun shouldFetchTheKeysAgainWhenTheKeyIdIsUnknown() {
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+        now += MIN_REFETCH_INTERVAL_MILLIS
+        cache.getKey(ROTATED_KEY_ID, apiClient, null, callback)
+        respondWith(mapOf(ROTATED_KEY_ID to publicKey))
+
+        verify(jwksRequest, times(2)).start(any())
+        verify(callback, times(2)).onSuccess(publicKey)
+        verify(callback, never()).onFailure(any())
+    }
+
+    @Test
+    public fun shouldNotFetchTheKeysAgainBeforeTheMinimumInterval() {
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+        now += MIN_REFETCH_INTERVAL_MILLIS - 1
+        cache.getKey(ROTATED_KEY_ID, apiClient, null, callback)
+
+        verify(jwksRequest, times(1)).start(any())
+        val exceptionCaptor = argumentCaptor<TokenValidationException>()
+        verify(callback).onFailure(exceptionCaptor.capture())
+        assertThat(
+            exceptionCaptor.firstValue.message,
+            `is`("Could not find a public key for kid \"$ROTATED_KEY_ID\"")
+        )
+    }
+
+    @Test
+    public fun shouldShareTheRequestBetweenConcurrentLookups() {
+        val otherCallback: Callback<PublicKey, TokenValidationException> = mock()
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        cache.getKey(KEY_ID, apiClient, null, otherCallback)
+        respondWith(mapOf(KEY_ID to publicKey))
+
+        verify(jwksRequest, times(1)).start(any())
+        verify(callback).onSuccess(publicKey)
+        verify(otherCallback).onSuccess(publicKey)
+        assertThat(cache.stats.misses, `is`(2))
+        assertThat(cache.stats.fetches, `is`(1))
+    }
+
+    @Test
+    public fun shouldFailWhenTheKeysCannotBeFetched() {
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        val callbackCaptor = argumentCaptor<Callback<Map<String, PublicKey>, AuthenticationException>>()
+        verify(jwksRequest).start(callbackCaptor.capture())
+        callbackCaptor.lastValue.onFailure(mock())
+
+        val exceptionCaptor = argumentCaptor<TokenValidationException>()
+        verify(callback).onFailure(exceptionCaptor.capture())
+        assertThat(
+            exceptionCaptor.firstValue.message,
+            `is`("Could not find a public key for kid \"$KEY_ID\"")
+        )
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        verify(jwksRequest, times(2)).start(any())
+    }
+
+    @Test
+    public fun shouldRestoreThePersistedKeys() {
+        val storage = inMemoryStorage()
+        cache.getKey(KEY_ID, apiClient, storage, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+
+        val restartedCache = JsonWebKeyCache(TTL_MILLIS, MIN_REFETCH_INTERVAL_MILLIS) { now }
+        restartedCache.getKey(KEY_ID, apiClient, storage, callback)
+
+        verify(jwksRequest, times(1)).start(any())
+        verify(callback, times(2)).onSuccess(publicKey)
+        assertThat(restartedCache.stats.hits, `is`(1))
+        assertThat(restartedCache.stats.fetches, `is`(0))
+    }
+
+    @Test
+    public fun shouldFetchTheKeysWhenThePersistedKeysAreInvalid() {
+        val storage = inMemoryStorage()
+        storage.store("cn.authok.jwks.$DOMAIN", "not-a-json")
+        cache.getKey(KEY_ID, apiClient, storage, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+
+        verify(storage).remove("cn.authok.jwks.$DOMAIN")
+        verify(jwksRequest, times(1)).start(any())
+        verify(callback).onSuccess(publicKey)
+        assertThat(storage.retrieveString("cn.authok.jwks.$DOMAIN"), `is`(notNullValue()))
+    }
+
+    @Test
+    public fun shouldShareThePrefetchRequestWithTheLookup() {
+        cache.prefetch(apiClient, null)
+        verify(jwksRequest).withResultDelivery(ResultDelivery.Immediate)
+        verify(jwksRequest).start(any())
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        verifyZeroInteractions(callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+
+        verify(jwksRequest, times(1)).start(any())
+        verify(callback).onSuccess(publicKey)
+        assertThat(cache.stats.prefetches, `is`(1))
+        assertThat(cache.stats.fetches, `is`(1))
+    }
+
+    @Test
+    public fun shouldNotPrefetchTheCachedKeys() {
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+        cache.prefetch(apiClient, null)
+
+        verify(jwksRequest, times(1)).start(any())
+        assertThat(cache.stats.prefetches, `is`(0))
+    }
+
+    @Test
+    public fun shouldPrefetchTheExpiredKeys() {
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+        now += TTL_MILLIS
+        cache.prefetch(apiClient, null)
+
+        verify(jwksRequest, times(2)).start(any())
+        assertThat(cache.stats.prefetches, `is`(1))
+    }
+
+    @Test
+    public fun shouldNotPrefetchWhileTheKeysAreBeingRequested() {
+        cache.getKey(KEY_ID, apiClient, null, callback)
+        cache.prefetch(apiClient, null)
+        cache.prefetch(apiClient, null)
+        respondWith(mapOf(KEY_ID to publicKey))
+
+        verify(jwksRequest, times(1)).start(any())
+        verify(callback).onSuccess(publicKey)
+        assertThat(cache.stats.prefetches, `is`(0))
+    }
+
+    @Test
+    public fun shouldPrefetchThePersistedKeysOnlyWhenExpired() {
+        val storage = inMemoryStorage()
+        cache.getKey(KEY_ID, apiClient, storage, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+
+        val restartedCache = JsonWebKeyCache(TTL_MILLIS, MIN_REFETCH_INTERVAL_MILLIS) { now }
+        restartedCache.prefetch(apiClient, storage)
+        verify(jwksRequest, times(1)).start(any())
+
+        now += TTL_MILLIS
+        restartedCache.prefetch(apiClient, storage)
+        verify(jwksRequest, times(2)).start(any())
+    }
+
+    @Test
+    public fun shouldRestoreThePersistedKeysInTheBackgroundWhenPrefetching() {
+        val storage = inMemoryStorage()
+        cache.getKey(KEY_ID, apiClient, storage, callback)
+        respondWith(mapOf(KEY_ID to publicKey))
+
+        val background = mutableListOf<Runnable>()
+        val restartedCache = JsonWebKeyCache(TTL_MILLIS, MIN_REFETCH_INTERVAL_MILLIS) { now }
+        restartedCache.threadSwitcher = object : ThreadSwitcher {
+            override fun mainThread(runnable: Runnable) = runnable.run()
+            override fun backgroundThread(runnable: Runnable) {
+                background.add(runnable)
+            }
+        }
+        restartedCache.prefetch(apiClient, storage)
+        verify(storage, times(1)).retrieveString(any())
+        assertThat(background.size, `is`(1))
+
+        background.single().run()
+        verify(storage, times(2)).retrieveString(any())
+        verify(jwksRequest, times(1)).start(any())
+        restartedCache.getKey(KEY_ID, apiClient, storage, callback)
+        verify(storage, times(2)).retrieveString(any())
+        assertThat(restartedCache.stats.hits, `is`(1))
+    }
+
+    @Test
+    public fun shouldNotBlockOtherDomainsWhileRestoringThePersistedKeys() {
+        val reading = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val slowStorage: Storage = mock()
+        doAnswer {
+            reading.countDown()
+            release.await()
+            null
+        }.whenever(slowStorage).retrieveString(any())
+        val restoring = Thread { cache.getKey(KEY_ID, apiClient, slowStorage, callback) }
+        restoring.start()
+        assertThat(reading.await(5, TimeUnit.SECONDS), `is`(true))
+
+        val otherApiClient: AuthenticationAPIClient = mock()
+        whenever(otherApiClient.baseURL).thenReturn("https://other.authok.cn/")
+        whenever(otherApiClient.fetchJsonWebKeys()).thenReturn(jwksRequest)
+        val looking = Thread { cache.getKey(KEY_ID, otherApiClient, null, callback) }
+        looking.start()
+        looking.join(5000)
+        val completed = !looking.isAlive
+
+        release.countDown()
+        restoring.join(5000)
+        looking.join(5000)
+        assertThat(completed, `is`(true))
+        verify(jwksRequest, times(2)).start(any())
+    }
+
+    private fun respondWith(keys: Map<String, PublicKey>) {
+        val callbackCaptor = argumentCaptor<Callback<Map<String, PublicKey>, AuthenticationException>>()
+        verify(jwksRequest, atLeastOnce()).start(callbackCaptor.capture())
+        callbackCaptor.lastValue.onSuccess(keys)
+    }
+
+    private fun inMemoryStorage(): Storage {
+        val values = mutableMapOf<String, String?>()
+        val storage: Storage = mock()
+        doAnswer { values[it.getArgument(0)] = it.getArgument(1) }
+            .whenever(storage).store(any(), any<String>())
+        doAnswer { values[it.getArgument(0)] }.whenever(storage).retrieveString(any())
+        doAnswer { values.remove(it.getArgument<String>(0)) }.whenever(storage).remove(any())
+        return storage
+    }
+
+    private companion object {
+        private const val DOMAIN = "https://test.authok.cn/"
+        private const val KEY_ID = "key123"
+        private const val ROTATED_KEY_ID = "key456"
+        private const val TTL_MILLIS = 60_000L
+        private const val MIN_REFETCH_INTERVAL_MILLIS = 1_000L
+    }
+}
@@ -4,6 +4,7 @@ import cn.authok.android.authentication.AuthenticationAPIClient;
 import cn.authok.android.authentication.AuthenticationException;
 import cn.authok.android.callback.Callback;
 import cn.authok.android.request.Request;
+import cn.authok.android.request.ResultDelivery;
 import cn.authok.android.result.Credentials;
 
 import org.hamcrest.CoreMatchers;
@@ -91,6 +92,16 @@ public class PKCETest {
         verify(callback).onSuccess(credentials);
     }
 
+    @Test
+    public void shouldSetTheResultDeliveryOfTheTokenRequest() {
+        Request<Credentials, AuthenticationException> tokenRequest = mock(Request.class);
+        when(apiClient.token(AUTHORIZATION_CODE, CODE_VERIFIER, REDIRECT_URI)).thenReturn(tokenRequest);
+        pkce.setResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        pkce.getToken(AUTHORIZATION_CODE, callback);
+        verify(tokenRequest).withResultDelivery(ResultDelivery.Immediate.INSTANCE);
+        verify(tokenRequest).start(any(Callback.class));
+    }
+
     @Test
     public void shouldAddHeaders() {
         Request<Credentials, AuthenticationException> tokenRequest = mock(Request.class);
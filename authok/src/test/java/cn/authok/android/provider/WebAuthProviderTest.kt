@@ -12,7 +12,6 @@ import cn.authok.android.callback.Callback
 import cn.authok.android.provider.WebAuthProvider.login
 import cn.authok.android.provider.WebAuthProvider.logout
 import cn.authok.android.provider.WebAuthProvider.resume
-import cn.authok.android.request.DefaultClient
 import cn.authok.android.request.HttpMethod.POST
 import cn.authok.android.request.NetworkingClient
 import cn.authok.android.request.RequestOptions
@@ -73,6 +72,7 @@ public class WebAuthProviderTest {
         activity = Mockito.spy(Robolectric.buildActivity(Activity::class.java).get())
         account = Authok(JwtTestUtils.EXPECTED_AUDIENCE, JwtTestUtils.EXPECTED_BASE_DOMAIN)
         account.networkingClient = SSLTestUtils.testClient
+        JsonWebKeyCache.shared.clear()
 
         //Next line is needed to avoid CustomTabService from being bound to Test environment
         Mockito.doReturn(false).`when`(activity).bindService(
@@ -1077,7 +1077,7 @@ public class WebAuthProviderTest {
     @Test
     @Throws(Exception::class)
     public fun shouldResumeLoginWithCustomNetworkingClient() {
-        val networkingClient: NetworkingClient = Mockito.spy(DefaultClient())
+        val networkingClient: NetworkingClient = mock()
         val authCallback = mock<Callback<Credentials, AuthenticationException>>()
 
         // 1. start the webauth flow. the browser would open
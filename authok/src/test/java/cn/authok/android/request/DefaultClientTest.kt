@@ -1,28 +1,44 @@
 package cn.authok.android.request
 
 import android.net.Uri
+import cn.authok.android.request.internal.CachingDns
+import cn.authok.android.request.internal.RequestTrace
 import cn.authok.android.util.SSLTestUtils
 import com.google.gson.Gson
 import com.google.gson.reflect.TypeToken
+import okhttp3.Call
+import okhttp3.Dns
+import okhttp3.EventListener
 import okhttp3.Interceptor
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
 import okhttp3.logging.HttpLoggingInterceptor
 import okhttp3.mockwebserver.MockResponse
 import okhttp3.mockwebserver.MockWebServer
 import okhttp3.mockwebserver.RecordedRequest
+import okhttp3.mockwebserver.SocketPolicy
 import org.hamcrest.CoreMatchers.*
 import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.contains
 import org.hamcrest.Matchers.empty
 import org.hamcrest.Matchers.hasSize
 import org.hamcrest.collection.IsMapContaining.hasEntry
 import org.hamcrest.collection.IsMapWithSize.anEmptyMap
 import org.junit.After
+import org.junit.Assert.assertThrows
 import org.junit.Before
+import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 import org.junit.runner.RunWith
 import org.robolectric.RobolectricTestRunner
 import java.io.BufferedReader
+import java.io.IOException
 import java.io.InputStreamReader
+import java.io.InterruptedIOException
 import java.nio.charset.StandardCharsets
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.stream.Collectors
 
 @RunWith(RobolectricTestRunner::class)
@@ -36,11 +52,15 @@ public class DefaultClientTest {
         private const val URL_PATH = "/api/demo"
     }
 
+    @get:Rule
+    public val folder: TemporaryFolder = TemporaryFolder()
+
     private lateinit var baseUrl: String
     private lateinit var mockServer: MockWebServer
     private val gson = Gson()
 
     private val defaultClient: NetworkingClient = SSLTestUtils.testClient
+    private val sslSocketFactory = SSLTestUtils.clientCertificates.sslSocketFactory()
 
     @Before
     public fun setUp() {
@@ -111,6 +131,169 @@ public class DefaultClientTest {
         assertThat(client.okHttpClient.readTimeoutMillis, equalTo(200 * 1000))
     }
 
+    @Test
+    public fun shouldShareTheConnectionPoolAndDispatcherByDefault() {
+        val client = DefaultClient()
+        val otherClient = DefaultClient(enableLogging = true)
+        assertThat(client.okHttpClient.connectionPool, sameInstance(otherClient.okHttpClient.connectionPool))
+        assertThat(client.okHttpClient.dispatcher, sameInstance(otherClient.okHttpClient.dispatcher))
+        assertThat(client.okHttpClient.protocols, hasItem(Protocol.HTTP_2))
+    }
+
+    @Test
+    public fun shouldDeriveFromTheGivenBaseClient() {
+        val interceptor = Interceptor { it.proceed(it.request()) }
+        val baseClient = OkHttpClient.Builder()
+            .addInterceptor(interceptor)
+            .readTimeout(1, TimeUnit.SECONDS)
+            .build()
+        val client = DefaultClient(baseClient, readTimeout = 20)
+        assertThat(client.okHttpClient.connectionPool, sameInstance(baseClient.connectionPool))
+        assertThat(client.okHttpClient.dispatcher, sameInstance(baseClient.dispatcher))
+        assertThat(client.okHttpClient.interceptors, contains(interceptor))
+        assertThat(client.okHttpClient.readTimeoutMillis, equalTo(20 * 1000))
+        assertThat(client.okHttpClient.connectionPool, not(sameInstance(DefaultClient().okHttpClient.connectionPool)))
+    }
+
+    @Test
+    public fun shouldCreateBaseClientWithDefaultValues() {
+        val baseClient = DefaultClient.createBaseClient()
+        assertThat(baseClient.protocols, equalTo(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1)))
+        assertThat(baseClient.dns, sameInstance(Dns.SYSTEM))
+        assertThat(baseClient.connectionPool, not(sameInstance(DefaultClient.createBaseClient().connectionPool)))
+    }
+
+    @Test
+    public fun shouldCreateBaseClientWithCustomValues() {
+        val baseClient = DefaultClient.createBaseClient(
+            maxIdleConnections = 2,
+            keepAliveSeconds = 30,
+            dnsCacheSeconds = 60,
+            preferHttp2 = false
+        )
+        assertThat(baseClient.protocols, equalTo(listOf(Protocol.HTTP_1_1)))
+        assertThat(baseClient.dns, instanceOf(CachingDns::class.java))
+    }
+
+    @Test
+    public fun shouldNotCreateBaseClientWithInvalidValues() {
+        assertThrows(IllegalArgumentException::class.java) {
+            DefaultClient.createBaseClient(maxIdleConnections = -1)
+        }
+        assertThrows(IllegalArgumentException::class.java) {
+            DefaultClient.createBaseClient(keepAliveSeconds = 0)
+        }
+        assertThrows(IllegalArgumentException::class.java) {
+            DefaultClient.createBaseClient(dnsCacheSeconds = -1)
+        }
+    }
+
+    @Test
+    public fun shouldReuseTheConnectionAcrossClients() {
+        enqueueMockResponse(STATUS_SUCCESS, JSON_OK)
+        enqueueMockResponse(STATUS_SUCCESS, JSON_OK)
+        val baseClient = DefaultClient.createBaseClient()
+
+        executeRequest(HttpMethod.GET, createDefaultClientForTest(mapOf(), baseClient)).body.use { it.readBytes() }
+        executeRequest(HttpMethod.GET, createDefaultClientForTest(mapOf(), baseClient)).body.use { it.readBytes() }
+
+        assertThat(mockServer.takeRequest().sequenceNumber, equalTo(0))
+        assertThat(mockServer.takeRequest().sequenceNumber, equalTo(1))
+        assertThat(baseClient.connectionPool.connectionCount(), equalTo(1))
+    }
+
+    @Test
+    public fun shouldCountNewAndReusedConnections() {
+        enqueueMockResponse(STATUS_SUCCESS, JSON_OK)
+        enqueueMockResponse(STATUS_SUCCESS, JSON_OK)
+        val client = createDefaultClientForTest(mapOf())
+        assertThat(client.connectionStats.newConnections, equalTo(0))
+        assertThat(client.connectionStats.reusedConnections, equalTo(0))
+
+        executeRequest(HttpMethod.GET, client).body.use { it.readBytes() }
+        assertThat(client.connectionStats.newConnections, equalTo(1))
+        assertThat(client.connectionStats.reusedConnections, equalTo(0))
+
+        executeRequest(HttpMethod.GET, client).body.use { it.readBytes() }
+        assertThat(client.connectionStats.newConnections, equalTo(1))
+        assertThat(client.connectionStats.reusedConnections, equalTo(1))
+    }
+
+    @Test
+    public fun shouldNotCacheResponsesByDefault() {
+        enqueueCacheableMockResponse("max-age=60")
+        enqueueCacheableMockResponse("max-age=60")
+        val client = createDefaultClientForTest(mapOf())
+
+        assertThat(executeGet(client), equalTo(JSON_OK))
+        assertThat(executeGet(client), equalTo(JSON_OK))
+        assertThat(mockServer.requestCount, equalTo(2))
+        assertThat(client.connectionStats.newConnections, equalTo(1))
+        assertThat(client.cacheStats.misses, equalTo(2))
+    }
+
+    @Test
+    public fun shouldServeFreshResponsesFromTheCache() {
+        enqueueCacheableMockResponse("max-age=60")
+        val client = createDefaultClientForTest(mapOf(), createCachingBaseClient())
+
+        assertThat(executeGet(client), equalTo(JSON_OK))
+        assertThat(executeGet(client), equalTo(JSON_OK))
+        assertThat(mockServer.requestCount, equalTo(1))
+        assertThat(client.cacheStats.misses, equalTo(1))
+        assertThat(client.cacheStats.hits, equalTo(1))
+        assertThat(client.cacheStats.conditionalHits, equalTo(0))
+    }
+
+    @Test
+    public fun shouldValidateCachedResponsesWithTheETag() {
+        enqueueCacheableMockResponse("no-cache")
+        mockServer.enqueue(MockResponse().setResponseCode(304))
+        val client = createDefaultClientForTest(mapOf(), createCachingBaseClient())
+
+        assertThat(executeGet(client), equalTo(JSON_OK))
+        assertThat(executeGet(client), equalTo(JSON_OK))
+        assertThat(mockServer.takeRequest().getHeader("If-None-Match"), nullValue())
+        assertThat(mockServer.takeRequest().getHeader("If-None-Match"), equalTo("\"v1\""))
+        assertThat(client.cacheStats.misses, equalTo(1))
+        assertThat(client.cacheStats.hits, equalTo(0))
+        assertThat(client.cacheStats.conditionalHits, equalTo(1))
+    }
+
+    @Test
+    public fun shouldAlwaysValidateCachedResponsesOfAuthorizedRequests() {
+        enqueueCacheableMockResponse("max-age=60")
+        mockServer.enqueue(MockResponse().setResponseCode(304))
+        val client = createDefaultClientForTest(mapOf(), createCachingBaseClient())
+        val headers = mapOf("Authorization" to "Bearer token")
+
+        assertThat(executeGet(client, headers), equalTo(JSON_OK))
+        assertThat(executeGet(client, headers), equalTo(JSON_OK))
+        assertThat(mockServer.requestCount, equalTo(2))
+        mockServer.takeRequest()
+        assertThat(mockServer.takeRequest().getHeader("If-None-Match"), equalTo("\"v1\""))
+        assertThat(client.cacheStats.conditionalHits, equalTo(1))
+    }
+
+    @Test
+    public fun shouldNotServeRequestsWithNoCacheFromTheCache() {
+        enqueueCacheableMockResponse("max-age=60")
+        enqueueCacheableMockResponse("max-age=60")
+        val client = createDefaultClientForTest(mapOf(), createCachingBaseClient())
+
+        assertThat(executeGet(client), equalTo(JSON_OK))
+        assertThat(executeGet(client, mapOf("Cache-Control" to "no-cache")), equalTo(JSON_OK))
+        assertThat(mockServer.requestCount, equalTo(2))
+        assertThat(client.cacheStats.hits, equalTo(0))
+    }
+
+    @Test
+    public fun shouldNotCreateCachingBaseClientWithInvalidSize() {
+        assertThrows(IllegalArgumentException::class.java) {
+            DefaultClient.createBaseClient(cacheDirectory = folder.root, cacheMaxSizeBytes = 0)
+        }
+    }
+
     @Test
     public fun shouldHandleHttpGetSuccess() {
         enqueueMockResponse(STATUS_SUCCESS, JSON_OK)
@@ -215,6 +398,96 @@ public class DefaultClientTest {
         requestAssertions(sentRequest, HttpMethod.PATCH)
     }
 
+    @Test
+    public fun shouldHandleAsyncHttpPostSuccess() {
+        enqueueMockResponse(STATUS_SUCCESS, JSON_OK)
+
+        //Received response
+        val callback = LatchResponseCallback()
+        startAsyncRequest(HttpMethod.POST, createDefaultClientForTest(mapOf()), callback)
+        assertThat(callback.latch.await(10, TimeUnit.SECONDS), equalTo(true))
+        assertThat(callback.exception, nullValue())
+        responseAssertions(callback.response!!, STATUS_SUCCESS, JSON_OK)
+
+        //Sent request
+        val sentRequest = mockServer.takeRequest()
+        requestAssertions(sentRequest, HttpMethod.POST)
+    }
+
+    @Test
+    public fun shouldHandleAsyncNetworkFailure() {
+        mockServer.shutdown()
+
+        val callback = LatchResponseCallback()
+        startAsyncRequest(HttpMethod.GET, createDefaultClientForTest(mapOf()), callback)
+        assertThat(callback.latch.await(10, TimeUnit.SECONDS), equalTo(true))
+        assertThat(callback.response, nullValue())
+        assertThat(callback.exception, notNullValue())
+    }
+
+    @Test
+    public fun shouldFailWhenTheRequestTimeoutIsExceeded() {
+        mockServer.enqueue(MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE))
+
+        val options = RequestOptions(HttpMethod.GET)
+        options.timeoutMillis = 200
+        val exception = assertThrows(IOException::class.java) {
+            defaultClient.load(baseUrl, options)
+        }
+        assertThat(exception, instanceOf(InterruptedIOException::class.java))
+    }
+
+    @Test
+    public fun shouldFailAsyncRequestWhenCancelled() {
+        mockServer.enqueue(MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE))
+
+        val callback = LatchResponseCallback()
+        val client = createDefaultClientForTest(mapOf())
+        val call = client.loadAsync(baseUrl, RequestOptions(HttpMethod.GET), callback)
+        assertThat(mockServer.takeRequest(10, TimeUnit.SECONDS), notNullValue())
+        call.cancel()
+        assertThat(callback.latch.await(10, TimeUnit.SECONDS), equalTo(true))
+        assertThat(callback.response, nullValue())
+        assertThat(callback.exception, notNullValue())
+    }
+
+
+    @Test
+    public fun shouldTraceTheRequestAndKeepTheBaseClientEventListener() {
+        enqueueMockResponse(STATUS_SUCCESS, JSON_OK)
+        val baseEvents = mutableListOf<String>()
+        val baseClient = DefaultClient.createBaseClient().newBuilder()
+            .eventListener(object : EventListener() {
+                override fun callStart(call: Call) {
+                    baseEvents.add("callStart")
+                }
+
+                override fun callEnd(call: Call) {
+                    baseEvents.add("callEnd")
+                }
+            })
+            .build()
+        val reported = mutableListOf<RequestMetrics>()
+        val trace = RequestTrace(baseUrl, "GET", object : RequestEventListener {
+            override fun onRequestFinished(metrics: RequestMetrics) {
+                reported.add(metrics)
+            }
+        })
+        val options = RequestOptions(HttpMethod.GET)
+        options.trace = trace
+        val response = createDefaultClientForTest(mapOf(), baseClient).load(baseUrl, options)
+        response.body.use { response.bodyToUtf8() }
+        trace.finish()
+
+        assertThat(reported, hasSize(1))
+        val metrics = reported[0]
+        assertThat(metrics.statusCode, equalTo(STATUS_SUCCESS))
+        assertThat(metrics.responseBytes, equalTo(JSON_OK.length.toLong()))
+        assertThat(metrics.startedMillis, notNullValue())
+        assertThat(metrics.connectedMillis, notNullValue())
+        assertThat(metrics.firstByteMillis, notNullValue())
+        assertThat(baseEvents, contains("callStart", "callEnd"))
+    }
 
     //Helper methods
     private fun requestAssertions(
@@ -278,6 +551,22 @@ public class DefaultClientTest {
         return client.load(destination, options)
     }
 
+    private fun startAsyncRequest(
+        method: HttpMethod,
+        client: AsyncNetworkingClient,
+        callback: AsyncNetworkingClient.ResponseCallback
+    ) {
+        val options = RequestOptions(method)
+        options.parameters["customer"] = "john-doe"
+        options.headers["a-header"] = "b-value"
+
+        val destination = Uri.parse(baseUrl).buildUpon()
+            .path(URL_PATH)
+            .build()
+            .toString()
+        client.loadAsync(destination, options, callback)
+    }
+
     private fun enqueueMockResponse(responseCode: Int = STATUS_SUCCESS, jsonBody: String) {
         val response = MockResponse()
         response.setBody(jsonBody)
@@ -286,6 +575,25 @@ public class DefaultClientTest {
         mockServer.enqueue(response)
     }
 
+    private fun enqueueCacheableMockResponse(cacheControl: String) {
+        val response = MockResponse()
+        response.setBody(JSON_OK)
+        response.setHeader("content-type", "application/json")
+        response.setHeader("Cache-Control", cacheControl)
+        response.setHeader("ETag", "\"v1\"")
+        mockServer.enqueue(response)
+    }
+
+    private fun executeGet(client: NetworkingClient, headers: Map<String, String> = mapOf()): String {
+        val options = RequestOptions(HttpMethod.GET)
+        options.headers.putAll(headers)
+        val response = client.load(baseUrl, options)
+        return response.body.use { response.bodyToUtf8() }
+    }
+
+    private fun createCachingBaseClient(): OkHttpClient =
+        DefaultClient.createBaseClient(cacheDirectory = folder.newFolder())
+
     private fun ServerResponse.bodyToUtf8() =
         BufferedReader(InputStreamReader(this.body, StandardCharsets.UTF_8))
             .lines()
@@ -300,14 +608,34 @@ public class DefaultClientTest {
         return gson.fromJson(text, mapType)
     }
 
-    private fun createDefaultClientForTest(defaultHeaders: Map<String, String>): DefaultClient {
+    private fun createDefaultClientForTest(
+        defaultHeaders: Map<String, String>,
+        baseClient: OkHttpClient = DefaultClient.createBaseClient()
+    ): DefaultClient {
         return DefaultClient(
             defaultHeaders = defaultHeaders,
             readTimeout = 10,
             connectTimeout = 10,
             enableLogging = false,
-            sslSocketFactory = SSLTestUtils.clientCertificates.sslSocketFactory(),
-            trustManager = SSLTestUtils.clientCertificates.trustManager
+            sslSocketFactory = sslSocketFactory,
+            trustManager = SSLTestUtils.clientCertificates.trustManager,
+            baseClient = baseClient
         )
     }
-}
\ No newline at end of file
+
+    private class LatchResponseCallback : AsyncNetworkingClient.ResponseCallback {
+        val latch = CountDownLatch(1)
+        var response: ServerResponse? = null
+        var exception: IOException? = null
+
+        override fun onResponse(response: ServerResponse) {
+            this.response = response
+            latch.countDown()
+        }
+
+        override fun onFailure(exception: IOException) {
+            this.exception = exception
+            latch.countDown()
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package cn.authok.android.request
+
+import cn.authok.android.AuthokException
+import cn.authok.android.callback.Callback
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.verifyZeroInteractions
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.`is`
+import org.hamcrest.Matchers.sameInstance
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+public class RequestTest {
+
+    @Test
+    public fun shouldCallTheCallbackWhenStartedWithTheDefaultCancellableStart() {
+        val request = StartOnlyRequest()
+        val callback: Callback<String, AuthokException> = mock()
+        request.startCancellable(callback)
+        request.callback!!.onSuccess("result")
+        verify(callback).onSuccess("result")
+    }
+
+    @Test
+    public fun shouldNotCallTheCallbackWhenCancelledWithTheDefaultCancellableStart() {
+        val request = StartOnlyRequest()
+        val callback: Callback<String, AuthokException> = mock()
+        request.startCancellable(callback).cancel()
+        request.callback!!.onSuccess("result")
+        request.callback!!.onFailure(AuthokException("error"))
+        verifyZeroInteractions(callback)
+    }
+
+    @Test
+    public fun shouldReturnItselfWithTheDefaultTimeout() {
+        val request = StartOnlyRequest()
+        assertThat(request.withTimeout(5, TimeUnit.SECONDS), `is`(sameInstance(request)))
+    }
+
+    @Test
+    public fun shouldReturnItselfWithTheDefaultResultDelivery() {
+        val request = StartOnlyRequest()
+        assertThat(request.withResultDelivery(ResultDelivery.Immediate), `is`(sameInstance(request)))
+    }
+
+    /**
+     * Implements only the members that have no default implementation, like the requests written before
+     * the defaults were added.
+     */
+    private class StartOnlyRequest : Request<String, AuthokException> {
+        var callback: Callback<String, AuthokException>? = null
+
+        override fun start(callback: Callback<String, AuthokException>) {
+            this.callback = callback
+        }
+
+        override fun execute(): String = "result"
+
+        override fun addParameters(parameters: Map<String, String>): Request<String, AuthokException> = this
+
+        override fun addParameter(name: String, value: String): Request<String, AuthokException> = this
+
+        override fun addHeader(name: String, value: String): Request<String, AuthokException> = this
+    }
+}
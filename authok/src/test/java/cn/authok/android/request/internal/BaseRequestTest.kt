@@ -1,16 +1,27 @@
 package cn.authok.android.request.internal
 
+import android.os.Handler
+import android.os.HandlerThread
 import cn.authok.android.AuthokException
 import cn.authok.android.callback.Callback
 import cn.authok.android.request.*
+import cn.authok.android.util.SSLTestUtils
 import com.google.gson.Gson
 import com.google.gson.JsonIOException
+import com.jayway.awaitility.Awaitility
 import com.nhaarman.mockitokotlin2.*
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.SocketPolicy
 import org.hamcrest.MatcherAssert
 import org.hamcrest.Matchers
 import org.hamcrest.collection.IsMapContaining
 import org.hamcrest.collection.IsMapWithSize
 import org.hamcrest.core.IsCollectionContaining
+import org.junit.Assert
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -26,6 +37,10 @@ import java.io.IOException
 import java.io.InputStream
 import java.io.Reader
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
 
 @RunWith(RobolectricTestRunner::class)
 public class BaseRequestTest {
@@ -457,6 +472,442 @@ public class BaseRequestTest {
         )
     }
 
+    @Test
+    @Throws(Exception::class)
+    public fun shouldAwaitResultFromSuccessfulResponse() {
+        mockSuccessfulServerResponse()
+        val result = runBlocking { baseRequest.await() }
+        MatcherAssert.assertThat(result.prop, Matchers.`is`("test-value"))
+        MatcherAssert.assertThat(wasResponseStreamClosed, Matchers.`is`(true))
+        verifyZeroInteractions(errorAdapter)
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldAwaitErrorFromUnsuccessfulResponse() {
+        mockFailedJsonServerResponse()
+        val exception = Assert.assertThrows(AuthokException::class.java) {
+            runBlocking { baseRequest.await() }
+        }
+        MatcherAssert.assertThat(exception, Matchers.`is`(readAuthokException))
+        MatcherAssert.assertThat(wasResponseStreamClosed, Matchers.`is`(true))
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldAwaitResultUsingDefaultClient() {
+        val server = SSLTestUtils.createMockWebServer()
+        server.enqueue(
+            MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"prop\":\"test-value\"}")
+        )
+        server.start()
+        try {
+            val request = BaseRequest(
+                HttpMethod.GET,
+                server.url("/").toString(),
+                createAsyncClient(),
+                resultAdapter,
+                errorAdapter
+            )
+            val result = runBlocking { request.await() }
+            MatcherAssert.assertThat(result.prop, Matchers.`is`("test-value"))
+        } finally {
+            server.shutdown()
+        }
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldReportTheMetricsOfAnExecutedRequest() {
+        val listener: RequestEventListener = mock()
+        val request = BaseRequest(
+            HttpMethod.POST,
+            "$BASE_URL/oauth/token",
+            client,
+            resultAdapter,
+            errorAdapter,
+            CommonThreadSwitcher.getInstance(),
+            listener
+        )
+        Mockito.`when`(client.load(eq("$BASE_URL/oauth/token"), any()))
+            .thenReturn(ServerResponse(200, ByteArrayInputStream("{\"prop\":\"test-value\"}".toByteArray()), mapOf()))
+        request.execute()
+
+        val metricsCaptor: KArgumentCaptor<RequestMetrics> = argumentCaptor()
+        verify(listener).onRequestFinished(metricsCaptor.capture())
+        val metrics = metricsCaptor.firstValue
+        MatcherAssert.assertThat(metrics.endpoint, Matchers.`is`("/oauth/token"))
+        MatcherAssert.assertThat(metrics.method, Matchers.`is`("POST"))
+        MatcherAssert.assertThat(metrics.statusCode, Matchers.`is`(200))
+        MatcherAssert.assertThat(metrics.startedMillis, Matchers.notNullValue())
+        MatcherAssert.assertThat(metrics.parsedMillis, Matchers.notNullValue())
+        MatcherAssert.assertThat(metrics.deliveredMillis, Matchers.nullValue())
+        MatcherAssert.assertThat(metrics.firstByteMillis, Matchers.nullValue())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldReportTheMetricsOfAFailedRequest() {
+        mockFailedJsonServerResponse()
+        val listener: RequestEventListener = mock()
+        val request = BaseRequest(
+            HttpMethod.GET,
+            BASE_URL,
+            client,
+            resultAdapter,
+            errorAdapter,
+            CommonThreadSwitcher.getInstance(),
+            listener
+        )
+        Assert.assertThrows(AuthokException::class.java) { request.execute() }
+
+        val metricsCaptor: KArgumentCaptor<RequestMetrics> = argumentCaptor()
+        verify(listener).onRequestFinished(metricsCaptor.capture())
+        MatcherAssert.assertThat(metricsCaptor.firstValue.statusCode, Matchers.`is`(422))
+        MatcherAssert.assertThat(metricsCaptor.firstValue.parsedMillis, Matchers.notNullValue())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldNotTraceTheRequestWithoutListener() {
+        mockSuccessfulServerResponse()
+        baseRequest.execute()
+        verify(client).load(eq(BASE_URL), optionsCaptor.capture())
+        MatcherAssert.assertThat(optionsCaptor.firstValue.trace, Matchers.nullValue())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldReportTheNetworkMetricsUsingDefaultClient() {
+        val server = SSLTestUtils.createMockWebServer()
+        server.enqueue(
+            MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"prop\":\"test-value\"}")
+        )
+        server.start()
+        try {
+            val listener: RequestEventListener = mock()
+            val request = BaseRequest(
+                HttpMethod.POST,
+                server.url("/userinfo").toString(),
+                createAsyncClient(),
+                resultAdapter,
+                errorAdapter,
+                CommonThreadSwitcher.getInstance(),
+                listener
+            )
+            request.addParameter("client_id", "abc")
+            runBlocking { request.await() }
+
+            val metricsCaptor: KArgumentCaptor<RequestMetrics> = argumentCaptor()
+            verify(listener).onRequestFinished(metricsCaptor.capture())
+            val metrics = metricsCaptor.firstValue
+            MatcherAssert.assertThat(metrics.endpoint, Matchers.`is`("/userinfo"))
+            MatcherAssert.assertThat(metrics.statusCode, Matchers.`is`(200))
+            MatcherAssert.assertThat(metrics.requestBytes, Matchers.greaterThan(0L))
+            MatcherAssert.assertThat(metrics.responseBytes, Matchers.`is`(21L))
+            MatcherAssert.assertThat(metrics.tlsMillis, Matchers.notNullValue())
+            MatcherAssert.assertThat(metrics.connectedMillis, Matchers.notNullValue())
+            MatcherAssert.assertThat(metrics.firstByteMillis, Matchers.notNullValue())
+            MatcherAssert.assertThat(metrics.parsedMillis!!, Matchers.greaterThanOrEqualTo(metrics.firstByteMillis!!))
+        } finally {
+            server.shutdown()
+        }
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldCancelTheCallWhenAwaitIsCancelled() {
+        val server = SSLTestUtils.createMockWebServer()
+        server.enqueue(MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE))
+        server.start()
+        val client = createAsyncClient()
+        try {
+            val request = BaseRequest(
+                HttpMethod.GET,
+                server.url("/").toString(),
+                client,
+                resultAdapter,
+                errorAdapter
+            )
+            runBlocking {
+                val job = launch(Dispatchers.Default) { request.await() }
+                MatcherAssert.assertThat(server.takeRequest(5, TimeUnit.SECONDS), Matchers.notNullValue())
+                job.cancelAndJoin()
+            }
+            Awaitility.await().atMost(5, TimeUnit.SECONDS)
+                .until(Callable { client.okHttpClient.dispatcher.runningCallsCount() }, Matchers.`is`(0))
+            verifyZeroInteractions(resultAdapter)
+        } finally {
+            server.shutdown()
+        }
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldStartRequestWithoutBackgroundThreadWhenClientIsAsync() {
+        val asyncClient: AsyncNetworkingClient = mock()
+        Mockito.`when`(asyncClient.loadAsync(eq(BASE_URL), any(), any())).thenReturn(mock())
+        val threadSwitcher: ThreadSwitcher = mock()
+        doAnswer { invocation ->
+            invocation.getArgument<Runnable>(0).run()
+        }.`when`(threadSwitcher).mainThread(any())
+        val baseRequest = BaseRequest(
+            HttpMethod.POST,
+            BASE_URL,
+            asyncClient,
+            resultAdapter,
+            errorAdapter,
+            threadSwitcher
+        )
+        val callback: Callback<SimplePojo, AuthokException> = mock()
+        baseRequest.start(callback)
+
+        val responseCallbackCaptor = argumentCaptor<AsyncNetworkingClient.ResponseCallback>()
+        verify(asyncClient).loadAsync(eq(BASE_URL), any(), responseCallbackCaptor.capture())
+        verify(asyncClient, never()).load(any(), any())
+        verify(threadSwitcher, never()).backgroundThread(any())
+        verify(callback, never()).onSuccess(any())
+
+        val headers = Collections.singletonMap("Content-Type", listOf("application/json"))
+        val inputStream = AwareInputStream("{\"prop\":\"test-value\"}") { wasResponseStreamClosed = true }
+        responseCallbackCaptor.firstValue.onResponse(ServerResponse(200, inputStream, headers))
+        val pojoCaptor = argumentCaptor<SimplePojo>()
+        verify(callback).onSuccess(pojoCaptor.capture())
+        MatcherAssert.assertThat(pojoCaptor.firstValue.prop, Matchers.`is`("test-value"))
+        MatcherAssert.assertThat(wasResponseStreamClosed, Matchers.`is`(true))
+        verify(callback, never()).onFailure(any())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldPostErrorWhenAsyncClientFails() {
+        val asyncClient: AsyncNetworkingClient = mock()
+        Mockito.`when`(asyncClient.loadAsync(eq(BASE_URL), any(), any())).thenReturn(mock())
+        val threadSwitcher: ThreadSwitcher = mock()
+        doAnswer { invocation ->
+            invocation.getArgument<Runnable>(0).run()
+        }.`when`(threadSwitcher).mainThread(any())
+        val baseRequest = BaseRequest(
+            HttpMethod.POST,
+            BASE_URL,
+            asyncClient,
+            resultAdapter,
+            errorAdapter,
+            threadSwitcher
+        )
+        val callback: Callback<SimplePojo, AuthokException> = mock()
+        baseRequest.start(callback)
+
+        val responseCallbackCaptor = argumentCaptor<AsyncNetworkingClient.ResponseCallback>()
+        verify(asyncClient).loadAsync(eq(BASE_URL), any(), responseCallbackCaptor.capture())
+        val networkError = IOException("Network error")
+        responseCallbackCaptor.firstValue.onFailure(networkError)
+        verify(errorAdapter).fromException(networkError)
+        verify(callback).onFailure(wrappingAuthokException)
+        verify(callback, never()).onSuccess(any())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldCancelTheAsyncCallAndNotDeliverTheResult() {
+        val asyncClient: AsyncNetworkingClient = mock()
+        val call: Cancellable = mock()
+        Mockito.`when`(asyncClient.loadAsync(eq(BASE_URL), any(), any())).thenReturn(call)
+        val threadSwitcher: ThreadSwitcher = mock()
+        doAnswer { invocation ->
+            invocation.getArgument<Runnable>(0).run()
+        }.`when`(threadSwitcher).mainThread(any())
+        val baseRequest = BaseRequest(
+            HttpMethod.POST,
+            BASE_URL,
+            asyncClient,
+            resultAdapter,
+            errorAdapter,
+            threadSwitcher
+        )
+        val callback: Callback<SimplePojo, AuthokException> = mock()
+        val cancellable = baseRequest.startCancellable(callback)
+        cancellable.cancel()
+        verify(call).cancel()
+
+        val responseCallbackCaptor = argumentCaptor<AsyncNetworkingClient.ResponseCallback>()
+        verify(asyncClient).loadAsync(eq(BASE_URL), any(), responseCallbackCaptor.capture())
+        val headers = Collections.singletonMap("Content-Type", listOf("application/json"))
+        val inputStream = AwareInputStream("{\"prop\":\"test-value\"}") { wasResponseStreamClosed = true }
+        responseCallbackCaptor.firstValue.onResponse(ServerResponse(200, inputStream, headers))
+        responseCallbackCaptor.firstValue.onFailure(IOException("Canceled"))
+        MatcherAssert.assertThat(wasResponseStreamClosed, Matchers.`is`(true))
+        verifyZeroInteractions(callback)
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldNotLoadWhenCancelledBeforeRunningOnBackgroundThread() {
+        val threadSwitcher: ThreadSwitcher = mock()
+        val baseRequest = BaseRequest(
+            HttpMethod.POST,
+            BASE_URL,
+            client,
+            resultAdapter,
+            errorAdapter,
+            threadSwitcher
+        )
+        val callback: Callback<SimplePojo, AuthokException> = mock()
+        val cancellable = baseRequest.startCancellable(callback)
+        cancellable.cancel()
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(threadSwitcher).backgroundThread(runnableCaptor.capture())
+        runnableCaptor.firstValue.run()
+        verify(client, never()).load(any(), any())
+        verify(threadSwitcher, never()).mainThread(any())
+        verifyZeroInteractions(callback)
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldPostTheResultToTheLooperOfTheCallerThread() {
+        val threadSwitcher: ThreadSwitcher = mock()
+        val baseRequest = BaseRequest(
+            HttpMethod.POST,
+            BASE_URL,
+            client,
+            resultAdapter,
+            errorAdapter,
+            threadSwitcher,
+            resultDelivery = ResultDelivery.CallerThread
+        )
+        mockSuccessfulServerResponse()
+        val callerThread = HandlerThread("caller")
+        callerThread.start()
+        val callbackThread = AtomicReference<Thread>()
+        val callback = object : Callback<SimplePojo, AuthokException> {
+            override fun onSuccess(result: SimplePojo) {
+                callbackThread.set(Thread.currentThread())
+            }
+
+            override fun onFailure(error: AuthokException) {}
+        }
+        val started = CountDownLatch(1)
+        Handler(callerThread.looper).post {
+            baseRequest.start(callback)
+            started.countDown()
+        }
+        MatcherAssert.assertThat(started.await(5, TimeUnit.SECONDS), Matchers.`is`(true))
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(threadSwitcher).backgroundThread(runnableCaptor.capture())
+        runnableCaptor.firstValue.run()
+        Awaitility.await().atMost(5, TimeUnit.SECONDS).until(Callable { callbackThread.get() }, Matchers.notNullValue())
+        MatcherAssert.assertThat(callbackThread.get(), Matchers.`is`<Thread>(callerThread))
+        verify(threadSwitcher, never()).mainThread(any())
+        callerThread.quit()
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldInvokeTheCallbackOnTheCompletingThreadWhenTheCallerHasNoLooper() {
+        val threadSwitcher: ThreadSwitcher = mock()
+        val baseRequest = BaseRequest(
+            HttpMethod.POST,
+            BASE_URL,
+            client,
+            resultAdapter,
+            errorAdapter,
+            threadSwitcher,
+            resultDelivery = ResultDelivery.CallerThread
+        )
+        mockFailedRawServerResponse()
+        val callback: Callback<SimplePojo, AuthokException> = mock()
+        val callerThread = Thread { baseRequest.start(callback) }
+        callerThread.start()
+        callerThread.join()
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(threadSwitcher).backgroundThread(runnableCaptor.capture())
+        runnableCaptor.firstValue.run()
+        verify(callback).onFailure(readRawAuthokException)
+        verify(callback, never()).onSuccess(any())
+        verify(threadSwitcher, never()).mainThread(any())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldInvokeTheCallbackImmediatelyOnTheCompletingThread() {
+        val threadSwitcher: ThreadSwitcher = mock()
+        val baseRequest = BaseRequest(
+            HttpMethod.POST,
+            BASE_URL,
+            client,
+            resultAdapter,
+            errorAdapter,
+            threadSwitcher
+        )
+        mockSuccessfulServerResponse()
+        val callback: Callback<SimplePojo, AuthokException> = mock()
+        baseRequest.withResultDelivery(ResultDelivery.Immediate).start(callback)
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(threadSwitcher).backgroundThread(runnableCaptor.capture())
+        runnableCaptor.firstValue.run()
+        verify(callback).onSuccess(any())
+        verify(threadSwitcher, never()).mainThread(any())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldRunTheCallbackOnTheGivenExecutor() {
+        val threadSwitcher: ThreadSwitcher = mock()
+        val baseRequest = BaseRequest(
+            HttpMethod.POST,
+            BASE_URL,
+            client,
+            resultAdapter,
+            errorAdapter,
+            threadSwitcher,
+            resultDelivery = ResultDelivery.Immediate
+        )
+        mockFailedRawServerResponse()
+        val posted = mutableListOf<Runnable>()
+        val callback: Callback<SimplePojo, AuthokException> = mock()
+        baseRequest.withResultDelivery(ResultDelivery.OnExecutor { posted.add(it) }).start(callback)
+
+        val runnableCaptor = argumentCaptor<Runnable>()
+        verify(threadSwitcher).backgroundThread(runnableCaptor.capture())
+        runnableCaptor.firstValue.run()
+        verifyZeroInteractions(callback)
+        MatcherAssert.assertThat(posted.size, Matchers.`is`(1))
+
+        posted[0].run()
+        verify(callback).onFailure(readRawAuthokException)
+        verify(threadSwitcher, never()).mainThread(any())
+    }
+
+    @Test
+    @Throws(Exception::class)
+    public fun shouldSetTheTimeout() {
+        mockSuccessfulServerResponse()
+        baseRequest.withTimeout(2, TimeUnit.SECONDS)
+        baseRequest.execute()
+        verify(client).load(eq(BASE_URL), optionsCaptor.capture())
+        MatcherAssert.assertThat(optionsCaptor.firstValue.timeoutMillis, Matchers.`is`(2000L))
+    }
+
+    @Test
+    public fun shouldNotAcceptNegativeTimeout() {
+        val exception = Assert.assertThrows(IllegalArgumentException::class.java) {
+            baseRequest.withTimeout(-1, TimeUnit.SECONDS)
+        }
+        MatcherAssert.assertThat(
+            exception.message,
+            Matchers.`is`("The timeout must be a positive value or 0.")
+        )
+    }
+
     @Throws(Exception::class)
     private fun mockSuccessfulServerResponse() {
         val headers = Collections.singletonMap("Content-Type", listOf("application/json"))
@@ -532,6 +983,15 @@ public class BaseRequestTest {
         ).thenReturn(response)
     }
 
+    private fun createAsyncClient(): DefaultClient = DefaultClient(
+        connectTimeout = 10,
+        readTimeout = 10,
+        defaultHeaders = mapOf(),
+        enableLogging = false,
+        sslSocketFactory = SSLTestUtils.clientCertificates.sslSocketFactory(),
+        trustManager = SSLTestUtils.clientCertificates.trustManager
+    )
+
     /**
      * `InputStream` which informs a callback when `close()` has been called.
      */
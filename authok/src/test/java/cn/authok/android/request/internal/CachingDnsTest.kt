@@ -0,0 +1,74 @@
+package cn.authok.android.request.internal
+
+import com.nhaarman.mockitokotlin2.*
+import okhttp3.Dns
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.`is`
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import java.net.InetAddress
+import java.net.UnknownHostException
+
+public class CachingDnsTest {
+
+    private lateinit var delegate: Dns
+    private lateinit var dns: CachingDns
+    private var now = 0L
+
+    private val addresses = listOf(InetAddress.getByAddress("authok.cn", byteArrayOf(10, 0, 0, 1)))
+    private val newAddresses = listOf(InetAddress.getByAddress("authok.cn", byteArrayOf(10, 0, 0, 2)))
+
+    @Before
+    public fun setUp() {
+        delegate = mock()
+        dns = CachingDns(1000, delegate) { now }
+    }
+
+    @Test
+    public fun shouldReuseTheLookupUntilItExpires() {
+        whenever(delegate.lookup("authok.cn")).thenReturn(addresses, newAddresses)
+
+        assertThat(dns.lookup("authok.cn"), `is`(addresses))
+        now = 999
+        assertThat(dns.lookup("authok.cn"), `is`(addresses))
+        verify(delegate, times(1)).lookup("authok.cn")
+
+        now = 1000
+        assertThat(dns.lookup("authok.cn"), `is`(newAddresses))
+        verify(delegate, times(2)).lookup("authok.cn")
+    }
+
+    @Test
+    public fun shouldCacheEachHostSeparately() {
+        whenever(delegate.lookup("authok.cn")).thenReturn(addresses)
+        whenever(delegate.lookup("login.authok.cn")).thenReturn(newAddresses)
+
+        assertThat(dns.lookup("authok.cn"), `is`(addresses))
+        assertThat(dns.lookup("login.authok.cn"), `is`(newAddresses))
+        assertThat(dns.lookup("authok.cn"), `is`(addresses))
+        verify(delegate, times(1)).lookup("authok.cn")
+        verify(delegate, times(1)).lookup("login.authok.cn")
+    }
+
+    @Test
+    public fun shouldNotCacheFailedLookups() {
+        whenever(delegate.lookup("authok.cn"))
+            .thenThrow(UnknownHostException("authok.cn"))
+            .thenReturn(addresses)
+
+        Assert.assertThrows(UnknownHostException::class.java) {
+            dns.lookup("authok.cn")
+        }
+        assertThat(dns.lookup("authok.cn"), `is`(addresses))
+        verify(delegate, times(2)).lookup("authok.cn")
+    }
+
+    @Test
+    public fun shouldNotAcceptNonPositiveTimeToLive() {
+        val exception = Assert.assertThrows(IllegalArgumentException::class.java) {
+            CachingDns(0, delegate)
+        }
+        assertThat(exception.message, `is`("The time to live must be a positive value."))
+    }
+}
@@ -20,7 +20,7 @@ public class CredentialsDeserializerTest {
     public fun setUp() {
         val deserializer = CredentialsDeserializerMock()
         gson = GsonProvider.gson.newBuilder()
-            .registerTypeAdapter(Credentials::class.java, deserializer)
+            .registerTypeAdapterFactory(deserializer)
             .create()
     }
 
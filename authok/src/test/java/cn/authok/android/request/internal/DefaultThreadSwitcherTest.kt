@@ -0,0 +1,86 @@
+package cn.authok.android.request.internal
+
+import com.jayway.awaitility.Awaitility
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.`is`
+import org.hamcrest.Matchers.startsWith
+import org.junit.Assert
+import org.junit.Test
+import org.robolectric.android.util.concurrent.PausedExecutorService
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+public class DefaultThreadSwitcherTest {
+
+    @Test
+    public fun shouldCountTheQueuedAndCompletedTasks() {
+        val executor = PausedExecutorService()
+        val threadSwitcher = DefaultThreadSwitcher(executor)
+        val stats = threadSwitcher.stats
+
+        threadSwitcher.backgroundThread {}
+        threadSwitcher.backgroundThread {}
+        assertThat(stats.submittedTasks, `is`(2))
+        assertThat(stats.queuedTasks, `is`(2))
+        assertThat(stats.maxQueuedTasks, `is`(2))
+        assertThat(stats.completedTasks, `is`(0))
+
+        assertThat(executor.runNext(), `is`(true))
+        assertThat(stats.queuedTasks, `is`(1))
+        assertThat(stats.completedTasks, `is`(1))
+
+        assertThat(executor.runNext(), `is`(true))
+        assertThat(stats.queuedTasks, `is`(0))
+        assertThat(stats.maxQueuedTasks, `is`(2))
+        assertThat(stats.activeTasks, `is`(0))
+        assertThat(stats.completedTasks, `is`(2))
+        executor.shutdown()
+    }
+
+    @Test
+    public fun shouldCountTheRunningTasks() {
+        val threadSwitcher = DefaultThreadSwitcher(Executor { Thread(it).start() })
+        val running = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        threadSwitcher.backgroundThread {
+            running.countDown()
+            release.await()
+        }
+        assertThat(running.await(5, TimeUnit.SECONDS), `is`(true))
+        assertThat(threadSwitcher.stats.activeTasks, `is`(1))
+        assertThat(threadSwitcher.stats.queuedTasks, `is`(0))
+
+        release.countDown()
+        Awaitility.await().atMost(5, TimeUnit.SECONDS)
+            .until(Callable { threadSwitcher.stats.completedTasks }, `is`(1))
+        assertThat(threadSwitcher.stats.activeTasks, `is`(0))
+    }
+
+    @Test
+    public fun shouldNotCountTheRejectedTasks() {
+        val threadSwitcher = DefaultThreadSwitcher(Executor { throw RejectedExecutionException() })
+        Assert.assertThrows(RejectedExecutionException::class.java) {
+            threadSwitcher.backgroundThread {}
+        }
+        assertThat(threadSwitcher.stats.submittedTasks, `is`(0))
+        assertThat(threadSwitcher.stats.queuedTasks, `is`(0))
+    }
+
+    @Test
+    public fun shouldRunTheTasksOnNamedDaemonThreadsByDefault() {
+        val threadSwitcher = DefaultThreadSwitcher()
+        val taskThread = AtomicReference<Thread>()
+        val finished = CountDownLatch(1)
+        threadSwitcher.backgroundThread {
+            taskThread.set(Thread.currentThread())
+            finished.countDown()
+        }
+        assertThat(finished.await(5, TimeUnit.SECONDS), `is`(true))
+        assertThat(taskThread.get().name, startsWith("Authok-Background-"))
+        assertThat(taskThread.get().isDaemon, `is`(true))
+    }
+}
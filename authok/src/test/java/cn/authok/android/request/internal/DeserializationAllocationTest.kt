@@ -0,0 +1,54 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.result.UserProfile
+import com.google.gson.Gson
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.lessThan
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.StringReader
+import java.lang.management.ManagementFactory
+
+/**
+ * Compares the memory allocated to deserialize a large user profile by the streaming deserializers
+ * and by the tree based ones they replaced.
+ */
+public class DeserializationAllocationTest {
+
+    private lateinit var threadBean: com.sun.management.ThreadMXBean
+
+    @Before
+    public fun setUp() {
+        val bean = ManagementFactory.getThreadMXBean()
+        assumeTrue(bean is com.sun.management.ThreadMXBean && bean.isThreadAllocatedMemorySupported)
+        threadBean = bean as com.sun.management.ThreadMXBean
+        threadBean.isThreadAllocatedMemoryEnabled = true
+    }
+
+    @Test
+    public fun shouldAllocateLessToReadALargeUserProfile() {
+        val json = StreamingDeserializerTest.largeProfile()
+        val streamingBytes = allocatedBytes(GsonProvider.gson, json)
+        val treeBytes = allocatedBytes(StreamingDeserializerTest.createTreeGson(), json)
+        assertThat(
+            "streaming: $streamingBytes bytes, tree: $treeBytes bytes",
+            streamingBytes,
+            lessThan(treeBytes)
+        )
+    }
+
+    private fun allocatedBytes(gson: Gson, json: String): Long {
+        val adapter = gson.getAdapter(UserProfile::class.java)
+        repeat(WARM_UP_ITERATIONS) { adapter.fromJson(StringReader(json)) }
+        val threadId = Thread.currentThread().id
+        val before = threadBean.getThreadAllocatedBytes(threadId)
+        repeat(MEASURED_ITERATIONS) { adapter.fromJson(StringReader(json)) }
+        return (threadBean.getThreadAllocatedBytes(threadId) - before) / MEASURED_ITERATIONS
+    }
+
+    private companion object {
+        private const val WARM_UP_ITERATIONS = 50
+        private const val MEASURED_ITERATIONS = 100
+    }
+}
@@ -98,6 +98,17 @@ public class JwksGsonTest : GsonBaseTest() {
         Assert.assertTrue(jwks.isEmpty())
     }
 
+    @Test
+    @Throws(Exception::class)
+    public fun shouldSkipKeysWithoutKeyId() {
+        val validKeys = json(VALID_RSA_JWKS).use { it.readText() }
+        val keyWithoutId = "{\"kty\": \"RSA\", \"e\": \"AQAB\", \"use\": \"sig\", \"alg\": \"RS256\", " +
+                "\"n\": \"uGbXWiK3dQTyCbX5xdE4yCuYp0AF2d15Qq1JSXT_lx8CEcXb9RbDddl8jGDv-spi5qPa8qEHiK7FwV2KpRE983wGPnYs\"},"
+        val jwks = buildJwksFrom(StringReader(validKeys.replaceFirst("[", "[$keyWithoutId")))
+        MatcherAssert.assertThat(jwks.size, Matchers.`is`(1))
+        Assert.assertTrue(jwks.containsKey(EXPECTED_KEY_ID))
+    }
+
     @Throws(IOException::class)
     private fun buildJwksFrom(json: Reader): Map<String, PublicKey> {
         @Suppress("UNCHECKED_CAST") val jwksType: TypeToken<Map<String, PublicKey>> =
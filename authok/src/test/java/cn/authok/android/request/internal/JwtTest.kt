@@ -50,10 +50,16 @@ public class JwtTest {
             "The token's payload had an invalid JSON format.",
             MalformedJsonException::class.java
         ) {
-            Jwt("eyJhbGciOiJIUzI1NiJ9.e2F9.HtPWFL4M0n-jwSEOuBeGIscY5CvElN9O5LH_ag7jHrY")
+            Jwt("eyJhbGciOiJIUzI1NiJ9.e2F9.HtPWFL4M0n-jwSEOuBeGIscY5CvElN9O5LH_ag7jHrY").subject
         }
     }
 
+    @Test
+    public fun shouldNotDecodeThePayloadUntilAClaimIsRead() {
+        val jwt = Jwt("eyJhbGciOiJIUzI1NiJ9.e2F9.HtPWFL4M0n-jwSEOuBeGIscY5CvElN9O5LH_ag7jHrY")
+        assertThat(jwt.algorithm, `is`("HS256"))
+    }
+
     // Parts
 
     @Test
@@ -72,6 +78,13 @@ public class JwtTest {
         )
     }
 
+    @Test
+    public fun shouldNotChangeThePartsWhenTheCopyIsModified() {
+        val jwt = Jwt("eyJhbGciOiJIUzI1NiJ9.e30.XmNK3GpH3Ys_7wsYBfq4C3M6goz71I7dTgUkuIa5lyQ")
+        jwt.parts[2] = "forged"
+        assertThat(jwt.parts[2], `is`("XmNK3GpH3Ys_7wsYBfq4C3M6goz71I7dTgUkuIa5lyQ"))
+    }
+
 
     // Public Claims
 
@@ -203,4 +216,56 @@ public class JwtTest {
 
         assertThat(jwt.issuedAt, `is`(nullValue()))
     }
-}
\ No newline at end of file
+
+    @Test
+    public fun shouldSkipOtherClaims() {
+        val jwt = Jwt(
+            createToken(
+                """{"custom": {"nested": [1, {"sub": "other"}, null]}, "sub": "authok|123", "roles": ["admin"], "exp": 1476727086}"""
+            )
+        )
+        assertThat(jwt.subject, `is`("authok|123"))
+        assertThat(jwt.expiresAt, `is`(Date(1476727086L * 1000)))
+    }
+
+    @Test
+    public fun shouldGetNullClaimsWithUnexpectedTypes() {
+        val jwt = Jwt(createToken("""{"sub": 123, "exp": "1476727086", "aud": {"name": "audience"}}"""))
+        assertThat(jwt.subject, `is`(nullValue()))
+        assertThat(jwt.expiresAt, `is`(nullValue()))
+        assertThat(jwt.audience, `is`(IsEmptyCollection.empty()))
+    }
+
+    // Cache
+
+    @Test
+    public fun shouldReuseTheDecodedToken() {
+        val token = createToken("""{"sub": "reused"}""")
+        val jwt = Jwt.decode(token)
+        assertThat(Jwt.decode(token), `is`(sameInstance(jwt)))
+    }
+
+    @Test
+    public fun shouldDecodeTheTokenAgainWhenEvicted() {
+        val token = createToken("""{"sub": "evicted"}""")
+        val jwt = Jwt.decode(token)
+        for (i in 1..8) {
+            Jwt.decode(createToken("""{"sub": "other $i"}"""))
+        }
+        assertThat(Jwt.decode(token), `is`(not(sameInstance(jwt))))
+    }
+
+    @Test
+    public fun shouldDecodeTheTokenAgainWhenTheCacheIsCleared() {
+        val token = createToken("""{"sub": "cleared"}""")
+        val jwt = Jwt.decode(token)
+        Jwt.clearCache()
+        assertThat(Jwt.decode(token), `is`(not(sameInstance(jwt))))
+    }
+
+    private fun createToken(payload: String): String {
+        val encoder = java.util.Base64.getUrlEncoder().withoutPadding()
+        val header = encoder.encodeToString("""{"alg":"HS256"}""".toByteArray())
+        return header + "." + encoder.encodeToString(payload.toByteArray()) + ".signature"
+    }
+}
@@ -175,6 +175,15 @@ public class RequestFactoryTest {
         assertThat(request, is(getRequest));
     }
 
+    @Test
+    public void shouldCreateTheRequestsWithTheConfiguredThreadSwitcher() {
+        ThreadSwitcher threadSwitcher = new CommonThreadSwitcher(new DefaultThreadSwitcher(Runnable::run));
+        factory.setThreadSwitcher(threadSwitcher);
+        factory.get(BASE_URL, resultAdapter);
+
+        verify(factory).createRequest(any(HttpMethod.GET.class), eq(BASE_URL), eq(client), eq(resultAdapter), eq(errorAdapter), eq(threadSwitcher));
+    }
+
     @SuppressWarnings("unchecked")
     private RequestFactory<AuthokException> createRequestFactory() {
         RequestFactory<AuthokException> factory = spy(new RequestFactory<>(client, errorAdapter));
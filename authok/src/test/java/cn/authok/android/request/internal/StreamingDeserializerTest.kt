@@ -0,0 +1,206 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.request.internal.GsonProvider.formatDate
+import cn.authok.android.result.Credentials
+import cn.authok.android.result.CredentialsMock
+import cn.authok.android.result.UserIdentity
+import cn.authok.android.result.UserProfile
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonParseException
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.*
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.StringReader
+import java.util.*
+
+/**
+ * Checks that the streaming deserializers produce the same values as the tree based ones they replaced.
+ */
+@RunWith(RobolectricTestRunner::class)
+public class StreamingDeserializerTest : GsonBaseTest() {
+
+    private lateinit var treeGson: Gson
+
+    @Before
+    public fun setUp() {
+        gson = GsonProvider.gson.newBuilder()
+            .registerTypeAdapterFactory(object : CredentialsDeserializer() {
+                override val currentTimeInMillis: Long
+                    get() = CredentialsMock.CURRENT_TIME_MS
+            })
+            .create()
+        treeGson = createTreeGson()
+    }
+
+    @Test
+    public fun shouldReadTheSameCredentials() {
+        val expiresAt = Date(CredentialsMock.CURRENT_TIME_MS + 3600 * 1000)
+        val inputs = listOf(
+            readFile(OPENID_CREDENTIALS),
+            readFile(OPENID_OFFLINE_ACCESS_CREDENTIALS),
+            """{
+                "access_token": "s6GS5FGJN2jfd4l6",
+                "id_token": "s6GS5FGJN2jfd4l6",
+                "token_type": "bearer",
+                "expires_in": 86000,
+                "expires_at": "${formatDate(expiresAt)}",
+                "scope": "openid",
+                "recovery_code": "123456",
+                "unknown": {"nested": [1, 2, 3]}
+            }"""
+        )
+        for (input in inputs) {
+            val expected = treeGson.fromJson(input, Credentials::class.java)
+            val actual = gson.fromJson(input, Credentials::class.java)
+            assertThat(actual.idToken, `is`(expected.idToken))
+            assertThat(actual.accessToken, `is`(expected.accessToken))
+            assertThat(actual.type, `is`(expected.type))
+            assertThat(actual.refreshToken, `is`(expected.refreshToken))
+            assertThat(actual.expiresAt, `is`(expected.expiresAt))
+            assertThat(actual.scope, `is`(expected.scope))
+            assertThat(actual.recoveryCode, `is`(expected.recoveryCode))
+        }
+    }
+
+    @Test
+    public fun shouldReadTheSameUserProfile() {
+        val inputs = listOf(
+            readFile(PROFILE),
+            readFile(PROFILE_BASIC),
+            readFile(PROFILE_FULL),
+            readFile(PROFILE_OAUTH),
+            largeProfile(),
+            """{"email_verified": null, "created_at": "2015-03-26T19:27:53.000Z"}"""
+        )
+        for (input in inputs) {
+            val expected = treeGson.fromJson(input, UserProfile::class.java)
+            val actual = gson.fromJson(input, UserProfile::class.java)
+            assertSameProfile(actual, expected)
+        }
+    }
+
+    @Test
+    public fun shouldReadTheSameUserIdentities() {
+        for (input in listOf(readFile(IDENTITY_AUTHOK), readFile(IDENTITY_FACEBOOK))) {
+            val expected = treeGson.fromJson(input, UserIdentity::class.java)
+            val actual = gson.fromJson(input, UserIdentity::class.java)
+            assertSameIdentity(actual, expected)
+        }
+    }
+
+    @Test
+    public fun shouldRequireTheSameUserIdentityAttributes() {
+        val error = Assert.assertThrows(JsonParseException::class.java) {
+            gson.fromJson("""{"user_id": "1234567890", "provider": "authok"}""", UserIdentity::class.java)
+        }
+        assertThat(error.message, `is`("Missing required attribute connection"))
+    }
+
+    @Test
+    public fun shouldReadTheSameJsonWebKeys() {
+        val input = readFile(RSA_JWKS)
+        val expected = treeGson.getAdapter(JwksDeserializer.JWKS_TYPE).fromJson(input)
+        val actual = gson.getAdapter(JwksDeserializer.JWKS_TYPE).fromJson(input)
+        assertThat(actual.keys, `is`(expected.keys))
+        for ((keyId, key) in expected) {
+            assertThat(actual[keyId]?.encoded, `is`(key.encoded))
+        }
+    }
+
+    @Test
+    public fun shouldSkipUnknownPropertiesOfTheJsonWebKeys() {
+        val input = readFile(RSA_JWKS).replaceFirst("{", """{"other": [{"keys": []}],""")
+        val keys = gson.getAdapter(JwksDeserializer.JWKS_TYPE).fromJson(input)
+        assertThat(keys.keys, contains("key123"))
+    }
+
+    @Test
+    public fun shouldSerializeTheSameCredentials() {
+        val credentials = Credentials("id", "access", "bearer", "refresh", Date(), "openid")
+        credentials.recoveryCode = "123456"
+        assertThat(gson.toJson(credentials), `is`(treeGson.toJson(credentials)))
+    }
+
+    private fun assertSameProfile(actual: UserProfile, expected: UserProfile) {
+        assertThat(actual.getId(), `is`(expected.getId()))
+        assertThat(actual.name, `is`(expected.name))
+        assertThat(actual.nickname, `is`(expected.nickname))
+        assertThat(actual.pictureURL, `is`(expected.pictureURL))
+        assertThat(actual.email, `is`(expected.email))
+        assertThat(actual.isEmailVerified, `is`(expected.isEmailVerified))
+        assertThat(actual.givenName, `is`(expected.givenName))
+        assertThat(actual.familyName, `is`(expected.familyName))
+        assertThat(actual.createdAt, `is`(expected.createdAt))
+        assertThat(actual.getExtraInfo(), `is`(expected.getExtraInfo()))
+        assertThat(actual.getUserMetadata(), `is`(expected.getUserMetadata()))
+        assertThat(actual.getAppMetadata(), `is`(expected.getAppMetadata()))
+        assertThat(actual.getIdentities().size, `is`(expected.getIdentities().size))
+        actual.getIdentities().zip(expected.getIdentities()).forEach { (actualIdentity, expectedIdentity) ->
+            assertSameIdentity(actualIdentity, expectedIdentity)
+        }
+    }
+
+    private fun assertSameIdentity(actual: UserIdentity, expected: UserIdentity) {
+        assertThat(actual.id, `is`(expected.id))
+        assertThat(actual.connection, `is`(expected.connection))
+        assertThat(actual.provider, `is`(expected.provider))
+        assertThat(actual.isSocial, `is`(expected.isSocial))
+        assertThat(actual.accessToken, `is`(expected.accessToken))
+        assertThat(actual.accessTokenSecret, `is`(expected.accessTokenSecret))
+        assertThat(actual.getProfileInfo(), `is`(expected.getProfileInfo()))
+    }
+
+    private fun readFile(name: String): String = json(name).use { it.readText() }
+
+    internal companion object {
+        private const val PROFILE = "src/test/resources/profile.json"
+        private const val PROFILE_BASIC = "src/test/resources/profile_basic.json"
+        private const val PROFILE_FULL = "src/test/resources/profile_full.json"
+        private const val PROFILE_OAUTH = "src/test/resources/profile_oauth.json"
+        private const val IDENTITY_AUTHOK = "src/test/resources/identity_authok.json"
+        private const val IDENTITY_FACEBOOK = "src/test/resources/identity_facebook.json"
+        private const val RSA_JWKS = "src/test/resources/rsa_jwks.json"
+        private const val OPENID_CREDENTIALS = "src/test/resources/credentials_openid.json"
+        private const val OPENID_OFFLINE_ACCESS_CREDENTIALS =
+            "src/test/resources/credentials_openid_refresh_token.json"
+
+        /**
+         * Creates a Gson that deserializes the values the way it was done before the streaming deserializers.
+         */
+        internal fun createTreeGson(): Gson = GsonBuilder()
+            .registerTypeAdapterFactory(JsonRequiredTypeAdapterFactory())
+            .registerTypeAdapter(UserProfile::class.java, TreeUserProfileDeserializer())
+            .registerTypeAdapter(
+                Credentials::class.java,
+                TreeCredentialsDeserializer(CredentialsMock.CURRENT_TIME_MS)
+            )
+            .registerTypeAdapter(JwksDeserializer.JWKS_TYPE.type, TreeJwksDeserializer())
+            .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .create()
+
+        /**
+         * Creates a user profile with large metadata, as returned for users with many custom attributes.
+         */
+        internal fun largeProfile(): String {
+            val metadata = (1..200).joinToString(",", "{", "}") { i ->
+                """"attribute_$i": {"value": "value of the attribute $i", "count": $i, "enabled": ${i % 2 == 0}, "tags": ["a", "b", null]}"""
+            }
+            return """{
+                "user_id": "authok|1234567890",
+                "name": "info@authok",
+                "email": "info@authok.cn",
+                "email_verified": true,
+                "created_at": "2015-03-26T19:27:53.000Z",
+                "identities": [{"user_id": "1234567890", "provider": "authok", "connection": "Username-Password-Authentication", "isSocial": false}],
+                "user_metadata": $metadata,
+                "app_metadata": $metadata,
+                "custom_claim": $metadata
+            }"""
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.result.Credentials
+import com.google.gson.JsonDeserializationContext
+import com.google.gson.JsonDeserializer
+import com.google.gson.JsonElement
+import com.google.gson.JsonParseException
+import java.lang.reflect.Type
+import java.util.*
+
+/**
+ * The tree based deserializer that [CredentialsDeserializer] replaced, kept to check
+ * that both produce the same [Credentials].
+ */
+internal class TreeCredentialsDeserializer(private val currentTimeInMillis: Long) :
+    JsonDeserializer<Credentials> {
+    @Throws(JsonParseException::class)
+    override fun deserialize(
+        json: JsonElement,
+        typeOfT: Type,
+        context: JsonDeserializationContext
+    ): Credentials {
+        if (!json.isJsonObject || json.isJsonNull || json.asJsonObject.entrySet().isEmpty()) {
+            throw JsonParseException("credentials json is not a valid json object")
+        }
+        val jsonObject = json.asJsonObject
+        val idToken = context.deserialize<String>(jsonObject.remove("id_token"), String::class.java)
+        val accessToken =
+            context.deserialize<String>(jsonObject.remove("access_token"), String::class.java)
+        val type = context.deserialize<String>(jsonObject.remove("token_type"), String::class.java)
+        val refreshToken =
+            context.deserialize<String>(jsonObject.remove("refresh_token"), String::class.java)
+        val expiresIn = context.deserialize<Long>(jsonObject.remove("expires_in"), Long::class.java)
+        val scope = context.deserialize<String>(jsonObject.remove("scope"), String::class.java)
+        val recoveryCode =
+            context.deserialize<String>(jsonObject.remove("recovery_code"), String::class.java)
+        var expiresAt = context.deserialize<Date>(jsonObject.remove("expires_at"), Date::class.java)
+        if (expiresAt == null && expiresIn != null) {
+            expiresAt = Date(currentTimeInMillis + expiresIn * 1000)
+        }
+        val credentials = Credentials(idToken, accessToken, type, refreshToken, expiresAt, scope)
+        credentials.recoveryCode = recoveryCode
+        return credentials
+    }
+}
@@ -14,7 +14,11 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
-class UserProfileDeserializer implements JsonDeserializer<UserProfile> {
+/**
+ * The tree based deserializer that {@link UserProfileDeserializer} replaced, kept to check
+ * that both produce the same {@link UserProfile}.
+ */
+class TreeUserProfileDeserializer implements JsonDeserializer<UserProfile> {
     @Override
     public UserProfile deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
         if (!json.isJsonObject() || json.isJsonNull() || json.getAsJsonObject().entrySet().isEmpty()) {
@@ -1,8 +1,11 @@
 package cn.authok.android.util
 
+import okhttp3.mockwebserver.Dispatcher
 import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.RecordedRequest
 import java.nio.file.Files
 import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
 
 internal class AuthenticationAPIMockServer : APIMockServer() {
 
@@ -89,26 +92,7 @@ internal class AuthenticationAPIMockServer : APIMockServer() {
     }
 
     fun willReturnUserInfo(): AuthenticationAPIMockServer {
-        val json = """{
-          "email": "p@p.xom",
-          "email_verified": false,
-          "picture": "https://secure.gravatar.com/avatar/cfacbe113a96fdfc85134534771d88b4?s=480&r=pg&d=https%3A%2F%2Fssl.gstatic.com%2Fs2%2Fprofiles%2Fimages%2Fsilhouette80.png",
-          "user_id": "authok|53b995f8bce68d9fc900099c",
-          "name": "p@p.xom",
-          "nickname": "p",
-          "identities": [
-            {
-              "user_id": "53b995f8bce68d9fc900099c",
-              "provider": "authok",
-              "connection": "Username-Password-Authentication",
-              "isSocial": false
-            }
-         ],
-          "created_at": "2014-07-06T18:33:49.005Z",
-          "username": "p",
-          "updated_at": "2015-09-30T19:43:48.499Z"
-        }"""
-        server.enqueue(responseWithJSON(json, 200))
+        server.enqueue(responseWithJSON(USER_INFO_JSON, 200))
         return this
     }
 
@@ -118,14 +102,26 @@ internal class AuthenticationAPIMockServer : APIMockServer() {
     }
 
     fun willReturnTokens(): AuthenticationAPIMockServer {
-        val json = """{
-          "access_token": "$ACCESS_TOKEN",
-          "refresh_token": "$REFRESH_TOKEN",
-          "id_token": "$ID_TOKEN",
-          "token_type": "Bearer",
-          "expires_in": 86000
-        }"""
-        server.enqueue(responseWithJSON(json, 200))
+        server.enqueue(responseWithJSON(tokensJson(ID_TOKEN), 200))
+        return this
+    }
+
+    /**
+     * Answers every request by its path instead of with the enqueued responses, so that any number of requests
+     * can be made concurrently: the token endpoint returns tokens with the given ID token, and the user info
+     * endpoint returns a profile. Each response is delayed by the given latency.
+     */
+    fun willAnswerByPath(latencyMillis: Long, idToken: String = ID_TOKEN): AuthenticationAPIMockServer {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val response = when (request.requestUrl?.encodedPath) {
+                    "/oauth/token" -> responseWithJSON(tokensJson(idToken), 200)
+                    "/userinfo" -> responseWithJSON(USER_INFO_JSON, 200)
+                    else -> responseWithPlainText("Not Found", 404)
+                }
+                return response.setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS)
+            }
+        }
         return this
     }
 
@@ -139,6 +135,16 @@ internal class AuthenticationAPIMockServer : APIMockServer() {
         return this
     }
 
+    private fun tokensJson(idToken: String): String {
+        return """{
+          "access_token": "$ACCESS_TOKEN",
+          "refresh_token": "$REFRESH_TOKEN",
+          "id_token": "$idToken",
+          "token_type": "Bearer",
+          "expires_in": 86000
+        }"""
+    }
+
     private fun responseEmpty(statusCode: Int): MockResponse {
         return MockResponse()
             .setResponseCode(statusCode)
@@ -156,5 +162,24 @@ internal class AuthenticationAPIMockServer : APIMockServer() {
         const val ID_TOKEN = "ID_TOKEN"
         const val ACCESS_TOKEN = "ACCESS_TOKEN"
         private const val BEARER = "BEARER"
+        private const val USER_INFO_JSON = """{
+          "email": "p@p.xom",
+          "email_verified": false,
+          "picture": "https://secure.gravatar.com/avatar/cfacbe113a96fdfc85134534771d88b4?s=480&r=pg&d=https%3A%2F%2Fssl.gstatic.com%2Fs2%2Fprofiles%2Fimages%2Fsilhouette80.png",
+          "user_id": "authok|53b995f8bce68d9fc900099c",
+          "name": "p@p.xom",
+          "nickname": "p",
+          "identities": [
+            {
+              "user_id": "53b995f8bce68d9fc900099c",
+              "provider": "authok",
+              "connection": "Username-Password-Authentication",
+              "isSocial": false
+            }
+         ],
+          "created_at": "2014-07-06T18:33:49.005Z",
+          "username": "p",
+          "updated_at": "2015-09-30T19:43:48.499Z"
+        }"""
     }
 }
\ No newline at end of file
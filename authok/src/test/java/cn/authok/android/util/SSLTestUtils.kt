@@ -1,13 +1,16 @@
 package cn.authok.android.util
 
 import cn.authok.android.request.DefaultClient
+import okhttp3.Dispatcher
 import okhttp3.mockwebserver.MockWebServer
 import okhttp3.tls.HandshakeCertificates
 import okhttp3.tls.HeldCertificate
+import org.robolectric.android.util.concurrent.InlineExecutorService
 import java.net.InetAddress
 
 /**
  * Utility object for executing tests that use the networking client over HTTPS on localhost.
+ * The [testClient] executes asynchronous requests synchronously, as soon as they are enqueued.
  */
 internal object SSLTestUtils {
     private val localhostCertificate: HeldCertificate
@@ -36,7 +39,8 @@ internal object SSLTestUtils {
             connectTimeout = 10,
             enableLogging = false,
             sslSocketFactory = clientCertificates.sslSocketFactory(),
-            trustManager = clientCertificates.trustManager
+            trustManager = clientCertificates.trustManager,
+            dispatcher = Dispatcher(InlineExecutorService())
         )
     }
 
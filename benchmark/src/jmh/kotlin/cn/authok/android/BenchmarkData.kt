@@ -0,0 +1,90 @@
+package cn.authok.android
+
+import java.nio.charset.StandardCharsets
+import java.security.KeyPair
+import java.security.KeyPairGenerator
+import java.security.Signature
+import java.security.interfaces.RSAPublicKey
+import java.util.*
+
+/**
+ * Inputs shared by the benchmarks, built once so that every benchmark measures the same payloads.
+ */
+internal object BenchmarkData {
+
+    private val encoder = Base64.getUrlEncoder().withoutPadding()
+
+    val keyPair: KeyPair by lazy {
+        val generator = KeyPairGenerator.getInstance("RSA")
+        generator.initialize(2048)
+        generator.generateKeyPair()
+    }
+
+    /**
+     * Creates an ID token signed with RS256, with the claims usually found in the ID tokens of Authok.
+     */
+    fun idToken(subject: String = "authok|123456789"): String {
+        val now = System.currentTimeMillis() / 1000
+        val header = """{"alg":"RS256","typ":"JWT","kid":"key123"}"""
+        val payload = """{
+            "iss":"https://samples.authok.cn/","sub":"$subject","aud":["__test_client_id__","https://samples.authok.cn/api"],
+            "iat":$now,"exp":${now + 36000},"auth_time":$now,"nonce":"a59vk592","azp":"__test_client_id__",
+            "org_id":"org_123","name":"info@authok.cn","nickname":"info","picture":"https://authok.cn/picture.png",
+            "email":"info@authok.cn","email_verified":true,"updated_at":"2022-03-26T19:27:53.000Z"
+        }"""
+        val content = encode(header) + "." + encode(payload)
+        val signature = Signature.getInstance("SHA256withRSA")
+        signature.initSign(keyPair.private)
+        signature.update(content.toByteArray(StandardCharsets.US_ASCII))
+        return content + "." + encoder.encodeToString(signature.sign())
+    }
+
+    fun credentials(): String {
+        return """{
+            "access_token": "s6GS5FGJN2jfd4l6",
+            "id_token": "${idToken()}",
+            "refresh_token": "v1.MvSyvqpiUwMK4ibMUrjhUy2PqHvsr3Z5y8cTfDOhYW0",
+            "token_type": "bearer",
+            "expires_in": 86000,
+            "scope": "openid profile email offline_access"
+        }"""
+    }
+
+    /**
+     * Creates a user profile with the given number of custom attributes in each of its metadata objects.
+     */
+    fun userProfile(attributes: Int): String {
+        val metadata = (1..attributes).joinToString(",", "{", "}") { i ->
+            """"attribute_$i": {"value": "value of the attribute $i", "count": $i, "enabled": ${i % 2 == 0}, "tags": ["a", "b", null]}"""
+        }
+        return """{
+            "user_id": "authok|1234567890",
+            "name": "info@authok",
+            "nickname": "info",
+            "picture": "https://authok.cn/picture.png",
+            "email": "info@authok.cn",
+            "email_verified": true,
+            "given_name": "John",
+            "family_name": "Doe",
+            "created_at": "2015-03-26T19:27:53.000Z",
+            "identities": [{"user_id": "1234567890", "provider": "authok", "connection": "Username-Password-Authentication", "isSocial": false}],
+            "user_metadata": $metadata,
+            "app_metadata": $metadata
+        }"""
+    }
+
+    /**
+     * Creates a JSON Web Key Set with the given number of RSA keys, the first one being the public key of [keyPair].
+     */
+    fun jwks(keys: Int): String {
+        val publicKey = keyPair.public as RSAPublicKey
+        val modulus = encoder.encodeToString(publicKey.modulus.toByteArray())
+        val exponent = encoder.encodeToString(publicKey.publicExponent.toByteArray())
+        return (0 until keys).joinToString(",", """{"keys": [""", "]}") { i ->
+            """{"kty": "RSA", "e": "$exponent", "use": "sig", "kid": "key${123 + i}", "alg": "RS256", "n": "$modulus", "x5t": "thumbprint$i", "x5c": ["certificate$i"]}"""
+        }
+    }
+
+    private fun encode(json: String): String =
+        encoder.encodeToString(json.toByteArray(StandardCharsets.UTF_8))
+}
@@ -0,0 +1,26 @@
+package cn.authok.android.provider
+
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Generation of the PKCE code verifier and challenge done for every web authentication.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public open class PkceBenchmark {
+
+    private val algorithmHelper = AlgorithmHelper()
+    private val codeVerifier = algorithmHelper.generateCodeVerifier()
+
+    @Benchmark
+    public fun generateCodeVerifier(): String = algorithmHelper.generateCodeVerifier()
+
+    @Benchmark
+    public fun generateCodeChallenge(): String = algorithmHelper.generateCodeChallenge(codeVerifier)
+
+    @Benchmark
+    public fun generateBoth(): String =
+        algorithmHelper.generateCodeChallenge(algorithmHelper.generateCodeVerifier())
+}
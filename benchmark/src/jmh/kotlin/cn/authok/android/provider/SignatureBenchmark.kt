@@ -0,0 +1,45 @@
+package cn.authok.android.provider
+
+import cn.authok.android.BenchmarkData
+import cn.authok.android.request.internal.Jwt
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * RS256 signature check of the ID token. A token seen for the first time pays for the RSA operation,
+ * while a token that was already verified is only hashed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public open class SignatureBenchmark {
+
+    private lateinit var verifier: AsymmetricSignatureVerifier
+    private lateinit var newTokens: List<Array<String>>
+    private lateinit var verifiedToken: Array<String>
+    private var next = 0
+
+    @Setup
+    public fun setUp() {
+        verifier = AsymmetricSignatureVerifier.forKey(BenchmarkData.keyPair.public)
+        // more tokens than the verifier remembers, so that each check repeats the RSA operation
+        newTokens = (1..NEW_TOKENS).map { Jwt(BenchmarkData.idToken("authok|$it")).parts }
+        verifiedToken = Jwt(BenchmarkData.idToken()).parts
+        verifier.checkSignature(verifiedToken)
+    }
+
+    @Benchmark
+    public fun checkNewToken() {
+        next = (next + 1) % NEW_TOKENS
+        verifier.checkSignature(newTokens[next])
+    }
+
+    @Benchmark
+    public fun checkVerifiedToken() {
+        verifier.checkSignature(verifiedToken)
+    }
+
+    private companion object {
+        private const val NEW_TOKENS = 64
+    }
+}
@@ -0,0 +1,69 @@
+package cn.authok.android.request
+
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import okio.Buffer
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Preparation of the requests by the [DefaultClient]: the parameters encoding, the headers and the URL.
+ * The base client answers from an interceptor, so no network is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public open class DefaultClientBenchmark {
+
+    private lateinit var client: DefaultClient
+
+    @Setup
+    public fun setUp() {
+        val baseClient = OkHttpClient.Builder()
+            .addInterceptor { chain ->
+                // write the body as it would be sent
+                chain.request().body?.writeTo(Buffer())
+                Response.Builder()
+                    .request(chain.request())
+                    .protocol(Protocol.HTTP_2)
+                    .code(200)
+                    .message("OK")
+                    .body("{}".toResponseBody("application/json".toMediaType()))
+                    .build()
+            }
+            .build()
+        client = DefaultClient(baseClient, defaultHeaders = mapOf("Authok-Client" to CLIENT_INFO))
+    }
+
+    @Benchmark
+    public fun postTokenRequest(): Int {
+        val options = RequestOptions(HttpMethod.POST)
+        options.parameters["grant_type"] = "refresh_token"
+        options.parameters["client_id"] = "__test_client_id__"
+        options.parameters["refresh_token"] = "v1.MvSyvqpiUwMK4ibMUrjhUy2PqHvsr3Z5y8cTfDOhYW0"
+        options.parameters["scope"] = "openid profile email offline_access"
+        options.headers["Accept-Language"] = "en_US"
+        return load("https://samples.authok.cn/oauth/token", options)
+    }
+
+    @Benchmark
+    public fun getUserInfoRequest(): Int {
+        val options = RequestOptions(HttpMethod.GET)
+        options.parameters["fields"] = "name,email"
+        options.headers["Authorization"] = "Bearer s6GS5FGJN2jfd4l6"
+        return load("https://samples.authok.cn/userinfo", options)
+    }
+
+    private fun load(url: String, options: RequestOptions): Int {
+        val response = client.load(url, options)
+        response.body.close()
+        return response.statusCode
+    }
+
+    private companion object {
+        private const val CLIENT_INFO = "eyJuYW1lIjoiYXV0aG9rLWFuZHJvaWQiLCJ2ZXJzaW9uIjoiMS4wLjAifQ"
+    }
+}
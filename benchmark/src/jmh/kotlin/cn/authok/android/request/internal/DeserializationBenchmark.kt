@@ -0,0 +1,51 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.BenchmarkData
+import cn.authok.android.result.Credentials
+import cn.authok.android.result.UserProfile
+import com.google.gson.TypeAdapter
+import org.openjdk.jmh.annotations.*
+import java.io.StringReader
+import java.security.PublicKey
+import java.util.concurrent.TimeUnit
+
+/**
+ * Parsing of the responses of the token, user info and JWKS endpoints with the SDK deserializers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public open class DeserializationBenchmark {
+
+    /**
+     * The number of custom attributes in the metadata of the user profile.
+     */
+    @Param("0", "200")
+    public var profileAttributes: Int = 0
+
+    private lateinit var credentialsJson: String
+    private lateinit var profileJson: String
+    private lateinit var jwksJson: String
+    private lateinit var credentialsAdapter: TypeAdapter<Credentials>
+    private lateinit var profileAdapter: TypeAdapter<UserProfile>
+    private lateinit var jwksAdapter: TypeAdapter<Map<String, PublicKey>>
+
+    @Setup
+    public fun setUp() {
+        credentialsJson = BenchmarkData.credentials()
+        profileJson = BenchmarkData.userProfile(profileAttributes)
+        jwksJson = BenchmarkData.jwks(3)
+        credentialsAdapter = GsonProvider.gson.getAdapter(Credentials::class.java)
+        profileAdapter = GsonProvider.gson.getAdapter(UserProfile::class.java)
+        jwksAdapter = GsonProvider.gson.getAdapter(JwksDeserializer.JWKS_TYPE)
+    }
+
+    @Benchmark
+    public fun credentials(): Any = credentialsAdapter.fromJson(StringReader(credentialsJson))
+
+    @Benchmark
+    public fun userProfile(): Any = profileAdapter.fromJson(StringReader(profileJson))
+
+    @Benchmark
+    public fun jsonWebKeys(): Any = jwksAdapter.fromJson(StringReader(jwksJson))
+}
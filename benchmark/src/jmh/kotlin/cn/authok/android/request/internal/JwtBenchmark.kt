@@ -0,0 +1,28 @@
+package cn.authok.android.request.internal
+
+import cn.authok.android.BenchmarkData
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Decoding of the ID token, both a new token and one decoded again right after, as done when verifying
+ * the token and then saving the credentials.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public open class JwtBenchmark {
+
+    private lateinit var idToken: String
+
+    @Setup
+    public fun setUp() {
+        idToken = BenchmarkData.idToken()
+    }
+
+    @Benchmark
+    public fun decodeNewToken(): Any = Jwt(idToken)
+
+    @Benchmark
+    public fun decodeCachedToken(): Any = Jwt.decode(idToken)
+}
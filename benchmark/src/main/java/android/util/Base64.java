@@ -0,0 +1,62 @@
+package android.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JVM shim of the Android Base64 utility, backed by {@link java.util.Base64}.
+ * Supports the flags used by the SDK: {@link #URL_SAFE}, {@link #NO_WRAP} and {@link #NO_PADDING}.
+ */
+public class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+    public static final int NO_CLOSE = 16;
+
+    private static final int LINE_LENGTH = 76;
+
+    private Base64() {
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return decode(str.getBytes(StandardCharsets.US_ASCII), flags);
+    }
+
+    public static byte[] decode(byte[] input, int flags) {
+        // like Android, ignore the line breaks and any other whitespace
+        byte[] compact = new byte[input.length];
+        int length = 0;
+        for (byte b : input) {
+            if (b != '\n' && b != '\r' && b != ' ' && b != '\t') {
+                compact[length++] = b;
+            }
+        }
+        byte[] trimmed = length == input.length ? input : java.util.Arrays.copyOf(compact, length);
+        java.util.Base64.Decoder decoder = (flags & URL_SAFE) != 0 ? java.util.Base64.getUrlDecoder() : java.util.Base64.getDecoder();
+        return decoder.decode(trimmed);
+    }
+
+    public static String encodeToString(byte[] input, int flags) {
+        return new String(encode(input, flags), StandardCharsets.US_ASCII);
+    }
+
+    public static byte[] encode(byte[] input, int flags) {
+        java.util.Base64.Encoder encoder = (flags & URL_SAFE) != 0 ? java.util.Base64.getUrlEncoder() : java.util.Base64.getEncoder();
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+        byte[] encoded = encoder.encode(input);
+        if ((flags & NO_WRAP) != 0) {
+            return encoded;
+        }
+        String lineBreak = (flags & CRLF) != 0 ? "\r\n" : "\n";
+        StringBuilder wrapped = new StringBuilder(encoded.length + (encoded.length / LINE_LENGTH + 1) * lineBreak.length());
+        for (int i = 0; i < encoded.length; i += LINE_LENGTH) {
+            wrapped.append(new String(encoded, i, Math.min(LINE_LENGTH, encoded.length - i), StandardCharsets.US_ASCII));
+            wrapped.append(lineBreak);
+        }
+        return wrapped.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}